@@ -0,0 +1,53 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync;
+
+import java.util.Queue;
+
+/**
+ * The synchronization state that a {@link DataStore} keeps for one client of one document: the shadow
+ * document, the backup shadow document and the edits that the peer has not acknowledged yet.
+ * <p>
+ * Instances are snapshots. They do not change when the state in the data store changes.
+ *
+ * @param <T> The type of the Document.
+ * @param <S> The type of {@link Edit}s.
+ */
+public interface ClientSyncState<T, S extends Edit<? extends Diff>> {
+
+    /**
+     * The shadow document.
+     *
+     * @return {@link ShadowDocument} the shadow document, or {@code null} if none has been saved.
+     */
+    ShadowDocument<T> shadow();
+
+    /**
+     * The backup shadow document.
+     *
+     * @return {@link BackupShadowDocument} the backup shadow document, or {@code null} if none has been saved.
+     */
+    BackupShadowDocument<T> backupShadow();
+
+    /**
+     * The pending edits.
+     *
+     * @return {@code Queue<S>} the pending edits in the order they were saved, never {@code null}.
+     */
+    Queue<S> edits();
+
+}
@@ -94,4 +94,23 @@ public interface DataStore<T, S extends Edit<? extends Diff>> {
      */
     void removeEdits(String documentId, String clientId);
 
+    /**
+     * Retrieves the shadow document, backup shadow document and pending edits of a client in one lookup.
+     *
+     * @param documentId the document identifier.
+     * @param clientId the client identifier.
+     * @return {@link ClientSyncState} a snapshot of the client's state, never {@code null}.
+     */
+    ClientSyncState<T, S> getSyncState(String documentId, String clientId);
+
+    /**
+     * Applies a {@link SyncStateUpdate} to the state of a client in a single atomic step.
+     *
+     * @param documentId the document identifier.
+     * @param clientId the client identifier.
+     * @param update the changes to apply.
+     * @return {@link ClientSyncState} a snapshot of the client's state after the update.
+     */
+    ClientSyncState<T, S> updateSyncState(String documentId, String clientId, SyncStateUpdate<T, S> update);
+
 }
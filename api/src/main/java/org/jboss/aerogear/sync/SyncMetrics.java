@@ -0,0 +1,93 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync;
+
+/**
+ * Receives measurements from the sync engines, synchronizers and transports.
+ * <p>
+ * Implementations are called on the hot paths of the synchronization algorithm, possibly from many
+ * threads at once, and must therefore be thread safe and cheap to call.
+ */
+public interface SyncMetrics {
+
+    /**
+     * The stages of the synchronization cycle whose latency is measured.
+     */
+    enum Stage {
+        /**
+         * Creating an {@link Edit} by diffing a document against a shadow document.
+         */
+        DIFF,
+        /**
+         * Applying an {@link Edit} to a document or shadow document.
+         */
+        PATCH,
+        /**
+         * Calculating the checksum of a shadow document.
+         */
+        CHECKSUM,
+        /**
+         * Converting a {@link PatchMessage} to its wire format.
+         */
+        SERIALIZE,
+        /**
+         * Parsing a message from its wire format.
+         */
+        DESERIALIZE,
+        /**
+         * Diffing and sending a change of a document to all its subscribers.
+         */
+        FAN_OUT
+    }
+
+    /**
+     * Records the time spent in a stage.
+     *
+     * @param stage the {@link Stage} that was measured.
+     * @param nanos the time spent in the stage, in nanoseconds.
+     */
+    void recordLatency(Stage stage, long nanos);
+
+    /**
+     * Records the number of edits in a received {@link PatchMessage}.
+     *
+     * @param edits the number of edits in the message.
+     */
+    void recordEdits(int edits);
+
+    /**
+     * Records the size of a message that was sent or received.
+     *
+     * @param bytes the size of the message, in bytes.
+     */
+    void recordPayloadBytes(int bytes);
+
+    /**
+     * Records the number of pending edits for a client, that is edits that have not been acknowledged yet.
+     *
+     * @param pendingEdits the number of edits that are waiting to be acknowledged.
+     */
+    void recordPendingEdits(int pendingEdits);
+
+    /**
+     * Records the number of subscribers of a document when it is changed.
+     *
+     * @param subscribers the number of subscribers of the document.
+     */
+    void recordSubscribers(int subscribers);
+
+}
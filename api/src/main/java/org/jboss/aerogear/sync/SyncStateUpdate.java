@@ -0,0 +1,167 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync;
+
+/**
+ * A set of changes to a {@link ClientSyncState} that a {@link DataStore} applies in a single atomic step.
+ * <p>
+ * The changes are applied in this order: the pending edits are cleared, edits acknowledged by the peer are
+ * removed, the new edit is added, and finally the shadow and backup shadow documents are replaced. Parts
+ * that were not set are left unchanged.
+ *
+ * @param <T> The type of the Document.
+ * @param <S> The type of {@link Edit}s.
+ */
+public final class SyncStateUpdate<T, S extends Edit<? extends Diff>> {
+
+    private final boolean clearEdits;
+    private final S removeEdit;
+    private final S addEdit;
+    private final ShadowDocument<T> shadow;
+    private final BackupShadowDocument<T> backupShadow;
+
+    private SyncStateUpdate(final Builder<T, S> builder) {
+        clearEdits = builder.clearEdits;
+        removeEdit = builder.removeEdit;
+        addEdit = builder.addEdit;
+        shadow = builder.shadow;
+        backupShadow = builder.backupShadow;
+    }
+
+    /**
+     * Whether all pending edits are removed.
+     *
+     * @return {@code true} if the pending edits are cleared.
+     */
+    public boolean clearEdits() {
+        return clearEdits;
+    }
+
+    /**
+     * The acknowledged edit, removed together with all edits before it as by {@link DataStore#removeEdit}.
+     *
+     * @return {@code S} the acknowledged edit, or {@code null} if no edits are removed.
+     */
+    public S removeEdit() {
+        return removeEdit;
+    }
+
+    /**
+     * The edit that is added to the pending edits.
+     *
+     * @return {@code S} the new edit, or {@code null} if no edit is added.
+     */
+    public S addEdit() {
+        return addEdit;
+    }
+
+    /**
+     * The new shadow document.
+     *
+     * @return {@link ShadowDocument} the new shadow document, or {@code null} to keep the current one.
+     */
+    public ShadowDocument<T> shadow() {
+        return shadow;
+    }
+
+    /**
+     * The new backup shadow document.
+     *
+     * @return {@link BackupShadowDocument} the new backup shadow document, or {@code null} to keep the current one.
+     */
+    public BackupShadowDocument<T> backupShadow() {
+        return backupShadow;
+    }
+
+    /**
+     * Determines whether this update changes the pending edits.
+     *
+     * @return {@code true} if edits are cleared, removed or added.
+     */
+    public boolean changesEdits() {
+        return clearEdits || removeEdit != null || addEdit != null;
+    }
+
+    @Override
+    public String toString() {
+        return "SyncStateUpdate[clearEdits=" + clearEdits +
+                ", removeEdit=" + removeEdit +
+                ", addEdit=" + addEdit +
+                ", shadow=" + shadow +
+                ", backupShadow=" + backupShadow + ']';
+    }
+
+    public static <T, S extends Edit<? extends Diff>> Builder<T, S> builder() {
+        return new Builder<T, S>();
+    }
+
+    public static class Builder<T, S extends Edit<? extends Diff>> {
+
+        private boolean clearEdits;
+        private S removeEdit;
+        private S addEdit;
+        private ShadowDocument<T> shadow;
+        private BackupShadowDocument<T> backupShadow;
+
+        private Builder() {
+        }
+
+        /**
+         * Removes all pending edits, including edits removed or added by earlier calls to this builder.
+         *
+         * @return {@link Builder} to allow method chaining.
+         */
+        public Builder<T, S> clearEdits() {
+            clearEdits = true;
+            removeEdit = null;
+            addEdit = null;
+            return this;
+        }
+
+        /**
+         * Removes the acknowledged edit and all edits before it. When called more than once, the last edit wins,
+         * so edits have to be passed in the order they were acknowledged.
+         *
+         * @param edit the acknowledged edit.
+         * @return {@link Builder} to allow method chaining.
+         */
+        public Builder<T, S> removeEdit(final S edit) {
+            removeEdit = edit;
+            return this;
+        }
+
+        public Builder<T, S> addEdit(final S edit) {
+            addEdit = edit;
+            return this;
+        }
+
+        public Builder<T, S> shadow(final ShadowDocument<T> shadow) {
+            this.shadow = shadow;
+            return this;
+        }
+
+        public Builder<T, S> backupShadow(final BackupShadowDocument<T> backupShadow) {
+            this.backupShadow = backupShadow;
+            return this;
+        }
+
+        public SyncStateUpdate<T, S> build() {
+            return new SyncStateUpdate<T, S>(this);
+        }
+    }
+
+}
@@ -0,0 +1,37 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.server;
+
+/**
+ * A {@link Subscriber} whose channel can tell when it is not able to accept more outbound messages.
+ * <p>
+ * A subscriber that is not writable is skipped when notifying subscribers. Its shadow document is left
+ * untouched, so the next notification it receives contains a single diff that covers all the updates
+ * it missed instead of one message per intermediate version.
+ *
+ * @param <T> type of the channel of this subscriber.
+ */
+public interface FlowControlledSubscriber<T> extends Subscriber<T> {
+
+    /**
+     * Determines whether the underlying channel can currently accept outbound messages.
+     *
+     * @return {@code true} if a {@link org.jboss.aerogear.sync.PatchMessage} can be sent to this subscriber now.
+     */
+    boolean isWritable();
+
+}
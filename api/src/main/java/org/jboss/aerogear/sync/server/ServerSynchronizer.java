@@ -62,6 +62,20 @@ public interface ServerSynchronizer<T, S extends Edit<? extends Diff>> {
      */
     S serverDiff(Document<T> document, ShadowDocument<T> shadowDocument);
 
+    /**
+     * Creates a copy of an {@link Edit} produced by {@link #serverDiff(Document, ShadowDocument)} for a
+     * different shadow document with the same content.
+     * <p>
+     * The diff and checksum of the passed-in edit are reused as is, only the versions are taken from
+     * the passed-in shadow document. This allows the diff to be computed once and shared by all clients
+     * whose shadow documents are identical.
+     *
+     * @param edit the edit to copy.
+     * @param shadowDocument the document shadow whose versions the copy should have.
+     * @return {@link Edit} the edit with the same diff as the passed-in edit and the versions of the shadow document.
+     */
+    S copyEdit(S edit, ShadowDocument<T> shadowDocument);
+
     /**
      * Is called to produce an {@link Edit} of changes coming from a client.
      *
@@ -82,6 +96,18 @@ public interface ServerSynchronizer<T, S extends Edit<? extends Diff>> {
      */
     PatchMessage<S> createPatchMessage(String documentId, String clientId, Queue<S> edits);
 
+    /**
+     * Returns the json representation of the diff of the passed-in {@link Edit}, exactly as it appears
+     * as the value of the {@code diffs} field of the edit in the json representation of a {@link PatchMessage}.
+     * <p>
+     * This allows a diff shared by several clients, see {@link #copyEdit(Edit, ShadowDocument)}, to be
+     * serialized once and reused for every client's {@code PatchMessage}.
+     *
+     * @param edit the edit whose diff should be serialized.
+     * @return {@code String} the json representation of the diff, or {@code null} if the edit has no diff.
+     */
+    String diffAsJson(S edit);
+
     /**
      * Creates a {link PatchMessage} by parsing the passed-in json.
      *
@@ -0,0 +1,42 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.server;
+
+import org.jboss.aerogear.sync.Diff;
+import org.jboss.aerogear.sync.Edit;
+
+/**
+ * A {@link ServerDataStore} that can group several calls into a single transaction.
+ * <p>
+ * The server sync engine runs each patch in a transaction, so the document, shadow documents and edits
+ * that a patch changes are written together instead of each in a transaction of its own.
+ *
+ * @param <T> The type of the Document that this data store can handle.
+ * @param <S> The type of {@link Edit}s that this synchronizer can handle
+ */
+public interface TransactionalServerDataStore<T, S extends Edit<? extends Diff>> extends ServerDataStore<T, S> {
+
+    /**
+     * Runs the passed-in work in a single transaction. All calls to this store that the work makes on the
+     * current thread are part of the transaction, which is committed when the work returns and rolled back
+     * if it throws. Calling this method from within a transaction joins the running transaction.
+     *
+     * @param work the work to run.
+     */
+    void transaction(Runnable work);
+
+}
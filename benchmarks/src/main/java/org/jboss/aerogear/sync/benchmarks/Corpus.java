@@ -0,0 +1,182 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates deterministic text and JSON documents, and edited versions of them, for the benchmarks.
+ * <p>
+ * Texts are built from English words with sentence and line structure so that diffs find realistic
+ * common prefixes, suffixes and line matches, rather than the worst case of random characters.
+ */
+final class Corpus {
+
+    private static final ObjectMapper OM = new ObjectMapper();
+    private static final String[] WORDS = {
+        "the", "of", "and", "to", "in", "is", "that", "for", "it", "as", "was", "with", "be", "by", "on",
+        "not", "he", "this", "are", "or", "his", "from", "at", "which", "but", "have", "an", "had", "they",
+        "you", "were", "their", "one", "all", "we", "can", "her", "has", "there", "been", "if", "more",
+        "when", "will", "would", "who", "so", "no", "document", "server", "client", "shadow", "version",
+        "edit", "patch", "diff", "synchronization", "differential", "network", "message", "checksum"
+    };
+
+    private Corpus() {
+    }
+
+    /**
+     * Creates a text of roughly {@code length} characters.
+     */
+    static String text(final int length, final long seed) {
+        final Random random = new Random(seed);
+        final StringBuilder text = new StringBuilder(length + 32);
+        int wordsInSentence = 0;
+        int sentencesInLine = 0;
+        while (text.length() < length) {
+            final String word = WORDS[random.nextInt(WORDS.length)];
+            if (wordsInSentence == 0) {
+                text.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+            } else {
+                text.append(' ').append(word);
+            }
+            if (++wordsInSentence > 6 + random.nextInt(10)) {
+                text.append('.');
+                wordsInSentence = 0;
+                if (++sentencesInLine > 2 + random.nextInt(3)) {
+                    text.append('\n');
+                    sentencesInLine = 0;
+                } else {
+                    text.append(' ');
+                }
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Returns a copy of the passed-in text with {@code edits} words inserted, deleted or replaced.
+     */
+    static String edit(final String text, final int edits, final long seed) {
+        final Random random = new Random(seed);
+        final StringBuilder edited = new StringBuilder(text);
+        for (int i = 0; i < edits; i++) {
+            final int position = wordStart(edited, random.nextInt(edited.length()));
+            final int end = wordEnd(edited, position);
+            switch (random.nextInt(3)) {
+            case 0:
+                edited.insert(position, WORDS[random.nextInt(WORDS.length)] + ' ');
+                break;
+            case 1:
+                edited.delete(position, Math.min(end + 1, edited.length()));
+                break;
+            default:
+                edited.replace(position, end, WORDS[random.nextInt(WORDS.length)]);
+                break;
+            }
+        }
+        return edited.toString();
+    }
+
+    /**
+     * Creates a JSON object with {@code fields} fields, a mix of strings, numbers, nested objects and arrays.
+     */
+    static ObjectNode json(final int fields, final long seed) {
+        final Random random = new Random(seed);
+        final ObjectNode object = OM.createObjectNode();
+        for (int i = 0; i < fields; i++) {
+            final String name = "field" + i;
+            switch (i % 4) {
+            case 0:
+                object.put(name, text(16 + random.nextInt(48), random.nextLong()));
+                break;
+            case 1:
+                object.put(name, random.nextInt());
+                break;
+            case 2:
+                final ObjectNode nested = object.putObject(name);
+                nested.put("name", WORDS[random.nextInt(WORDS.length)]);
+                nested.put("active", random.nextBoolean());
+                break;
+            default:
+                final ArrayNode array = object.putArray(name);
+                for (int j = 0; j < 4; j++) {
+                    array.add(WORDS[random.nextInt(WORDS.length)]);
+                }
+                break;
+            }
+        }
+        return object;
+    }
+
+    /**
+     * Returns a copy of the passed-in JSON object with {@code changes} fields changed, removed or added.
+     */
+    static ObjectNode edit(final ObjectNode json, final int changes, final long seed) {
+        final Random random = new Random(seed);
+        final ObjectNode edited = json.deepCopy();
+        final List<String> names = new ArrayList<String>();
+        final Iterator<String> fieldNames = edited.fieldNames();
+        while (fieldNames.hasNext()) {
+            names.add(fieldNames.next());
+        }
+        for (int i = 0; i < changes; i++) {
+            final String name = names.get(random.nextInt(names.size()));
+            switch (random.nextInt(3)) {
+            case 0:
+                edited.remove(name);
+                break;
+            case 1:
+                edited.put("added" + i, WORDS[random.nextInt(WORDS.length)]);
+                break;
+            default:
+                final JsonNode value = edited.get(name);
+                if (value != null && value.isObject()) {
+                    ((ObjectNode) value).put("name", WORDS[random.nextInt(WORDS.length)]);
+                } else {
+                    edited.put(name, random.nextInt());
+                }
+                break;
+            }
+        }
+        return edited;
+    }
+
+    private static int wordStart(final CharSequence text, final int index) {
+        int start = index;
+        while (start > 0 && text.charAt(start - 1) != ' ' && text.charAt(start - 1) != '\n') {
+            start--;
+        }
+        return start;
+    }
+
+    private static int wordEnd(final CharSequence text, final int index) {
+        int end = index;
+        while (end < text.length() && text.charAt(end) != ' ' && text.charAt(end) != '\n') {
+            end++;
+        }
+        return end;
+    }
+
+}
@@ -0,0 +1,200 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.benchmarks;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.jboss.aerogear.sync.DefaultClientDocument;
+import org.jboss.aerogear.sync.DefaultDocument;
+import org.jboss.aerogear.sync.DefaultShadowDocument;
+import org.jboss.aerogear.sync.ShadowDocument;
+import org.jboss.aerogear.sync.SyncStateUpdate;
+import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatchEdit;
+import org.jboss.aerogear.sync.diffmatchpatch.server.DiffMatchPatchServerSynchronizer;
+import org.jboss.aerogear.sync.server.ServerDataStore;
+import org.jboss.aerogear.sync.server.ServerInMemoryDataStore;
+import org.jboss.aerogear.sync.server.TransactionalServerDataStore;
+import org.jboss.aerogear.sync.server.cache.CachingServerDataStore;
+import org.jboss.aerogear.sync.server.jdbc.JdbcServerDataStore;
+import org.jboss.aerogear.sync.server.journal.JournalServerDataStore;
+import org.jboss.aerogear.sync.server.journal.SynchronizerStoreCodec;
+import org.jboss.aerogear.sync.server.offheap.OffHeapServerDataStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the data store writes of a single server round trip: saving the patched shadow and
+ * document, queueing an edit and removing it once it has been acknowledged. {@code roundTrip} uses the
+ * separate methods of {@link ServerDataStore}, {@code roundTripSyncState} combines the changes to the
+ * client's state into {@link SyncStateUpdate}s. {@code roundTripTransaction} makes the same writes in a single
+ * transaction when the store is a {@link TransactionalServerDataStore}, like {@code ServerSyncEngine.patch} does.
+ * {@code read} measures the reads that precede a patch.
+ * <p>
+ * {@code memory} uses {@link ServerInMemoryDataStore}, {@code journal} a {@link JournalServerDataStore}
+ * that flushes every write, {@code journal-nosync} one that leaves flushing to the operating system,
+ * {@code offheap} an {@link OffHeapServerDataStore}, {@code jdbc} a {@link JdbcServerDataStore} backed by
+ * an embedded in-memory H2 database and {@code cached-jdbc} the same store behind a
+ * {@link CachingServerDataStore}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataStoreBenchmark {
+
+    private static final String DOCUMENT_ID = "benchmark";
+    private static final String CLIENT_ID = "client";
+    // keeps the contents in the rows, and avoids the MVStore whose in-memory mode is slow to delete rows.
+    private static final String H2_URL = "jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1;MAX_LENGTH_INPLACE_LOB=65536;"
+            + "MV_STORE=FALSE";
+
+    @Param({"memory", "journal", "journal-nosync", "offheap", "jdbc", "cached-jdbc"})
+    private String store;
+
+    private final DiffMatchPatchServerSynchronizer synchronizer = new DiffMatchPatchServerSynchronizer();
+    private ServerDataStore<String, DiffMatchPatchEdit> dataStore;
+    private File directory;
+    private JdbcConnectionPool pool;
+    private String[] contents;
+    private DiffMatchPatchEdit[] edits;
+    private long version;
+    private final Runnable syncStateRoundTrip = new Runnable() {
+        @Override
+        public void run() {
+            syncStateRoundTrip();
+        }
+    };
+
+    @Setup
+    public void setup() throws IOException, SQLException {
+        if ("memory".equals(store)) {
+            dataStore = new ServerInMemoryDataStore<String, DiffMatchPatchEdit>();
+        } else if ("offheap".equals(store)) {
+            dataStore = OffHeapServerDataStore.builder(
+                    new SynchronizerStoreCodec<String, DiffMatchPatchEdit>(synchronizer)).build();
+        } else if (store.endsWith("jdbc")) {
+            pool = JdbcConnectionPool.create(H2_URL, "sa", "");
+            dataStore = JdbcServerDataStore.builder(pool,
+                    new SynchronizerStoreCodec<String, DiffMatchPatchEdit>(synchronizer))
+                    .createSchema(true)
+                    .build();
+            if ("cached-jdbc".equals(store)) {
+                dataStore = CachingServerDataStore.builder(dataStore).build();
+            }
+        } else {
+            directory = File.createTempFile("journal", "");
+            if (!directory.delete() || !directory.mkdir()) {
+                throw new IOException("Could not create directory " + directory);
+            }
+            dataStore = JournalServerDataStore.builder(directory,
+                    new SynchronizerStoreCodec<String, DiffMatchPatchEdit>(synchronizer))
+                    .syncOnWrite("journal".equals(store))
+                    .build();
+        }
+        final String text = Corpus.text(2048, 42);
+        contents = new String[] {text, Corpus.edit(text, 4, 7)};
+        edits = new DiffMatchPatchEdit[contents.length];
+        for (int i = 0; i < contents.length; i++) {
+            edits[i] = synchronizer.serverDiff(new DefaultDocument<String>(DOCUMENT_ID, contents[i]),
+                    shadow(contents[(i + 1) % contents.length]));
+        }
+        dataStore.updateDocument(new DefaultDocument<String>(DOCUMENT_ID, contents[0]));
+        dataStore.saveShadowDocument(shadow(contents[0]));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (pool != null) {
+            pool.dispose();
+        }
+        if (dataStore instanceof JournalServerDataStore) {
+            ((JournalServerDataStore<?, ?>) dataStore).close();
+            final File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            directory.delete();
+        }
+    }
+
+    @Benchmark
+    public void roundTrip() {
+        final int next = (int) (version++ % contents.length);
+        dataStore.saveShadowDocument(shadow(contents[next]));
+        dataStore.updateDocument(new DefaultDocument<String>(DOCUMENT_ID, contents[next]));
+        dataStore.saveEdits(edits[next], DOCUMENT_ID, CLIENT_ID);
+        dataStore.removeEdit(edits[next], DOCUMENT_ID, CLIENT_ID);
+    }
+
+    @Benchmark
+    public void roundTripSyncState() {
+        syncStateRoundTrip.run();
+    }
+
+    @Benchmark
+    public void roundTripTransaction() {
+        if (dataStore instanceof TransactionalServerDataStore) {
+            ((TransactionalServerDataStore<String, DiffMatchPatchEdit>) dataStore).transaction(syncStateRoundTrip);
+        } else {
+            syncStateRoundTrip.run();
+        }
+    }
+
+    private void syncStateRoundTrip() {
+        final int next = (int) (version++ % contents.length);
+        final ShadowDocument<String> shadow = shadow(contents[next]);
+        dataStore.updateSyncState(DOCUMENT_ID, CLIENT_ID, SyncStateUpdate.<String, DiffMatchPatchEdit>builder()
+                .addEdit(edits[next])
+                .shadow(shadow)
+                .build());
+        dataStore.updateDocument(new DefaultDocument<String>(DOCUMENT_ID, contents[next]));
+        dataStore.updateSyncState(DOCUMENT_ID, CLIENT_ID, SyncStateUpdate.<String, DiffMatchPatchEdit>builder()
+                .removeEdit(edits[next])
+                .build());
+    }
+
+    @Benchmark
+    public void read(final Blackhole blackhole) {
+        blackhole.consume(dataStore.getDocument(DOCUMENT_ID).content());
+        blackhole.consume(dataStore.getSyncState(DOCUMENT_ID, CLIENT_ID).shadow());
+    }
+
+    private ShadowDocument<String> shadow(final String content) {
+        return new DefaultShadowDocument<String>(version, version,
+                new DefaultClientDocument<String>(DOCUMENT_ID, CLIENT_ID, content));
+    }
+
+}
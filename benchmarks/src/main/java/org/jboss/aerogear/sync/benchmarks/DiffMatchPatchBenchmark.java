@@ -0,0 +1,77 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.benchmarks;
+
+import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatch;
+import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatch.Diff;
+import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatch.Patch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link DiffMatchPatch#diffMain(String, String)} and
+ * {@link DiffMatchPatch#patchApply(LinkedList, String)} for texts of different sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiffMatchPatchBenchmark {
+
+    @Param({"1024", "16384", "262144"})
+    private int length;
+
+    @Param({"1", "32"})
+    private int edits;
+
+    private final DiffMatchPatch diffMatchPatch = DiffMatchPatch.builder().build();
+    private String original;
+    private String edited;
+    private LinkedList<Patch> patches;
+
+    @Setup
+    public void setup() {
+        original = Corpus.text(length, 42);
+        edited = Corpus.edit(original, edits, 7);
+        patches = diffMatchPatch.patchMake(original, diffMatchPatch.diffMain(original, edited));
+    }
+
+    @Benchmark
+    public LinkedList<Diff> diffMain() {
+        return diffMatchPatch.diffMain(original, edited);
+    }
+
+    @Benchmark
+    public Object[] patchApply() {
+        return diffMatchPatch.patchApply(patches, original);
+    }
+
+}
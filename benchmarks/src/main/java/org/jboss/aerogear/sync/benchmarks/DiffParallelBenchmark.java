@@ -0,0 +1,90 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.benchmarks;
+
+import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatch;
+import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatch.Diff;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.LinkedList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of single large diffs of {@link DiffMatchPatch} when the independent halves of the
+ * diff are run on a pool of {@code threads} threads, where {@code 0} diffs on the calling thread only.
+ * The time out is disabled so that every run computes the same diff.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiffParallelBenchmark {
+
+    @Param({"0", "2", "4"})
+    private int threads;
+
+    @Param({"262144", "1048576"})
+    private int length;
+
+    @Param({"2048"})
+    private int edits;
+
+    private ExecutorService pool;
+    private DiffMatchPatch diffMatchPatch;
+    private String original;
+    private String edited;
+
+    @Setup
+    public void setup() {
+        final DiffMatchPatch.Builder builder = DiffMatchPatch.builder().patchTimeout(0);
+        if (threads > 0) {
+            pool = Executors.newFixedThreadPool(threads);
+            builder.diffExecutor(pool, threads);
+        }
+        diffMatchPatch = builder.build();
+        original = Corpus.text(length, 42);
+        edited = Corpus.edit(original, edits, 7);
+    }
+
+    @TearDown
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    public LinkedList<Diff> diffMain() {
+        return diffMatchPatch.diffMain(original, edited);
+    }
+
+}
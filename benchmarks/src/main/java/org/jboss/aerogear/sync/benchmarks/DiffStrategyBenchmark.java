@@ -0,0 +1,110 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.benchmarks;
+
+import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatch;
+import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatch.Diff;
+import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatch.Strategy;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the diff {@link Strategy strategies} of {@link DiffMatchPatch} on lightly and heavily edited texts.
+ * The time is measured by the benchmark, the size of the resulting diff (its number of diffs and its
+ * Levenshtein distance) is reported as secondary results by {@link DiffSize}, as a cheaper diff is only better
+ * if it is not much larger.
+ * <p>
+ * The budget is only used by {@link Strategy#MYERS}; {@code 0} leaves it limited by the time out only.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiffStrategyBenchmark {
+
+    @Param({"MYERS", "HISTOGRAM", "ADAPTIVE"})
+    private Strategy strategy;
+
+    @Param({"0", "1000000"})
+    private long budget;
+
+    @Param({"16384", "262144"})
+    private int length;
+
+    @Param({"32", "2048"})
+    private int edits;
+
+    private DiffMatchPatch diffMatchPatch;
+    private String original;
+    private String edited;
+
+    @Setup
+    public void setup() {
+        diffMatchPatch = DiffMatchPatch.builder().diffStrategy(strategy).diffBudget(budget).build();
+        original = Corpus.text(length, 42);
+        edited = Corpus.edit(original, edits, 7);
+    }
+
+    @Benchmark
+    public LinkedList<Diff> diffMain(final DiffSize size) {
+        final LinkedList<Diff> diffs = diffMatchPatch.diffMain(original, edited);
+        size.last = diffs;
+        return diffs;
+    }
+
+    /**
+     * Reports the size of the diff produced in an iteration. JMH sums events over the iterations, so the
+     * counters hold the size divided by the number of measurement iterations and add up to the size.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class DiffSize {
+
+        public double diffs;
+        public double levenshtein;
+        private LinkedList<Diff> last;
+
+        @TearDown(Level.Iteration)
+        public void measure(final DiffStrategyBenchmark benchmark, final BenchmarkParams params) {
+            // measured once per iteration, outside of the timed diffs.
+            if (last != null) {
+                final int iterations = params.getMeasurement().getCount();
+                diffs = (double) last.size() / iterations;
+                levenshtein = (double) benchmark.diffMatchPatch.diffLevenshtein(last) / iterations;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,96 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.benchmarks;
+
+import org.jboss.aerogear.sync.server.DocumentExecutor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of {@link DocumentExecutor} when tasks are spread over a varying number of
+ * documents, which shows how well work for independent documents scales over the available processors.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DocumentExecutorBenchmark {
+
+    private static final int TASKS = 1024;
+
+    @Param({"1", "16", "256"})
+    private int documents;
+
+    @Param({"100"})
+    private int work;
+
+    private ExecutorService pool;
+    private DocumentExecutor documentExecutor;
+    private String[] documentIds;
+
+    @Setup
+    public void setup() {
+        pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        documentExecutor = new DocumentExecutor(pool);
+        documentIds = new String[documents];
+        for (int i = 0; i < documents; i++) {
+            documentIds[i] = "document" + i;
+        }
+    }
+
+    @TearDown
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TASKS)
+    public void execute() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(TASKS);
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                Blackhole.consumeCPU(work);
+                done.countDown();
+            }
+        };
+        for (int i = 0; i < TASKS; i++) {
+            documentExecutor.execute(documentIds[i % documents], task);
+        }
+        done.await();
+    }
+
+}
@@ -0,0 +1,112 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.jboss.aerogear.sync.DefaultClientDocument;
+import org.jboss.aerogear.sync.DefaultDocument;
+import org.jboss.aerogear.sync.DefaultShadowDocument;
+import org.jboss.aerogear.sync.ShadowDocument;
+import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatchEdit;
+import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatchMessage;
+import org.jboss.aerogear.sync.diffmatchpatch.server.DiffMatchPatchServerSynchronizer;
+import org.jboss.aerogear.sync.jsonmergepatch.JsonMergePatchEdit;
+import org.jboss.aerogear.sync.jsonmergepatch.JsonMergePatchMessage;
+import org.jboss.aerogear.sync.jsonmergepatch.server.JsonMergePatchServerSynchronizer;
+import org.jboss.aerogear.sync.jsonpatch.JsonPatchEdit;
+import org.jboss.aerogear.sync.jsonpatch.JsonPatchMessage;
+import org.jboss.aerogear.sync.jsonpatch.server.JsonPatchServerSynchronizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a round trip of a patch message through the {@code JsonMapper} of each synchronizer,
+ * that is converting the message to JSON and parsing it back.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonMapperBenchmark {
+
+    @Param({"1", "10"})
+    private int edits;
+
+    private DiffMatchPatchMessage diffMatchPatchMessage;
+    private JsonPatchMessage jsonPatchMessage;
+    private JsonMergePatchMessage jsonMergePatchMessage;
+
+    @Setup
+    public void setup() {
+        final DiffMatchPatchServerSynchronizer diffMatchPatch = new DiffMatchPatchServerSynchronizer();
+        final JsonPatchServerSynchronizer jsonPatch = new JsonPatchServerSynchronizer();
+        final JsonMergePatchServerSynchronizer jsonMergePatch = new JsonMergePatchServerSynchronizer();
+        final Queue<DiffMatchPatchEdit> textEdits = new LinkedList<DiffMatchPatchEdit>();
+        final Queue<JsonPatchEdit> jsonPatchEdits = new LinkedList<JsonPatchEdit>();
+        final Queue<JsonMergePatchEdit> jsonMergePatchEdits = new LinkedList<JsonMergePatchEdit>();
+        for (int i = 0; i < edits; i++) {
+            final String text = Corpus.text(2048, i);
+            textEdits.add(diffMatchPatch.serverDiff(new DefaultDocument<String>("benchmark", Corpus.edit(text, 8, i)),
+                    shadow(text, i)));
+            final JsonNode json = Corpus.json(50, i);
+            final DefaultDocument<JsonNode> editedJson = new DefaultDocument<JsonNode>("benchmark", Corpus.edit(Corpus.json(50, i), 5, i));
+            jsonPatchEdits.add(jsonPatch.serverDiff(editedJson, shadow(json, i)));
+            jsonMergePatchEdits.add(jsonMergePatch.serverDiff(editedJson, shadow(json, i)));
+        }
+        diffMatchPatchMessage = new DiffMatchPatchMessage("benchmark", "client", textEdits);
+        jsonPatchMessage = new JsonPatchMessage("benchmark", "client", jsonPatchEdits);
+        jsonMergePatchMessage = new JsonMergePatchMessage("benchmark", "client", jsonMergePatchEdits);
+    }
+
+    @Benchmark
+    public DiffMatchPatchMessage diffMatchPatchRoundTrip() {
+        return org.jboss.aerogear.sync.diffmatchpatch.JsonMapper.fromJson(diffMatchPatchMessage.asJson(),
+                DiffMatchPatchMessage.class);
+    }
+
+    @Benchmark
+    public JsonPatchMessage jsonPatchRoundTrip() {
+        return org.jboss.aerogear.sync.jsonpatch.JsonMapper.fromJson(jsonPatchMessage.asJson(),
+                JsonPatchMessage.class);
+    }
+
+    @Benchmark
+    public JsonMergePatchMessage jsonMergePatchRoundTrip() {
+        return org.jboss.aerogear.sync.jsonmergepatch.JsonMapper.fromJson(jsonMergePatchMessage.asJson(),
+                JsonMergePatchMessage.class);
+    }
+
+    private static <T> ShadowDocument<T> shadow(final T content, final long version) {
+        return new DefaultShadowDocument<T>(version, version, new DefaultClientDocument<T>("benchmark", "client", content));
+    }
+
+}
@@ -0,0 +1,96 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.jboss.aerogear.sync.DefaultClientDocument;
+import org.jboss.aerogear.sync.DefaultDocument;
+import org.jboss.aerogear.sync.DefaultShadowDocument;
+import org.jboss.aerogear.sync.Document;
+import org.jboss.aerogear.sync.ShadowDocument;
+import org.jboss.aerogear.sync.jsonmergepatch.JsonMergePatchEdit;
+import org.jboss.aerogear.sync.jsonmergepatch.server.JsonMergePatchServerSynchronizer;
+import org.jboss.aerogear.sync.jsonpatch.JsonPatchEdit;
+import org.jboss.aerogear.sync.jsonpatch.server.JsonPatchServerSynchronizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures diffing and patching of JSON documents by {@link JsonPatchServerSynchronizer} and
+ * {@link JsonMergePatchServerSynchronizer}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonSynchronizerBenchmark {
+
+    @Param({"10", "1000"})
+    private int fields;
+
+    private final JsonPatchServerSynchronizer jsonPatch = new JsonPatchServerSynchronizer();
+    private final JsonMergePatchServerSynchronizer jsonMergePatch = new JsonMergePatchServerSynchronizer();
+    private Document<JsonNode> document;
+    private ShadowDocument<JsonNode> shadow;
+    private JsonPatchEdit jsonPatchEdit;
+    private JsonMergePatchEdit jsonMergePatchEdit;
+
+    @Setup
+    public void setup() {
+        final JsonNode original = Corpus.json(fields, 42);
+        final JsonNode edited = Corpus.edit(Corpus.json(fields, 42), Math.max(1, fields / 10), 7);
+        document = new DefaultDocument<JsonNode>("benchmark", edited);
+        shadow = new DefaultShadowDocument<JsonNode>(0, 0,
+                new DefaultClientDocument<JsonNode>("benchmark", "client", original));
+        jsonPatchEdit = jsonPatch.serverDiff(document, shadow);
+        jsonMergePatchEdit = jsonMergePatch.serverDiff(document, shadow);
+    }
+
+    @Benchmark
+    public JsonPatchEdit jsonPatchDiff() {
+        return jsonPatch.serverDiff(document, shadow);
+    }
+
+    @Benchmark
+    public ShadowDocument<JsonNode> jsonPatchPatch() {
+        return jsonPatch.patchShadow(jsonPatchEdit, shadow);
+    }
+
+    @Benchmark
+    public JsonMergePatchEdit jsonMergePatchDiff() {
+        return jsonMergePatch.serverDiff(document, shadow);
+    }
+
+    @Benchmark
+    public ShadowDocument<JsonNode> jsonMergePatchPatch() {
+        return jsonMergePatch.patchShadow(jsonMergePatchEdit, shadow);
+    }
+
+}
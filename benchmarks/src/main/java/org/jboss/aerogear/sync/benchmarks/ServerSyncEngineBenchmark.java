@@ -0,0 +1,134 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.benchmarks;
+
+import org.jboss.aerogear.sync.DefaultDocument;
+import org.jboss.aerogear.sync.PatchMessage;
+import org.jboss.aerogear.sync.ShadowDocument;
+import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatchEdit;
+import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatchMessage;
+import org.jboss.aerogear.sync.diffmatchpatch.server.DiffMatchPatchServerSynchronizer;
+import org.jboss.aerogear.sync.server.ServerInMemoryDataStore;
+import org.jboss.aerogear.sync.server.ServerSyncEngine;
+import org.jboss.aerogear.sync.server.Subscriber;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link ServerSyncEngine#patch(PatchMessage)} followed by
+ * {@link ServerSyncEngine#notifySubscribers(PatchMessage)} for a document with a varying number of
+ * in-memory subscribers.
+ * <p>
+ * Before every invocation the pending edits of all clients are removed, as if the clients acknowledged
+ * the previous notification, and a patch from the first client is prepared against its current shadow.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServerSyncEngineBenchmark {
+
+    private static final String DOCUMENT_ID = "benchmark";
+
+    @Param({"1", "10", "100", "1000"})
+    private int subscribers;
+
+    private final DiffMatchPatchServerSynchronizer synchronizer = new DiffMatchPatchServerSynchronizer();
+    private final List<String> clientIds = new ArrayList<String>();
+    private ServerInMemoryDataStore<String, DiffMatchPatchEdit> dataStore;
+    private ServerSyncEngine<String, DiffMatchPatchEdit> engine;
+    private String[] contents;
+    private int next;
+    private PatchMessage<DiffMatchPatchEdit> patchMessage;
+
+    @Setup
+    public void setup(final Blackhole blackhole) {
+        dataStore = new ServerInMemoryDataStore<String, DiffMatchPatchEdit>();
+        engine = new ServerSyncEngine<String, DiffMatchPatchEdit>(synchronizer, dataStore);
+        final String text = Corpus.text(2048, 42);
+        contents = new String[] {text, Corpus.edit(text, 4, 7)};
+        for (int i = 0; i < subscribers; i++) {
+            final String clientId = "client" + i;
+            clientIds.add(clientId);
+            engine.addSubscriber(new BlackholeSubscriber(clientId, blackhole),
+                    new DefaultDocument<String>(DOCUMENT_ID, i == 0 ? text : null));
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void prepare() {
+        for (String clientId : clientIds) {
+            dataStore.removeEdits(DOCUMENT_ID, clientId);
+        }
+        next = (next + 1) % contents.length;
+        final String clientId = clientIds.get(0);
+        final ShadowDocument<String> shadow = dataStore.getShadowDocument(DOCUMENT_ID, clientId);
+        final LinkedList<DiffMatchPatchEdit> edits = new LinkedList<DiffMatchPatchEdit>();
+        edits.add(synchronizer.serverDiff(new DefaultDocument<String>(DOCUMENT_ID, contents[next]), shadow));
+        patchMessage = new DiffMatchPatchMessage(DOCUMENT_ID, clientId, edits);
+    }
+
+    @Benchmark
+    public void patchAndNotify() {
+        engine.notifySubscribers(engine.patch(patchMessage));
+    }
+
+    private static final class BlackholeSubscriber implements Subscriber<Blackhole> {
+
+        private final String clientId;
+        private final Blackhole blackhole;
+
+        BlackholeSubscriber(final String clientId, final Blackhole blackhole) {
+            this.clientId = clientId;
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public String clientId() {
+            return clientId;
+        }
+
+        @Override
+        public Blackhole channel() {
+            return blackhole;
+        }
+
+        @Override
+        public void patched(final PatchMessage<?> patchMessage) {
+            blackhole.consume(patchMessage);
+        }
+    }
+
+}
@@ -18,15 +18,16 @@ package org.jboss.aerogear.sync.client;
 
 import org.jboss.aerogear.sync.BackupShadowDocument;
 import org.jboss.aerogear.sync.ClientDocument;
+import org.jboss.aerogear.sync.ClientSyncState;
 import org.jboss.aerogear.sync.Diff;
 import org.jboss.aerogear.sync.Edit;
+import org.jboss.aerogear.sync.EditLog;
 import org.jboss.aerogear.sync.ShadowDocument;
+import org.jboss.aerogear.sync.SyncStateMap;
+import org.jboss.aerogear.sync.SyncStateUpdate;
 
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 
 /**
@@ -39,30 +40,27 @@ import java.util.concurrent.ConcurrentMap;
  */
 public class ClientInMemoryDataStore<T, S extends Edit<? extends Diff>> implements ClientDataStore<T, S> {
 
-    private final Queue<S> emptyQueue = new LinkedList<S>();
     private final ConcurrentMap<Id, ClientDocument<T>> documents = new ConcurrentHashMap<Id, ClientDocument<T>>();
-    private final ConcurrentMap<Id, ShadowDocument<T>> shadows = new ConcurrentHashMap<Id, ShadowDocument<T>>();
-    private final ConcurrentMap<Id, BackupShadowDocument<T>> backups = new ConcurrentHashMap<Id, BackupShadowDocument<T>>();
-    private final ConcurrentHashMap<Id, Queue<S>> pendingEdits = new ConcurrentHashMap<Id, Queue<S>>();
+    private final SyncStateMap<T, S> states = new SyncStateMap<T, S>(EditLog.Version.CLIENT);
 
     @Override
     public void saveShadowDocument(final ShadowDocument<T> shadowDocument) {
-        shadows.put(id(shadowDocument.document()), shadowDocument);
+        states.saveShadowDocument(shadowDocument);
     }
 
     @Override
     public ShadowDocument<T> getShadowDocument(final String documentId, final String clientId) {
-        return shadows.get(id(documentId, clientId));
+        return states.getShadowDocument(documentId, clientId);
     }
 
     @Override
     public void saveBackupShadowDocument(final BackupShadowDocument<T> backupShadow) {
-        backups.put(id(backupShadow.shadow().document()), backupShadow);
+        states.saveBackupShadowDocument(backupShadow);
     }
 
     @Override
     public BackupShadowDocument<T> getBackupShadowDocument(final String documentId, final String clientId) {
-        return backups.get(id(documentId, clientId));
+        return states.getBackupShadowDocument(documentId, clientId);
     }
 
     @Override
@@ -77,66 +75,34 @@ public class ClientInMemoryDataStore<T, S extends Edit<? extends Diff>> implemen
 
     @Override
     public void saveEdits(final S edit, final String documentId, final String clientId) {
-        final Id id = id(documentId, clientId);
-        final Queue<S> newEdits = new ConcurrentLinkedQueue<S>();
-        while (true) {
-            final Queue<S> currentEdits = pendingEdits.get(id);
-            if (currentEdits == null) {
-                newEdits.add(edit);
-                final Queue<S> previous = pendingEdits.putIfAbsent(id, newEdits);
-                if (previous != null) {
-                    newEdits.addAll(previous);
-                    if (pendingEdits.replace(id, previous, newEdits)) {
-                        break;
-                    }
-                } else {
-                    break;
-                }
-            } else {
-                newEdits.addAll(currentEdits);
-                newEdits.add(edit);
-                if (pendingEdits.replace(id, currentEdits, newEdits)) {
-                    break;
-                }
-            }
-        }
+        states.saveEdits(edit, documentId, clientId);
     }
 
     @Override
     public void removeEdit(final S edit, final String documentId, final String clientId) {
-        final Id id = id(documentId, clientId);
-        while (true) {
-            final Queue<S> currentEdits = pendingEdits.get(id);
-            if (currentEdits == null) {
-                break;
-            }
-            final Queue<S> newEdits = new ConcurrentLinkedQueue<S>();
-            newEdits.addAll(currentEdits);
-            for (Iterator<S> iter = newEdits.iterator(); iter.hasNext();) {
-                final S oldEdit = iter.next();
-                if (oldEdit.clientVersion() <= edit.clientVersion()) {
-                    iter.remove();
-                }
-            }
-            if (pendingEdits.replace(id, currentEdits, newEdits)) {
-                break;
-            }
-        }
+        states.removeEdit(edit, documentId, clientId);
     }
 
-
     @Override
     public Queue<S> getEdits(final String documentId, final String clientId) {
-        final Queue<S> edits = pendingEdits.get(id(documentId, clientId));
-        if (edits == null) {
-            return emptyQueue;
-        }
-        return edits;
+        return states.getEdits(documentId, clientId);
     }
 
     @Override
     public void removeEdits(final String documentId, final String clientId) {
-        pendingEdits.remove(id(documentId, clientId));
+        states.removeEdits(documentId, clientId);
+    }
+
+    @Override
+    public ClientSyncState<T, S> getSyncState(final String documentId, final String clientId) {
+        return states.getSyncState(documentId, clientId);
+    }
+
+    @Override
+    public ClientSyncState<T, S> updateSyncState(final String documentId,
+                                                 final String clientId,
+                                                 final SyncStateUpdate<T, S> update) {
+        return states.updateSyncState(documentId, clientId, update);
     }
 
     private Id id(final ClientDocument<T> document) {
@@ -20,6 +20,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.jboss.aerogear.sync.BackupShadowDocument;
 import org.jboss.aerogear.sync.ClientDocument;
+import org.jboss.aerogear.sync.ClientSyncState;
 import org.jboss.aerogear.sync.DefaultBackupShadowDocument;
 import org.jboss.aerogear.sync.DefaultShadowDocument;
 import org.jboss.aerogear.sync.Diff;
@@ -27,8 +28,11 @@ import org.jboss.aerogear.sync.Document;
 import org.jboss.aerogear.sync.Edit;
 import org.jboss.aerogear.sync.PatchMessage;
 import org.jboss.aerogear.sync.ShadowDocument;
+import org.jboss.aerogear.sync.SyncMetrics;
+import org.jboss.aerogear.sync.SyncMetrics.Stage;
+import org.jboss.aerogear.sync.SyncStateUpdate;
+import org.jboss.aerogear.sync.metrics.NoopSyncMetrics;
 
-import java.util.Iterator;
 import java.util.Queue;
 
 
@@ -64,13 +68,31 @@ public class ClientSyncEngine<T, S extends Edit<? extends Diff>> {
     private final ClientSynchronizer<T, S> clientSynchronizer;
     private final ClientDataStore<T, S> dataStore;
     private final PatchObservable<T> patchObservable;
+    private final SyncMetrics metrics;
 
     public ClientSyncEngine(final ClientSynchronizer<T, S> clientSynchronizer,
                             final ClientDataStore<T, S> dataStore,
                             final PatchObservable<T> patchObservable) {
+        this(clientSynchronizer, dataStore, patchObservable, NoopSyncMetrics.INSTANCE);
+    }
+
+    /**
+     * Creates a ClientSyncEngine that records the time spent diffing and patching to the passed-in
+     * {@link SyncMetrics}.
+     *
+     * @param clientSynchronizer the {@link ClientSynchronizer} that takes care of the diff/patching.
+     * @param dataStore the {@link ClientDataStore} to store the documents.
+     * @param patchObservable the {@link PatchObservable} that is notified of patched documents.
+     * @param metrics the {@link SyncMetrics} to record measurements to.
+     */
+    public ClientSyncEngine(final ClientSynchronizer<T, S> clientSynchronizer,
+                            final ClientDataStore<T, S> dataStore,
+                            final PatchObservable<T> patchObservable,
+                            final SyncMetrics metrics) {
         this.clientSynchronizer = clientSynchronizer;
         this.dataStore = dataStore;
         this.patchObservable = patchObservable;
+        this.metrics = metrics;
     }
 
     /**
@@ -80,7 +102,38 @@ public class ClientSyncEngine<T, S extends Edit<? extends Diff>> {
      */
     public void addDocument(final ClientDocument<T> document) {
         saveDocument(document);
-        saveBackupShadow(saveShadow(new DefaultShadowDocument<T>(0, 0, document)));
+        final ShadowDocument<T> shadow = new DefaultShadowDocument<T>(0, 0, document);
+        dataStore.updateSyncState(document.id(), document.clientId(), SyncStateUpdate.<T, S>builder()
+                .shadow(shadow)
+                .backupShadow(backupOf(shadow))
+                .build());
+    }
+
+    /**
+     * Resumes synchronizing a document whose shadow document is still held by the data store, for example
+     * after a restart with a data store that keeps its state on disk.
+     * <p>
+     * Instead of adding the document again, which makes the server send the whole document, the client
+     * continues from the versions of its stored shadow document. The returned {@link PatchMessage} contains
+     * the edits that the server has not acknowledged yet, followed by an edit for any changes made to the
+     * passed-in document since it was last diffed, and is intended to be sent to the server engine.
+     *
+     * @param document the current version of the document.
+     * @return {@link PatchMessage} the pending edits of the document, or {@code null} if the data store holds no
+     * shadow document for it, in which case it has to be added with {@link #addDocument(ClientDocument)}.
+     */
+    public PatchMessage<S> resume(final ClientDocument<T> document) {
+        final String documentId = document.id();
+        final String clientId = document.clientId();
+        final ClientSyncState<T, S> state = dataStore.getSyncState(documentId, clientId);
+        if (state.shadow() == null) {
+            return null;
+        }
+        saveDocument(document);
+        if (document.content().equals(state.shadow().document().content())) {
+            return getPendingEdits(documentId, clientId, state.edits());
+        }
+        return diff(document);
     }
 
     /**
@@ -102,10 +155,10 @@ public class ClientSyncEngine<T, S extends Edit<? extends Diff>> {
         final String clientId = document.clientId();
         final ShadowDocument<T> shadow = getShadowDocument(documentId, clientId);
         final S edit = serverDiff(document, shadow);
-        saveEdits(edit, documentId, clientId);
         final ShadowDocument<T> patchedShadow = diffPatchShadow(shadow, edit);
-        saveShadow(incrementClientVersion(patchedShadow));
-        return getPendingEdits(document.id(), document.clientId());
+        final ClientSyncState<T, S> state = dataStore.updateSyncState(documentId, clientId,
+                SyncStateUpdate.<T, S>builder().addEdit(edit).shadow(incrementClientVersion(patchedShadow)).build());
+        return getPendingEdits(documentId, clientId, state.edits());
     }
 
     /**
@@ -118,9 +171,13 @@ public class ClientSyncEngine<T, S extends Edit<? extends Diff>> {
      * @param patchMessage the updates from the server.
      */
     public void patch(final PatchMessage<S> patchMessage) {
-        final ShadowDocument<T> patchedShadow = patchShadow(patchMessage);
+        metrics.recordEdits(patchMessage.edits().size());
+        final String documentId = patchMessage.documentId();
+        final String clientId = patchMessage.clientId();
+        final SyncStateUpdate.Builder<T, S> update = SyncStateUpdate.builder();
+        final ShadowDocument<T> patchedShadow = patchShadow(patchMessage, dataStore.getSyncState(documentId, clientId), update);
+        dataStore.updateSyncState(documentId, clientId, update.backupShadow(backupOf(patchedShadow)).build());
         patchDocument(patchedShadow);
-        saveBackupShadow(patchedShadow);
     }
 
     /**
@@ -130,7 +187,10 @@ public class ClientSyncEngine<T, S extends Edit<? extends Diff>> {
      * @return {@link PatchMessage} the created {code PatchMessage}
      */
     public PatchMessage<S> patchMessageFromJson(final String json) {
-        return clientSynchronizer.patchMessageFromJson(json);
+        final long start = System.nanoTime();
+        final PatchMessage<S> patchMessage = clientSynchronizer.patchMessageFromJson(json);
+        metrics.recordLatency(Stage.DESERIALIZE, System.nanoTime() - start);
+        return patchMessage;
     }
 
     /**
@@ -162,7 +222,7 @@ public class ClientSyncEngine<T, S extends Edit<? extends Diff>> {
     }
 
     private ShadowDocument<T> diffPatchShadow(final ShadowDocument<T> shadow, final S edit) {
-        return clientSynchronizer.patchShadow(edit, shadow);
+        return patchShadow(edit, shadow);
     }
 
     public void addPatchListener(final PatchListener<T> patchListener) {
@@ -181,30 +241,36 @@ public class ClientSyncEngine<T, S extends Edit<? extends Diff>> {
         return patchObservable.countPatchListeners();
     }
 
-    private ShadowDocument<T> patchShadow(final PatchMessage<S> patchMessage) {
-        final String documentId = patchMessage.documentId();
-        final String clientId = patchMessage.clientId();
-        ShadowDocument<T> shadow = getShadowDocument(documentId, clientId);
-        final Iterator<S> iterator = patchMessage.edits().iterator();
-        while (iterator.hasNext()) {
-            final S edit = iterator.next();
+    /**
+     * Applies the edits of the patch message to the shadow document in {@code state} and collects the
+     * resulting changes to the client's state in {@code update}.
+     */
+    private ShadowDocument<T> patchShadow(final PatchMessage<S> patchMessage,
+                                          final ClientSyncState<T, S> state,
+                                          final SyncStateUpdate.Builder<T, S> update) {
+        ShadowDocument<T> shadow = state.shadow();
+        S acknowledged = null;
+        for (S edit : patchMessage.edits()) {
             if (clientPacketDropped(edit, shadow)) {
-                shadow = restoreBackup(shadow, edit);
+                shadow = restoreBackup(state.backupShadow(), edit);
+                update.clearEdits();
                 continue;
             }
             if (hasServerVersion(edit, shadow)) {
-                discardEdit(edit, documentId, clientId, iterator);
+                acknowledged = latest(acknowledged, edit);
                 continue;
             }
             if (allVersionsMatch(edit, shadow) || isSeedVersion(edit)) {
-                final ShadowDocument<T> patchedShadow = clientSynchronizer.patchShadow(edit, shadow);
+                final ShadowDocument<T> patchedShadow = patchShadow(edit, shadow);
                 if (isSeedVersion(edit)) {
-                    shadow = saveShadowAndRemoveEdit(withClientVersion(patchedShadow, 0), edit);
+                    shadow = withClientVersion(patchedShadow, 0);
                 } else {
-                    shadow = saveShadowAndRemoveEdit(incrementServerVersion(patchedShadow), edit);
+                    shadow = incrementServerVersion(patchedShadow);
                 }
+                acknowledged = latest(acknowledged, edit);
             }
         }
+        update.removeEdit(acknowledged).shadow(shadow);
         return shadow;
     }
 
@@ -212,15 +278,9 @@ public class ClientSyncEngine<T, S extends Edit<? extends Diff>> {
         return edit.clientVersion() == -1;
     }
 
-    private ShadowDocument<T> restoreBackup(final ShadowDocument<T> shadow,
-                                            final S edit) {
-        final String documentId = shadow.document().id();
-        final String clientId = shadow.document().clientId();
-        final BackupShadowDocument<T> backup = getBackupShadowDocument(documentId, clientId);
+    private ShadowDocument<T> restoreBackup(final BackupShadowDocument<T> backup, final S edit) {
         if (clientVersionMatch(edit, backup)) {
-            final ShadowDocument<T> patchedShadow = clientSynchronizer.patchShadow(edit, backup.shadow());
-            dataStore.removeEdits(documentId, clientId);
-            return saveShadow(incrementServerVersion(patchedShadow), edit);
+            return incrementServerVersion(patchShadow(edit, backup.shadow()));
         } else {
             throw new IllegalStateException("Backup version [" + backup.version() + "] does not match edit client version [" + edit.clientVersion() + ']');
         }
@@ -230,19 +290,8 @@ public class ClientSyncEngine<T, S extends Edit<? extends Diff>> {
         return edit.clientVersion() == backup.version();
     }
 
-    private ShadowDocument<T> saveShadowAndRemoveEdit(final ShadowDocument<T> shadow, final S edit) {
-        dataStore.removeEdit(edit, shadow.document().id(), shadow.document().clientId());
-        return saveShadow(shadow);
-    }
-
-    private ShadowDocument<T> saveShadow(final ShadowDocument<T> shadow, final S edit) {
-        dataStore.removeEdit(edit, shadow.document().id(), shadow.document().clientId());
-        return saveShadow(shadow);
-    }
-
-    private void discardEdit(final S edit, final String documentId, final String clientId, final Iterator<S> iterator) {
-        dataStore.removeEdit(edit, documentId, clientId);
-        iterator.remove();
+    private S latest(final S acknowledged, final S edit) {
+        return acknowledged == null || edit.clientVersion() > acknowledged.clientVersion() ? edit : acknowledged;
     }
 
     private boolean allVersionsMatch(final S edit, final ShadowDocument<T> shadow) {
@@ -262,14 +311,23 @@ public class ClientSyncEngine<T, S extends Edit<? extends Diff>> {
         final S edit = clientDiff(clientDocument, shadowDocument);
         final ClientDocument<T> patched = patchDocument(edit, clientDocument);
         saveDocument(patched);
-        saveBackupShadow(shadowDocument);
         patchObservable.changed();
         patchObservable.notifyPatched(patched);
         return patched;
     }
 
     private ClientDocument<T> patchDocument(final S edit, final ClientDocument<T> clientDocument) {
-        return clientSynchronizer.patchDocument(edit, clientDocument);
+        final long start = System.nanoTime();
+        final ClientDocument<T> patched = clientSynchronizer.patchDocument(edit, clientDocument);
+        metrics.recordLatency(Stage.PATCH, System.nanoTime() - start);
+        return patched;
+    }
+
+    private ShadowDocument<T> patchShadow(final S edit, final ShadowDocument<T> shadow) {
+        final long start = System.nanoTime();
+        final ShadowDocument<T> patchedShadow = clientSynchronizer.patchShadow(edit, shadow);
+        metrics.recordLatency(Stage.PATCH, System.nanoTime() - start);
+        return patchedShadow;
     }
 
     private ClientDocument<T> getClientDocumentForShadow(final ShadowDocument<T> shadow) {
@@ -280,24 +338,23 @@ public class ClientSyncEngine<T, S extends Edit<? extends Diff>> {
         return dataStore.getShadowDocument(documentId, clientId);
     }
 
-    private BackupShadowDocument<T> getBackupShadowDocument(final String documentId, final String clientId) {
-        return dataStore.getBackupShadowDocument(documentId, clientId);
-    }
-
-    private PatchMessage<S> getPendingEdits(final String documentId, final String clientId) {
-        return clientSynchronizer.createPatchMessage(documentId, clientId, dataStore.getEdits(documentId, clientId));
+    private PatchMessage<S> getPendingEdits(final String documentId, final String clientId, final Queue<S> edits) {
+        metrics.recordPendingEdits(edits.size());
+        return clientSynchronizer.createPatchMessage(documentId, clientId, edits);
     }
 
     private S clientDiff(final ClientDocument<T> doc, final ShadowDocument<T> shadow) {
-        return clientSynchronizer.clientDiff(shadow, doc);
+        final long start = System.nanoTime();
+        final S edit = clientSynchronizer.clientDiff(shadow, doc);
+        metrics.recordLatency(Stage.DIFF, System.nanoTime() - start);
+        return edit;
     }
     
     private S serverDiff(final ClientDocument<T> doc, final ShadowDocument<T> shadow) {
-        return clientSynchronizer.serverDiff(doc, shadow);
-    }
-
-    private void saveEdits(final S edit, final String documentId, final String clientId) {
-        dataStore.saveEdits(edit, documentId, clientId);
+        final long start = System.nanoTime();
+        final S edit = clientSynchronizer.serverDiff(doc, shadow);
+        metrics.recordLatency(Stage.DIFF, System.nanoTime() - start);
+        return edit;
     }
 
     private ShadowDocument<T> incrementClientVersion(final ShadowDocument<T> shadow) {
@@ -309,11 +366,6 @@ public class ClientSyncEngine<T, S extends Edit<? extends Diff>> {
         return newShadowDoc(shadow.serverVersion(), clientVersion, shadow.document());
     }
 
-    private ShadowDocument<T> saveShadow(final ShadowDocument<T> newShadow) {
-        dataStore.saveShadowDocument(newShadow);
-        return newShadow;
-    }
-
     private ShadowDocument<T> newShadowDoc(final long serverVersion, final long clientVersion, final ClientDocument<T> doc) {
         return new DefaultShadowDocument<T>(serverVersion, clientVersion, doc);
     }
@@ -323,8 +375,8 @@ public class ClientSyncEngine<T, S extends Edit<? extends Diff>> {
         return newShadowDoc(serverVersion, shadow.clientVersion(), shadow.document());
     }
 
-    private void saveBackupShadow(final ShadowDocument<T> newShadow) {
-        dataStore.saveBackupShadowDocument(new DefaultBackupShadowDocument<T>(newShadow.clientVersion(), newShadow));
+    private BackupShadowDocument<T> backupOf(final ShadowDocument<T> newShadow) {
+        return new DefaultBackupShadowDocument<T>(newShadow.clientVersion(), newShadow);
     }
 
     private void saveDocument(final ClientDocument<T> document) {
@@ -0,0 +1,550 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.client.journal;
+
+import org.jboss.aerogear.sync.BackupShadowDocument;
+import org.jboss.aerogear.sync.ClientDocument;
+import org.jboss.aerogear.sync.ClientSyncState;
+import org.jboss.aerogear.sync.DefaultBackupShadowDocument;
+import org.jboss.aerogear.sync.DefaultClientDocument;
+import org.jboss.aerogear.sync.Diff;
+import org.jboss.aerogear.sync.Edit;
+import org.jboss.aerogear.sync.ShadowDocument;
+import org.jboss.aerogear.sync.SyncStateUpdate;
+import org.jboss.aerogear.sync.client.ClientDataStore;
+import org.jboss.aerogear.sync.client.ClientInMemoryDataStore;
+import org.jboss.aerogear.sync.client.ClientSyncEngine;
+import org.jboss.aerogear.sync.journal.Journal;
+import org.jboss.aerogear.sync.journal.RecordReader;
+import org.jboss.aerogear.sync.journal.RecordWriter;
+import org.jboss.aerogear.sync.journal.StoreCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.jboss.aerogear.sync.util.Arguments.checkNotNull;
+
+/**
+ * A {@link ClientDataStore} that keeps the documents, shadows and pending edits of a client across restarts
+ * by writing every change to a {@link Journal}.
+ * <p>
+ * The current state is kept in memory, so reads cost the same as with {@link ClientInMemoryDataStore}. Every
+ * write is appended to the journal as a single record, so a crash leaves either all or none of a
+ * {@link SyncStateUpdate}. By default a write is flushed to disk before it returns. With
+ * {@link Builder#syncInterval(long, TimeUnit)} the flushes are instead batched and done in the background,
+ * which bounds the writes a crash of the operating system can lose to those of the last interval.
+ * <p>
+ * When the store is opened the journal is replayed, and once it has grown to twice its size after the last
+ * compaction, the current state is written to a new segment and the older segments are deleted, so opening
+ * the store only reads about as much as the state it restores. A {@link ClientSyncEngine} that uses this store
+ * can continue where it left off with {@link ClientSyncEngine#resume(ClientDocument)} instead of adding the
+ * document again.
+ *
+ * @param <T> The data type data that this implementation can handle.
+ * @param <S> The type of {@link Edit}s that this implementation can handle.
+ */
+public class JournalClientDataStore<T, S extends Edit<? extends Diff>> implements ClientDataStore<T, S>, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(JournalClientDataStore.class);
+
+    private static final byte CLIENT_DOCUMENT = 1;
+    private static final byte SHADOW = 2;
+    private static final byte BACKUP = 3;
+    private static final byte SAVE_EDIT = 4;
+    private static final byte REMOVE_EDIT = 5;
+    private static final byte REMOVE_EDITS = 6;
+    private static final byte SNAPSHOT_BEGIN = 7;
+    private static final byte SNAPSHOT_END = 8;
+    private static final byte SYNC_STATE = 9;
+
+    // the parts of a SYNC_STATE record that are present.
+    private static final int CLEAR_EDITS_PART = 1;
+    private static final int REMOVE_EDIT_PART = 2;
+    private static final int ADD_EDIT_PART = 4;
+    private static final int SHADOW_PART = 8;
+    private static final int BACKUP_PART = 16;
+
+    private static final int COMPACTION_RATIO = 2;
+
+    private final StoreCodec<T, S> codec;
+    private final long minCompactionSize;
+    private final Journal journal;
+    private final ScheduledExecutorService syncer;
+    private ClientInMemoryDataStore<T, S> state = new ClientInMemoryDataStore<T, S>();
+    private Map<String, Set<String>> clientIds = new LinkedHashMap<String, Set<String>>();
+    private long compactedSize;
+
+    private JournalClientDataStore(final Builder<T, S> builder) throws IOException {
+        codec = builder.codec;
+        minCompactionSize = builder.minCompactionSize;
+        final Replay replay = new Replay();
+        journal = Journal.open(builder.directory, builder.segmentSize, replay);
+        if (replay.snapshot != null) {
+            logger.warn("Discarding incomplete snapshot at position " + replay.snapshotPosition);
+            journal.truncate(replay.snapshotPosition);
+        }
+        compactedSize = journal.size();
+        if (builder.syncIntervalMillis > 0) {
+            syncer = Executors.newSingleThreadScheduledExecutor(new SyncerThreadFactory());
+            syncer.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    sync();
+                }
+            }, builder.syncIntervalMillis, builder.syncIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            syncer = null;
+        }
+    }
+
+    @Override
+    public void saveShadowDocument(final ShadowDocument<T> shadowDocument) {
+        final long position;
+        synchronized (this) {
+            state.saveShadowDocument(shadowDocument);
+            addClientId(shadowDocument.document());
+            position = write(shadowRecord(SHADOW, 0, shadowDocument));
+        }
+        commit(position);
+    }
+
+    @Override
+    public synchronized ShadowDocument<T> getShadowDocument(final String documentId, final String clientId) {
+        return state.getShadowDocument(documentId, clientId);
+    }
+
+    @Override
+    public void saveBackupShadowDocument(final BackupShadowDocument<T> backupShadow) {
+        final long position;
+        synchronized (this) {
+            state.saveBackupShadowDocument(backupShadow);
+            addClientId(backupShadow.shadow().document());
+            position = write(shadowRecord(BACKUP, backupShadow.version(), backupShadow.shadow()));
+        }
+        commit(position);
+    }
+
+    @Override
+    public synchronized BackupShadowDocument<T> getBackupShadowDocument(final String documentId, final String clientId) {
+        return state.getBackupShadowDocument(documentId, clientId);
+    }
+
+    @Override
+    public void saveClientDocument(final ClientDocument<T> document) {
+        final long position;
+        synchronized (this) {
+            state.saveClientDocument(document);
+            addClientId(document);
+            position = write(documentRecord(document));
+        }
+        commit(position);
+    }
+
+    @Override
+    public synchronized ClientDocument<T> getClientDocument(final String documentId, final String clientId) {
+        return state.getClientDocument(documentId, clientId);
+    }
+
+    @Override
+    public void saveEdits(final S edit, final String documentId, final String clientId) {
+        final long position;
+        synchronized (this) {
+            state.saveEdits(edit, documentId, clientId);
+            addClientId(documentId, clientId);
+            position = write(editRecord(SAVE_EDIT, documentId, clientId, edit));
+        }
+        commit(position);
+    }
+
+    @Override
+    public void removeEdit(final S edit, final String documentId, final String clientId) {
+        final long position;
+        synchronized (this) {
+            state.removeEdit(edit, documentId, clientId);
+            position = write(editRecord(REMOVE_EDIT, documentId, clientId, edit));
+        }
+        commit(position);
+    }
+
+    @Override
+    public synchronized Queue<S> getEdits(final String documentId, final String clientId) {
+        return state.getEdits(documentId, clientId);
+    }
+
+    @Override
+    public void removeEdits(final String documentId, final String clientId) {
+        final long position;
+        synchronized (this) {
+            state.removeEdits(documentId, clientId);
+            position = write(record(REMOVE_EDITS).string(documentId).string(clientId).toByteArray());
+        }
+        commit(position);
+    }
+
+    @Override
+    public synchronized ClientSyncState<T, S> getSyncState(final String documentId, final String clientId) {
+        return state.getSyncState(documentId, clientId);
+    }
+
+    /**
+     * Applies the update and writes it to the journal as a single record, so that it is replayed either
+     * completely or not at all.
+     */
+    @Override
+    public ClientSyncState<T, S> updateSyncState(final String documentId,
+                                                 final String clientId,
+                                                 final SyncStateUpdate<T, S> update) {
+        final ClientSyncState<T, S> updated;
+        final long position;
+        synchronized (this) {
+            updated = state.updateSyncState(documentId, clientId, update);
+            addClientId(documentId, clientId);
+            position = write(syncStateRecord(documentId, clientId, update));
+        }
+        commit(position);
+        return updated;
+    }
+
+    /**
+     * Flushes all writes to disk. Only needed when the store was built with a sync interval.
+     */
+    public void sync() {
+        journal.commit(journal.position());
+    }
+
+    /**
+     * Writes the current state to a new journal segment and deletes the older segments.
+     */
+    public synchronized void compact() {
+        final long start = journal.startSegment();
+        journal.append(record(SNAPSHOT_BEGIN).toByteArray());
+        for (Map.Entry<String, Set<String>> entry : clientIds.entrySet()) {
+            final String documentId = entry.getKey();
+            for (String clientId : entry.getValue()) {
+                final ClientDocument<T> document = state.getClientDocument(documentId, clientId);
+                if (document != null) {
+                    journal.append(documentRecord(document));
+                }
+                final ShadowDocument<T> shadow = state.getShadowDocument(documentId, clientId);
+                if (shadow != null) {
+                    journal.append(shadowRecord(SHADOW, 0, shadow));
+                }
+                final BackupShadowDocument<T> backup = state.getBackupShadowDocument(documentId, clientId);
+                if (backup != null) {
+                    journal.append(shadowRecord(BACKUP, backup.version(), backup.shadow()));
+                }
+                for (S edit : state.getEdits(documentId, clientId)) {
+                    journal.append(editRecord(SAVE_EDIT, documentId, clientId, edit));
+                }
+            }
+        }
+        final long end = journal.append(record(SNAPSHOT_END).toByteArray());
+        journal.commit(end);
+        journal.deleteBefore(start);
+        compactedSize = journal.size();
+        logger.debug("Compacted journal to " + compactedSize + " bytes");
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (syncer != null) {
+            syncer.shutdown();
+        }
+        journal.close();
+    }
+
+    private long write(final byte[] record) {
+        final long position = journal.append(record);
+        if (journal.size() > Math.max(minCompactionSize, compactedSize * COMPACTION_RATIO)) {
+            compact();
+            return journal.position();
+        }
+        return position;
+    }
+
+    private void commit(final long position) {
+        if (syncer == null) {
+            journal.commit(position);
+        }
+    }
+
+    private void addClientId(final ClientDocument<T> document) {
+        addClientId(document.id(), document.clientId());
+    }
+
+    private void addClientId(final String documentId, final String clientId) {
+        addClientId(clientIds, documentId, clientId);
+    }
+
+    private static void addClientId(final Map<String, Set<String>> clientIds,
+                                    final String documentId,
+                                    final String clientId) {
+        Set<String> ids = clientIds.get(documentId);
+        if (ids == null) {
+            ids = new LinkedHashSet<String>();
+            clientIds.put(documentId, ids);
+        }
+        ids.add(clientId);
+    }
+
+    private RecordWriter<T, S> record(final byte type) {
+        return new RecordWriter<T, S>(codec, type);
+    }
+
+    private byte[] documentRecord(final ClientDocument<T> document) {
+        return record(CLIENT_DOCUMENT).string(document.id())
+                .string(document.clientId())
+                .content(document.content())
+                .toByteArray();
+    }
+
+    private byte[] shadowRecord(final byte type, final long backupVersion, final ShadowDocument<T> shadow) {
+        return record(type).number(backupVersion).shadow(shadow).toByteArray();
+    }
+
+    private byte[] editRecord(final byte type, final String documentId, final String clientId, final S edit) {
+        return record(type).string(documentId).string(clientId).edit(edit).toByteArray();
+    }
+
+    private byte[] syncStateRecord(final String documentId,
+                                   final String clientId,
+                                   final SyncStateUpdate<T, S> update) {
+        int parts = update.clearEdits() ? CLEAR_EDITS_PART : 0;
+        parts |= update.removeEdit() != null ? REMOVE_EDIT_PART : 0;
+        parts |= update.addEdit() != null ? ADD_EDIT_PART : 0;
+        parts |= update.shadow() != null ? SHADOW_PART : 0;
+        parts |= update.backupShadow() != null ? BACKUP_PART : 0;
+        final RecordWriter<T, S> writer = record(SYNC_STATE).number(parts).string(documentId).string(clientId);
+        if (update.removeEdit() != null) {
+            writer.edit(update.removeEdit());
+        }
+        if (update.addEdit() != null) {
+            writer.edit(update.addEdit());
+        }
+        if (update.shadow() != null) {
+            writer.shadow(update.shadow());
+        }
+        if (update.backupShadow() != null) {
+            writer.number(update.backupShadow().version()).shadow(update.backupShadow().shadow());
+        }
+        return writer.toByteArray();
+    }
+
+    /**
+     * Applies the records of the journal to the in-memory state when the store is opened.
+     */
+    private final class Replay implements Journal.RecordHandler {
+
+        // the state being rebuilt from a snapshot, or null when no snapshot is being read.
+        private ClientInMemoryDataStore<T, S> snapshot;
+        private Map<String, Set<String>> snapshotClientIds;
+        private long snapshotPosition;
+
+        @Override
+        public void record(final long position, final ByteBuffer payload) {
+            final RecordReader<T, S> record = new RecordReader<T, S>(codec, payload);
+            final byte type = record.type();
+            switch (type) {
+            case SNAPSHOT_BEGIN:
+                snapshot = new ClientInMemoryDataStore<T, S>();
+                snapshotClientIds = new LinkedHashMap<String, Set<String>>();
+                snapshotPosition = position;
+                break;
+            case SNAPSHOT_END:
+                if (snapshot != null) {
+                    state = snapshot;
+                    clientIds = snapshotClientIds;
+                    snapshot = null;
+                }
+                break;
+            case CLIENT_DOCUMENT:
+                final ClientDocument<T> document = new DefaultClientDocument<T>(record.string(),
+                        record.string(),
+                        record.content());
+                target().saveClientDocument(document);
+                addClientId(targetClientIds(), document.id(), document.clientId());
+                break;
+            case SHADOW:
+            case BACKUP:
+                final long backupVersion = record.number();
+                final ShadowDocument<T> shadow = record.shadow();
+                if (type == SHADOW) {
+                    target().saveShadowDocument(shadow);
+                } else {
+                    target().saveBackupShadowDocument(new DefaultBackupShadowDocument<T>(backupVersion, shadow));
+                }
+                addClientId(targetClientIds(), shadow.document().id(), shadow.document().clientId());
+                break;
+            case SYNC_STATE:
+                replaySyncState(record);
+                break;
+            case SAVE_EDIT:
+            case REMOVE_EDIT:
+                final String editDocumentId = record.string();
+                final String editClientId = record.string();
+                final S edit = record.edit();
+                if (type == SAVE_EDIT) {
+                    target().saveEdits(edit, editDocumentId, editClientId);
+                    addClientId(targetClientIds(), editDocumentId, editClientId);
+                } else {
+                    target().removeEdit(edit, editDocumentId, editClientId);
+                }
+                break;
+            case REMOVE_EDITS:
+                target().removeEdits(record.string(), record.string());
+                break;
+            default:
+                throw new IllegalStateException("Unknown journal record type " + type + " at position " + position);
+            }
+        }
+
+        private void replaySyncState(final RecordReader<T, S> record) {
+            final int parts = (int) record.number();
+            final String documentId = record.string();
+            final String clientId = record.string();
+            final SyncStateUpdate.Builder<T, S> update = SyncStateUpdate.builder();
+            if ((parts & CLEAR_EDITS_PART) != 0) {
+                update.clearEdits();
+            }
+            if ((parts & REMOVE_EDIT_PART) != 0) {
+                update.removeEdit(record.edit());
+            }
+            if ((parts & ADD_EDIT_PART) != 0) {
+                update.addEdit(record.edit());
+            }
+            if ((parts & SHADOW_PART) != 0) {
+                update.shadow(record.shadow());
+            }
+            if ((parts & BACKUP_PART) != 0) {
+                final long backupVersion = record.number();
+                update.backupShadow(new DefaultBackupShadowDocument<T>(backupVersion, record.shadow()));
+            }
+            target().updateSyncState(documentId, clientId, update.build());
+            addClientId(targetClientIds(), documentId, clientId);
+        }
+
+        private ClientInMemoryDataStore<T, S> target() {
+            return snapshot == null ? state : snapshot;
+        }
+
+        private Map<String, Set<String>> targetClientIds() {
+            return snapshot == null ? clientIds : snapshotClientIds;
+        }
+    }
+
+    private static final class SyncerThreadFactory implements ThreadFactory {
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "journal-client-data-store-sync");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * Creates a {@link Builder} for a store that keeps its journal in the specified directory.
+     *
+     * @param directory the directory that holds the journal segments.
+     * @param codec the {@link StoreCodec} used to encode content and edits.
+     * @param <T> The data type data that the store can handle.
+     * @param <S> The type of {@link Edit}s that the store can handle.
+     * @return {@link Builder} a builder with default settings.
+     */
+    public static <T, S extends Edit<? extends Diff>> Builder<T, S> builder(final File directory,
+                                                                           final StoreCodec<T, S> codec) {
+        return new Builder<T, S>(directory, codec);
+    }
+
+    public static class Builder<T, S extends Edit<? extends Diff>> {
+
+        private final File directory;
+        private final StoreCodec<T, S> codec;
+        private int segmentSize = 1024 * 1024;
+        private long syncIntervalMillis;
+        private long minCompactionSize = 256 * 1024;
+
+        private Builder(final File directory, final StoreCodec<T, S> codec) {
+            this.directory = checkNotNull(directory, "directory must not be null");
+            this.codec = checkNotNull(codec, "codec must not be null");
+        }
+
+        /**
+         * Sets the size of the journal segment files. The default is 1 MB.
+         *
+         * @param segmentSize the segment size in bytes.
+         * @return {@link Builder} to allow method chaining.
+         */
+        public Builder<T, S> segmentSize(final int segmentSize) {
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        /**
+         * Flushes writes to disk in the background at the specified interval instead of before every write
+         * returns. The default is to flush every write.
+         * <p>
+         * Writes that have not been flushed survive a crash of the JVM but not necessarily of the operating system.
+         *
+         * @param interval the time between flushes, or {@code 0} to flush every write.
+         * @param unit the {@link TimeUnit} of {@code interval}.
+         * @return {@link Builder} to allow method chaining.
+         */
+        public Builder<T, S> syncInterval(final long interval, final TimeUnit unit) {
+            if (interval < 0) {
+                throw new IllegalArgumentException("interval must not be negative");
+            }
+            syncIntervalMillis = checkNotNull(unit, "unit must not be null").toMillis(interval);
+            return this;
+        }
+
+        /**
+         * Sets the size below which the journal is never compacted. The default is 256 KB.
+         *
+         * @param minCompactionSize the minimum journal size in bytes for a compaction.
+         * @return {@link Builder} to allow method chaining.
+         */
+        public Builder<T, S> minCompactionSize(final long minCompactionSize) {
+            this.minCompactionSize = minCompactionSize;
+            return this;
+        }
+
+        /**
+         * Opens the store, replaying the existing journal.
+         *
+         * @return {@link JournalClientDataStore} the opened store.
+         * @throws IOException if the journal cannot be read or created.
+         */
+        public JournalClientDataStore<T, S> build() throws IOException {
+            return new JournalClientDataStore<T, S>(this);
+        }
+    }
+
+}
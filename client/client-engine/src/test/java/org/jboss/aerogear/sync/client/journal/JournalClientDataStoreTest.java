@@ -0,0 +1,178 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.client.journal;
+
+import org.jboss.aerogear.sync.ClientDocument;
+import org.jboss.aerogear.sync.DefaultClientDocument;
+import org.jboss.aerogear.sync.PatchMessage;
+import org.jboss.aerogear.sync.ShadowDocument;
+import org.jboss.aerogear.sync.client.ClientSyncEngine;
+import org.jboss.aerogear.sync.client.DefaultPatchObservable;
+import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatchEdit;
+import org.jboss.aerogear.sync.diffmatchpatch.client.DiffMatchPatchClientSynchronizer;
+import org.jboss.aerogear.sync.journal.StoreCodec;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class JournalClientDataStoreTest {
+
+    private static final String DOCUMENT_ID = "12345";
+    private static final String CLIENT_ID = "client1";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final DiffMatchPatchClientSynchronizer synchronizer = new DiffMatchPatchClientSynchronizer();
+    private JournalClientDataStore<String, DiffMatchPatchEdit> dataStore;
+
+    @After
+    public void closeDataStore() throws IOException {
+        if (dataStore != null) {
+            dataStore.close();
+        }
+    }
+
+    @Test
+    public void reopenRestoresPendingEdits() throws IOException {
+        dataStore = builder().build();
+        final ClientSyncEngine<String, DiffMatchPatchEdit> engine = engine();
+        engine.addDocument(doc("Do or do not"));
+        engine.diff(doc("Do or do not, there is no try."));
+
+        reopen();
+
+        final ShadowDocument<String> shadow = dataStore.getShadowDocument(DOCUMENT_ID, CLIENT_ID);
+        assertThat(shadow.clientVersion(), is(1L));
+        assertThat(shadow.document().content(), equalTo("Do or do not, there is no try."));
+        assertThat(dataStore.getBackupShadowDocument(DOCUMENT_ID, CLIENT_ID).shadow().document().content(),
+                equalTo("Do or do not"));
+        assertThat(dataStore.getClientDocument(DOCUMENT_ID, CLIENT_ID).content(), equalTo("Do or do not"));
+        final Queue<DiffMatchPatchEdit> edits = dataStore.getEdits(DOCUMENT_ID, CLIENT_ID);
+        assertThat(edits.size(), is(1));
+        assertThat(edits.peek().clientVersion(), is(0L));
+    }
+
+    @Test
+    public void resumeSendsPendingEditsInsteadOfDocument() throws IOException {
+        dataStore = builder().build();
+        engine().addDocument(doc("Do or do not"));
+        engine().diff(doc("Do or do not, there is no try."));
+
+        reopen();
+
+        final ClientSyncEngine<String, DiffMatchPatchEdit> engine = engine();
+        final PatchMessage<DiffMatchPatchEdit> unchanged = engine.resume(doc("Do or do not, there is no try."));
+        assertThat(unchanged.edits().size(), is(1));
+        assertThat(unchanged.edits().peek().clientVersion(), is(0L));
+
+        final PatchMessage<DiffMatchPatchEdit> changed = engine.resume(doc("Do or do not, there is always a try."));
+        assertThat(changed.edits().size(), is(2));
+        final Iterator<DiffMatchPatchEdit> iterator = changed.edits().iterator();
+        assertThat(iterator.next().clientVersion(), is(0L));
+        assertThat(iterator.next().clientVersion(), is(1L));
+        assertThat(engine.resume(new DefaultClientDocument<String>("unknown", CLIENT_ID, "")), is(nullValue()));
+    }
+
+    @Test
+    public void compactionKeepsState() throws IOException {
+        dataStore = builder().minCompactionSize(0).build();
+        final ClientSyncEngine<String, DiffMatchPatchEdit> engine = engine();
+        engine.addDocument(doc("v0"));
+        for (int i = 1; i <= 20; i++) {
+            engine.diff(doc("v" + i));
+        }
+
+        reopen();
+
+        assertThat(dataStore.getShadowDocument(DOCUMENT_ID, CLIENT_ID).clientVersion(), is(20L));
+        assertThat(dataStore.getEdits(DOCUMENT_ID, CLIENT_ID).size(), is(20));
+    }
+
+    @Test
+    public void syncIntervalBatchesFlushes() throws IOException {
+        dataStore = builder().syncInterval(1, TimeUnit.HOURS).build();
+        engine().addDocument(doc("Do or do not"));
+        dataStore.sync();
+
+        reopen();
+
+        assertThat(dataStore.getShadowDocument(DOCUMENT_ID, CLIENT_ID).document().content(), equalTo("Do or do not"));
+    }
+
+    private void reopen() throws IOException {
+        dataStore.close();
+        dataStore = builder().build();
+    }
+
+    private ClientSyncEngine<String, DiffMatchPatchEdit> engine() {
+        return new ClientSyncEngine<String, DiffMatchPatchEdit>(synchronizer, dataStore,
+                new DefaultPatchObservable<String>());
+    }
+
+    private JournalClientDataStore.Builder<String, DiffMatchPatchEdit> builder() {
+        return JournalClientDataStore.builder(folder.getRoot(), new StringCodec(synchronizer));
+    }
+
+    private static ClientDocument<String> doc(final String content) {
+        return new DefaultClientDocument<String>(DOCUMENT_ID, CLIENT_ID, content);
+    }
+
+    private static final class StringCodec implements StoreCodec<String, DiffMatchPatchEdit> {
+
+        private final DiffMatchPatchClientSynchronizer synchronizer;
+
+        private StringCodec(final DiffMatchPatchClientSynchronizer synchronizer) {
+            this.synchronizer = synchronizer;
+        }
+
+        @Override
+        public String encodeContent(final String content) {
+            return content;
+        }
+
+        @Override
+        public String decodeContent(final String encoded) {
+            return encoded;
+        }
+
+        @Override
+        public String encodeEdit(final DiffMatchPatchEdit edit) {
+            final Queue<DiffMatchPatchEdit> edits = new LinkedList<DiffMatchPatchEdit>();
+            edits.add(edit);
+            return synchronizer.createPatchMessage("", "", edits).asJson();
+        }
+
+        @Override
+        public DiffMatchPatchEdit decodeEdit(final String encoded) {
+            return synchronizer.patchMessageFromJson(encoded).edits().peek();
+        }
+    }
+
+}
@@ -101,8 +101,22 @@ public final class NettySyncClient<T, S extends Edit<? extends Diff>> implements
         return this;
     }
 
+    /**
+     * Adds the document, or resumes synchronizing it if the engine's data store still holds its state, in which
+     * case only the edits the server has not acknowledged are sent instead of the whole document.
+     *
+     * @param document the document to add to the SyncClient
+     */
     @Override
     public void addDocument(final ClientDocument<T> document) {
+        final PatchMessage<S> resumed = syncEngine.resume(document);
+        if (resumed != null) {
+            logger.info("Resuming document [{}] from stored state", document.id());
+            if (channel.isOpen()) {
+                channel.writeAndFlush(new TextWebSocketFrame(resumed.asJson()));
+            }
+            return;
+        }
         syncEngine.addDocument(document);
         if (channel.isOpen()) {
             final String json = syncEngine.documentToJson(document);
@@ -0,0 +1,163 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shares a single instance between all equal document contents that are in use.
+ * <p>
+ * Every shadow and backup shadow of a client holds the content it was last patched to. Once clients have
+ * converged these contents are equal to each other and to the document, but are distinct objects, so a
+ * document with many clients holds as many copies of its content. Passing every content that is stored
+ * through {@link #intern(Object)} replaces it with the instance that is already in use for an equal content.
+ * <p>
+ * Contents are matched by {@link Object#equals(Object)} and {@link Object#hashCode()}, which compare the
+ * whole content for the types that are synchronized, so two contents are only shared when they really are
+ * equal. Every interned content is counted, and it is dropped once {@link #release(Object)} has been called
+ * as often as it was interned. Contents are kept in a fixed number of stripes, each with its own lock, so
+ * threads working on different contents rarely contend.
+ * <p>
+ * Shared contents must not be modified in place, which holds for the contents produced by the synchronizers.
+ *
+ * @param <T> The type of the document content.
+ */
+public class ContentInterner<T> {
+
+    private static final int STRIPES = 64;
+
+    private final Stripe<T>[] stripes;
+    private final AtomicLong deduplicated = new AtomicLong();
+
+    @SuppressWarnings("unchecked")
+    public ContentInterner() {
+        stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe<T>();
+        }
+    }
+
+    /**
+     * Returns the instance in use for contents equal to the passed-in content, and counts a reference to it.
+     *
+     * @param content the content to intern, may be {@code null}.
+     * @return {@code T} the shared instance, which is {@code content} itself if no equal content is in use,
+     * or {@code null} if {@code content} was {@code null}.
+     */
+    public T intern(final T content) {
+        if (content == null) {
+            return null;
+        }
+        final Stripe<T> stripe = stripeFor(content);
+        synchronized (stripe) {
+            final Counted<T> counted = stripe.contents.get(content);
+            if (counted == null) {
+                stripe.contents.put(content, new Counted<T>(content));
+                return content;
+            }
+            counted.references++;
+            if (counted.content != content) {
+                deduplicated.incrementAndGet();
+            }
+            return counted.content;
+        }
+    }
+
+    /**
+     * Releases a reference to a content returned by {@link #intern(Object)}.
+     * <p>
+     * Contents that were not returned by this interner are ignored.
+     *
+     * @param content the interned content, may be {@code null}.
+     */
+    public void release(final T content) {
+        if (content == null) {
+            return;
+        }
+        final Stripe<T> stripe = stripeFor(content);
+        synchronized (stripe) {
+            final Counted<T> counted = stripe.contents.get(content);
+            if (counted != null && counted.content == content && --counted.references == 0) {
+                stripe.contents.remove(content);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of distinct contents that are in use.
+     *
+     * @return {@code int} the number of distinct interned contents.
+     */
+    public int distinctContents() {
+        int count = 0;
+        for (Stripe<T> stripe : stripes) {
+            synchronized (stripe) {
+                count += stripe.contents.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of references that are held to interned contents.
+     *
+     * @return {@code long} the number of references that have not been released.
+     */
+    public long references() {
+        long count = 0;
+        for (Stripe<T> stripe : stripes) {
+            synchronized (stripe) {
+                for (Counted<T> counted : stripe.contents.values()) {
+                    count += counted.references;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of times a content was replaced by an equal instance that was already in use.
+     *
+     * @return {@code long} the number of deduplicated contents.
+     */
+    public long deduplicated() {
+        return deduplicated.get();
+    }
+
+    private Stripe<T> stripeFor(final T content) {
+        final int hash = content.hashCode();
+        return stripes[(hash ^ hash >>> 16) & STRIPES - 1];
+    }
+
+    private static final class Stripe<T> {
+
+        private final Map<T, Counted<T>> contents = new HashMap<T, Counted<T>>();
+    }
+
+    private static final class Counted<T> {
+
+        private final T content;
+        private int references = 1;
+
+        private Counted(final T content) {
+            this.content = content;
+        }
+    }
+
+}
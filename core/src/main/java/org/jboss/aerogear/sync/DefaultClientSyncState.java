@@ -0,0 +1,54 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync;
+
+import java.util.Queue;
+
+public class DefaultClientSyncState<T, S extends Edit<? extends Diff>> implements ClientSyncState<T, S> {
+
+    private final ShadowDocument<T> shadow;
+    private final BackupShadowDocument<T> backupShadow;
+    private final Queue<S> edits;
+
+    public DefaultClientSyncState(final ShadowDocument<T> shadow,
+                                  final BackupShadowDocument<T> backupShadow,
+                                  final Queue<S> edits) {
+        this.shadow = shadow;
+        this.backupShadow = backupShadow;
+        this.edits = edits;
+    }
+
+    @Override
+    public ShadowDocument<T> shadow() {
+        return shadow;
+    }
+
+    @Override
+    public BackupShadowDocument<T> backupShadow() {
+        return backupShadow;
+    }
+
+    @Override
+    public Queue<S> edits() {
+        return edits;
+    }
+
+    @Override
+    public String toString() {
+        return "DefaultClientSyncState[shadow=" + shadow + ", backupShadow=" + backupShadow + ", edits=" + edits + ']';
+    }
+}
@@ -0,0 +1,221 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync;
+
+import java.util.AbstractQueue;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+
+/**
+ * The pending {@link Edit}s of a single document and client, in the order they were added.
+ * <p>
+ * Edits are appended to the end of an array and removed by advancing the start of the log, so adding an
+ * edit and removing the edits a peer has acknowledged take constant amortized time, no matter how many
+ * edits are pending. A slot of the array is written only once, which makes the {@link Queue} returned by
+ * {@link #snapshot()} a view of that range that stays valid while the log changes, instead of a copy.
+ * The array is replaced once it is full, which also releases the edits that have been removed.
+ * <p>
+ * Edits are normally added with increasing versions, in which case {@link #removeUpTo(long)} only has to
+ * look at the edits it removes. Should an edit be added with a lower version than the one before it, the
+ * log falls back to scanning all its edits.
+ *
+ * @param <S> The type of {@link Edit}s in this log.
+ */
+public final class EditLog<S extends Edit<? extends Diff>> {
+
+    private static final int INITIAL_CAPACITY = 8;
+    private static final Object[] EMPTY = new Object[0];
+
+    /**
+     * The version of an {@link Edit} that is used to decide which edits have been acknowledged.
+     */
+    public enum Version {
+        /**
+         * The {@link Edit#serverVersion()}, used for the edits the server sends to a client.
+         */
+        SERVER {
+            @Override
+            long of(final Edit<?> edit) {
+                return edit.serverVersion();
+            }
+        },
+        /**
+         * The {@link Edit#clientVersion()}, used for the edits a client sends to the server.
+         */
+        CLIENT {
+            @Override
+            long of(final Edit<?> edit) {
+                return edit.clientVersion();
+            }
+        };
+
+        abstract long of(Edit<?> edit);
+    }
+
+    private final Version version;
+    private Object[] edits = EMPTY;
+    private int start;
+    private int end;
+    private boolean ordered = true;
+
+    public EditLog(final Version version) {
+        this.version = version;
+    }
+
+    /**
+     * Adds an edit to the end of the log.
+     *
+     * @param edit the edit to add.
+     */
+    public synchronized void add(final S edit) {
+        if (end == edits.length) {
+            final int size = end - start;
+            final Object[] newEdits = new Object[Math.max(INITIAL_CAPACITY, size * 2)];
+            System.arraycopy(edits, start, newEdits, 0, size);
+            edits = newEdits;
+            start = 0;
+            end = size;
+        }
+        if (end > start && version.of(edit) < version.of(get(end - 1))) {
+            ordered = false;
+        }
+        edits[end++] = edit;
+    }
+
+    /**
+     * Removes all edits with a version less than or equal to the specified version.
+     *
+     * @param upTo the highest version to remove.
+     */
+    public synchronized void removeUpTo(final long upTo) {
+        if (ordered) {
+            while (start < end && version.of(get(start)) <= upTo) {
+                start++;
+            }
+        } else {
+            final Object[] newEdits = new Object[Math.max(INITIAL_CAPACITY, end - start)];
+            int size = 0;
+            for (int i = start; i < end; i++) {
+                if (version.of(get(i)) > upTo) {
+                    newEdits[size++] = edits[i];
+                }
+            }
+            edits = newEdits;
+            start = 0;
+            end = size;
+            ordered = true;
+            for (int i = 1; i < size && ordered; i++) {
+                ordered = version.of(get(i)) >= version.of(get(i - 1));
+            }
+        }
+        if (start == end) {
+            // drop the array so that the removed edits can be collected, snapshots keep their own reference.
+            edits = EMPTY;
+            start = 0;
+            end = 0;
+        }
+    }
+
+    /**
+     * Returns the number of edits in the log.
+     *
+     * @return {@code int} the number of edits.
+     */
+    public synchronized int size() {
+        return end - start;
+    }
+
+    /**
+     * Returns the edits currently in the log.
+     * <p>
+     * The returned queue is not affected by later changes to the log. Polling it only consumes the edits
+     * from the returned queue, not from the log, and it does not accept new edits.
+     *
+     * @return {@code Queue} the edits in the order they were added.
+     */
+    public synchronized Queue<S> snapshot() {
+        return new Snapshot<S>(edits, start, end);
+    }
+
+    @SuppressWarnings("unchecked")
+    private S get(final int index) {
+        return (S) edits[index];
+    }
+
+    private static final class Snapshot<S> extends AbstractQueue<S> {
+
+        private final Object[] edits;
+        private final int end;
+        private int start;
+
+        private Snapshot(final Object[] edits, final int start, final int end) {
+            this.edits = edits;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public Iterator<S> iterator() {
+            return new Iterator<S>() {
+                private int next = start;
+
+                @Override
+                public boolean hasNext() {
+                    return next < end;
+                }
+
+                @Override
+                @SuppressWarnings("unchecked")
+                public S next() {
+                    if (next >= end) {
+                        throw new NoSuchElementException();
+                    }
+                    return (S) edits[next++];
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException("remove");
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return end - start;
+        }
+
+        @Override
+        public boolean offer(final S edit) {
+            throw new UnsupportedOperationException("offer");
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public S poll() {
+            return start < end ? (S) edits[start++] : null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public S peek() {
+            return start < end ? (S) edits[start] : null;
+        }
+    }
+
+}
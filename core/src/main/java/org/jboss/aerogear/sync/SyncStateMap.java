@@ -0,0 +1,334 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds the {@link ClientSyncState} of every client of every document, for use by in-memory {@link DataStore}s.
+ * <p>
+ * States are kept in a map of document identifiers to maps of client identifiers, so a lookup hashes the
+ * identifiers that were passed in and does not allocate a combined key. The shadow document, backup shadow
+ * document and pending edits of a client are held together and updated under the lock of that client's
+ * state, which makes a {@link SyncStateUpdate} atomic without blocking other clients.
+ * <p>
+ * When created with a {@link ContentInterner}, the contents of the shadow documents and backup shadow documents
+ * are interned as they are stored and released when they are replaced or removed, so clients that have
+ * converged to the same content share a single instance of it.
+ *
+ * @param <T> The type of the Document.
+ * @param <S> The type of {@link Edit}s.
+ */
+public class SyncStateMap<T, S extends Edit<? extends Diff>> {
+
+    private final ConcurrentMap<String, ConcurrentMap<String, State<T, S>>> states =
+            new ConcurrentHashMap<String, ConcurrentMap<String, State<T, S>>>();
+    private final EditLog.Version version;
+    private final Queue<S> emptyQueue;
+    private final ContentInterner<T> interner;
+
+    /**
+     * Creates a new SyncStateMap.
+     *
+     * @param version the {@link EditLog.Version} that decides which pending edits a peer has acknowledged.
+     */
+    public SyncStateMap(final EditLog.Version version) {
+        this(version, null);
+    }
+
+    /**
+     * Creates a new SyncStateMap that interns the contents of shadow documents and backup shadow documents.
+     *
+     * @param version the {@link EditLog.Version} that decides which pending edits a peer has acknowledged.
+     * @param interner the {@link ContentInterner} used for the contents, or {@code null} to not intern them.
+     */
+    public SyncStateMap(final EditLog.Version version, final ContentInterner<T> interner) {
+        this.version = version;
+        this.interner = interner;
+        emptyQueue = new EditLog<S>(version).snapshot();
+    }
+
+    public void saveShadowDocument(final ShadowDocument<T> shadowDocument) {
+        final ClientDocument<T> document = shadowDocument.document();
+        while (true) {
+            final State<T, S> state = getOrCreate(document.id(), document.clientId());
+            synchronized (state) {
+                if (state.removed) {
+                    continue;
+                }
+                setShadow(state, shadowDocument);
+                return;
+            }
+        }
+    }
+
+    public ShadowDocument<T> getShadowDocument(final String documentId, final String clientId) {
+        final State<T, S> state = get(documentId, clientId);
+        if (state == null) {
+            return null;
+        }
+        synchronized (state) {
+            return state.shadow;
+        }
+    }
+
+    public void saveBackupShadowDocument(final BackupShadowDocument<T> backupShadow) {
+        final ClientDocument<T> document = backupShadow.shadow().document();
+        while (true) {
+            final State<T, S> state = getOrCreate(document.id(), document.clientId());
+            synchronized (state) {
+                if (state.removed) {
+                    continue;
+                }
+                setBackupShadow(state, backupShadow, null);
+                return;
+            }
+        }
+    }
+
+    public BackupShadowDocument<T> getBackupShadowDocument(final String documentId, final String clientId) {
+        final State<T, S> state = get(documentId, clientId);
+        if (state == null) {
+            return null;
+        }
+        synchronized (state) {
+            return state.backupShadow;
+        }
+    }
+
+    public void saveEdits(final S edit, final String documentId, final String clientId) {
+        while (true) {
+            final State<T, S> state = getOrCreate(documentId, clientId);
+            synchronized (state) {
+                if (state.removed) {
+                    continue;
+                }
+                state.edits.add(edit);
+                return;
+            }
+        }
+    }
+
+    public void removeEdit(final S edit, final String documentId, final String clientId) {
+        final State<T, S> state = get(documentId, clientId);
+        if (state != null) {
+            synchronized (state) {
+                state.edits.removeUpTo(version.of(edit));
+            }
+        }
+    }
+
+    public Queue<S> getEdits(final String documentId, final String clientId) {
+        final State<T, S> state = get(documentId, clientId);
+        if (state == null) {
+            return emptyQueue;
+        }
+        synchronized (state) {
+            return state.edits.snapshot();
+        }
+    }
+
+    public void removeEdits(final String documentId, final String clientId) {
+        final State<T, S> state = get(documentId, clientId);
+        if (state != null) {
+            synchronized (state) {
+                state.edits = new EditLog<S>(version);
+            }
+        }
+    }
+
+    public ClientSyncState<T, S> getSyncState(final String documentId, final String clientId) {
+        final State<T, S> state = get(documentId, clientId);
+        if (state == null) {
+            return new DefaultClientSyncState<T, S>(null, null, emptyQueue);
+        }
+        synchronized (state) {
+            return state.snapshot();
+        }
+    }
+
+    public ClientSyncState<T, S> updateSyncState(final String documentId,
+                                                 final String clientId,
+                                                 final SyncStateUpdate<T, S> update) {
+        while (true) {
+            final State<T, S> state = getOrCreate(documentId, clientId);
+            synchronized (state) {
+                if (state.removed) {
+                    // removed concurrently, the update belongs in the state that replaces it.
+                    continue;
+                }
+                if (update.clearEdits()) {
+                    state.edits = new EditLog<S>(version);
+                }
+                if (update.removeEdit() != null) {
+                    state.edits.removeUpTo(version.of(update.removeEdit()));
+                }
+                if (update.addEdit() != null) {
+                    state.edits.add(update.addEdit());
+                }
+                if (update.shadow() != null) {
+                    setShadow(state, update.shadow());
+                }
+                if (update.backupShadow() != null) {
+                    setBackupShadow(state, update.backupShadow(), update.shadow());
+                }
+                return state.snapshot();
+            }
+        }
+    }
+
+    /**
+     * Removes the state of a client.
+     * <p>
+     * The state is marked as removed under its lock before it is taken out of the map, so an update that looked
+     * it up concurrently notices and retries against a new state instead of writing into a state that is no
+     * longer reachable. The map of the document is dropped once its last client has been removed.
+     *
+     * @param documentId the document identifier.
+     * @param clientId the client identifier.
+     * @return {@link ClientSyncState} the removed state, or {@code null} if the client had no state.
+     */
+    public ClientSyncState<T, S> remove(final String documentId, final String clientId) {
+        final ConcurrentMap<String, State<T, S>> clients = states.get(documentId);
+        if (clients == null) {
+            return null;
+        }
+        final State<T, S> state = clients.get(clientId);
+        if (state == null) {
+            return null;
+        }
+        final ClientSyncState<T, S> removed;
+        synchronized (state) {
+            if (state.removed) {
+                return null;
+            }
+            state.removed = true;
+            clients.remove(clientId, state);
+            if (interner != null) {
+                interner.release(contentOf(state.shadow));
+                interner.release(contentOf(state.backupShadow == null ? null : state.backupShadow.shadow()));
+            }
+            removed = state.snapshot();
+        }
+        synchronized (clients) {
+            if (clients.isEmpty()) {
+                states.remove(documentId, clients);
+            }
+        }
+        return removed;
+    }
+
+    private void setShadow(final State<T, S> state, final ShadowDocument<T> shadow) {
+        if (interner == null) {
+            state.shadow = shadow;
+            return;
+        }
+        final ShadowDocument<T> interned = intern(shadow);
+        interner.release(contentOf(state.shadow));
+        state.shadow = interned;
+    }
+
+    private void setBackupShadow(final State<T, S> state,
+                                 final BackupShadowDocument<T> backupShadow,
+                                 final ShadowDocument<T> storedShadow) {
+        if (interner == null) {
+            state.backupShadow = backupShadow;
+            return;
+        }
+        final ShadowDocument<T> shadow = backupShadow.shadow();
+        final ShadowDocument<T> interned = intern(shadow);
+        interner.release(contentOf(state.backupShadow == null ? null : state.backupShadow.shadow()));
+        if (interned == shadow) {
+            state.backupShadow = backupShadow;
+        } else {
+            // keep a backup that was copied from the shadow pointing at the same shadow object.
+            state.backupShadow = new DefaultBackupShadowDocument<T>(backupShadow.version(),
+                    shadow == storedShadow ? state.shadow : interned);
+        }
+    }
+
+    private ShadowDocument<T> intern(final ShadowDocument<T> shadow) {
+        final ClientDocument<T> document = shadow.document();
+        final T content = interner.intern(document.content());
+        if (content == document.content()) {
+            return shadow;
+        }
+        return new DefaultShadowDocument<T>(shadow.serverVersion(), shadow.clientVersion(),
+                new DefaultClientDocument<T>(document.id(), document.clientId(), content));
+    }
+
+    private static <T> T contentOf(final ShadowDocument<T> shadow) {
+        return shadow == null ? null : shadow.document().content();
+    }
+
+    private State<T, S> get(final String documentId, final String clientId) {
+        final ConcurrentMap<String, State<T, S>> clients = states.get(documentId);
+        return clients == null ? null : clients.get(clientId);
+    }
+
+    /**
+     * Returns the state of a client, creating it if needed. The returned state may have been removed
+     * concurrently, which callers check under its lock.
+     */
+    private State<T, S> getOrCreate(final String documentId, final String clientId) {
+        while (true) {
+            ConcurrentMap<String, State<T, S>> clients = states.get(documentId);
+            if (clients == null) {
+                final ConcurrentMap<String, State<T, S>> newClients = new ConcurrentHashMap<String, State<T, S>>();
+                clients = states.putIfAbsent(documentId, newClients);
+                if (clients == null) {
+                    clients = newClients;
+                }
+            }
+            final State<T, S> state = clients.get(clientId);
+            if (state != null) {
+                return state;
+            }
+            // states are only added under the lock of a map that is still in use, see remove.
+            synchronized (clients) {
+                if (states.get(documentId) != clients) {
+                    continue;
+                }
+                State<T, S> newState = clients.get(clientId);
+                if (newState == null) {
+                    newState = new State<T, S>(new EditLog<S>(version));
+                    clients.put(clientId, newState);
+                }
+                return newState;
+            }
+        }
+    }
+
+    private static final class State<T, S extends Edit<? extends Diff>> {
+
+        private ShadowDocument<T> shadow;
+        private BackupShadowDocument<T> backupShadow;
+        private EditLog<S> edits;
+        private boolean removed;
+
+        private State(final EditLog<S> edits) {
+            this.edits = edits;
+        }
+
+        ClientSyncState<T, S> snapshot() {
+            return new DefaultClientSyncState<T, S>(shadow, backupShadow, edits.snapshot());
+        }
+    }
+
+}
@@ -0,0 +1,357 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.journal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.jboss.aerogear.sync.util.Arguments.checkNotNull;
+
+/**
+ * An append-only log of records stored in memory-mapped segment files.
+ * <p>
+ * Every record is written as its length, a CRC32 checksum and the payload. Records are appended to the
+ * current segment and a new segment is started when the current one is full. Appending only copies the
+ * record into the mapped segment, making it durable is a separate {@link #commit(long)} step, which lets
+ * concurrent writers share a single {@code fsync}: the first writer to commit flushes everything appended
+ * so far, and writers waiting behind it find their records already durable.
+ * <p>
+ * When a journal is opened, the records of all existing segments are passed to a {@link RecordHandler} in
+ * the order they were written. Replay stops at the first incomplete or corrupt record of the last segment,
+ * which is what a crash in the middle of a write leaves behind, and new records are appended from there.
+ */
+public class Journal implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(Journal.class);
+    private static final int HEADER_SIZE = 8;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final File directory;
+    private final int segmentSize;
+    private final List<Segment> segments = new ArrayList<Segment>();
+    private final Object flushLock = new Object();
+    private final CRC32 crc = new CRC32();
+    private Segment current;
+    private volatile long durablePosition;
+
+    /**
+     * Receives the records of a journal while it is replayed.
+     */
+    public interface RecordHandler {
+
+        /**
+         * Called for every record in the journal.
+         *
+         * @param position the position of the record in the journal.
+         * @param payload the payload of the record.
+         */
+        void record(long position, ByteBuffer payload);
+    }
+
+    private Journal(final File directory, final int segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Opens the journal in the specified directory, replaying all existing records.
+     *
+     * @param directory the directory that holds the segment files. Will be created if it does not exist.
+     * @param segmentSize the size of newly created segment files, in bytes.
+     * @param handler the {@link RecordHandler} that receives the existing records.
+     * @return {@code Journal} the opened journal, positioned after the last valid record.
+     * @throws IOException if the segment files cannot be read or created.
+     */
+    public static Journal open(final File directory, final int segmentSize, final RecordHandler handler)
+            throws IOException {
+        checkNotNull(directory, "directory must not be null");
+        checkNotNull(handler, "handler must not be null");
+        if (segmentSize <= HEADER_SIZE) {
+            throw new IllegalArgumentException("segmentSize must be greater than " + HEADER_SIZE);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create journal directory " + directory);
+        }
+        final Journal journal = new Journal(directory, segmentSize);
+        journal.replay(handler);
+        return journal;
+    }
+
+    /**
+     * Appends a record to the journal.
+     * <p>
+     * The record is not guaranteed to survive a crash until {@link #commit(long)} has been called with
+     * the returned position.
+     *
+     * @param payload the payload of the record.
+     * @return {@code long} the position in the journal right after the record.
+     */
+    public synchronized long append(final byte[] payload) {
+        final int recordSize = HEADER_SIZE + payload.length;
+        if (current.buffer.remaining() < recordSize + HEADER_SIZE) {
+            roll(recordSize);
+        }
+        crc.reset();
+        crc.update(payload, 0, payload.length);
+        final MappedByteBuffer buffer = current.buffer;
+        final int start = buffer.position();
+        // write the payload before the length, a record only becomes visible to replay once its length is set.
+        buffer.position(start + HEADER_SIZE);
+        buffer.put(payload);
+        buffer.putInt(start + 4, (int) crc.getValue());
+        buffer.putInt(start, payload.length);
+        return current.base + buffer.position();
+    }
+
+    /**
+     * Makes sure that all records up to the specified position are written to disk.
+     *
+     * @param position a position returned by {@link #append(byte[])}.
+     */
+    public void commit(final long position) {
+        if (durablePosition >= position) {
+            return;
+        }
+        synchronized (flushLock) {
+            if (durablePosition >= position) {
+                // a concurrent commit flushed our records as well.
+                return;
+            }
+            final Segment segment;
+            final long target;
+            synchronized (this) {
+                segment = current;
+                target = position();
+            }
+            segment.buffer.force();
+            durablePosition = target;
+        }
+    }
+
+    /**
+     * Returns the position right after the last record.
+     *
+     * @return {@code long} the current end of the journal.
+     */
+    public synchronized long position() {
+        return current.base + current.buffer.position();
+    }
+
+    /**
+     * Returns the number of bytes between the start of the oldest segment and the end of the journal.
+     *
+     * @return {@code long} the size of the journal.
+     */
+    public synchronized long size() {
+        return position() - segments.get(0).base;
+    }
+
+    /**
+     * Starts a new segment, so that all records appended from now on can outlive the current segments.
+     *
+     * @return {@code long} the position of the new segment.
+     */
+    public synchronized long startSegment() {
+        roll(0);
+        return current.base;
+    }
+
+    /**
+     * Deletes all segments that end at or before the specified position. The segment that contains the
+     * current end of the journal is never deleted.
+     *
+     * @param position the position before which records are no longer needed.
+     */
+    public synchronized void deleteBefore(final long position) {
+        for (Iterator<Segment> iterator = segments.iterator(); iterator.hasNext();) {
+            final Segment segment = iterator.next();
+            if (segment == current || segment.base + segment.buffer.capacity() > position) {
+                break;
+            }
+            iterator.remove();
+            segment.delete();
+        }
+    }
+
+    /**
+     * Discards all records from the specified position onwards, for example the records of an operation
+     * that was interrupted by a crash.
+     *
+     * @param position the position of the first record to discard.
+     */
+    public synchronized void truncate(final long position) {
+        while (segments.size() > 1 && current.base > position) {
+            segments.remove(segments.size() - 1);
+            current.delete();
+            current = segments.get(segments.size() - 1);
+        }
+        final int offset = (int) (position - current.base);
+        current.buffer.position(offset);
+        zeroFrom(current.buffer, offset);
+        current.buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (flushLock) {
+            synchronized (this) {
+                current.buffer.force();
+                durablePosition = position();
+                segments.clear();
+            }
+        }
+    }
+
+    private void replay(final RecordHandler handler) throws IOException {
+        final File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(final File dir, final String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        Arrays.sort(files);
+        long base = 0;
+        for (int i = 0; i < files.length; i++) {
+            final Segment segment = Segment.map(files[i], sequenceOf(files[i]), base, 0);
+            final boolean complete = replay(segment, handler);
+            if (!complete && i < files.length - 1) {
+                throw new IOException("Corrupt record in journal segment " + files[i]);
+            }
+            segments.add(segment);
+            base += segment.buffer.capacity();
+        }
+        if (segments.isEmpty()) {
+            current = newSegment(0, 0, segmentSize);
+            segments.add(current);
+        } else {
+            current = segments.get(segments.size() - 1);
+            // clear whatever a crash left behind after the last valid record.
+            zeroFrom(current.buffer, current.buffer.position());
+        }
+        durablePosition = position();
+    }
+
+    private boolean replay(final Segment segment, final RecordHandler handler) {
+        final MappedByteBuffer buffer = segment.buffer;
+        final CRC32 checksum = new CRC32();
+        while (buffer.remaining() >= HEADER_SIZE) {
+            final int start = buffer.position();
+            final int length = buffer.getInt(start);
+            if (length == 0) {
+                return true;
+            }
+            if (length < 0 || length > buffer.remaining() - HEADER_SIZE) {
+                logger.warn("Invalid record length " + length + " in " + segment.file + " at " + start);
+                return false;
+            }
+            final byte[] payload = new byte[length];
+            buffer.position(start + HEADER_SIZE);
+            buffer.get(payload);
+            checksum.reset();
+            checksum.update(payload, 0, length);
+            if ((int) checksum.getValue() != buffer.getInt(start + 4)) {
+                logger.warn("Checksum mismatch in " + segment.file + " at " + start);
+                buffer.position(start);
+                return false;
+            }
+            handler.record(segment.base + start, ByteBuffer.wrap(payload));
+        }
+        return true;
+    }
+
+    private void roll(final int recordSize) {
+        // the end of the current segment is implied by a zero length, force it so that replay sees it.
+        current.buffer.force();
+        final long base = current.base + current.buffer.capacity();
+        try {
+            current = newSegment(current.sequence + 1, base, Math.max(segmentSize, recordSize + HEADER_SIZE));
+        } catch (final IOException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+        segments.add(current);
+    }
+
+    private Segment newSegment(final long sequence, final long base, final int size) throws IOException {
+        final File file = new File(directory, String.format(SEGMENT_PREFIX + "%016d" + SEGMENT_SUFFIX, sequence));
+        return Segment.map(file, sequence, base, size);
+    }
+
+    private static long sequenceOf(final File file) {
+        final String name = file.getName();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static void zeroFrom(final ByteBuffer buffer, final int offset) {
+        for (int i = offset; i < buffer.capacity(); i++) {
+            if (buffer.get(i) != 0) {
+                buffer.put(i, (byte) 0);
+            }
+        }
+    }
+
+    private static final class Segment {
+
+        private final File file;
+        private final long sequence;
+        private final long base;
+        private final MappedByteBuffer buffer;
+
+        private Segment(final File file, final long sequence, final long base, final MappedByteBuffer buffer) {
+            this.file = file;
+            this.sequence = sequence;
+            this.base = base;
+            this.buffer = buffer;
+        }
+
+        static Segment map(final File file, final long sequence, final long base, final int size) throws IOException {
+            final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                if (raf.length() < size) {
+                    raf.setLength(size);
+                }
+                final MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+                return new Segment(file, sequence, base, buffer);
+            } finally {
+                // the mapping stays valid after the file is closed.
+                raf.close();
+            }
+        }
+
+        void delete() {
+            if (!file.delete()) {
+                logger.warn("Could not delete journal segment " + file);
+                file.deleteOnExit();
+            }
+        }
+    }
+
+}
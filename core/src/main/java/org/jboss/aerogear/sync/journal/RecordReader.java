@@ -0,0 +1,85 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.journal;
+
+import org.jboss.aerogear.sync.ClientDocument;
+import org.jboss.aerogear.sync.DefaultClientDocument;
+import org.jboss.aerogear.sync.DefaultShadowDocument;
+import org.jboss.aerogear.sync.Diff;
+import org.jboss.aerogear.sync.Edit;
+import org.jboss.aerogear.sync.ShadowDocument;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the fields of a {@link Journal} record that was built with a {@link RecordWriter}.
+ *
+ * @param <T> The type of the document content.
+ * @param <S> The type of {@link Edit}s.
+ */
+public final class RecordReader<T, S extends Edit<? extends Diff>> {
+
+    private final StoreCodec<T, S> codec;
+    private final ByteBuffer payload;
+
+    /**
+     * Creates a reader for a record payload, positioned at its type.
+     *
+     * @param codec the {@link StoreCodec} used to decode content and edits.
+     * @param payload the payload of the record, as passed to a {@link Journal.RecordHandler}.
+     */
+    public RecordReader(final StoreCodec<T, S> codec, final ByteBuffer payload) {
+        this.codec = codec;
+        this.payload = payload;
+    }
+
+    public byte type() {
+        return payload.get();
+    }
+
+    public long number() {
+        return payload.getLong();
+    }
+
+    public String string() {
+        final int length = payload.getInt();
+        if (length < 0) {
+            return null;
+        }
+        final String value = new String(payload.array(), payload.arrayOffset() + payload.position(), length,
+                RecordWriter.UTF_8);
+        payload.position(payload.position() + length);
+        return value;
+    }
+
+    public ShadowDocument<T> shadow() {
+        final long serverVersion = number();
+        final long clientVersion = number();
+        final ClientDocument<T> document = new DefaultClientDocument<T>(string(), string(), content());
+        return new DefaultShadowDocument<T>(serverVersion, clientVersion, document);
+    }
+
+    public T content() {
+        final String encoded = string();
+        return encoded == null ? null : codec.decodeContent(encoded);
+    }
+
+    public S edit() {
+        return codec.decodeEdit(string());
+    }
+
+}
@@ -0,0 +1,102 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.journal;
+
+import org.jboss.aerogear.sync.Diff;
+import org.jboss.aerogear.sync.Edit;
+import org.jboss.aerogear.sync.ShadowDocument;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Builds the payload of a {@link Journal} record, starting with a type byte followed by the fields that
+ * are added. The fields are read back in the same order with a {@link RecordReader}.
+ *
+ * @param <T> The type of the document content.
+ * @param <S> The type of {@link Edit}s.
+ */
+public final class RecordWriter<T, S extends Edit<? extends Diff>> {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final StoreCodec<T, S> codec;
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+    private final DataOutputStream out = new DataOutputStream(bytes);
+
+    /**
+     * Starts a record of the specified type.
+     *
+     * @param codec the {@link StoreCodec} used to encode content and edits.
+     * @param type the type of the record.
+     */
+    public RecordWriter(final StoreCodec<T, S> codec, final byte type) {
+        this.codec = codec;
+        try {
+            out.writeByte(type);
+        } catch (final IOException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    public RecordWriter<T, S> number(final long value) {
+        try {
+            out.writeLong(value);
+        } catch (final IOException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+        return this;
+    }
+
+    public RecordWriter<T, S> string(final String value) {
+        try {
+            if (value == null) {
+                out.writeInt(-1);
+            } else {
+                final byte[] encoded = value.getBytes(UTF_8);
+                out.writeInt(encoded.length);
+                out.write(encoded);
+            }
+        } catch (final IOException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+        return this;
+    }
+
+    public RecordWriter<T, S> shadow(final ShadowDocument<T> shadow) {
+        return number(shadow.serverVersion())
+                .number(shadow.clientVersion())
+                .string(shadow.document().id())
+                .string(shadow.document().clientId())
+                .content(shadow.document().content());
+    }
+
+    public RecordWriter<T, S> content(final T content) {
+        return string(content == null ? null : codec.encodeContent(content));
+    }
+
+    public RecordWriter<T, S> edit(final S edit) {
+        return string(codec.encodeEdit(edit));
+    }
+
+    public byte[] toByteArray() {
+        return bytes.toByteArray();
+    }
+
+}
@@ -0,0 +1,62 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.journal;
+
+import org.jboss.aerogear.sync.Diff;
+import org.jboss.aerogear.sync.Edit;
+
+/**
+ * Converts document content and {@link Edit}s to and from the strings that are written to a {@link Journal}.
+ *
+ * @param <T> The type of the document content.
+ * @param <S> The type of {@link Edit}s.
+ */
+public interface StoreCodec<T, S extends Edit<? extends Diff>> {
+
+    /**
+     * Encodes document content.
+     *
+     * @param content the content to encode, never {@code null}.
+     * @return {@code String} the encoded content.
+     */
+    String encodeContent(T content);
+
+    /**
+     * Decodes content that was encoded by {@link #encodeContent(Object)}.
+     *
+     * @param encoded the encoded content.
+     * @return {@code T} the decoded content.
+     */
+    T decodeContent(String encoded);
+
+    /**
+     * Encodes an {@link Edit}.
+     *
+     * @param edit the edit to encode.
+     * @return {@code String} the encoded edit.
+     */
+    String encodeEdit(S edit);
+
+    /**
+     * Decodes an {@link Edit} that was encoded by {@link #encodeEdit(Edit)}.
+     *
+     * @param encoded the encoded edit.
+     * @return {@code S} the decoded edit.
+     */
+    S decodeEdit(String encoded);
+
+}
@@ -0,0 +1,144 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.metrics;
+
+import org.jboss.aerogear.sync.SyncMetrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * A {@link SyncMetrics} implementation that keeps a {@link Histogram} per measurement in memory.
+ * <p>
+ * The collected values can be read with {@link #snapshot()}, for example from tests or admin tooling.
+ */
+public class InMemorySyncMetrics implements SyncMetrics {
+
+    private final Map<Stage, Histogram> latencies = new EnumMap<Stage, Histogram>(Stage.class);
+    private final Histogram edits = new Histogram();
+    private final Histogram payloadBytes = new Histogram();
+    private final Histogram pendingEdits = new Histogram();
+    private final Histogram subscribers = new Histogram();
+
+    public InMemorySyncMetrics() {
+        for (Stage stage : Stage.values()) {
+            latencies.put(stage, new Histogram());
+        }
+    }
+
+    @Override
+    public void recordLatency(final Stage stage, final long nanos) {
+        latencies.get(stage).record(nanos);
+    }
+
+    @Override
+    public void recordEdits(final int edits) {
+        this.edits.record(edits);
+    }
+
+    @Override
+    public void recordPayloadBytes(final int bytes) {
+        payloadBytes.record(bytes);
+    }
+
+    @Override
+    public void recordPendingEdits(final int pendingEdits) {
+        this.pendingEdits.record(pendingEdits);
+    }
+
+    @Override
+    public void recordSubscribers(final int subscribers) {
+        this.subscribers.record(subscribers);
+    }
+
+    /**
+     * Returns a snapshot of all the values recorded so far.
+     *
+     * @return {@link Snapshot} the current state of all histograms.
+     */
+    public Snapshot snapshot() {
+        final Map<Stage, Histogram.Snapshot> latencySnapshots = new EnumMap<Stage, Histogram.Snapshot>(Stage.class);
+        for (Map.Entry<Stage, Histogram> entry : latencies.entrySet()) {
+            latencySnapshots.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return new Snapshot(latencySnapshots,
+                edits.snapshot(),
+                payloadBytes.snapshot(),
+                pendingEdits.snapshot(),
+                subscribers.snapshot());
+    }
+
+    /**
+     * The state of an {@link InMemorySyncMetrics} at a point in time.
+     */
+    public static final class Snapshot {
+
+        private final Map<Stage, Histogram.Snapshot> latencies;
+        private final Histogram.Snapshot edits;
+        private final Histogram.Snapshot payloadBytes;
+        private final Histogram.Snapshot pendingEdits;
+        private final Histogram.Snapshot subscribers;
+
+        private Snapshot(final Map<Stage, Histogram.Snapshot> latencies,
+                         final Histogram.Snapshot edits,
+                         final Histogram.Snapshot payloadBytes,
+                         final Histogram.Snapshot pendingEdits,
+                         final Histogram.Snapshot subscribers) {
+            this.latencies = latencies;
+            this.edits = edits;
+            this.payloadBytes = payloadBytes;
+            this.pendingEdits = pendingEdits;
+            this.subscribers = subscribers;
+        }
+
+        /**
+         * Returns the latencies recorded for a stage, in nanoseconds.
+         *
+         * @param stage the {@link Stage}.
+         * @return {@link Histogram.Snapshot} the latencies of the stage.
+         */
+        public Histogram.Snapshot latency(final Stage stage) {
+            return latencies.get(stage);
+        }
+
+        public Histogram.Snapshot edits() {
+            return edits;
+        }
+
+        public Histogram.Snapshot payloadBytes() {
+            return payloadBytes;
+        }
+
+        public Histogram.Snapshot pendingEdits() {
+            return pendingEdits;
+        }
+
+        public Histogram.Snapshot subscribers() {
+            return subscribers;
+        }
+
+        @Override
+        public String toString() {
+            return "SyncMetrics[latencies=" + latencies +
+                    ", edits=" + edits +
+                    ", payloadBytes=" + payloadBytes +
+                    ", pendingEdits=" + pendingEdits +
+                    ", subscribers=" + subscribers + ']';
+        }
+    }
+
+}
@@ -0,0 +1,51 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.metrics;
+
+import org.jboss.aerogear.sync.SyncMetrics;
+
+/**
+ * A {@link SyncMetrics} implementation that discards all measurements.
+ */
+public final class NoopSyncMetrics implements SyncMetrics {
+
+    public static final NoopSyncMetrics INSTANCE = new NoopSyncMetrics();
+
+    private NoopSyncMetrics() {
+    }
+
+    @Override
+    public void recordLatency(final Stage stage, final long nanos) {
+    }
+
+    @Override
+    public void recordEdits(final int edits) {
+    }
+
+    @Override
+    public void recordPayloadBytes(final int bytes) {
+    }
+
+    @Override
+    public void recordPendingEdits(final int pendingEdits) {
+    }
+
+    @Override
+    public void recordSubscribers(final int subscribers) {
+    }
+
+}
@@ -0,0 +1,115 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync;
+
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.Queue;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class EditLogTest {
+
+    @Test
+    public void addKeepsOrder() {
+        final EditLog<Edit<Diff>> log = new EditLog<Edit<Diff>>(EditLog.Version.SERVER);
+        final Edit<Diff> one = edit(0, 0);
+        final Edit<Diff> two = edit(1, 0);
+        log.add(one);
+        log.add(two);
+        final Iterator<Edit<Diff>> edits = log.snapshot().iterator();
+        assertThat(edits.next(), is(sameInstance(one)));
+        assertThat(edits.next(), is(sameInstance(two)));
+        assertThat(edits.hasNext(), is(false));
+    }
+
+    @Test
+    public void removeUpToServerVersion() {
+        final EditLog<Edit<Diff>> log = new EditLog<Edit<Diff>>(EditLog.Version.SERVER);
+        for (int i = 0; i < 100; i++) {
+            log.add(edit(i, 0));
+        }
+        log.removeUpTo(97);
+        assertThat(log.size(), is(2));
+        assertThat(log.snapshot().peek().serverVersion(), is(98L));
+        log.removeUpTo(200);
+        assertThat(log.size(), is(0));
+        assertThat(log.snapshot().peek(), is(nullValue()));
+    }
+
+    @Test
+    public void removeUpToClientVersion() {
+        final EditLog<Edit<Diff>> log = new EditLog<Edit<Diff>>(EditLog.Version.CLIENT);
+        log.add(edit(5, 0));
+        log.add(edit(5, 1));
+        log.add(edit(5, 2));
+        log.removeUpTo(1);
+        assertThat(log.size(), is(1));
+        assertThat(log.snapshot().peek().clientVersion(), is(2L));
+    }
+
+    @Test
+    public void removeUpToWithUnorderedVersions() {
+        final EditLog<Edit<Diff>> log = new EditLog<Edit<Diff>>(EditLog.Version.SERVER);
+        log.add(edit(3, 0));
+        log.add(edit(1, 0));
+        log.add(edit(4, 0));
+        log.add(edit(2, 0));
+        log.removeUpTo(2);
+        final Iterator<Edit<Diff>> edits = log.snapshot().iterator();
+        assertThat(edits.next().serverVersion(), is(3L));
+        assertThat(edits.next().serverVersion(), is(4L));
+        assertThat(edits.hasNext(), is(false));
+    }
+
+    @Test
+    public void snapshotIsNotAffectedByLaterChanges() {
+        final EditLog<Edit<Diff>> log = new EditLog<Edit<Diff>>(EditLog.Version.SERVER);
+        log.add(edit(0, 0));
+        log.add(edit(1, 0));
+        final Queue<Edit<Diff>> snapshot = log.snapshot();
+        log.removeUpTo(0);
+        for (int i = 2; i < 50; i++) {
+            log.add(edit(i, 0));
+        }
+        assertThat(snapshot.size(), is(2));
+        assertThat(snapshot.poll().serverVersion(), is(0L));
+        assertThat(snapshot.poll().serverVersion(), is(1L));
+        assertThat(snapshot.poll(), is(nullValue()));
+        assertThat(log.size(), is(49));
+    }
+
+    @Test (expected = UnsupportedOperationException.class)
+    public void snapshotIsReadOnly() {
+        new EditLog<Edit<Diff>>(EditLog.Version.SERVER).snapshot().add(edit(0, 0));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Edit<Diff> edit(final long serverVersion, final long clientVersion) {
+        final Edit<Diff> edit = mock(Edit.class);
+        when(edit.serverVersion()).thenReturn(serverVersion);
+        when(edit.clientVersion()).thenReturn(clientVersion);
+        return edit;
+    }
+
+}
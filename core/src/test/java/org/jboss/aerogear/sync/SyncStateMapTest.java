@@ -0,0 +1,103 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class SyncStateMapTest {
+
+    @Test
+    public void removeReleasesInternedContents() {
+        final ContentInterner<String> interner = new ContentInterner<String>();
+        final SyncStateMap<String, Edit<Diff>> map = new SyncStateMap<String, Edit<Diff>>(EditLog.Version.SERVER, interner);
+        map.updateSyncState("1234", "client1", update("1234", "client1", "content"));
+        assertThat(interner.references(), is(2L));
+        assertThat(map.remove("1234", "client1").shadow().document().content(), equalTo("content"));
+        assertThat(map.remove("1234", "client1"), is(nullValue()));
+        assertThat(interner.references(), is(0L));
+    }
+
+    @Test
+    public void updateAfterRemoveCreatesNewState() {
+        final SyncStateMap<String, Edit<Diff>> map = new SyncStateMap<String, Edit<Diff>>(EditLog.Version.SERVER);
+        map.updateSyncState("1234", "client1", update("1234", "client1", "first"));
+        map.remove("1234", "client1");
+        map.updateSyncState("1234", "client1", update("1234", "client1", "second"));
+        assertThat(map.getShadowDocument("1234", "client1").document().content(), equalTo("second"));
+        assertThat(map.getBackupShadowDocument("1234", "client1").shadow().document().content(), equalTo("second"));
+    }
+
+    @Test
+    public void concurrentUpdatesAndRemovesDoNotLeakContents() throws Exception {
+        final ContentInterner<String> interner = new ContentInterner<String>();
+        final SyncStateMap<String, Edit<Diff>> map = new SyncStateMap<String, Edit<Diff>>(EditLog.Version.SERVER, interner);
+        final int threads = 4;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicInteger failures = new AtomicInteger();
+        for (int t = 0; t < threads; t++) {
+            final boolean remover = t % 2 == 0;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < 10000; i++) {
+                            if (remover) {
+                                map.remove("1234", "client" + i % 3);
+                            } else {
+                                map.updateSyncState("1234", "client" + i % 3, update("1234", "client" + i % 3, "c" + i % 7));
+                            }
+                        }
+                    } catch (final Throwable e) {
+                        failures.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        start.countDown();
+        done.await();
+        assertThat(failures.get(), is(0));
+        for (int i = 0; i < 3; i++) {
+            map.remove("1234", "client" + i);
+        }
+        assertThat(interner.references(), is(0L));
+        assertThat(interner.distinctContents(), is(0));
+    }
+
+    private static SyncStateUpdate<String, Edit<Diff>> update(final String documentId,
+                                                             final String clientId,
+                                                             final String content) {
+        final ShadowDocument<String> shadow = new DefaultShadowDocument<String>(0, 0,
+                new DefaultClientDocument<String>(documentId, clientId, content));
+        return SyncStateUpdate.<String, Edit<Diff>>builder()
+                .shadow(shadow)
+                .backupShadow(new DefaultBackupShadowDocument<String>(0, shadow))
+                .build();
+    }
+
+}
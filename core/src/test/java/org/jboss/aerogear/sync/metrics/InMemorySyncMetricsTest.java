@@ -0,0 +1,76 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.metrics;
+
+import org.jboss.aerogear.sync.SyncMetrics.Stage;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class InMemorySyncMetricsTest {
+
+    @Test
+    public void recordLatency() {
+        final InMemorySyncMetrics metrics = new InMemorySyncMetrics();
+        metrics.recordLatency(Stage.DIFF, 100);
+        metrics.recordLatency(Stage.DIFF, 300);
+        final Histogram.Snapshot diff = metrics.snapshot().latency(Stage.DIFF);
+        assertThat(diff.count(), is(2L));
+        assertThat(diff.sum(), is(400L));
+        assertThat(diff.max(), is(300L));
+        assertThat(diff.mean(), equalTo(200.0));
+        assertThat(metrics.snapshot().latency(Stage.PATCH).count(), is(0L));
+    }
+
+    @Test
+    public void recordCounts() {
+        final InMemorySyncMetrics metrics = new InMemorySyncMetrics();
+        metrics.recordEdits(2);
+        metrics.recordPayloadBytes(512);
+        metrics.recordPendingEdits(3);
+        metrics.recordSubscribers(10);
+        final InMemorySyncMetrics.Snapshot snapshot = metrics.snapshot();
+        assertThat(snapshot.edits().max(), is(2L));
+        assertThat(snapshot.payloadBytes().max(), is(512L));
+        assertThat(snapshot.pendingEdits().max(), is(3L));
+        assertThat(snapshot.subscribers().max(), is(10L));
+    }
+
+    @Test
+    public void percentiles() {
+        final Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        final Histogram.Snapshot snapshot = histogram.snapshot();
+        // 50 falls into the [32, 64) bucket.
+        assertThat(snapshot.percentile(0.5), is(63L));
+        assertThat(snapshot.percentile(1.0), is(100L));
+        assertThat(snapshot.percentile(0.0), is(1L));
+    }
+
+    @Test
+    public void emptyHistogram() {
+        final Histogram.Snapshot snapshot = new Histogram().snapshot();
+        assertThat(snapshot.count(), is(0L));
+        assertThat(snapshot.mean(), equalTo(0.0));
+        assertThat(snapshot.percentile(0.99), is(0L));
+    }
+
+}
@@ -180,6 +180,31 @@ public class ServerSyncEngineIntegrationTest {
         assertThat(thirdDiffs.get(2).operation(), is(Operation.UNCHANGED));
     }
 
+    @Test
+    public void patchWithAlreadyAppliedEdit() {
+        final String documentId = UUID.randomUUID().toString();
+        final String clientId = "client1";
+        final String originalVersion = "Do or do not, there is no try.";
+        final String versionOne = "Do or do not, there is no try!";
+        final String versionTwo = "Do or do nothing, there is no try!";
+
+        final ClientSyncEngine<String, DiffMatchPatchEdit> clientSyncEngine = clientSyncEngine();
+        clientSyncEngine.addDocument(newClientDoc(documentId, originalVersion, clientId));
+        serverSyncEngine.addSubscriber(new MockSubscriber(clientId), newDoc(documentId, originalVersion));
+
+        serverSyncEngine.patch(clientSyncEngine.diff(newClientDoc(documentId, versionOne, clientId)));
+        // the server's reply was not received so the first edit is sent again along with the second.
+        final PatchMessage<DiffMatchPatchEdit> patchMessage = clientSyncEngine.diff(newClientDoc(documentId, versionTwo, clientId));
+        assertThat(patchMessage.edits().size(), is(2));
+
+        final PatchMessage<DiffMatchPatchEdit> applied = serverSyncEngine.patch(patchMessage);
+        assertThat(patchMessage.edits().size(), is(2));
+        assertThat(applied.edits().size(), is(1));
+        assertThat(applied.edits().peek().clientVersion(), is(1L));
+        assertThat(dataStore.getDocument(documentId).content(), equalTo(versionTwo));
+        assertThat(dataStore.getShadowDocument(documentId, clientId).clientVersion(), is(2L));
+    }
+
     private static ClientDocument<String> newClientDoc(final String documentId, final String content, final String clientId) {
         return new DefaultClientDocument<String>(documentId, clientId, content);
     }
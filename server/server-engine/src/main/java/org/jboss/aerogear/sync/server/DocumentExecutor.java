@@ -0,0 +1,403 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.jboss.aerogear.sync.util.Arguments.checkNotNull;
+
+/**
+ * Executes tasks so that all tasks for the same document run strictly one after the other,
+ * in the order they were submitted, while tasks for different documents run in parallel.
+ * <p>
+ * Every document gets a lock-free mailbox. The first task submitted to an idle mailbox schedules
+ * a drain of that mailbox on the underlying {@link Executor}, and tasks submitted while the mailbox
+ * is being drained are picked up by that same drain. This makes it safe to run the read-modify-write
+ * cycles of {@link ServerSyncEngine} concurrently, as long as every operation that touches a
+ * document is submitted with that document's identifier.
+ * <p>
+ * Mailboxes are removed as soon as they become idle, so documents that are no longer edited do not
+ * hold on to a mailbox.
+ * <p>
+ * To keep a single busy document from occupying a thread of the underlying {@link Executor} indefinitely,
+ * a drain runs at most {@code budget} tasks before the mailbox is handed back to the {@link Executor}. With
+ * an {@link Executor} that queues in FIFO order this round-robins between the documents that have work.
+ * Within a document, tasks submitted with {@link Priority#INTERACTIVE} run before pending
+ * {@link Priority#BACKGROUND} tasks, except that every {@value #BACKGROUND_INTERVAL}th task is taken from
+ * the background tasks so that they cannot be starved by a steady stream of interactive tasks.
+ * <p>
+ * If the underlying {@link Executor} rejects a mailbox, the mailbox is drained on the thread that tried
+ * to schedule it, like the {@link DocumentExecutor#DocumentExecutor() default constructor} does, so that
+ * no task that was accepted is lost and the document keeps being scheduled.
+ * <p>
+ * The {@link DocumentStats} of a document are cumulative. While the document is busy they are counted in
+ * its mailbox, and when the mailbox is removed they are added to the totals of the document, which are kept
+ * for the {@value #RETAINED_STATS} documents that were busy most recently.
+ */
+public class DocumentExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(DocumentExecutor.class);
+    private static final int RETIRED = -1;
+    private static final int BACKGROUND_INTERVAL = 8;
+    private static final int RETAINED_STATS = 1024;
+
+    /**
+     * The default number of tasks a drain of a mailbox runs before it yields.
+     */
+    public static final int DEFAULT_BUDGET = 64;
+
+    /**
+     * The scheduling priority of a task within the mailbox of its document.
+     */
+    public enum Priority {
+        /**
+         * Work on behalf of a client that is editing the document, like applying its patches.
+         */
+        INTERACTIVE,
+        /**
+         * Work that can wait for interactive work, like notifying subscribers of changes.
+         */
+        BACKGROUND
+    }
+
+    private final ConcurrentMap<String, Mailbox> mailboxes = new ConcurrentHashMap<String, Mailbox>();
+    // the totals of documents whose mailbox has been removed, least recently busy first.
+    private final Map<String, Totals> retainedStats = new LinkedHashMap<String, Totals>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Totals> eldest) {
+            return size() > RETAINED_STATS;
+        }
+    };
+    private final Executor executor;
+    private final int budget;
+
+    /**
+     * Creates a DocumentExecutor that drains mailboxes on the thread that submitted the first task.
+     * <p>
+     * Tasks submitted by other threads while a mailbox is being drained are run by the draining
+     * thread, so tasks for one document are still serialized without requiring a separate thread pool.
+     * As there is no other thread to yield to, drains are not limited by a budget.
+     * <p>
+     * This is meant for tests. A submitting thread can end up running an unbounded number of tasks,
+     * which for an I/O thread means that it stops serving its other connections meanwhile.
+     */
+    public DocumentExecutor() {
+        this(new CallerRunsExecutor(), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates a DocumentExecutor that drains mailboxes using the passed-in {@link Executor} and
+     * the {@link #DEFAULT_BUDGET}.
+     *
+     * @param executor the {@link Executor} used to drain document mailboxes.
+     */
+    public DocumentExecutor(final Executor executor) {
+        this(executor, DEFAULT_BUDGET);
+    }
+
+    /**
+     * Creates a DocumentExecutor that drains mailboxes using the passed-in {@link Executor}.
+     *
+     * @param executor the {@link Executor} used to drain document mailboxes.
+     * @param budget the maximum number of tasks a drain runs before the mailbox is rescheduled.
+     */
+    public DocumentExecutor(final Executor executor, final int budget) {
+        this.executor = checkNotNull(executor, "executor must not be null");
+        if (budget < 1) {
+            throw new IllegalArgumentException("budget must be greater than zero");
+        }
+        this.budget = budget;
+    }
+
+    /**
+     * Submits an {@link Priority#INTERACTIVE} task for the specified document.
+     *
+     * @param documentId the identifier of the document that the task operates on.
+     * @param task the task to be executed.
+     */
+    public void execute(final String documentId, final Runnable task) {
+        execute(documentId, task, Priority.INTERACTIVE);
+    }
+
+    /**
+     * Submits a task for the specified document.
+     *
+     * @param documentId the identifier of the document that the task operates on.
+     * @param task the task to be executed.
+     * @param priority the {@link Priority} of the task.
+     */
+    public void execute(final String documentId, final Runnable task, final Priority priority) {
+        checkNotNull(documentId, "documentId must not be null");
+        checkNotNull(task, "task must not be null");
+        checkNotNull(priority, "priority must not be null");
+        final QueuedTask queuedTask = new QueuedTask(task, priority);
+        while (true) {
+            Mailbox mailbox = mailboxes.get(documentId);
+            if (mailbox == null) {
+                final Mailbox newMailbox = new Mailbox(documentId);
+                mailbox = mailboxes.putIfAbsent(documentId, newMailbox);
+                if (mailbox == null) {
+                    mailbox = newMailbox;
+                }
+            }
+            if (mailbox.offer(queuedTask)) {
+                return;
+            }
+            // the mailbox was retired after we looked it up, make sure it is gone and try again.
+            mailboxes.remove(documentId, mailbox);
+        }
+    }
+
+    /**
+     * Returns the number of documents that currently have tasks pending or running.
+     *
+     * @return {@code int} the number of active document mailboxes.
+     */
+    public int activeDocuments() {
+        return mailboxes.size();
+    }
+
+    /**
+     * Returns statistics for the documents that currently have tasks pending or running and for the documents
+     * whose statistics are retained.
+     *
+     * @return {@code List<DocumentStats>} a snapshot of the statistics of all known documents.
+     */
+    public List<DocumentStats> stats() {
+        synchronized (retainedStats) {
+            final List<DocumentStats> stats = new ArrayList<DocumentStats>(retainedStats.size() + mailboxes.size());
+            for (Map.Entry<String, Totals> entry : retainedStats.entrySet()) {
+                if (!mailboxes.containsKey(entry.getKey())) {
+                    stats.add(entry.getValue().stats(entry.getKey(), null));
+                }
+            }
+            for (Mailbox mailbox : mailboxes.values()) {
+                stats.add(stats(mailbox.documentId, mailbox));
+            }
+            return stats;
+        }
+    }
+
+    /**
+     * Returns the cumulative statistics for the specified document.
+     *
+     * @param documentId the identifier of the document.
+     * @return {@code DocumentStats} a snapshot of the document's statistics, or {@code null} if the
+     * document has no tasks pending or running and its statistics are not retained.
+     */
+    public DocumentStats stats(final String documentId) {
+        synchronized (retainedStats) {
+            return stats(documentId, mailboxes.get(documentId));
+        }
+    }
+
+    // must be called while holding the retainedStats monitor.
+    private DocumentStats stats(final String documentId, final Mailbox mailbox) {
+        final Totals totals = retainedStats.get(documentId);
+        final Mailbox live = mailbox == null || mailbox.pending.get() == RETIRED ? null : mailbox;
+        if (totals == null && live == null) {
+            return null;
+        }
+        return (totals == null ? new Totals() : totals).stats(documentId, live);
+    }
+
+    private final class Mailbox implements Runnable {
+
+        private final String documentId;
+        private final Queue<QueuedTask> interactiveTasks = new ConcurrentLinkedQueue<QueuedTask>();
+        private final Queue<QueuedTask> backgroundTasks = new ConcurrentLinkedQueue<QueuedTask>();
+        // number of tasks submitted but not yet completed, or RETIRED once the mailbox has been removed.
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicLong executed = new AtomicLong();
+        private final AtomicLong totalWaitNanos = new AtomicLong();
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+        // only accessed by the draining thread.
+        private int polls;
+
+        private Mailbox(final String documentId) {
+            this.documentId = documentId;
+        }
+
+        boolean offer(final QueuedTask task) {
+            while (true) {
+                final int current = pending.get();
+                if (current == RETIRED) {
+                    return false;
+                }
+                if (pending.compareAndSet(current, current + 1)) {
+                    queueFor(task.priority).add(task);
+                    if (current == 0 && !schedule()) {
+                        // the pending count already accounts for the task, so it has to run.
+                        run();
+                    }
+                    return true;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            for (int ran = 1; ; ran++) {
+                runSafely(nextTask());
+                if (completed()) {
+                    return;
+                }
+                if (ran == budget) {
+                    // give other documents a turn, the pending count keeps this mailbox scheduled.
+                    if (schedule()) {
+                        return;
+                    }
+                    ran = 0;
+                }
+            }
+        }
+
+        /**
+         * Hands this mailbox to the underlying executor.
+         *
+         * @return {@code true} if the executor accepted the mailbox, {@code false} if the caller has to
+         * keep draining it.
+         */
+        private boolean schedule() {
+            try {
+                executor.execute(this);
+                return true;
+            } catch (final RejectedExecutionException e) {
+                logger.warn("Executor rejected mailbox of document [" + documentId
+                        + "], draining it on the calling thread");
+                return false;
+            }
+        }
+
+        private Queue<QueuedTask> queueFor(final Priority priority) {
+            return priority == Priority.INTERACTIVE ? interactiveTasks : backgroundTasks;
+        }
+
+        private QueuedTask nextTask() {
+            final boolean backgroundFirst = ++polls % BACKGROUND_INTERVAL == 0;
+            final Queue<QueuedTask> first = backgroundFirst ? backgroundTasks : interactiveTasks;
+            final Queue<QueuedTask> second = backgroundFirst ? interactiveTasks : backgroundTasks;
+            QueuedTask task;
+            // pending is incremented before the task is added, so a concurrent offer might not have
+            // added its task yet.
+            while ((task = first.poll()) == null && (task = second.poll()) == null) {
+                Thread.yield();
+            }
+            return task;
+        }
+
+        private void recordWait(final long waitNanos) {
+            executed.incrementAndGet();
+            totalWaitNanos.addAndGet(waitNanos);
+            long max;
+            while (waitNanos > (max = maxWaitNanos.get()) && !maxWaitNanos.compareAndSet(max, waitNanos)) {
+                // retry with the updated maximum.
+            }
+        }
+
+        private boolean completed() {
+            while (true) {
+                final int current = pending.get();
+                if (current == 1) {
+                    synchronized (retainedStats) {
+                        if (!pending.compareAndSet(1, RETIRED)) {
+                            continue;
+                        }
+                        Totals totals = retainedStats.get(documentId);
+                        if (totals == null) {
+                            totals = new Totals();
+                            retainedStats.put(documentId, totals);
+                        }
+                        totals.add(this);
+                    }
+                    mailboxes.remove(documentId, this);
+                    return true;
+                } else if (pending.compareAndSet(current, current - 1)) {
+                    return false;
+                }
+            }
+        }
+
+        private void runSafely(final QueuedTask task) {
+            recordWait(System.nanoTime() - task.enqueuedNanos);
+            try {
+                task.task.run();
+            } catch (final Throwable t) {
+                logger.error("Task for document [" + documentId + "] failed", t);
+            }
+        }
+    }
+
+    /**
+     * The statistics of the past busy periods of a document, guarded by the retainedStats monitor.
+     */
+    private static final class Totals {
+
+        private long executed;
+        private long totalWaitNanos;
+        private long maxWaitNanos;
+
+        void add(final Mailbox mailbox) {
+            executed += mailbox.executed.get();
+            totalWaitNanos += mailbox.totalWaitNanos.get();
+            maxWaitNanos = Math.max(maxWaitNanos, mailbox.maxWaitNanos.get());
+        }
+
+        DocumentStats stats(final String documentId, final Mailbox live) {
+            if (live == null) {
+                return new DocumentStats(documentId, 0, executed, totalWaitNanos, maxWaitNanos);
+            }
+            return new DocumentStats(documentId, Math.max(live.pending.get(), 0), executed + live.executed.get(),
+                    totalWaitNanos + live.totalWaitNanos.get(), Math.max(maxWaitNanos, live.maxWaitNanos.get()));
+        }
+    }
+
+    private static final class QueuedTask {
+
+        private final Runnable task;
+        private final Priority priority;
+        private final long enqueuedNanos = System.nanoTime();
+
+        private QueuedTask(final Runnable task, final Priority priority) {
+            this.task = task;
+            this.priority = priority;
+        }
+    }
+
+    private static class CallerRunsExecutor implements Executor {
+
+        @Override
+        public void execute(final Runnable command) {
+            command.run();
+        }
+    }
+
+}
@@ -0,0 +1,88 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.server;
+
+/**
+ * A snapshot of the scheduling statistics of a document in a {@link DocumentExecutor}.
+ * <p>
+ * Statistics are cumulative across the busy periods of the document, for as long as the executor
+ * retains them.
+ */
+public final class DocumentStats {
+
+    private final String documentId;
+    private final int queueDepth;
+    private final long executedTasks;
+    private final long totalWaitNanos;
+    private final long maxWaitNanos;
+
+    DocumentStats(final String documentId,
+                  final int queueDepth,
+                  final long executedTasks,
+                  final long totalWaitNanos,
+                  final long maxWaitNanos) {
+        this.documentId = documentId;
+        this.queueDepth = queueDepth;
+        this.executedTasks = executedTasks;
+        this.totalWaitNanos = totalWaitNanos;
+        this.maxWaitNanos = maxWaitNanos;
+    }
+
+    public String documentId() {
+        return documentId;
+    }
+
+    /**
+     * Returns the number of tasks that are queued or running for the document.
+     *
+     * @return {@code int} the number of tasks that have not completed yet.
+     */
+    public int queueDepth() {
+        return queueDepth;
+    }
+
+    public long executedTasks() {
+        return executedTasks;
+    }
+
+    /**
+     * Returns the average time tasks waited in the queue before they started running.
+     *
+     * @return {@code long} the average wait time in nanoseconds.
+     */
+    public long averageWaitNanos() {
+        return executedTasks == 0 ? 0 : totalWaitNanos / executedTasks;
+    }
+
+    /**
+     * Returns the longest time a task waited in the queue before it started running.
+     *
+     * @return {@code long} the maximum wait time in nanoseconds.
+     */
+    public long maxWaitNanos() {
+        return maxWaitNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "DocumentStats[documentId=" + documentId +
+                ", queueDepth=" + queueDepth +
+                ", executedTasks=" + executedTasks +
+                ", averageWaitNanos=" + averageWaitNanos() +
+                ", maxWaitNanos=" + maxWaitNanos + ']';
+    }
+}
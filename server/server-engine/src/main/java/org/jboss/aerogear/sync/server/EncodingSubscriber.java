@@ -0,0 +1,49 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.server;
+
+import org.jboss.aerogear.sync.PatchMessage;
+
+/**
+ * A {@link Subscriber} that sends {@link PatchMessage}s in an encoded form produced by a {@link PatchMessageEncoder}.
+ * <p>
+ * When notifying subscribers, {@link ServerSyncEngine} encodes the messages of all subscribers using the same
+ * encoder within a single {@link PatchMessageEncoder.Broadcast}, so that diffs shared by several clients are
+ * only serialized once per fan-out.
+ *
+ * @param <T> type of the channel of this subscriber.
+ * @param <E> type of the encoded form of the patch messages.
+ */
+public interface EncodingSubscriber<T, E> extends Subscriber<T> {
+
+    /**
+     * The encoder used to encode the {@link PatchMessage}s sent to this subscriber.
+     *
+     * @return {@link PatchMessageEncoder} the encoder of this subscriber.
+     */
+    PatchMessageEncoder<E> encoder();
+
+    /**
+     * Is called when this subscribers underlying document has been patched, with the patch message
+     * already encoded.
+     *
+     * @param patchMessage the result of patching this subscribers underlying document.
+     * @param encoded the encoded form of the patch message, which is owned by this subscriber.
+     */
+    void patched(PatchMessage<?> patchMessage, E encoded);
+
+}
@@ -0,0 +1,218 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.server;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import org.jboss.aerogear.sync.Diff;
+import org.jboss.aerogear.sync.Edit;
+import org.jboss.aerogear.sync.PatchMessage;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes {@link PatchMessage}s into the wire format of a transport.
+ * <p>
+ * When a document is updated every subscriber receives its own {@code PatchMessage}, but the diffs in those
+ * messages are shared by all clients whose shadow documents were identical, see
+ * {@link ServerSynchronizer#copyEdit(Edit, org.jboss.aerogear.sync.ShadowDocument)}. A {@link Broadcast}
+ * therefore serializes each shared diff once and only writes the small per client envelope, that is the
+ * document and client identifiers and the versions and checksums of the edits, for every subscriber.
+ * <p>
+ * A {@code Broadcast} is confined to a single fan-out and must be closed when the fan-out ends, which releases
+ * everything that was encoded for it.
+ *
+ * @param <E> the type of the encoded form, for example a {@code String} or a buffer.
+ */
+public abstract class PatchMessageEncoder<E> {
+
+    private static final JsonStringEncoder JSON_STRING_ENCODER = JsonStringEncoder.getInstance();
+
+    /**
+     * Returns the encoded form of the passed-in {@link PatchMessage}, without sharing anything with other messages.
+     *
+     * @param patchMessage the {@link PatchMessage} to encode.
+     * @return {@code E} the encoded form of the patch message, which is owned by the caller.
+     */
+    public E encode(final PatchMessage<?> patchMessage) {
+        return encodeText(patchMessage.asJson());
+    }
+
+    /**
+     * Starts encoding the {@link PatchMessage}s of a single fan-out.
+     *
+     * @param synchronizer the {@link ServerSynchronizer} used to serialize the diffs of the edits.
+     * @param <S> the type of the edits of the patch messages.
+     * @return {@link Broadcast} the broadcast, which must be closed when the fan-out ends.
+     */
+    public <S extends Edit<? extends Diff>> Broadcast<S, E> broadcast(final ServerSynchronizer<?, S> synchronizer) {
+        return new Broadcast<S, E>(this, synchronizer);
+    }
+
+    /**
+     * Encodes the passed-in json text. The text may be modified by the caller once this method returns.
+     *
+     * @param text the json text to encode.
+     * @return {@code E} the encoded form of the text.
+     */
+    protected abstract E encodeText(CharSequence text);
+
+    /**
+     * Joins the passed-in encoded parts into a single encoded message. Ownership of the parts is transferred
+     * to this method.
+     *
+     * @param parts the encoded parts, in order.
+     * @return {@code E} the encoded message.
+     */
+    protected abstract E join(List<E> parts);
+
+    /**
+     * Returns an instance of an encoded form that can be handed to a single subscriber or joined into a message.
+     * Implementations using reference counted buffers should return a retained view of the buffer.
+     *
+     * @param encoded the encoded form.
+     * @return {@code E} the encoded form to be handed out.
+     */
+    protected E share(final E encoded) {
+        return encoded;
+    }
+
+    /**
+     * Called when an encoded form is no longer used by a {@link Broadcast}.
+     *
+     * @param encoded the encoded form to release.
+     */
+    protected void release(final E encoded) {
+    }
+
+    /**
+     * Encodes the {@link PatchMessage}s of a single fan-out, serializing every shared diff only once.
+     * <p>
+     * Instances are not thread safe and are meant to be used by the thread performing the fan-out.
+     *
+     * @param <S> the type of the edits of the patch messages.
+     * @param <E> the type of the encoded form.
+     */
+    public static final class Broadcast<S extends Edit<? extends Diff>, E> {
+
+        private final PatchMessageEncoder<E> encoder;
+        private final ServerSynchronizer<?, S> synchronizer;
+        private final Map<Diff, E> diffs = new IdentityHashMap<Diff, E>();
+        private final Map<PatchMessage<S>, E> messages = new IdentityHashMap<PatchMessage<S>, E>();
+
+        private Broadcast(final PatchMessageEncoder<E> encoder, final ServerSynchronizer<?, S> synchronizer) {
+            this.encoder = encoder;
+            this.synchronizer = synchronizer;
+        }
+
+        /**
+         * Returns the encoded form of the passed-in {@link PatchMessage}.
+         * <p>
+         * The same {@code PatchMessage} instance is encoded once per broadcast, and the diffs it shares with
+         * the other messages of this broadcast are serialized once.
+         *
+         * @param patchMessage the {@link PatchMessage} to encode.
+         * @return {@code E} the encoded form of the patch message, which is owned by the caller.
+         */
+        public E encode(final PatchMessage<S> patchMessage) {
+            E encoded = messages.get(patchMessage);
+            if (encoded == null) {
+                encoded = encodeMessage(patchMessage);
+                messages.put(patchMessage, encoded);
+            }
+            return encoder.share(encoded);
+        }
+
+        /**
+         * Releases everything encoded by this broadcast. Encoded forms handed out by {@link #encode(PatchMessage)}
+         * remain valid.
+         */
+        public void close() {
+            for (E encoded : messages.values()) {
+                encoder.release(encoded);
+            }
+            messages.clear();
+            for (E encoded : diffs.values()) {
+                encoder.release(encoded);
+            }
+            diffs.clear();
+        }
+
+        private E encodeMessage(final PatchMessage<S> patchMessage) {
+            final List<E> parts = new ArrayList<E>();
+            final StringBuilder text = new StringBuilder(128);
+            text.append("{\"msgType\":\"patch\",\"id\":");
+            appendString(text, patchMessage.documentId());
+            text.append(",\"clientId\":");
+            appendString(text, patchMessage.clientId());
+            text.append(",\"edits\":[");
+            boolean first = true;
+            for (S edit : patchMessage.edits()) {
+                if (edit == null) {
+                    continue;
+                }
+                if (!first) {
+                    text.append(',');
+                }
+                first = false;
+                text.append("{\"clientVersion\":").append(edit.clientVersion());
+                text.append(",\"serverVersion\":").append(edit.serverVersion());
+                text.append(",\"checksum\":");
+                appendString(text, edit.checksum());
+                final E diff = encodeDiff(edit);
+                if (diff != null) {
+                    text.append(",\"diffs\":");
+                    parts.add(encoder.encodeText(text));
+                    text.setLength(0);
+                    parts.add(encoder.share(diff));
+                }
+                text.append('}');
+            }
+            text.append("]}");
+            parts.add(encoder.encodeText(text));
+            return encoder.join(parts);
+        }
+
+        private E encodeDiff(final S edit) {
+            final Diff diff = edit.diff();
+            if (diff == null) {
+                return null;
+            }
+            E encoded = diffs.get(diff);
+            if (encoded == null) {
+                final String json = synchronizer.diffAsJson(edit);
+                if (json == null) {
+                    return null;
+                }
+                encoded = encoder.encodeText(json);
+                diffs.put(diff, encoded);
+            }
+            return encoded;
+        }
+
+        private static void appendString(final StringBuilder text, final String value) {
+            if (value == null) {
+                text.append("null");
+            } else {
+                text.append('"').append(JSON_STRING_ENCODER.quoteAsString(value)).append('"');
+            }
+        }
+    }
+
+}
@@ -17,66 +17,92 @@
 package org.jboss.aerogear.sync.server;
 
 import org.jboss.aerogear.sync.BackupShadowDocument;
-import org.jboss.aerogear.sync.ClientDocument;
+import org.jboss.aerogear.sync.ClientSyncState;
+import org.jboss.aerogear.sync.ContentInterner;
+import org.jboss.aerogear.sync.DefaultDocument;
 import org.jboss.aerogear.sync.Diff;
 import org.jboss.aerogear.sync.Document;
 import org.jboss.aerogear.sync.Edit;
+import org.jboss.aerogear.sync.EditLog;
 import org.jboss.aerogear.sync.ShadowDocument;
+import org.jboss.aerogear.sync.SyncStateMap;
+import org.jboss.aerogear.sync.SyncStateUpdate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 
 /**
  * An in-memory implementation of {@link ServerDataStore}.
  * <p>
  * This implementation is mainly intended for testing and example applications.
+ * <p>
+ * Document contents and the contents of shadow documents and backup shadow documents are passed through a
+ * {@link ContentInterner}, so a document and all the clients that have converged to it share one instance of
+ * its content instead of holding a copy per client.
  *
  * @param <T> The data type data that this implementation can handle.
  * @param <S> The type of {@link Edit}s that this implementation can handle.
  */
 public class ServerInMemoryDataStore<T, S extends Edit<? extends Diff>> implements ServerDataStore<T, S> {
 
-    private final Queue<S> emptyQueue = new LinkedList<S>();
     private final ConcurrentMap<String, Document<T>> documents = new ConcurrentHashMap<String, Document<T>>();
-    private final ConcurrentMap<Id, ShadowDocument<T>> shadows = new ConcurrentHashMap<Id, ShadowDocument<T>>();
-    private final ConcurrentMap<Id, BackupShadowDocument<T>> backups = new ConcurrentHashMap<Id, BackupShadowDocument<T>>();
-    private final ConcurrentHashMap<Id, Queue<S>> pendingEdits = new ConcurrentHashMap<Id, Queue<S>>();
+    private final SyncStateMap<T, S> states;
+    private final ContentInterner<T> interner;
     private static final Logger logger = LoggerFactory.getLogger(ServerInMemoryDataStore.class);
 
+    /**
+     * Creates a ServerInMemoryDataStore that interns contents with its own {@link ContentInterner}.
+     */
+    public ServerInMemoryDataStore() {
+        this(new ContentInterner<T>());
+    }
+
+    /**
+     * Creates a ServerInMemoryDataStore that interns contents with the passed-in {@link ContentInterner}.
+     *
+     * @param interner the {@link ContentInterner} used for the contents, or {@code null} to not intern them.
+     */
+    public ServerInMemoryDataStore(final ContentInterner<T> interner) {
+        this.interner = interner;
+        states = new SyncStateMap<T, S>(EditLog.Version.SERVER, interner);
+    }
+
     @Override
     public void saveShadowDocument(final ShadowDocument<T> shadowDocument) {
-        shadows.put(id(shadowDocument.document()), shadowDocument);
+        states.saveShadowDocument(shadowDocument);
     }
 
     @Override
     public ShadowDocument<T> getShadowDocument(final String documentId, final String clientId) {
-        return shadows.get(id(documentId, clientId));
+        return states.getShadowDocument(documentId, clientId);
     }
 
     @Override
     public void saveBackupShadowDocument(final BackupShadowDocument<T> backupShadow) {
-        backups.put(id(backupShadow.shadow().document()), backupShadow);
+        states.saveBackupShadowDocument(backupShadow);
     }
 
     @Override
     public BackupShadowDocument<T> getBackupShadowDocument(final String documentId, final String clientId) {
-        return backups.get(id(documentId, clientId));
+        return states.getBackupShadowDocument(documentId, clientId);
     }
 
     @Override
     public boolean saveDocument(final Document<T> document) {
-        return documents.putIfAbsent(document.id(), document) == null;
+        final Document<T> interned = intern(document);
+        if (documents.putIfAbsent(document.id(), interned) == null) {
+            return true;
+        }
+        release(interned);
+        return false;
     }
 
     @Override
     public void updateDocument(final Document<T> document) {
-        documents.put(document.id(), document);
+        release(documents.put(document.id(), intern(document)));
     }
 
     @Override
@@ -86,116 +112,61 @@ public class ServerInMemoryDataStore<T, S extends Edit<? extends Diff>> implemen
 
     @Override
     public void saveEdits(final S edit, final String documentId, final String clientId) {
-        final Id id = id(documentId, clientId);
-        final Queue<S> newEdits = new ConcurrentLinkedQueue<S>();
-        while (true) {
-            final Queue<S> currentEdits = pendingEdits.get(id);
-            if (currentEdits == null) {
-                newEdits.add(edit);
-                final Queue<S> previous = pendingEdits.putIfAbsent(id, newEdits);
-                if (previous != null) {
-                    newEdits.addAll(previous);
-                    if (pendingEdits.replace(id, previous, newEdits)) {
-                        break;
-                    }
-                } else {
-                    break;
-                }
-            } else {
-                newEdits.addAll(currentEdits);
-                newEdits.add(edit);
-                if (pendingEdits.replace(id, currentEdits, newEdits)) {
-                    break;
-                }
-            }
-        }
+        states.saveEdits(edit, documentId, clientId);
     }
 
     @Override
     public void removeEdit(final S edit, final String documentId, final String clientId) {
-        final Id id = id(documentId, clientId);
-        while (true) {
-            final Queue<S> currentEdits = pendingEdits.get(id);
-            if (currentEdits == null) {
-                break;
-            }
-            final Queue<S> newEdits = new ConcurrentLinkedQueue<S>();
-            newEdits.addAll(currentEdits);
-            for (Iterator<S> iter = newEdits.iterator(); iter.hasNext();) {
-                final S oldEdit = iter.next();
-                if (oldEdit.serverVersion() <= edit.serverVersion()) {
-                    logger.info("Removing version " + oldEdit);
-                    iter.remove();
-                }
-            }
-            if (pendingEdits.replace(id, currentEdits, newEdits)) {
-                break;
-            }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Removing versions up to " + edit.serverVersion() + " for [" + clientId + "]");
         }
+        states.removeEdit(edit, documentId, clientId);
     }
 
     @Override
     public Queue<S> getEdits(final String documentId, final String clientId) {
-        final Queue<S> edits = pendingEdits.get(id(documentId, clientId));
-        if (edits == null) {
-            return emptyQueue;
-        }
-        return edits;
+        return states.getEdits(documentId, clientId);
     }
 
     @Override
     public void removeEdits(final String documentId, final String clientId) {
-        pendingEdits.remove(id(documentId, clientId));
+        states.removeEdits(documentId, clientId);
     }
 
-    private Id id(final ClientDocument<T> document) {
-        return id(document.id(), document.clientId());
+    @Override
+    public ClientSyncState<T, S> getSyncState(final String documentId, final String clientId) {
+        return states.getSyncState(documentId, clientId);
     }
 
-    private static Id id(final String documentId, final String clientId) {
-        return new Id(documentId, clientId);
+    @Override
+    public ClientSyncState<T, S> updateSyncState(final String documentId,
+                                                 final String clientId,
+                                                 final SyncStateUpdate<T, S> update) {
+        return states.updateSyncState(documentId, clientId, update);
     }
 
-    private static class Id {
-
-        private final String clientId;
-        private final String documentId;
-
-        Id(final String documentId, final String clientId) {
-            this.clientId = clientId;
-            this.documentId = documentId;
-        }
-
-        public String clientId() {
-            return clientId;
-        }
-
-        public String getDocumentId() {
-            return documentId;
-        }
+    /**
+     * Removes the shadow document, backup shadow document and pending edits of a client.
+     *
+     * @param documentId the document identifier.
+     * @param clientId the client identifier.
+     * @return {@link ClientSyncState} the removed state, or {@code null} if the client had no state.
+     */
+    public ClientSyncState<T, S> removeSyncState(final String documentId, final String clientId) {
+        return states.remove(documentId, clientId);
+    }
 
-        @Override
-        public boolean equals(final Object o) {
-            if (this == o) {
-                return true;
-            }
-            if (!(o instanceof Id)) {
-                return false;
-            }
-
-            final Id id = (Id) o;
-
-            if (clientId != null ? !clientId.equals(id.clientId) : id.clientId != null) {
-                return false;
-            }
-            return documentId != null ? documentId.equals(id.documentId) : id.documentId == null;
+    private Document<T> intern(final Document<T> document) {
+        if (interner == null) {
+            return document;
         }
+        final T content = interner.intern(document.content());
+        return content == document.content() ? document : new DefaultDocument<T>(document.id(), content);
+    }
 
-        @Override
-        public int hashCode() {
-            int result = clientId != null ? clientId.hashCode() : 0;
-            result = 31 * result + (documentId != null ? documentId.hashCode() : 0);
-            return result;
+    private void release(final Document<T> document) {
+        if (interner != null && document != null) {
+            interner.release(document.content());
         }
     }
 }
@@ -18,15 +18,22 @@ package org.jboss.aerogear.sync.server;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import org.jboss.aerogear.sync.*;
+import org.jboss.aerogear.sync.SyncMetrics.Stage;
+import org.jboss.aerogear.sync.metrics.NoopSyncMetrics;
+import org.jboss.aerogear.sync.server.PatchMessageEncoder.Broadcast;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Iterator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The ServerSyncEngine is responsible for driving the main differential synchronization algorithm.
@@ -59,20 +66,45 @@ public class ServerSyncEngine<T, S extends Edit<? extends Diff>> {
     private static final Logger logger = LoggerFactory.getLogger(ServerSyncEngine.class);
     private static final int SEEDED_CLIENT_VERSION = -1;
     private static final int SEEDED_SERVER_VERSION = 1;
-    private static final ConcurrentHashMap<String, Set<Subscriber<?>>> subscribers =
-            new ConcurrentHashMap<String, Set<Subscriber<?>>>();
     private final ServerSynchronizer<T, S> synchronizer;
     private final ServerDataStore<T, S> dataStore;
+    private final SubscriberRegistry subscribers = new SubscriberRegistry();
+    private final SyncMetrics metrics;
 
     /**
-     * Sole constructor.
+     * Creates a ServerSyncEngine that does not record any metrics.
      *
      * @param synchronizer an instance of {@link ServerSynchronizer} that will take care for the diff/patching
      * @param dataStore an instance of {@link ServerDataStore} to store the document/objects
      */
     public ServerSyncEngine(final ServerSynchronizer<T, S> synchronizer, final ServerDataStore<T, S> dataStore) {
+        this(synchronizer, dataStore, NoopSyncMetrics.INSTANCE);
+    }
+
+    /**
+     * Creates a ServerSyncEngine that records the time spent diffing, patching and notifying subscribers
+     * to the passed-in {@link SyncMetrics}.
+     *
+     * @param synchronizer an instance of {@link ServerSynchronizer} that will take care for the diff/patching
+     * @param dataStore an instance of {@link ServerDataStore} to store the document/objects
+     * @param metrics the {@link SyncMetrics} to record measurements to.
+     */
+    public ServerSyncEngine(final ServerSynchronizer<T, S> synchronizer,
+                            final ServerDataStore<T, S> dataStore,
+                            final SyncMetrics metrics) {
         this.synchronizer = synchronizer;
         this.dataStore = dataStore;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the {@link SyncMetrics} that this engine records to, so that transports can record
+     * their measurements to the same instance.
+     *
+     * @return {@link SyncMetrics} the metrics of this engine.
+     */
+    public SyncMetrics metrics() {
+        return metrics;
     }
 
     /**
@@ -102,25 +134,7 @@ public class ServerSyncEngine<T, S extends Edit<? extends Diff>> {
      * @param documentId the id of the document that the subscriber wants to subscribe.
      */
     public void connectSubscriber(final Subscriber<?> subscriber, final String documentId) {
-        final Set<Subscriber<?>> newSub = Collections.newSetFromMap(new ConcurrentHashMap<Subscriber<?>, Boolean>());
-        newSub.add(subscriber);
-        while(true) {
-            final Set<Subscriber<?>> currentClients = subscribers.get(documentId);
-            if (currentClients == null) {
-                final Set<Subscriber<?>> previous = subscribers.putIfAbsent(documentId, newSub);
-                if (previous != null) {
-                    newSub.addAll(previous);
-                    if (subscribers.replace(documentId, previous, newSub)) {
-                        break;
-                    }
-                }
-            } else {
-                newSub.addAll(currentClients);
-                if (subscribers.replace(documentId, currentClients, newSub)) {
-                    break;
-                }
-            }
-        }
+        subscribers.add(subscriber, documentId);
     }
 
     /**
@@ -130,30 +144,27 @@ public class ServerSyncEngine<T, S extends Edit<? extends Diff>> {
      * @param documentId the document id that the subscriber subscribes to
      */
     public void removeSubscriber(final Subscriber<?> subscriber, final String documentId) {
-        while (true) {
-            final Set<Subscriber<?>> currentClients = subscribers.get(documentId);
-            if (currentClients == null || currentClients.isEmpty()) {
-                break;
-            }
-            final Set<Subscriber<?>> newClients = Collections.newSetFromMap(new ConcurrentHashMap<Subscriber<?>, Boolean>());
-            newClients.addAll(currentClients);
-            final boolean removed = newClients.remove(subscriber);
-            if (removed) {
-                if (subscribers.replace(documentId, currentClients, newClients)) {
-                    break;
-                }
-            }
-        }
+        subscribers.remove(subscriber, documentId);
+    }
+
+    /**
+     * Removes the specified {@link Subscriber} from all the documents it subscribes to.
+     *
+     * @param subscriber the {@link Subscriber} to remove
+     * @return {@code Set} the identifiers of the documents that the subscriber was removed from.
+     */
+    public Set<String> removeSubscriber(final Subscriber<?> subscriber) {
+        return subscribers.removeAll(subscriber);
     }
 
     /**
      * Returns all the subscribers for the specified document.
      *
      * @param documentId the id of the document for which all subscribers should be returned.
-     * @return {@code Set} all the {@link Subscriber}s
+     * @return {@code Set} all the {@link Subscriber}s, or {@code null} if the document has no subscribers.
      */
     public Set<Subscriber<?>> getSubscribers(final String documentId) {
-        return subscribers.get(documentId);
+        return subscribers.subscribersOf(documentId);
     }
 
     /**
@@ -165,23 +176,108 @@ public class ServerSyncEngine<T, S extends Edit<? extends Diff>> {
      * @return {@link Edit} The server edits, or updates, that were generated by this diff .
      */
     public S diff(final String documentId, final String clientId) {
-        final Document<T> document = getDocument(documentId);
-        final S edit = serverDiffs(document, clientId);
-        diffPatchShadow(getShadowDocument(documentId, clientId), edit);
-        return edit;
+        final SyncStateUpdate<T, S> update = serverDiffs(getDocument(documentId), clientId,
+                new HashMap<T, SharedDiff<T, S>>());
+        dataStore.updateSyncState(documentId, clientId, update);
+        return update.addEdit();
     }
 
     /**
      * Performs the server side patching for a specific client.
      *
+     * The passed-in message is not modified, its edits may be a read-only view of the client's pending edits.
+     *
+     * If the data store is a {@link TransactionalServerDataStore} the patch is written in a single transaction.
+     *
      * @param patchMessage the changes made by a client.
-     * @return {@link PatchMessage} to allow method chaining
+     * @return {@link PatchMessage} with the edits of {@code patchMessage} that had not already been applied,
+     * which is {@code patchMessage} itself if none of them had been.
      */
     public PatchMessage<S> patch(final PatchMessage<S> patchMessage) {
-        final ShadowDocument<T> patchedShadow = patchShadow(patchMessage);
-        updateDocument(patchDocument(patchedShadow));
-        saveBackupShadow(patchedShadow);
-        return patchMessage;
+        return transaction(new Work<PatchMessage<S>>() {
+            @Override
+            PatchMessage<S> call() {
+                return patchInTransaction(patchMessage);
+            }
+        });
+    }
+
+    private PatchMessage<S> patchInTransaction(final PatchMessage<S> patchMessage) {
+        metrics.recordEdits(patchMessage.edits().size());
+        final ClientSyncState<T, S> state = getSyncState(patchMessage.documentId(), patchMessage.clientId());
+        final ShadowDocument<T> base = restoresBackup(patchMessage, state.shadow()) ? null : state.shadow();
+        final SyncStateUpdate.Builder<T, S> update = SyncStateUpdate.builder();
+        final Queue<S> newEdits = new LinkedList<S>();
+        final ShadowDocument<T> patchedShadow = patchShadow(patchMessage, state, update, newEdits);
+        updateDocument(patchDocument(patchedShadow, base));
+        updateSyncState(patchMessage, update.backupShadow(backupOf(patchedShadow)));
+        if (newEdits.size() == patchMessage.edits().size()) {
+            return patchMessage;
+        }
+        return synchronizer.createPatchMessage(patchMessage.documentId(), patchMessage.clientId(), newEdits);
+    }
+
+    /**
+     * Performs the server side patching for a batch of {@link PatchMessage}s, for example all the messages
+     * that were received from a connection in one read.
+     * <p>
+     * The messages are applied to the shadow documents in order. The document and the backup shadow are
+     * only patched once per client and document, using the client's shadow after its last message in the batch.
+     * Clients are processed in the order of their last message so that the outcome is the same as patching
+     * each message on its own. If the data store is a {@link TransactionalServerDataStore} the whole batch is
+     * written in a single transaction.
+     *
+     * @param patchMessages the changes made by clients.
+     * @return {@code Set} the identifiers of the documents that were changed and whose subscribers should be notified.
+     */
+    public Set<String> patchAll(final Collection<PatchMessage<S>> patchMessages) {
+        return transaction(new Work<Set<String>>() {
+            @Override
+            Set<String> call() {
+                return patchAllInTransaction(patchMessages);
+            }
+        });
+    }
+
+    private Set<String> patchAllInTransaction(final Collection<PatchMessage<S>> patchMessages) {
+        final Map<String, Map<String, ClientPatch<T>>> clientPatches =
+                new LinkedHashMap<String, Map<String, ClientPatch<T>>>();
+        final Set<String> patchedDocuments = new LinkedHashSet<String>();
+        for (PatchMessage<S> patchMessage : patchMessages) {
+            metrics.recordEdits(patchMessage.edits().size());
+            final String documentId = patchMessage.documentId();
+            final String clientId = patchMessage.clientId();
+            Map<String, ClientPatch<T>> documentPatches = clientPatches.get(documentId);
+            if (documentPatches == null) {
+                documentPatches = new LinkedHashMap<String, ClientPatch<T>>();
+                clientPatches.put(documentId, documentPatches);
+            }
+            ClientPatch<T> clientPatch = documentPatches.remove(clientId);
+            final ClientSyncState<T, S> state = getSyncState(documentId, clientId);
+            if (clientPatch == null) {
+                clientPatch = new ClientPatch<T>(state.shadow());
+            }
+            if (restoresBackup(patchMessage, state.shadow())) {
+                clientPatch.base = null;
+            }
+            final SyncStateUpdate.Builder<T, S> update = SyncStateUpdate.builder();
+            final Queue<S> newEdits = new LinkedList<S>();
+            clientPatch.patchedShadow = patchShadow(patchMessage, state, update, newEdits);
+            updateSyncState(patchMessage, update);
+            documentPatches.put(clientId, clientPatch);
+            if (!newEdits.isEmpty()) {
+                patchedDocuments.add(documentId);
+            }
+        }
+        for (Map<String, ClientPatch<T>> documentPatches : clientPatches.values()) {
+            for (ClientPatch<T> clientPatch : documentPatches.values()) {
+                final ShadowDocument<T> patchedShadow = clientPatch.patchedShadow;
+                updateDocument(patchDocument(patchedShadow, clientPatch.base));
+                dataStore.updateSyncState(patchedShadow.document().id(), patchedShadow.document().clientId(),
+                        SyncStateUpdate.<T, S>builder().backupShadow(backupOf(patchedShadow)).build());
+            }
+        }
+        return patchedDocuments;
     }
 
     /**
@@ -198,13 +294,123 @@ public class ServerSyncEngine<T, S extends Edit<? extends Diff>> {
             // version from the server.
             return;
         }
-        final String documentId = patchMessage.documentId();
-        final Set<Subscriber<?>> subscribers1 = getSubscribers(documentId);
-        for (Subscriber<?> subscriber: subscribers1) {
-            final PatchMessage<?> patchMessage1 = getPatchMessage(documentId, subscriber.clientId());
-            logger.debug("Sending to [" + subscriber.clientId() + "] : " + patchMessage1);
-            subscriber.patched(patchMessage1);
+        notifySubscribers(patchMessage.documentId());
+    }
+
+    /**
+     * Diffs the current version of the specified document against the shadow of every subscriber
+     * and sends the resulting {@link PatchMessage}s.
+     * <p>
+     * Subscribers that are {@link FlowControlledSubscriber}s and are currently not writable are skipped and
+     * their shadows are left as they are, so they will receive all the changes in one diff the next time
+     * subscribers are notified.
+     * <p>
+     * Messages for {@link EncodingSubscriber}s are encoded within a {@link Broadcast} per encoder, so diffs that
+     * are shared by several clients are serialized once, and everything encoded is released when the fan-out ends.
+     *
+     * @param documentId the identifier of the document whose subscribers should be notified.
+     */
+    public void notifySubscribers(final String documentId) {
+        final Set<Subscriber<?>> documentSubscribers = getSubscribers(documentId);
+        if (documentSubscribers == null) {
+            return;
+        }
+        final long start = System.nanoTime();
+        metrics.recordSubscribers(documentSubscribers.size());
+        final Document<T> document = getDocument(documentId);
+        final Map<T, SharedDiff<T, S>> sharedDiffs = new HashMap<T, SharedDiff<T, S>>();
+        final Map<String, PatchMessage<S>> patchMessages = new HashMap<String, PatchMessage<S>>();
+        final Map<PatchMessageEncoder<?>, Broadcast<S, ?>> broadcasts = new IdentityHashMap<PatchMessageEncoder<?>, Broadcast<S, ?>>();
+        try {
+            for (Subscriber<?> subscriber: documentSubscribers) {
+                if (!isWritable(subscriber)) {
+                    logger.debug("Skipping non writable subscriber [" + subscriber.clientId() + ']');
+                    continue;
+                }
+                final String clientId = subscriber.clientId();
+                PatchMessage<S> clientPatchMessage = patchMessages.get(clientId);
+                if (clientPatchMessage == null) {
+                    clientPatchMessage = diffAndUpdate(document, clientId, sharedDiffs);
+                    patchMessages.put(clientId, clientPatchMessage);
+                }
+                send(subscriber, clientPatchMessage, broadcasts);
+            }
+        } finally {
+            close(broadcasts);
         }
+        metrics.recordLatency(Stage.FAN_OUT, System.nanoTime() - start);
+    }
+
+    /**
+     * Diffs the current version of the specified document against the shadow of a single subscriber and
+     * sends it the resulting {@link PatchMessage}.
+     * <p>
+     * This is meant to catch up a {@link FlowControlledSubscriber} that was skipped while it was not writable,
+     * without sending anything to the other subscribers of the document. Nothing is sent if the subscriber
+     * is not writable, or if its shadow is already identical to the document.
+     *
+     * @param subscriber the subscriber to notify.
+     * @param documentId the identifier of the document that the subscriber is subscribed to.
+     */
+    public void notifySubscriber(final Subscriber<?> subscriber, final String documentId) {
+        if (!isWritable(subscriber)) {
+            return;
+        }
+        final String clientId = subscriber.clientId();
+        final Document<T> document = getDocument(documentId);
+        final ShadowDocument<T> shadow = getShadowDocument(documentId, clientId);
+        if (document == null || shadow == null || sameContent(shadow.document().content(), document.content())) {
+            return;
+        }
+        final Map<PatchMessageEncoder<?>, Broadcast<S, ?>> broadcasts = new IdentityHashMap<PatchMessageEncoder<?>, Broadcast<S, ?>>();
+        try {
+            send(subscriber, diffAndUpdate(document, clientId, new HashMap<T, SharedDiff<T, S>>()), broadcasts);
+        } finally {
+            close(broadcasts);
+        }
+    }
+
+    private PatchMessage<S> diffAndUpdate(final Document<T> document,
+                                          final String clientId,
+                                          final Map<T, SharedDiff<T, S>> sharedDiffs) {
+        final String documentId = document.id();
+        final Queue<S> edits = dataStore.updateSyncState(documentId, clientId,
+                serverDiffs(document, clientId, sharedDiffs)).edits();
+        metrics.recordPendingEdits(edits.size());
+        return synchronizer.createPatchMessage(documentId, clientId, edits);
+    }
+
+    private void send(final Subscriber<?> subscriber,
+                      final PatchMessage<S> patchMessage,
+                      final Map<PatchMessageEncoder<?>, Broadcast<S, ?>> broadcasts) {
+        logger.debug("Sending to [" + subscriber.clientId() + "] : " + patchMessage);
+        if (subscriber instanceof EncodingSubscriber) {
+            patched((EncodingSubscriber<?, ?>) subscriber, patchMessage, broadcasts);
+        } else {
+            subscriber.patched(patchMessage);
+        }
+    }
+
+    private void close(final Map<PatchMessageEncoder<?>, Broadcast<S, ?>> broadcasts) {
+        for (Broadcast<S, ?> broadcast : broadcasts.values()) {
+            broadcast.close();
+        }
+    }
+
+    private <E> void patched(final EncodingSubscriber<?, E> subscriber,
+                             final PatchMessage<S> patchMessage,
+                             final Map<PatchMessageEncoder<?>, Broadcast<S, ?>> broadcasts) {
+        final PatchMessageEncoder<E> encoder = subscriber.encoder();
+        @SuppressWarnings("unchecked")
+        Broadcast<S, E> broadcast = (Broadcast<S, E>) broadcasts.get(encoder);
+        if (broadcast == null) {
+            broadcast = encoder.broadcast(synchronizer);
+            broadcasts.put(encoder, broadcast);
+        }
+        final long start = System.nanoTime();
+        final E encoded = broadcast.encode(patchMessage);
+        metrics.recordLatency(Stage.SERIALIZE, System.nanoTime() - start);
+        subscriber.patched(patchMessage, encoded);
     }
 
     /**
@@ -214,7 +420,10 @@ public class ServerSyncEngine<T, S extends Edit<? extends Diff>> {
      * @return {@link PatchMessage} the created {code PatchMessage}
      */
     public PatchMessage<S> patchMessageFromJson(final String json) {
-        return synchronizer.patchMessageFromJson(json);
+        final long start = System.nanoTime();
+        final PatchMessage<S> patchMessage = synchronizer.patchMessageFromJson(json);
+        metrics.recordLatency(Stage.DESERIALIZE, System.nanoTime() - start);
+        return patchMessage;
     }
 
     /**
@@ -224,7 +433,10 @@ public class ServerSyncEngine<T, S extends Edit<? extends Diff>> {
      * @return {@link Document} the document representing the contents of the {@link JsonNode} instance.
      */
     public Document<T> documentFromJson(final JsonNode json) {
-        return synchronizer.documentFromJson(json);
+        final long start = System.nanoTime();
+        final Document<T> document = synchronizer.documentFromJson(json);
+        metrics.recordLatency(Stage.DESERIALIZE, System.nanoTime() - start);
+        return document;
     }
 
     /**
@@ -239,6 +451,10 @@ public class ServerSyncEngine<T, S extends Edit<? extends Diff>> {
         return synchronizer.createPatchMessage(documentId, clientId, dataStore.getEdits(documentId, clientId));
     }
 
+    private static boolean isWritable(final Subscriber<?> subscriber) {
+        return !(subscriber instanceof FlowControlledSubscriber) || ((FlowControlledSubscriber<?>) subscriber).isWritable();
+    }
+
     private PatchMessage<S> addDocument(final Document<T> document, final String clientId) {
         if (document.content() == null) {
             final Document<T> existingDoc = getDocument(document.id());
@@ -248,7 +464,7 @@ public class ServerSyncEngine<T, S extends Edit<? extends Diff>> {
                 final ShadowDocument<T> shadow = addShadowForClient(document.id(), clientId);
                 logger.debug("Document with id [" + document.id() + "] already exists.");
                 final S edit = serverDiff(shadow.document(), seededShadowFrom(shadow, document));
-                updateDocument(patchDocument(shadow));
+                updateDocument(patchDocument(shadow, null));
                 return synchronizer.createPatchMessage(document.id(), clientId, asQueue(edit));
             }
         }
@@ -270,10 +486,6 @@ public class ServerSyncEngine<T, S extends Edit<? extends Diff>> {
         return new DefaultShadowDocument<T>(SEEDED_SERVER_VERSION, SEEDED_CLIENT_VERSION, clientDoc);
     }
 
-    private void diffPatchShadow(final ShadowDocument<T> shadow, final S edit) {
-        saveShadow(synchronizer.patchShadow(edit, shadow));
-    }
-
     private ShadowDocument<T> addShadowForClient(final String documentId, final String clientId) {
         return addShadow(documentId, clientId, 0L);
     }
@@ -282,8 +494,10 @@ public class ServerSyncEngine<T, S extends Edit<? extends Diff>> {
         final Document<T> document = getDocument(documentId);
         final ClientDocument<T> clientDocument = newClientDocument(documentId, clientId, document.content());
         final ShadowDocument<T> shadowDocument = newShadowDoc(0, clientVersion, clientDocument);
-        saveShadow(shadowDocument);
-        saveBackupShadow(shadowDocument);
+        dataStore.updateSyncState(documentId, clientId, SyncStateUpdate.<T, S>builder()
+                .shadow(shadowDocument)
+                .backupShadow(backupOf(shadowDocument))
+                .build());
         return shadowDocument;
     }
 
@@ -291,60 +505,84 @@ public class ServerSyncEngine<T, S extends Edit<? extends Diff>> {
         return clientDiff(document, shadow);
     }
 
-    private S serverDiffs(final Document<T> document, final String clientId) {
+    /**
+     * Diffs the document against the shadow document of the client and returns the update that stores the
+     * resulting edit and moves the shadow document to the next server version.
+     * <p>
+     * Clients that are up to date have identical shadow documents, so the diff and patched shadow content
+     * are computed once per distinct shadow content and stored in {@code sharedDiffs} to be reused for the
+     * other clients.
+     */
+    private SyncStateUpdate<T, S> serverDiffs(final Document<T> document,
+                                              final String clientId,
+                                              final Map<T, SharedDiff<T, S>> sharedDiffs) {
         final String documentId = document.id();
         final ShadowDocument<T> shadow = getShadowDocument(documentId, clientId);
-        final S newEdit = serverDiff(document, shadow);
-        saveEdits(newEdit, documentId, clientId);
-        saveShadow(incrementServerVersion(shadow));
-        return newEdit;
-    }
-
-    private ShadowDocument<T> patchShadow(final PatchMessage<S> patchMessage) {
-        final String documentId = patchMessage.documentId();
-        final String clientId = patchMessage.clientId();
-        ShadowDocument<T> shadow = getShadowDocument(documentId, clientId);
-        final Iterator<S> iterator = patchMessage.edits().iterator();
-        while (iterator.hasNext()) {
-            final S edit = iterator.next();
+        final T shadowContent = shadow.document().content();
+        final SharedDiff<T, S> sharedDiff = sharedDiffs.get(shadowContent);
+        final S newEdit;
+        final T patchedContent;
+        if (sharedDiff == null) {
+            newEdit = serverDiff(document, shadow);
+            patchedContent = patchShadow(newEdit, shadow).document().content();
+            sharedDiffs.put(shadowContent, new SharedDiff<T, S>(newEdit, patchedContent));
+        } else {
+            newEdit = synchronizer.copyEdit(sharedDiff.edit, shadow);
+            patchedContent = sharedDiff.patchedContent;
+        }
+        return SyncStateUpdate.<T, S>builder()
+                .addEdit(newEdit)
+                .shadow(newShadowDoc(shadow.serverVersion() + 1, shadow.clientVersion(),
+                        newClientDocument(documentId, clientId, patchedContent)))
+                .build();
+    }
+
+    /**
+     * Applies the edits of the patch message to the shadow document in {@code state} and collects the
+     * resulting changes to the client's state in {@code update}. The edits that had not already been applied
+     * are added to {@code newEdits}, the edits of the patch message are left as they are.
+     */
+    private ShadowDocument<T> patchShadow(final PatchMessage<S> patchMessage,
+                                          final ClientSyncState<T, S> state,
+                                          final SyncStateUpdate.Builder<T, S> update,
+                                          final Queue<S> newEdits) {
+        ShadowDocument<T> shadow = state.shadow();
+        S acknowledged = null;
+        for (S edit : patchMessage.edits()) {
             if (droppedServerPacket(edit, shadow)) {
-                shadow = restoreBackup(shadow, edit);
+                shadow = restoreBackup(state.backupShadow(), edit);
+                update.clearEdits();
+                newEdits.add(edit);
                 continue;
             }
             if (hasClientUpdate(edit, shadow)) {
-                discardEdit(edit, documentId, clientId, iterator);
+                acknowledged = latest(acknowledged, edit);
                 continue;
             }
+            newEdits.add(edit);
             if (allVersionMatch(edit, shadow)) {
-                final ShadowDocument<T> patchedShadow = synchronizer.patchShadow(edit, shadow);
-                shadow = saveShadowAndRemoveEdit(incrementClientVersion(patchedShadow), edit);
+                shadow = incrementClientVersion(patchShadow(edit, shadow));
+                acknowledged = latest(acknowledged, edit);
             }
         }
+        update.removeEdit(acknowledged).shadow(shadow);
         return shadow;
     }
 
-    private ShadowDocument<T> restoreBackup(final ShadowDocument<T> shadow,
-                                            final S edit) {
-        final String documentId = shadow.document().id();
-        final String clientId = shadow.document().clientId();
-        final BackupShadowDocument<T> backup = getBackupShadowDocument(documentId, clientId);
+    private ShadowDocument<T> restoreBackup(final BackupShadowDocument<T> backup, final S edit) {
         if (serverVersionMatch(backup, edit)) {
-            final ShadowDocument<T> patchedShadow = synchronizer.patchShadow(edit, backup.shadow());
-            dataStore.removeEdits(documentId, clientId);
-            return saveShadow(incrementClientVersion(patchedShadow));
+            return incrementClientVersion(patchShadow(edit, backup.shadow()));
         } else {
             throw new IllegalStateException(backup + " server version does not match version of " + edit.serverVersion());
         }
     }
 
-    private void discardEdit(final S edit, final String documentId, final String clientId, final Iterator<S> iterator) {
-        dataStore.removeEdit(edit, documentId, clientId);
-        iterator.remove();
+    private S latest(final S acknowledged, final S edit) {
+        return acknowledged == null || edit.serverVersion() > acknowledged.serverVersion() ? edit : acknowledged;
     }
 
-    private ShadowDocument<T> saveShadowAndRemoveEdit(final ShadowDocument<T> shadow, final S edit) {
-        dataStore.removeEdit(edit, shadow.document().id(), shadow.document().clientId());
-        return saveShadow(shadow);
+    private void updateSyncState(final PatchMessage<S> patchMessage, final SyncStateUpdate.Builder<T, S> update) {
+        dataStore.updateSyncState(patchMessage.documentId(), patchMessage.clientId(), update.build());
     }
 
     private boolean serverVersionMatch(final BackupShadowDocument<T> backup, final S edit) {
@@ -364,15 +602,63 @@ public class ServerSyncEngine<T, S extends Edit<? extends Diff>> {
                 && edit.clientVersion() == shadowDocument.clientVersion();
     }
 
-    private Document<T> patchDocument(final ShadowDocument<T> shadowDocument) {
+    /**
+     * Patches the document with the changes in the patched shadow document.
+     * <p>
+     * If nobody changed the document since the shadow document that the client's edits were applied to
+     * ({@code base}) was in sync with it, the patched shadow content is the new document content and the
+     * full document diff can be skipped. Otherwise the document is diffed against the patched shadow and
+     * patched with the result.
+     *
+     * @param shadowDocument the patched shadow document.
+     * @param base the shadow document before the client's edits were applied, or {@code null} if unknown.
+     */
+    private Document<T> patchDocument(final ShadowDocument<T> shadowDocument, final ShadowDocument<T> base) {
         final Document<T> document = getDocument(shadowDocument.document().id());
-        final S edit = clientDiffs(document, shadowDocument);
-        final Document<T> patched = synchronizer.patchDocument(edit, document);
+        final Document<T> patched;
+        if (base != null && sameContent(document.content(), base.document().content())) {
+            logger.debug("Fast-forwarding document [" + document.id() + ']');
+            patched = new DefaultDocument<T>(document.id(), shadowDocument.document().content());
+        } else {
+            final S edit = clientDiffs(document, shadowDocument);
+            final long start = System.nanoTime();
+            patched = synchronizer.patchDocument(edit, document);
+            metrics.recordLatency(Stage.PATCH, System.nanoTime() - start);
+        }
         saveDocument(patched);
         logger.info("Patched Document [" + patched.id() + "] content: " + patched.content());
         return patched;
     }
 
+    private boolean restoresBackup(final PatchMessage<S> patchMessage, final ShadowDocument<T> shadow) {
+        for (S edit : patchMessage.edits()) {
+            if (droppedServerPacket(edit, shadow)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Determines whether two contents are equal, trying the cheap checks before the full comparison.
+     * <p>
+     * A fast-forwarded document shares its content with the patched shadow document, so in the common case of
+     * a client that patches again before anybody else changed the document the contents are the same instance.
+     * Strings cache their hash code, so differing hash codes rule out equal strings without comparing them.
+     */
+    private static <T> boolean sameContent(final T content, final T baseContent) {
+        if (content == baseContent) {
+            return true;
+        }
+        if (content == null || baseContent == null) {
+            return false;
+        }
+        if (content instanceof String && content.hashCode() != baseContent.hashCode()) {
+            return false;
+        }
+        return content.equals(baseContent);
+    }
+
     private Document<T> getDocument(final String documentId) {
         return dataStore.getDocument(documentId);
     }
@@ -385,20 +671,29 @@ public class ServerSyncEngine<T, S extends Edit<? extends Diff>> {
         return dataStore.getShadowDocument(documentId, clientId);
     }
 
-    private BackupShadowDocument<T> getBackupShadowDocument(final String documentId, final String clientId) {
-        return dataStore.getBackupShadowDocument(documentId, clientId);
+    private ClientSyncState<T, S> getSyncState(final String documentId, final String clientId) {
+        return dataStore.getSyncState(documentId, clientId);
     }
 
     private S clientDiff(final Document<T> doc, final ShadowDocument<T> shadow) {
-        return synchronizer.clientDiff(doc, shadow);
+        final long start = System.nanoTime();
+        final S edit = synchronizer.clientDiff(doc, shadow);
+        metrics.recordLatency(Stage.DIFF, System.nanoTime() - start);
+        return edit;
     }
 
     private S serverDiff(final Document<T> doc, final ShadowDocument<T> shadow) {
-        return synchronizer.serverDiff(doc, shadow);
+        final long start = System.nanoTime();
+        final S edit = synchronizer.serverDiff(doc, shadow);
+        metrics.recordLatency(Stage.DIFF, System.nanoTime() - start);
+        return edit;
     }
 
-    private void saveEdits(final S edit, final String documentId, final String clientId) {
-        dataStore.saveEdits(edit, documentId, clientId);
+    private ShadowDocument<T> patchShadow(final S edit, final ShadowDocument<T> shadow) {
+        final long start = System.nanoTime();
+        final ShadowDocument<T> patchedShadow = synchronizer.patchShadow(edit, shadow);
+        metrics.recordLatency(Stage.PATCH, System.nanoTime() - start);
+        return patchedShadow;
     }
 
     private ShadowDocument<T> incrementClientVersion(final ShadowDocument<T> shadow) {
@@ -406,11 +701,6 @@ public class ServerSyncEngine<T, S extends Edit<? extends Diff>> {
         return newShadowDoc(shadow.serverVersion(), clientVersion, shadow.document());
     }
 
-    private ShadowDocument<T> saveShadow(final ShadowDocument<T> newShadow) {
-        dataStore.saveShadowDocument(newShadow);
-        return newShadow;
-    }
-
     private ShadowDocument<T> newShadowDoc(final long serverVersion, final long clientVersion, final ClientDocument<T> doc) {
         return new DefaultShadowDocument<T>(serverVersion, clientVersion, doc);
     }
@@ -420,8 +710,8 @@ public class ServerSyncEngine<T, S extends Edit<? extends Diff>> {
         return newShadowDoc(serverVersion, shadow.clientVersion(), shadow.document());
     }
 
-    private void saveBackupShadow(final ShadowDocument<T> newShadow) {
-        dataStore.saveBackupShadowDocument(new DefaultBackupShadowDocument<T>(newShadow.serverVersion(), newShadow));
+    private BackupShadowDocument<T> backupOf(final ShadowDocument<T> newShadow) {
+        return new DefaultBackupShadowDocument<T>(newShadow.serverVersion(), newShadow);
     }
 
     private boolean saveDocument(final Document<T> document) {
@@ -432,6 +722,15 @@ public class ServerSyncEngine<T, S extends Edit<? extends Diff>> {
         dataStore.updateDocument(document);
     }
 
+    private <R> R transaction(final Work<R> work) {
+        if (dataStore instanceof TransactionalServerDataStore) {
+            ((TransactionalServerDataStore<T, S>) dataStore).transaction(work);
+        } else {
+            work.run();
+        }
+        return work.result;
+    }
+
     private Queue<S> emptyQueue() {
         return new LinkedList<S>();
     }
@@ -440,4 +739,40 @@ public class ServerSyncEngine<T, S extends Edit<? extends Diff>> {
         return new LinkedList<S>(Collections.singleton(edit));
     }
 
+    /**
+     * Work that is run in a transaction of the data store and keeps its result.
+     */
+    private abstract static class Work<R> implements Runnable {
+
+        private R result;
+
+        abstract R call();
+
+        @Override
+        public void run() {
+            result = call();
+        }
+    }
+
+    private static class ClientPatch<T> {
+
+        private ShadowDocument<T> base;
+        private ShadowDocument<T> patchedShadow;
+
+        ClientPatch(final ShadowDocument<T> base) {
+            this.base = base;
+        }
+    }
+
+    private static class SharedDiff<T, S> {
+
+        private final S edit;
+        private final T patchedContent;
+
+        SharedDiff(final S edit, final T patchedContent) {
+            this.edit = edit;
+            this.patchedContent = patchedContent;
+        }
+    }
+
 }
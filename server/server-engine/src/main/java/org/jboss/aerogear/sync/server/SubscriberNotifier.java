@@ -0,0 +1,116 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.server;
+
+import org.jboss.aerogear.sync.PatchMessage;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.jboss.aerogear.sync.util.Arguments.checkNotNull;
+
+/**
+ * Notifies the subscribers of a document asynchronously and coalesces notifications.
+ * <p>
+ * Instead of diffing and sending to all subscribers on the thread that applied a client patch, a notification
+ * is scheduled on the {@link DocumentExecutor} of the document, which keeps it from running concurrently with
+ * the patches of that document. Notifications are {@link DocumentExecutor.Priority#BACKGROUND} work, so client
+ * patches for a busy document are applied first. While a notification is pending, further requests for the
+ * same document are dropped, as the pending notification will diff against the latest version of the document
+ * anyway. Subscribers that are not writable are skipped by {@link ServerSyncEngine#notifySubscribers(String)}
+ * and can be caught up by calling {@link #catchUp(String, Object)} once they become writable again.
+ */
+public class SubscriberNotifier {
+
+    private final ServerSyncEngine<?, ?> syncEngine;
+    private final DocumentExecutor documentExecutor;
+    private final ConcurrentMap<String, Boolean> pending = new ConcurrentHashMap<String, Boolean>();
+
+    /**
+     * Sole constructor.
+     *
+     * @param syncEngine the {@link ServerSyncEngine} used to notify subscribers.
+     * @param documentExecutor the {@link DocumentExecutor} on which notifications are executed.
+     */
+    public SubscriberNotifier(final ServerSyncEngine<?, ?> syncEngine, final DocumentExecutor documentExecutor) {
+        this.syncEngine = checkNotNull(syncEngine, "syncEngine must not be null");
+        this.documentExecutor = checkNotNull(documentExecutor, "documentExecutor must not be null");
+    }
+
+    /**
+     * Schedules a notification of the subscribers of the document that the passed-in {@link PatchMessage}
+     * was applied to.
+     *
+     * @param patchMessage the patch message that was applied by {@link ServerSyncEngine#patch(PatchMessage)}.
+     */
+    public void notifySubscribers(final PatchMessage<?> patchMessage) {
+        if (patchMessage.edits().peek() == null) {
+            // an acknowledgement only, nothing changed on the server.
+            return;
+        }
+        schedule(patchMessage.documentId());
+    }
+
+    /**
+     * Schedules a notification of all the subscribers of the specified document, unless one is already pending.
+     *
+     * @param documentId the identifier of the document whose subscribers should be notified.
+     */
+    public void schedule(final String documentId) {
+        if (pending.putIfAbsent(documentId, Boolean.TRUE) != null) {
+            return;
+        }
+        try {
+            documentExecutor.execute(documentId, new Runnable() {
+                @Override
+                public void run() {
+                    pending.remove(documentId);
+                    syncEngine.notifySubscribers(documentId);
+                }
+            }, DocumentExecutor.Priority.BACKGROUND);
+        } catch (final RuntimeException e) {
+            pending.remove(documentId);
+            throw e;
+        }
+    }
+
+    /**
+     * Schedules a notification of the subscribers of the specified document that use the passed-in channel,
+     * leaving all other subscribers of the document untouched.
+     *
+     * @param documentId the identifier of the document whose subscribers should be caught up.
+     * @param channel the channel of the subscribers to catch up, see {@link Subscriber#channel()}.
+     */
+    public void catchUp(final String documentId, final Object channel) {
+        documentExecutor.execute(documentId, new Runnable() {
+            @Override
+            public void run() {
+                final Set<Subscriber<?>> subscribers = syncEngine.getSubscribers(documentId);
+                if (subscribers == null) {
+                    return;
+                }
+                for (Subscriber<?> subscriber : subscribers) {
+                    if (channel.equals(subscriber.channel())) {
+                        syncEngine.notifySubscriber(subscriber, documentId);
+                    }
+                }
+            }
+        }, DocumentExecutor.Priority.BACKGROUND);
+    }
+
+}
@@ -0,0 +1,168 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.server;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps track of the {@link Subscriber}s of documents.
+ * <p>
+ * Subscribers are stored in concurrent sets per document, so adding and removing a subscriber is O(1) and
+ * iterating over the subscribers of a document never blocks. A reverse index from each subscriber to the
+ * documents it subscribes to allows a disconnected subscriber to be removed from all its documents without
+ * scanning every document. Entries are removed as soon as their sets become empty.
+ * <p>
+ * Add and remove operations synchronize on the set of subscribers of the document and update both indexes
+ * while holding that lock, so that concurrent joins and leaves of the same document always leave the indexes
+ * consistent with each other. The set of documents of the subscriber is locked as well, always after the set
+ * of the document. This only serializes joins and leaves of the same document (or the same subscriber), and
+ * makes sure that a set is never modified after it was removed.
+ */
+public class SubscriberRegistry {
+
+    private final ConcurrentMap<String, Set<Subscriber<?>>> subscribers =
+            new ConcurrentHashMap<String, Set<Subscriber<?>>>();
+    private final ConcurrentMap<Subscriber<?>, Set<String>> documents =
+            new ConcurrentHashMap<Subscriber<?>, Set<String>>();
+
+    /**
+     * Adds a subscriber for the specified document.
+     *
+     * @param subscriber the {@link Subscriber} to add.
+     * @param documentId the identifier of the document.
+     * @return {@code true} if the subscriber was added, {@code false} if it was already subscribed.
+     */
+    public boolean add(final Subscriber<?> subscriber, final String documentId) {
+        while (true) {
+            final Set<Subscriber<?>> documentSubscribers = setOf(subscribers, documentId);
+            synchronized (documentSubscribers) {
+                // the set might have been removed as empty while we were waiting for the lock.
+                if (subscribers.get(documentId) == documentSubscribers) {
+                    addTo(documents, subscriber, documentId);
+                    return documentSubscribers.add(subscriber);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes a subscriber from the specified document.
+     *
+     * @param subscriber the {@link Subscriber} to remove.
+     * @param documentId the identifier of the document.
+     * @return {@code true} if the subscriber was subscribed to the document.
+     */
+    public boolean remove(final Subscriber<?> subscriber, final String documentId) {
+        while (true) {
+            final Set<Subscriber<?>> documentSubscribers = subscribers.get(documentId);
+            if (documentSubscribers == null) {
+                return false;
+            }
+            synchronized (documentSubscribers) {
+                if (subscribers.get(documentId) == documentSubscribers) {
+                    removeFrom(documents, subscriber, documentId);
+                    final boolean removed = documentSubscribers.remove(subscriber);
+                    if (documentSubscribers.isEmpty()) {
+                        subscribers.remove(documentId, documentSubscribers);
+                    }
+                    return removed;
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes a subscriber from all the documents it subscribes to.
+     *
+     * @param subscriber the {@link Subscriber} to remove.
+     * @return {@code Set} the identifiers of the documents that the subscriber was removed from.
+     */
+    public Set<String> removeAll(final Subscriber<?> subscriber) {
+        final Set<String> documentIds = documentsOf(subscriber);
+        for (String documentId : documentIds) {
+            remove(subscriber, documentId);
+        }
+        return documentIds;
+    }
+
+    /**
+     * Returns the subscribers of the specified document.
+     *
+     * @param documentId the identifier of the document.
+     * @return {@code Set} a live view of the subscribers of the document, or {@code null} if it has none.
+     */
+    public Set<Subscriber<?>> subscribersOf(final String documentId) {
+        return subscribers.get(documentId);
+    }
+
+    /**
+     * Returns the identifiers of the documents that the specified subscriber subscribes to.
+     *
+     * @param subscriber the {@link Subscriber}.
+     * @return {@code Set} a snapshot of the documents identifiers, which is empty if the subscriber has none.
+     */
+    public Set<String> documentsOf(final Subscriber<?> subscriber) {
+        final Set<String> documentIds = documents.get(subscriber);
+        if (documentIds == null) {
+            return Collections.emptySet();
+        }
+        synchronized (documentIds) {
+            return Collections.unmodifiableSet(new HashSet<String>(documentIds));
+        }
+    }
+
+    private static <K, V> Set<V> setOf(final ConcurrentMap<K, Set<V>> map, final K key) {
+        final Set<V> values = map.get(key);
+        if (values != null) {
+            return values;
+        }
+        final Set<V> newValues = Collections.newSetFromMap(new ConcurrentHashMap<V, Boolean>());
+        final Set<V> existing = map.putIfAbsent(key, newValues);
+        return existing == null ? newValues : existing;
+    }
+
+    private static <K, V> boolean addTo(final ConcurrentMap<K, Set<V>> map, final K key, final V value) {
+        while (true) {
+            final Set<V> values = setOf(map, key);
+            synchronized (values) {
+                // the set might have been removed as empty while we were waiting for the lock.
+                if (map.get(key) == values) {
+                    return values.add(value);
+                }
+            }
+        }
+    }
+
+    private static <K, V> boolean removeFrom(final ConcurrentMap<K, Set<V>> map, final K key, final V value) {
+        final Set<V> values = map.get(key);
+        if (values == null) {
+            return false;
+        }
+        synchronized (values) {
+            final boolean removed = values.remove(value);
+            if (values.isEmpty()) {
+                map.remove(key, values);
+            }
+            return removed;
+        }
+    }
+
+}
@@ -0,0 +1,101 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.server.cache;
+
+/**
+ * A snapshot of the statistics of a {@link CachingServerDataStore}.
+ */
+public final class CacheStats {
+
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final long entries;
+    private final long weight;
+
+    CacheStats(final long hits, final long misses, final long evictions, final long entries, final long weight) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.entries = entries;
+        this.weight = weight;
+    }
+
+    /**
+     * Returns the number of reads that were served from the cache.
+     *
+     * @return {@code long} the number of hits.
+     */
+    public long hits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of reads that had to go to the backing store.
+     *
+     * @return {@code long} the number of misses.
+     */
+    public long misses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of entries that were evicted to keep the cache within its maximum weight.
+     *
+     * @return {@code long} the number of evictions.
+     */
+    public long evictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns the number of documents and client states held by the cache.
+     *
+     * @return {@code long} the number of entries.
+     */
+    public long entries() {
+        return entries;
+    }
+
+    /**
+     * Returns the total weight of the entries held by the cache.
+     *
+     * @return {@code long} the weight of the cache.
+     */
+    public long weight() {
+        return weight;
+    }
+
+    /**
+     * Returns the fraction of reads that were served from the cache.
+     *
+     * @return {@code double} the hit rate, or {@code 1.0} if there were no reads.
+     */
+    public double hitRate() {
+        final long reads = hits + misses;
+        return reads == 0 ? 1.0 : (double) hits / reads;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats[hits=" + hits +
+                ", misses=" + misses +
+                ", evictions=" + evictions +
+                ", entries=" + entries +
+                ", weight=" + weight + ']';
+    }
+}
@@ -0,0 +1,485 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.server.cache;
+
+import org.jboss.aerogear.sync.BackupShadowDocument;
+import org.jboss.aerogear.sync.ClientDocument;
+import org.jboss.aerogear.sync.ClientSyncState;
+import org.jboss.aerogear.sync.DefaultClientSyncState;
+import org.jboss.aerogear.sync.Diff;
+import org.jboss.aerogear.sync.Document;
+import org.jboss.aerogear.sync.Edit;
+import org.jboss.aerogear.sync.EditLog;
+import org.jboss.aerogear.sync.ShadowDocument;
+import org.jboss.aerogear.sync.SyncStateUpdate;
+import org.jboss.aerogear.sync.server.ServerDataStore;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.jboss.aerogear.sync.util.Arguments.checkNotNull;
+
+/**
+ * A {@link ServerDataStore} that caches the documents and client states of another {@link ServerDataStore}.
+ * <p>
+ * Reads are answered from the cache when possible. On a miss the document, or the complete state of the
+ * client, is read from the backing store and cached. Writes are passed on to the backing store before the
+ * cache is updated, so the backing store is always up to date and a failed write only drops the affected
+ * entry from the cache. All access to the backing store has to go through this store.
+ * <p>
+ * The cache is bounded by weight rather than by the number of entries: every entry weighs the
+ * {@link Weigher weight} of the contents it holds plus a fixed overhead, and the least recently used
+ * entries are evicted when the total weight exceeds the maximum. A miss and the writes for the same key
+ * are serialized, so a value read from the backing store can never overwrite a newer write.
+ *
+ * @param <T> The data type data that this implementation can handle.
+ * @param <S> The type of {@link Edit}s that this implementation can handle.
+ */
+public class CachingServerDataStore<T, S extends Edit<? extends Diff>> implements ServerDataStore<T, S> {
+
+    // the weight of an entry besides its contents, and of a pending edit.
+    private static final int ENTRY_WEIGHT = 64;
+    private static final int EDIT_WEIGHT = 64;
+    private static final int STRIPES = 64;
+
+    private final ServerDataStore<T, S> delegate;
+    private final Weigher<T> weigher;
+    private final long maximumWeight;
+    // in access order, so the eldest entry is the least recently used one.
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+    private final Object[] stripes = new Object[STRIPES];
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    // guarded by entries.
+    private long weight;
+
+    private CachingServerDataStore(final Builder<T, S> builder) {
+        delegate = builder.delegate;
+        weigher = builder.weigher;
+        maximumWeight = builder.maximumWeight;
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Object();
+        }
+    }
+
+    @Override
+    public boolean saveDocument(final Document<T> document) {
+        final Key key = new Key(document.id(), null);
+        synchronized (stripe(key)) {
+            final boolean saved;
+            try {
+                saved = delegate.saveDocument(document);
+            } catch (final RuntimeException e) {
+                invalidate(key);
+                throw e;
+            }
+            if (saved) {
+                put(key, new DocumentEntry<T>(document, weigh(document.content())));
+            }
+            return saved;
+        }
+    }
+
+    @Override
+    public void updateDocument(final Document<T> document) {
+        final Key key = new Key(document.id(), null);
+        synchronized (stripe(key)) {
+            try {
+                delegate.updateDocument(document);
+            } catch (final RuntimeException e) {
+                invalidate(key);
+                throw e;
+            }
+            put(key, new DocumentEntry<T>(document, weigh(document.content())));
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Document<T> getDocument(final String documentId) {
+        final Key key = new Key(documentId, null);
+        DocumentEntry<T> entry = (DocumentEntry<T>) get(key);
+        if (entry == null) {
+            synchronized (stripe(key)) {
+                entry = (DocumentEntry<T>) get(key);
+                if (entry == null) {
+                    misses.incrementAndGet();
+                    final Document<T> document = delegate.getDocument(documentId);
+                    if (document != null) {
+                        put(key, new DocumentEntry<T>(document, weigh(document.content())));
+                    }
+                    return document;
+                }
+            }
+        }
+        hits.incrementAndGet();
+        return entry.document;
+    }
+
+    @Override
+    public void saveShadowDocument(final ShadowDocument<T> shadowDocument) {
+        final ClientDocument<T> document = shadowDocument.document();
+        write(document.id(), document.clientId(), SyncStateUpdate.<T, S>builder().shadow(shadowDocument).build());
+    }
+
+    @Override
+    public ShadowDocument<T> getShadowDocument(final String documentId, final String clientId) {
+        return clientEntry(documentId, clientId).shadow();
+    }
+
+    @Override
+    public void saveBackupShadowDocument(final BackupShadowDocument<T> backupShadow) {
+        final ClientDocument<T> document = backupShadow.shadow().document();
+        write(document.id(), document.clientId(),
+                SyncStateUpdate.<T, S>builder().backupShadow(backupShadow).build());
+    }
+
+    @Override
+    public BackupShadowDocument<T> getBackupShadowDocument(final String documentId, final String clientId) {
+        return clientEntry(documentId, clientId).backupShadow();
+    }
+
+    @Override
+    public void saveEdits(final S edit, final String documentId, final String clientId) {
+        write(documentId, clientId, SyncStateUpdate.<T, S>builder().addEdit(edit).build());
+    }
+
+    @Override
+    public void removeEdit(final S edit, final String documentId, final String clientId) {
+        write(documentId, clientId, SyncStateUpdate.<T, S>builder().removeEdit(edit).build());
+    }
+
+    @Override
+    public Queue<S> getEdits(final String documentId, final String clientId) {
+        return clientEntry(documentId, clientId).edits();
+    }
+
+    @Override
+    public void removeEdits(final String documentId, final String clientId) {
+        write(documentId, clientId, SyncStateUpdate.<T, S>builder().clearEdits().build());
+    }
+
+    @Override
+    public ClientSyncState<T, S> getSyncState(final String documentId, final String clientId) {
+        return clientEntry(documentId, clientId).state();
+    }
+
+    @Override
+    public ClientSyncState<T, S> updateSyncState(final String documentId,
+                                                 final String clientId,
+                                                 final SyncStateUpdate<T, S> update) {
+        return write(documentId, clientId, update);
+    }
+
+    /**
+     * Returns the hit, miss and eviction counts and the current size of the cache.
+     *
+     * @return {@link CacheStats} a snapshot of the cache statistics.
+     */
+    public CacheStats stats() {
+        final long entryCount;
+        final long totalWeight;
+        synchronized (entries) {
+            entryCount = entries.size();
+            totalWeight = weight;
+        }
+        return new CacheStats(hits.get(), misses.get(), evictions.get(), entryCount, totalWeight);
+    }
+
+    /**
+     * Writes the client state changes to the backing store and applies them to the cached state, if any.
+     * The changes are passed on as a single {@link ServerDataStore#updateSyncState} call.
+     */
+    @SuppressWarnings("unchecked")
+    private ClientSyncState<T, S> write(final String documentId,
+                                       final String clientId,
+                                       final SyncStateUpdate<T, S> update) {
+        final Key key = new Key(documentId, clientId);
+        synchronized (stripe(key)) {
+            final ClientSyncState<T, S> state;
+            try {
+                state = delegate.updateSyncState(documentId, clientId, update);
+            } catch (final RuntimeException e) {
+                invalidate(key);
+                throw e;
+            }
+            final ClientEntry<T, S> entry;
+            synchronized (entries) {
+                entry = (ClientEntry<T, S>) entries.get(key);
+            }
+            if (entry == null) {
+                return state;
+            }
+            reweigh(key, entry, entry.apply(update, this));
+            return entry.state();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private ClientEntry<T, S> clientEntry(final String documentId, final String clientId) {
+        final Key key = new Key(documentId, clientId);
+        ClientEntry<T, S> entry = (ClientEntry<T, S>) get(key);
+        if (entry == null) {
+            synchronized (stripe(key)) {
+                entry = (ClientEntry<T, S>) get(key);
+                if (entry == null) {
+                    misses.incrementAndGet();
+                    entry = new ClientEntry<T, S>(delegate.getSyncState(documentId, clientId));
+                    entry.weight = entry.weigh(this);
+                    put(key, entry);
+                    return entry;
+                }
+            }
+        }
+        hits.incrementAndGet();
+        return entry;
+    }
+
+    private Entry get(final Key key) {
+        synchronized (entries) {
+            return entries.get(key);
+        }
+    }
+
+    private void put(final Key key, final Entry entry) {
+        synchronized (entries) {
+            final Entry previous = entries.put(key, entry);
+            weight += entry.weight - (previous == null ? 0 : previous.weight);
+            evict();
+        }
+    }
+
+    private void reweigh(final Key key, final Entry entry, final int newWeight) {
+        synchronized (entries) {
+            if (entries.get(key) == entry) {
+                weight += newWeight - entry.weight;
+            }
+            entry.weight = newWeight;
+            evict();
+        }
+    }
+
+    private void invalidate(final Key key) {
+        synchronized (entries) {
+            final Entry removed = entries.remove(key);
+            if (removed != null) {
+                weight -= removed.weight;
+            }
+        }
+    }
+
+    // must be called holding the lock of entries.
+    private void evict() {
+        final Iterator<Entry> iterator = entries.values().iterator();
+        while (weight > maximumWeight && iterator.hasNext()) {
+            weight -= iterator.next().weight;
+            iterator.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private Object stripe(final Key key) {
+        return stripes[(key.hashCode() & Integer.MAX_VALUE) % STRIPES];
+    }
+
+    private int weigh(final T content) {
+        return content == null ? 0 : weigher.weigh(content);
+    }
+
+    private int weigh(final ShadowDocument<T> shadow) {
+        return shadow == null ? 0 : weigh(shadow.document().content());
+    }
+
+    private abstract static class Entry {
+        // guarded by the lock of the cache's entries.
+        int weight;
+    }
+
+    private static final class DocumentEntry<T> extends Entry {
+
+        private final Document<T> document;
+
+        private DocumentEntry(final Document<T> document, final int contentWeight) {
+            this.document = document;
+            weight = ENTRY_WEIGHT + contentWeight;
+        }
+    }
+
+    /**
+     * The cached state of a client, guarded by the entry's monitor.
+     */
+    private static final class ClientEntry<T, S extends Edit<? extends Diff>> extends Entry {
+
+        private ShadowDocument<T> shadow;
+        private BackupShadowDocument<T> backupShadow;
+        private EditLog<S> edits = new EditLog<S>(EditLog.Version.SERVER);
+
+        private ClientEntry(final ClientSyncState<T, S> state) {
+            shadow = state.shadow();
+            backupShadow = state.backupShadow();
+            for (S edit : state.edits()) {
+                edits.add(edit);
+            }
+        }
+
+        synchronized ShadowDocument<T> shadow() {
+            return shadow;
+        }
+
+        synchronized BackupShadowDocument<T> backupShadow() {
+            return backupShadow;
+        }
+
+        synchronized Queue<S> edits() {
+            return edits.snapshot();
+        }
+
+        synchronized ClientSyncState<T, S> state() {
+            return new DefaultClientSyncState<T, S>(shadow, backupShadow, edits.snapshot());
+        }
+
+        synchronized int apply(final SyncStateUpdate<T, S> update, final CachingServerDataStore<T, S> cache) {
+            if (update.clearEdits()) {
+                edits = new EditLog<S>(EditLog.Version.SERVER);
+            }
+            if (update.removeEdit() != null) {
+                edits.removeUpTo(update.removeEdit().serverVersion());
+            }
+            if (update.addEdit() != null) {
+                edits.add(update.addEdit());
+            }
+            if (update.shadow() != null) {
+                shadow = update.shadow();
+            }
+            if (update.backupShadow() != null) {
+                backupShadow = update.backupShadow();
+            }
+            return weigh(cache);
+        }
+
+        synchronized int weigh(final CachingServerDataStore<T, S> cache) {
+            return ENTRY_WEIGHT + cache.weigh(shadow)
+                    + (backupShadow == null ? 0 : cache.weigh(backupShadow.shadow()))
+                    + edits.size() * EDIT_WEIGHT;
+        }
+    }
+
+    private static final class Key {
+
+        private final String documentId;
+        private final String clientId;
+
+        private Key(final String documentId, final String clientId) {
+            this.documentId = documentId;
+            this.clientId = clientId;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return documentId.equals(key.documentId)
+                    && (clientId == null ? key.clientId == null : clientId.equals(key.clientId));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * documentId.hashCode() + (clientId == null ? 0 : clientId.hashCode());
+        }
+    }
+
+    /**
+     * Weighs contents by the length of their string representation.
+     */
+    private static final class LengthWeigher<T> implements Weigher<T> {
+
+        @Override
+        public int weigh(final T content) {
+            return content instanceof CharSequence
+                    ? ((CharSequence) content).length()
+                    : String.valueOf(content).length();
+        }
+    }
+
+    /**
+     * Creates a {@link Builder} for a cache in front of the specified backing store.
+     *
+     * @param delegate the {@link ServerDataStore} to cache.
+     * @param <T> The data type data that the store can handle.
+     * @param <S> The type of {@link Edit}s that the store can handle.
+     * @return {@link Builder} a builder with default settings.
+     */
+    public static <T, S extends Edit<? extends Diff>> Builder<T, S> builder(final ServerDataStore<T, S> delegate) {
+        return new Builder<T, S>(delegate);
+    }
+
+    public static class Builder<T, S extends Edit<? extends Diff>> {
+
+        private final ServerDataStore<T, S> delegate;
+        private Weigher<T> weigher = new LengthWeigher<T>();
+        private long maximumWeight = 16 * 1024 * 1024;
+
+        private Builder(final ServerDataStore<T, S> delegate) {
+            this.delegate = checkNotNull(delegate, "delegate must not be null");
+        }
+
+        /**
+         * Sets the maximum total weight of the cached entries. The default is 16M, which with the default
+         * {@link Weigher} is roughly the number of characters of content the cache holds.
+         *
+         * @param maximumWeight the maximum weight.
+         * @return {@link Builder} to allow method chaining.
+         */
+        public Builder<T, S> maximumWeight(final long maximumWeight) {
+            if (maximumWeight < 0) {
+                throw new IllegalArgumentException("maximumWeight must not be negative");
+            }
+            this.maximumWeight = maximumWeight;
+            return this;
+        }
+
+        /**
+         * Sets the {@link Weigher} for contents. By default a content weighs the length of its string
+         * representation.
+         *
+         * @param weigher the {@link Weigher} to use.
+         * @return {@link Builder} to allow method chaining.
+         */
+        public Builder<T, S> weigher(final Weigher<T> weigher) {
+            this.weigher = checkNotNull(weigher, "weigher must not be null");
+            return this;
+        }
+
+        /**
+         * Creates the cache.
+         *
+         * @return {@link CachingServerDataStore} the new store.
+         */
+        public CachingServerDataStore<T, S> build() {
+            return new CachingServerDataStore<T, S>(this);
+        }
+    }
+
+}
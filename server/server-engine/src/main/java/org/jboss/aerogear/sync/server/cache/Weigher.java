@@ -0,0 +1,33 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.server.cache;
+
+/**
+ * Computes the weight of a document content, which {@link CachingServerDataStore} uses to bound its size.
+ *
+ * @param <T> The type of the document content.
+ */
+public interface Weigher<T> {
+
+    /**
+     * Returns the weight of the passed-in content.
+     *
+     * @param content the content to weigh, never {@code null}.
+     * @return {@code int} the weight of the content, for example its length in characters.
+     */
+    int weigh(T content);
+}
@@ -0,0 +1,77 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.server.journal;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.jboss.aerogear.sync.Diff;
+import org.jboss.aerogear.sync.Edit;
+import org.jboss.aerogear.sync.journal.StoreCodec;
+import org.jboss.aerogear.sync.server.ServerSynchronizer;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.Queue;
+
+import static org.jboss.aerogear.sync.util.Arguments.checkNotNull;
+
+/**
+ * A {@link StoreCodec} that uses the JSON representations of a {@link ServerSynchronizer}, the same
+ * ones that are used to exchange documents and edits with clients.
+ *
+ * @param <T> The type of the document content.
+ * @param <S> The type of {@link Edit}s.
+ */
+public class SynchronizerStoreCodec<T, S extends Edit<? extends Diff>> implements StoreCodec<T, S> {
+
+    private static final ObjectMapper OM = new ObjectMapper();
+    private final ServerSynchronizer<T, S> synchronizer;
+
+    public SynchronizerStoreCodec(final ServerSynchronizer<T, S> synchronizer) {
+        this.synchronizer = checkNotNull(synchronizer, "synchronizer must not be null");
+    }
+
+    @Override
+    public String encodeContent(final T content) {
+        return OM.valueToTree(content).toString();
+    }
+
+    @Override
+    public T decodeContent(final String encoded) {
+        try {
+            final ObjectNode document = OM.createObjectNode();
+            document.put("id", "");
+            document.put("content", OM.readTree(encoded));
+            return synchronizer.documentFromJson(document).content();
+        } catch (final IOException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public String encodeEdit(final S edit) {
+        final Queue<S> edits = new LinkedList<S>();
+        edits.add(edit);
+        return synchronizer.createPatchMessage("", "", edits).asJson();
+    }
+
+    @Override
+    public S decodeEdit(final String encoded) {
+        return synchronizer.patchMessageFromJson(encoded).edits().peek();
+    }
+
+}
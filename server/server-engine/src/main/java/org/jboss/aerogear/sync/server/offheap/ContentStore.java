@@ -0,0 +1,236 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.server.offheap;
+
+import org.jboss.aerogear.sync.journal.StoreCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Holds document contents as deflated bytes in direct memory, storing every distinct content only once.
+ * <p>
+ * Contents are identified by the SHA-1 hash of their encoded form. A {@link Content} stays in the store for
+ * as long as something references it, after which it is removed and its direct memory is released by the
+ * garbage collector.
+ *
+ * @param <T> The type of the document content.
+ */
+final class ContentStore<T> {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final StoreCodec<T, ?> codec;
+    private final int compressionLevel;
+    private final ConcurrentMap<Key, ContentReference<T>> contents = new ConcurrentHashMap<Key, ContentReference<T>>();
+    private final ReferenceQueue<Content<T>> released = new ReferenceQueue<Content<T>>();
+    private final AtomicLong offHeapBytes = new AtomicLong();
+    private final AtomicLong deduplicated = new AtomicLong();
+    // fan-out stores the same content object for every client, remember the last one to skip encoding it again.
+    private volatile LastStored<T> last;
+
+    ContentStore(final StoreCodec<T, ?> codec, final int compressionLevel) {
+        this.codec = codec;
+        this.compressionLevel = compressionLevel;
+    }
+
+    Content<T> store(final T content) {
+        if (content == null) {
+            return null;
+        }
+        final LastStored<T> lastStored = last;
+        if (lastStored != null && lastStored.content == content) {
+            deduplicated.incrementAndGet();
+            return lastStored.stored;
+        }
+        purge();
+        final byte[] encoded = codec.encodeContent(content).getBytes(UTF_8);
+        final Key key = new Key(sha1(encoded));
+        Content<T> stored;
+        while (true) {
+            final ContentReference<T> reference = contents.get(key);
+            stored = reference == null ? null : reference.get();
+            if (stored != null) {
+                deduplicated.incrementAndGet();
+                break;
+            }
+            final Content<T> newContent = new Content<T>(this, deflate(encoded), encoded.length);
+            final ContentReference<T> newReference = new ContentReference<T>(newContent, key, released);
+            final boolean added = reference == null
+                    ? contents.putIfAbsent(key, newReference) == null
+                    : contents.replace(key, reference, newReference);
+            if (added) {
+                offHeapBytes.addAndGet(newReference.size);
+                stored = newContent;
+                break;
+            }
+        }
+        last = new LastStored<T>(content, stored);
+        return stored;
+    }
+
+    long offHeapBytes() {
+        purge();
+        return offHeapBytes.get();
+    }
+
+    int distinctContents() {
+        purge();
+        return contents.size();
+    }
+
+    long deduplicated() {
+        return deduplicated.get();
+    }
+
+    T decode(final ByteBuffer compressed, final int length) {
+        final byte[] input = new byte[compressed.remaining()];
+        compressed.duplicate().get(input);
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input);
+            final byte[] output = new byte[length];
+            int read = 0;
+            while (read < length && !inflater.finished()) {
+                read += inflater.inflate(output, read, length - read);
+            }
+            return codec.decodeContent(new String(output, 0, read, UTF_8));
+        } catch (final DataFormatException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void purge() {
+        ContentReference<T> reference;
+        while ((reference = (ContentReference<T>) released.poll()) != null) {
+            if (contents.remove(reference.key, reference)) {
+                offHeapBytes.addAndGet(-reference.size);
+            }
+        }
+    }
+
+    private ByteBuffer deflate(final byte[] encoded) {
+        final Deflater deflater = new Deflater(compressionLevel);
+        try {
+            deflater.setInput(encoded);
+            deflater.finish();
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, encoded.length / 4));
+            final byte[] chunk = new byte[4096];
+            while (!deflater.finished()) {
+                out.write(chunk, 0, deflater.deflate(chunk));
+            }
+            final byte[] compressed = out.toByteArray();
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(compressed.length);
+            buffer.put(compressed).flip();
+            return buffer;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] sha1(final byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(bytes);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * A stored content. Decoding it creates a new content object every time.
+     */
+    static final class Content<T> {
+
+        private final ContentStore<T> store;
+        private final ByteBuffer compressed;
+        private final int length;
+
+        private Content(final ContentStore<T> store, final ByteBuffer compressed, final int length) {
+            this.store = store;
+            this.compressed = compressed;
+            this.length = length;
+        }
+
+        T decode() {
+            return store.decode(compressed, length);
+        }
+
+        int compressedSize() {
+            return compressed.capacity();
+        }
+    }
+
+    private static final class ContentReference<T> extends WeakReference<Content<T>> {
+
+        private final Key key;
+        private final int size;
+
+        private ContentReference(final Content<T> content, final Key key, final ReferenceQueue<Content<T>> queue) {
+            super(content, queue);
+            this.key = key;
+            size = content.compressedSize();
+        }
+    }
+
+    private static final class LastStored<T> {
+
+        private final T content;
+        private final Content<T> stored;
+
+        private LastStored(final T content, final Content<T> stored) {
+            this.content = content;
+            this.stored = stored;
+        }
+    }
+
+    private static final class Key {
+
+        private final byte[] hash;
+        private final int hashCode;
+
+        private Key(final byte[] hash) {
+            this.hash = hash;
+            hashCode = Arrays.hashCode(hash);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return this == o || o instanceof Key && Arrays.equals(hash, ((Key) o).hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.server.offheap;
+
+import org.jboss.aerogear.sync.ClientDocument;
+import org.jboss.aerogear.sync.server.offheap.ContentStore.Content;
+
+/**
+ * A document whose content is decoded from a {@link ContentStore} the first time it is read.
+ *
+ * @param <T> The type of the document content.
+ */
+final class OffHeapDocument<T> implements ClientDocument<T> {
+
+    private final String id;
+    private final String clientId;
+    private final Content<T> stored;
+    private T content;
+
+    OffHeapDocument(final String id, final String clientId, final Content<T> stored) {
+        this.id = id;
+        this.clientId = clientId;
+        this.stored = stored;
+    }
+
+    @Override
+    public String id() {
+        return id;
+    }
+
+    @Override
+    public String clientId() {
+        return clientId;
+    }
+
+    @Override
+    public T content() {
+        // decoding is idempotent, so a racing thread at worst decodes the content a second time.
+        if (content == null && stored != null) {
+            content = stored.decode();
+        }
+        return content;
+    }
+
+    @Override
+    public String toString() {
+        return "OffHeapDocument[id=" + id + ", clientId=" + clientId + ", content=" + content() + ']';
+    }
+}
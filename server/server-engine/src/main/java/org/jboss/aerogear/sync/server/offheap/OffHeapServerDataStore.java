@@ -0,0 +1,258 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.server.offheap;
+
+import org.jboss.aerogear.sync.BackupShadowDocument;
+import org.jboss.aerogear.sync.ClientDocument;
+import org.jboss.aerogear.sync.ClientSyncState;
+import org.jboss.aerogear.sync.DefaultBackupShadowDocument;
+import org.jboss.aerogear.sync.DefaultClientDocument;
+import org.jboss.aerogear.sync.DefaultClientSyncState;
+import org.jboss.aerogear.sync.DefaultShadowDocument;
+import org.jboss.aerogear.sync.Diff;
+import org.jboss.aerogear.sync.Document;
+import org.jboss.aerogear.sync.Edit;
+import org.jboss.aerogear.sync.EditLog;
+import org.jboss.aerogear.sync.ShadowDocument;
+import org.jboss.aerogear.sync.SyncStateMap;
+import org.jboss.aerogear.sync.SyncStateUpdate;
+import org.jboss.aerogear.sync.journal.StoreCodec;
+import org.jboss.aerogear.sync.server.ServerDataStore;
+import org.jboss.aerogear.sync.server.offheap.ContentStore.Content;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.Deflater;
+
+import static org.jboss.aerogear.sync.util.Arguments.checkNotNull;
+
+/**
+ * A {@link ServerDataStore} that keeps document contents out of the Java heap.
+ * <p>
+ * The contents of documents, shadow documents and backup shadow documents are encoded with a
+ * {@link StoreCodec}, deflated and held in direct memory. Equal contents are stored only once, so the
+ * shadow documents of clients that are in sync with the server document all share the bytes of that
+ * document, and the heap only holds a few small objects per client. Contents are decoded when they are
+ * read, which trades some CPU on every read for a heap that no longer grows with the size of the documents
+ * times the number of clients.
+ * <p>
+ * Pending edits are kept on the heap as they are.
+ *
+ * @param <T> The data type data that this implementation can handle.
+ * @param <S> The type of {@link Edit}s that this implementation can handle.
+ */
+public class OffHeapServerDataStore<T, S extends Edit<? extends Diff>> implements ServerDataStore<T, S> {
+
+    private final ConcurrentMap<String, Content<T>> documents = new ConcurrentHashMap<String, Content<T>>();
+    private final SyncStateMap<Content<T>, S> states = new SyncStateMap<Content<T>, S>(EditLog.Version.SERVER);
+    private final ContentStore<T> contents;
+
+    private OffHeapServerDataStore(final Builder<T, S> builder) {
+        contents = new ContentStore<T>(builder.codec, builder.compressionLevel);
+    }
+
+    @Override
+    public boolean saveDocument(final Document<T> document) {
+        return documents.putIfAbsent(document.id(), contents.store(document.content())) == null;
+    }
+
+    @Override
+    public void updateDocument(final Document<T> document) {
+        documents.put(document.id(), contents.store(document.content()));
+    }
+
+    @Override
+    public Document<T> getDocument(final String documentId) {
+        final Content<T> content = documents.get(documentId);
+        return content == null ? null : new OffHeapDocument<T>(documentId, null, content);
+    }
+
+    @Override
+    public void saveShadowDocument(final ShadowDocument<T> shadowDocument) {
+        states.saveShadowDocument(store(shadowDocument));
+    }
+
+    @Override
+    public ShadowDocument<T> getShadowDocument(final String documentId, final String clientId) {
+        return load(states.getShadowDocument(documentId, clientId));
+    }
+
+    @Override
+    public void saveBackupShadowDocument(final BackupShadowDocument<T> backupShadow) {
+        states.saveBackupShadowDocument(store(backupShadow));
+    }
+
+    @Override
+    public BackupShadowDocument<T> getBackupShadowDocument(final String documentId, final String clientId) {
+        return load(states.getBackupShadowDocument(documentId, clientId));
+    }
+
+    @Override
+    public void saveEdits(final S edit, final String documentId, final String clientId) {
+        states.saveEdits(edit, documentId, clientId);
+    }
+
+    @Override
+    public void removeEdit(final S edit, final String documentId, final String clientId) {
+        states.removeEdit(edit, documentId, clientId);
+    }
+
+    @Override
+    public Queue<S> getEdits(final String documentId, final String clientId) {
+        return states.getEdits(documentId, clientId);
+    }
+
+    @Override
+    public void removeEdits(final String documentId, final String clientId) {
+        states.removeEdits(documentId, clientId);
+    }
+
+    @Override
+    public ClientSyncState<T, S> getSyncState(final String documentId, final String clientId) {
+        return load(states.getSyncState(documentId, clientId));
+    }
+
+    @Override
+    public ClientSyncState<T, S> updateSyncState(final String documentId,
+                                                 final String clientId,
+                                                 final SyncStateUpdate<T, S> update) {
+        final SyncStateUpdate.Builder<Content<T>, S> stored = SyncStateUpdate.builder();
+        if (update.clearEdits()) {
+            stored.clearEdits();
+        }
+        if (update.removeEdit() != null) {
+            stored.removeEdit(update.removeEdit());
+        }
+        if (update.addEdit() != null) {
+            stored.addEdit(update.addEdit());
+        }
+        if (update.shadow() != null) {
+            stored.shadow(store(update.shadow()));
+        }
+        if (update.backupShadow() != null) {
+            stored.backupShadow(store(update.backupShadow()));
+        }
+        return load(states.updateSyncState(documentId, clientId, stored.build()));
+    }
+
+    /**
+     * Returns the number of distinct contents held by this store.
+     *
+     * @return {@code int} the number of distinct contents.
+     */
+    public int distinctContents() {
+        return contents.distinctContents();
+    }
+
+    /**
+     * Returns the number of bytes of direct memory used by the compressed contents.
+     * <p>
+     * Contents that are no longer referenced are only released after they have been garbage collected.
+     *
+     * @return {@code long} the number of off-heap bytes in use.
+     */
+    public long offHeapBytes() {
+        return contents.offHeapBytes();
+    }
+
+    /**
+     * Returns the number of times a content was stored that was already held by this store.
+     *
+     * @return {@code long} the number of stores that were deduplicated.
+     */
+    public long deduplicated() {
+        return contents.deduplicated();
+    }
+
+    private ShadowDocument<Content<T>> store(final ShadowDocument<T> shadow) {
+        final ClientDocument<T> document = shadow.document();
+        return new DefaultShadowDocument<Content<T>>(shadow.serverVersion(), shadow.clientVersion(),
+                new DefaultClientDocument<Content<T>>(document.id(), document.clientId(),
+                        contents.store(document.content())));
+    }
+
+    private BackupShadowDocument<Content<T>> store(final BackupShadowDocument<T> backup) {
+        return new DefaultBackupShadowDocument<Content<T>>(backup.version(), store(backup.shadow()));
+    }
+
+    private ShadowDocument<T> load(final ShadowDocument<Content<T>> shadow) {
+        if (shadow == null) {
+            return null;
+        }
+        final ClientDocument<Content<T>> document = shadow.document();
+        return new DefaultShadowDocument<T>(shadow.serverVersion(), shadow.clientVersion(),
+                new OffHeapDocument<T>(document.id(), document.clientId(), document.content()));
+    }
+
+    private BackupShadowDocument<T> load(final BackupShadowDocument<Content<T>> backup) {
+        return backup == null ? null : new DefaultBackupShadowDocument<T>(backup.version(), load(backup.shadow()));
+    }
+
+    private ClientSyncState<T, S> load(final ClientSyncState<Content<T>, S> state) {
+        if (state == null) {
+            return null;
+        }
+        return new DefaultClientSyncState<T, S>(load(state.shadow()), load(state.backupShadow()), state.edits());
+    }
+
+    /**
+     * Creates a {@link Builder} for a store that keeps contents off the heap.
+     *
+     * @param codec the {@link StoreCodec} used to encode content.
+     * @param <T> The data type data that the store can handle.
+     * @param <S> The type of {@link Edit}s that the store can handle.
+     * @return {@link Builder} a builder with default settings.
+     */
+    public static <T, S extends Edit<? extends Diff>> Builder<T, S> builder(final StoreCodec<T, S> codec) {
+        return new Builder<T, S>(codec);
+    }
+
+    public static class Builder<T, S extends Edit<? extends Diff>> {
+
+        private final StoreCodec<T, S> codec;
+        private int compressionLevel = Deflater.BEST_SPEED;
+
+        private Builder(final StoreCodec<T, S> codec) {
+            this.codec = checkNotNull(codec, "codec must not be null");
+        }
+
+        /**
+         * Sets the {@link Deflater} compression level used for contents, {@link Deflater#BEST_SPEED} by default.
+         *
+         * @param compressionLevel the compression level, from 0 to 9.
+         * @return {@link Builder} to allow method chaining.
+         */
+        public Builder<T, S> compressionLevel(final int compressionLevel) {
+            if (compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+                throw new IllegalArgumentException("compressionLevel must be between 0 and 9");
+            }
+            this.compressionLevel = compressionLevel;
+            return this;
+        }
+
+        /**
+         * Creates the store.
+         *
+         * @return {@link OffHeapServerDataStore} the new store.
+         */
+        public OffHeapServerDataStore<T, S> build() {
+            return new OffHeapServerDataStore<T, S>(this);
+        }
+    }
+
+}
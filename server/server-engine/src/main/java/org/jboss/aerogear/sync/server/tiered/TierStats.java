@@ -0,0 +1,131 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.server.tiered;
+
+/**
+ * A snapshot of the statistics of the tiers of a {@link TieredServerDataStore}.
+ */
+public final class TierStats {
+
+    private final long hotEntries;
+    private final long hotHits;
+    private final long coldEntries;
+    private final long coldBytes;
+    private final long coldHits;
+    private final long evictions;
+    private final long expirations;
+
+    TierStats(final long hotEntries,
+              final long hotHits,
+              final long coldEntries,
+              final long coldBytes,
+              final long coldHits,
+              final long evictions,
+              final long expirations) {
+        this.hotEntries = hotEntries;
+        this.hotHits = hotHits;
+        this.coldEntries = coldEntries;
+        this.coldBytes = coldBytes;
+        this.coldHits = coldHits;
+        this.evictions = evictions;
+        this.expirations = expirations;
+    }
+
+    /**
+     * Returns the number of clients whose state is held in memory.
+     *
+     * @return {@code long} the number of in-memory client states.
+     */
+    public long hotEntries() {
+        return hotEntries;
+    }
+
+    /**
+     * Returns the number of accesses that found the client's state in memory.
+     *
+     * @return {@code long} the number of in-memory hits.
+     */
+    public long hotHits() {
+        return hotHits;
+    }
+
+    /**
+     * Returns the number of clients whose state has been spilled to disk.
+     *
+     * @return {@code long} the number of spilled client states.
+     */
+    public long coldEntries() {
+        return coldEntries;
+    }
+
+    /**
+     * Returns the size of the spilled client states on disk.
+     *
+     * @return {@code long} the compressed size in bytes.
+     */
+    public long coldBytes() {
+        return coldBytes;
+    }
+
+    /**
+     * Returns the number of accesses that had to read the client's state back from disk.
+     *
+     * @return {@code long} the number of rehydrations.
+     */
+    public long coldHits() {
+        return coldHits;
+    }
+
+    /**
+     * Returns the number of times a client's state was spilled to disk.
+     *
+     * @return {@code long} the number of evictions.
+     */
+    public long evictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns the number of clients whose spilled state was deleted because it expired.
+     *
+     * @return {@code long} the number of expirations.
+     */
+    public long expirations() {
+        return expirations;
+    }
+
+    /**
+     * Returns the fraction of accesses that were served from memory.
+     *
+     * @return {@code double} the in-memory hit rate, or {@code 1.0} if there were no accesses.
+     */
+    public double hotHitRate() {
+        final long accesses = hotHits + coldHits;
+        return accesses == 0 ? 1.0 : (double) hotHits / accesses;
+    }
+
+    @Override
+    public String toString() {
+        return "TierStats[hotEntries=" + hotEntries +
+                ", hotHits=" + hotHits +
+                ", coldEntries=" + coldEntries +
+                ", coldBytes=" + coldBytes +
+                ", coldHits=" + coldHits +
+                ", evictions=" + evictions +
+                ", expirations=" + expirations + ']';
+    }
+}
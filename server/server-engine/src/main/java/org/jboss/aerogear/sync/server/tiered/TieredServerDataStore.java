@@ -0,0 +1,650 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.server.tiered;
+
+import org.jboss.aerogear.sync.BackupShadowDocument;
+import org.jboss.aerogear.sync.ClientDocument;
+import org.jboss.aerogear.sync.ClientSyncState;
+import org.jboss.aerogear.sync.DefaultBackupShadowDocument;
+import org.jboss.aerogear.sync.DefaultClientDocument;
+import org.jboss.aerogear.sync.DefaultClientSyncState;
+import org.jboss.aerogear.sync.DefaultShadowDocument;
+import org.jboss.aerogear.sync.Diff;
+import org.jboss.aerogear.sync.Document;
+import org.jboss.aerogear.sync.Edit;
+import org.jboss.aerogear.sync.ShadowDocument;
+import org.jboss.aerogear.sync.SyncStateUpdate;
+import org.jboss.aerogear.sync.journal.StoreCodec;
+import org.jboss.aerogear.sync.server.ServerDataStore;
+import org.jboss.aerogear.sync.server.ServerInMemoryDataStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.jboss.aerogear.sync.util.Arguments.checkNotNull;
+
+/**
+ * A {@link ServerDataStore} that moves the state of clients that have gone quiet out of the heap.
+ * <p>
+ * Documents and the shadow documents, backup shadow documents and pending edits of active clients are
+ * kept in memory. {@link #evictIdle()}, which the store runs periodically, writes the state of every client
+ * that has not been accessed for longer than the configured time-to-live to a compressed file in the spill
+ * directory and drops it from memory. The next time the state of such a client is read or written, for
+ * example when it reconnects and sends a patch, the file is read back and removed, so callers never see the
+ * difference. Spilled state that has not been accessed for longer than the expiry is considered to belong to
+ * a client that is gone and is deleted, after which the store behaves as if the client had never been seen.
+ * <p>
+ * The spill directory is a cache, not durable storage: files left over from an earlier run are deleted
+ * when a store is created.
+ *
+ * @param <T> The data type data that this implementation can handle.
+ * @param <S> The type of {@link Edit}s that this implementation can handle.
+ */
+public class TieredServerDataStore<T, S extends Edit<? extends Diff>> implements ServerDataStore<T, S>, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(TieredServerDataStore.class);
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String SUFFIX = ".state";
+    private static final int FORMAT_VERSION = 1;
+
+    private final ServerInMemoryDataStore<T, S> hot = new ServerInMemoryDataStore<T, S>();
+    private final ConcurrentMap<String, ConcurrentMap<String, Slot>> slots =
+            new ConcurrentHashMap<String, ConcurrentMap<String, Slot>>();
+    private final File directory;
+    private final StoreCodec<T, S> codec;
+    private final long ttlNanos;
+    private final long expiryNanos;
+    private final ScheduledExecutorService scheduler;
+    private final boolean ownsScheduler;
+    private final ScheduledFuture<?> periodicEviction;
+    private final AtomicLong hotHits = new AtomicLong();
+    private final AtomicLong coldHits = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong coldEntries = new AtomicLong();
+    private final AtomicLong coldBytes = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    private final Runnable evictionTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                evictIdle();
+            } catch (final Throwable t) {
+                logger.error("Eviction failed", t);
+            }
+        }
+    };
+
+    private TieredServerDataStore(final Builder<T, S> builder) throws IOException {
+        directory = builder.directory;
+        codec = builder.codec;
+        ttlNanos = builder.ttlNanos;
+        expiryNanos = builder.expiryNanos;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create spill directory " + directory);
+        }
+        for (File file : spillFiles()) {
+            if (!file.delete()) {
+                logger.warn("Could not delete stale spill file " + file);
+            }
+        }
+        ownsScheduler = builder.scheduler == null;
+        scheduler = ownsScheduler ? Executors.newSingleThreadScheduledExecutor(new EvictionThreadFactory())
+                : builder.scheduler;
+        periodicEviction = scheduler.scheduleWithFixedDelay(evictionTask, builder.evictionIntervalNanos,
+                builder.evictionIntervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public boolean saveDocument(final Document<T> document) {
+        return hot.saveDocument(document);
+    }
+
+    @Override
+    public void updateDocument(final Document<T> document) {
+        hot.updateDocument(document);
+    }
+
+    @Override
+    public Document<T> getDocument(final String documentId) {
+        return hot.getDocument(documentId);
+    }
+
+    @Override
+    public void saveShadowDocument(final ShadowDocument<T> shadowDocument) {
+        final ClientDocument<T> document = shadowDocument.document();
+        final Slot slot = touch(document.id(), document.clientId());
+        synchronized (slot) {
+            hot.saveShadowDocument(shadowDocument);
+        }
+    }
+
+    @Override
+    public ShadowDocument<T> getShadowDocument(final String documentId, final String clientId) {
+        final Slot slot = touch(documentId, clientId);
+        synchronized (slot) {
+            return hot.getShadowDocument(documentId, clientId);
+        }
+    }
+
+    @Override
+    public void saveBackupShadowDocument(final BackupShadowDocument<T> backupShadow) {
+        final ClientDocument<T> document = backupShadow.shadow().document();
+        final Slot slot = touch(document.id(), document.clientId());
+        synchronized (slot) {
+            hot.saveBackupShadowDocument(backupShadow);
+        }
+    }
+
+    @Override
+    public BackupShadowDocument<T> getBackupShadowDocument(final String documentId, final String clientId) {
+        final Slot slot = touch(documentId, clientId);
+        synchronized (slot) {
+            return hot.getBackupShadowDocument(documentId, clientId);
+        }
+    }
+
+    @Override
+    public void saveEdits(final S edit, final String documentId, final String clientId) {
+        final Slot slot = touch(documentId, clientId);
+        synchronized (slot) {
+            hot.saveEdits(edit, documentId, clientId);
+        }
+    }
+
+    @Override
+    public void removeEdit(final S edit, final String documentId, final String clientId) {
+        final Slot slot = touch(documentId, clientId);
+        synchronized (slot) {
+            hot.removeEdit(edit, documentId, clientId);
+        }
+    }
+
+    @Override
+    public Queue<S> getEdits(final String documentId, final String clientId) {
+        final Slot slot = touch(documentId, clientId);
+        synchronized (slot) {
+            return hot.getEdits(documentId, clientId);
+        }
+    }
+
+    @Override
+    public void removeEdits(final String documentId, final String clientId) {
+        final Slot slot = touch(documentId, clientId);
+        synchronized (slot) {
+            hot.removeEdits(documentId, clientId);
+        }
+    }
+
+    @Override
+    public ClientSyncState<T, S> getSyncState(final String documentId, final String clientId) {
+        final Slot slot = touch(documentId, clientId);
+        synchronized (slot) {
+            return hot.getSyncState(documentId, clientId);
+        }
+    }
+
+    @Override
+    public ClientSyncState<T, S> updateSyncState(final String documentId,
+                                                 final String clientId,
+                                                 final SyncStateUpdate<T, S> update) {
+        final Slot slot = touch(documentId, clientId);
+        synchronized (slot) {
+            return hot.updateSyncState(documentId, clientId, update);
+        }
+    }
+
+    /**
+     * Spills the state of all clients that have not been accessed for longer than the time-to-live, and
+     * deletes the spilled state of clients that have not been accessed for longer than the expiry.
+     * <p>
+     * The store runs this method every eviction interval, calling it directly is only needed to evict
+     * at a specific point in time.
+     *
+     * @return {@code int} the number of clients whose state was spilled.
+     */
+    public int evictIdle() {
+        final long now = System.nanoTime();
+        int evicted = 0;
+        int expired = 0;
+        for (Map.Entry<String, ConcurrentMap<String, Slot>> document : slots.entrySet()) {
+            final String documentId = document.getKey();
+            final ConcurrentMap<String, Slot> clients = document.getValue();
+            for (Map.Entry<String, Slot> client : clients.entrySet()) {
+                final Slot slot = client.getValue();
+                synchronized (slot) {
+                    if (slot.spilled) {
+                        if (now - slot.lastAccess >= expiryNanos) {
+                            expire(documentId, client.getKey(), slot);
+                            clients.remove(client.getKey(), slot);
+                            expired++;
+                        }
+                    } else if (now - slot.lastAccess >= ttlNanos) {
+                        if (spill(documentId, client.getKey(), slot)) {
+                            evicted++;
+                        } else {
+                            // nothing was ever stored for this client.
+                            slot.retired = true;
+                            clients.remove(client.getKey(), slot);
+                        }
+                    }
+                }
+            }
+            synchronized (clients) {
+                if (clients.isEmpty()) {
+                    slots.remove(documentId, clients);
+                }
+            }
+        }
+        if (evicted > 0 || expired > 0) {
+            logger.debug("Spilled the state of " + evicted + " idle clients, deleted the state of " + expired
+                    + " expired clients");
+        }
+        return evicted;
+    }
+
+    /**
+     * Stops the periodic eviction. The spilled state is left in the spill directory, where it is deleted
+     * by the next store that is created for the directory.
+     */
+    @Override
+    public void close() {
+        periodicEviction.cancel(false);
+        if (ownsScheduler) {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * Returns the sizes and hit counts of the in-memory and on-disk tiers.
+     *
+     * @return {@link TierStats} a snapshot of the tier statistics.
+     */
+    public TierStats stats() {
+        long hotEntries = 0;
+        for (ConcurrentMap<String, Slot> clients : slots.values()) {
+            hotEntries += clients.size();
+        }
+        final long spilled = coldEntries.get();
+        return new TierStats(hotEntries - spilled, hotHits.get(), spilled, coldBytes.get(), coldHits.get(),
+                evictions.get(), expirations.get());
+    }
+
+    private Slot touch(final String documentId, final String clientId) {
+        while (true) {
+            ConcurrentMap<String, Slot> clients = slots.get(documentId);
+            if (clients == null) {
+                final ConcurrentMap<String, Slot> newClients = new ConcurrentHashMap<String, Slot>();
+                clients = slots.putIfAbsent(documentId, newClients);
+                if (clients == null) {
+                    clients = newClients;
+                }
+            }
+            Slot slot = clients.get(clientId);
+            if (slot == null) {
+                synchronized (clients) {
+                    // the map is removed from slots once eviction has emptied it, adding to it would lose the slot.
+                    if (slots.get(documentId) != clients) {
+                        continue;
+                    }
+                    final Slot newSlot = new Slot();
+                    slot = clients.putIfAbsent(clientId, newSlot);
+                    if (slot == null) {
+                        slot = newSlot;
+                    }
+                }
+            }
+            synchronized (slot) {
+                if (slot.retired) {
+                    continue;
+                }
+                if (slot.spilled) {
+                    rehydrate(documentId, clientId, slot);
+                    coldHits.incrementAndGet();
+                } else {
+                    hotHits.incrementAndGet();
+                }
+                slot.lastAccess = System.nanoTime();
+            }
+            return slot;
+        }
+    }
+
+    private boolean spill(final String documentId, final String clientId, final Slot slot) {
+        final ClientSyncState<T, S> state = hot.removeSyncState(documentId, clientId);
+        if (state == null) {
+            return false;
+        }
+        final File file = fileFor(documentId, clientId);
+        final File tmp = new File(file.getPath() + ".tmp");
+        try {
+            final DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp))));
+            try {
+                writeState(out, state);
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Could not rename " + tmp + " to " + file);
+            }
+        } catch (final IOException e) {
+            // keep the state in memory rather than losing it.
+            restore(documentId, clientId, state);
+            tmp.delete();
+            logger.warn("Could not spill the state of client [" + clientId + "] for document [" + documentId + ']', e);
+            return true;
+        }
+        slot.spilled = true;
+        slot.spilledBytes = file.length();
+        coldEntries.incrementAndGet();
+        coldBytes.addAndGet(slot.spilledBytes);
+        evictions.incrementAndGet();
+        return true;
+    }
+
+    private void expire(final String documentId, final String clientId, final Slot slot) {
+        final File file = fileFor(documentId, clientId);
+        if (!file.delete()) {
+            logger.warn("Could not delete spill file " + file);
+        }
+        slot.spilled = false;
+        slot.retired = true;
+        coldEntries.decrementAndGet();
+        coldBytes.addAndGet(-slot.spilledBytes);
+        slot.spilledBytes = 0;
+        expirations.incrementAndGet();
+    }
+
+    private void rehydrate(final String documentId, final String clientId, final Slot slot) {
+        final File file = fileFor(documentId, clientId);
+        try {
+            final DataInputStream in = new DataInputStream(new InflaterInputStream(
+                    new BufferedInputStream(new FileInputStream(file))));
+            try {
+                restore(documentId, clientId, readState(in, documentId, clientId));
+            } finally {
+                in.close();
+            }
+        } catch (final IOException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+        if (!file.delete()) {
+            logger.warn("Could not delete spill file " + file);
+        }
+        slot.spilled = false;
+        coldEntries.decrementAndGet();
+        coldBytes.addAndGet(-slot.spilledBytes);
+        slot.spilledBytes = 0;
+    }
+
+    private void restore(final String documentId, final String clientId, final ClientSyncState<T, S> state) {
+        hot.updateSyncState(documentId, clientId, SyncStateUpdate.<T, S>builder()
+                .clearEdits()
+                .shadow(state.shadow())
+                .backupShadow(state.backupShadow())
+                .build());
+        for (S edit : state.edits()) {
+            hot.saveEdits(edit, documentId, clientId);
+        }
+    }
+
+    private void writeState(final DataOutputStream out, final ClientSyncState<T, S> state) throws IOException {
+        out.writeInt(FORMAT_VERSION);
+        writeShadow(out, state.shadow());
+        final BackupShadowDocument<T> backup = state.backupShadow();
+        out.writeLong(backup == null ? -1 : backup.version());
+        writeShadow(out, backup == null ? null : backup.shadow());
+        out.writeInt(state.edits().size());
+        for (S edit : state.edits()) {
+            writeString(out, codec.encodeEdit(edit));
+        }
+    }
+
+    private ClientSyncState<T, S> readState(final DataInputStream in,
+                                            final String documentId,
+                                            final String clientId) throws IOException {
+        final int version = in.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported spill file version " + version);
+        }
+        final ShadowDocument<T> shadow = readShadow(in, documentId, clientId);
+        final long backupVersion = in.readLong();
+        final ShadowDocument<T> backupShadow = readShadow(in, documentId, clientId);
+        final BackupShadowDocument<T> backup = backupShadow == null
+                ? null
+                : new DefaultBackupShadowDocument<T>(backupVersion, backupShadow);
+        final int edits = in.readInt();
+        final Queue<S> queue = new LinkedList<S>();
+        for (int i = 0; i < edits; i++) {
+            queue.add(codec.decodeEdit(readString(in)));
+        }
+        return new DefaultClientSyncState<T, S>(shadow, backup, queue);
+    }
+
+    private void writeShadow(final DataOutputStream out, final ShadowDocument<T> shadow) throws IOException {
+        out.writeBoolean(shadow != null);
+        if (shadow != null) {
+            out.writeLong(shadow.serverVersion());
+            out.writeLong(shadow.clientVersion());
+            final T content = shadow.document().content();
+            writeString(out, content == null ? null : codec.encodeContent(content));
+        }
+    }
+
+    private ShadowDocument<T> readShadow(final DataInputStream in,
+                                         final String documentId,
+                                         final String clientId) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        final long serverVersion = in.readLong();
+        final long clientVersion = in.readLong();
+        final String content = readString(in);
+        return new DefaultShadowDocument<T>(serverVersion, clientVersion, new DefaultClientDocument<T>(documentId,
+                clientId, content == null ? null : codec.decodeContent(content)));
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            final byte[] bytes = value.getBytes(UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(final DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private File fileFor(final String documentId, final String clientId) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(documentId.getBytes(UTF_8));
+            digest.update((byte) 0);
+            digest.update(clientId.getBytes(UTF_8));
+            final StringBuilder name = new StringBuilder(48);
+            for (byte b : digest.digest()) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return new File(directory, name.append(SUFFIX).toString());
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    private File[] spillFiles() {
+        final File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(final File dir, final String name) {
+                return name.endsWith(SUFFIX) || name.endsWith(SUFFIX + ".tmp");
+            }
+        });
+        return files == null ? new File[0] : files;
+    }
+
+    private static final class Slot {
+        private long lastAccess = System.nanoTime();
+        private boolean spilled;
+        private long spilledBytes;
+        // the slot has been removed, a thread that still holds it has to look it up again.
+        private boolean retired;
+    }
+
+    private static class EvictionThreadFactory implements ThreadFactory {
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "tiered-store-eviction");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * Creates a {@link Builder} for a store that spills idle client state to the specified directory.
+     *
+     * @param directory the directory for spilled state.
+     * @param codec the {@link StoreCodec} used to encode content and edits.
+     * @param <T> The data type data that the store can handle.
+     * @param <S> The type of {@link Edit}s that the store can handle.
+     * @return {@link Builder} a builder with default settings.
+     */
+    public static <T, S extends Edit<? extends Diff>> Builder<T, S> builder(final File directory,
+                                                                           final StoreCodec<T, S> codec) {
+        return new Builder<T, S>(directory, codec);
+    }
+
+    public static class Builder<T, S extends Edit<? extends Diff>> {
+
+        private final File directory;
+        private final StoreCodec<T, S> codec;
+        private long ttlNanos = TimeUnit.MINUTES.toNanos(10);
+        private long expiryNanos = TimeUnit.DAYS.toNanos(1);
+        private long evictionIntervalNanos = TimeUnit.MINUTES.toNanos(1);
+        private ScheduledExecutorService scheduler;
+
+        private Builder(final File directory, final StoreCodec<T, S> codec) {
+            this.directory = checkNotNull(directory, "directory must not be null");
+            this.codec = checkNotNull(codec, "codec must not be null");
+        }
+
+        /**
+         * Sets how long the state of a client may go unused before {@link TieredServerDataStore#evictIdle()}
+         * spills it.
+         * The default is 10 minutes.
+         *
+         * @param ttl the time-to-live.
+         * @param unit the {@link TimeUnit} of {@code ttl}.
+         * @return {@link Builder} to allow method chaining.
+         */
+        public Builder<T, S> ttl(final long ttl, final TimeUnit unit) {
+            ttlNanos = unit.toNanos(ttl);
+            return this;
+        }
+
+        /**
+         * Sets how long the spilled state of a client may go unused before it is deleted. A client that
+         * comes back after that is treated like a new client.
+         * The default is 1 day.
+         *
+         * @param expiry the expiry.
+         * @param unit the {@link TimeUnit} of {@code expiry}.
+         * @return {@link Builder} to allow method chaining.
+         */
+        public Builder<T, S> expireAfter(final long expiry, final TimeUnit unit) {
+            if (expiry <= 0) {
+                throw new IllegalArgumentException("expiry must be greater than zero");
+            }
+            expiryNanos = unit.toNanos(expiry);
+            return this;
+        }
+
+        /**
+         * Sets how often {@link TieredServerDataStore#evictIdle()} is run.
+         * The default is 1 minute.
+         *
+         * @param interval the eviction interval.
+         * @param unit the {@link TimeUnit} of {@code interval}.
+         * @return {@link Builder} to allow method chaining.
+         */
+        public Builder<T, S> evictionInterval(final long interval, final TimeUnit unit) {
+            if (interval <= 0) {
+                throw new IllegalArgumentException("interval must be greater than zero");
+            }
+            evictionIntervalNanos = unit.toNanos(interval);
+            return this;
+        }
+
+        /**
+         * Sets the {@link ScheduledExecutorService} that runs the periodic eviction. By default the store
+         * starts a daemon thread that is stopped when the store is closed.
+         *
+         * @param scheduler the {@link ScheduledExecutorService} to use.
+         * @return {@link Builder} to allow method chaining.
+         */
+        public Builder<T, S> scheduler(final ScheduledExecutorService scheduler) {
+            this.scheduler = checkNotNull(scheduler, "scheduler must not be null");
+            return this;
+        }
+
+        /**
+         * Creates the store, deleting any files left in the spill directory, and schedules its periodic eviction.
+         *
+         * @return {@link TieredServerDataStore} the new store.
+         * @throws IOException if the spill directory cannot be created.
+         */
+        public TieredServerDataStore<T, S> build() throws IOException {
+            return new TieredServerDataStore<T, S>(this);
+        }
+    }
+
+}
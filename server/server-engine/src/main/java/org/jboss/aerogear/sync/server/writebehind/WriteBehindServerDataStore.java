@@ -0,0 +1,659 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.server.writebehind;
+
+import org.jboss.aerogear.sync.BackupShadowDocument;
+import org.jboss.aerogear.sync.ClientDocument;
+import org.jboss.aerogear.sync.ClientSyncState;
+import org.jboss.aerogear.sync.DefaultClientSyncState;
+import org.jboss.aerogear.sync.Diff;
+import org.jboss.aerogear.sync.Document;
+import org.jboss.aerogear.sync.Edit;
+import org.jboss.aerogear.sync.ShadowDocument;
+import org.jboss.aerogear.sync.SyncStateUpdate;
+import org.jboss.aerogear.sync.server.ServerDataStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.jboss.aerogear.sync.util.Arguments.checkNotNull;
+
+/**
+ * A {@link ServerDataStore} that collects writes in memory and passes them on to another
+ * {@link ServerDataStore} in batches.
+ * <p>
+ * Writes are recorded in an overlay that is keyed by document, and by document and client for the state of
+ * a client. Reads are answered from the overlay where it has the data, and from the backing store otherwise.
+ * Repeated writes to the same key are coalesced: only the last shadow document and backup shadow document of
+ * a client are written, edits that are acknowledged before they are flushed are never written at all, and
+ * all changes to the state of a client are written with a single {@link ServerDataStore#updateSyncState}
+ * call where possible.
+ * <p>
+ * The overlay is flushed to the backing store when it holds {@code batchSize} keys, and at the latest
+ * {@code maxDelay} after the previous flush, which bounds how far the backing store lags behind. When the
+ * overlay holds {@code maxPending} keys, a thread that writes to a new key flushes the overlay itself before
+ * continuing, which slows writers down to the pace of the backing store.
+ * <p>
+ * Durability: a write is durable only once it has been flushed, so a crash loses the writes of at most the
+ * last {@code maxDelay} plus the duration of a flush. {@link #flush()} and {@link #close()} return after all
+ * writes made before they were called have been passed to the backing store. A flush is not atomic: the
+ * keys of a batch are written one after the other, but the writes for one client are applied in the order
+ * they were made. Should the backing store fail, the remaining writes stay in the overlay and are retried by
+ * the next flush. All access to the backing store has to go through this store.
+ *
+ * @param <T> The data type data that this implementation can handle.
+ * @param <S> The type of {@link Edit}s that this implementation can handle.
+ */
+public class WriteBehindServerDataStore<T, S extends Edit<? extends Diff>> implements ServerDataStore<T, S>, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteBehindServerDataStore.class);
+
+    private final ServerDataStore<T, S> delegate;
+    private final ConcurrentMap<String, DocumentEntry<T>> documents = new ConcurrentHashMap<String, DocumentEntry<T>>();
+    private final ConcurrentMap<String, ConcurrentMap<String, ClientEntry<T, S>>> clients =
+            new ConcurrentHashMap<String, ConcurrentMap<String, ClientEntry<T, S>>>();
+    private final int batchSize;
+    private final int maxPending;
+    private final ScheduledExecutorService scheduler;
+    private final boolean ownsScheduler;
+    private final ScheduledFuture<?> periodicFlush;
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong flushedEntries = new AtomicLong();
+    private volatile boolean closed;
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flushScheduled.set(false);
+            try {
+                flush();
+            } catch (final Throwable t) {
+                logger.error("Flush failed", t);
+            }
+        }
+    };
+
+    private WriteBehindServerDataStore(final Builder<T, S> builder) {
+        delegate = builder.delegate;
+        batchSize = builder.batchSize;
+        maxPending = builder.maxPending;
+        ownsScheduler = builder.scheduler == null;
+        scheduler = ownsScheduler ? Executors.newSingleThreadScheduledExecutor(new FlushThreadFactory())
+                : builder.scheduler;
+        periodicFlush = scheduler.scheduleWithFixedDelay(flushTask, builder.maxDelayNanos, builder.maxDelayNanos,
+                TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public boolean saveDocument(final Document<T> document) {
+        while (true) {
+            final DocumentEntry<T> entry = documentEntry(document.id());
+            synchronized (entry) {
+                if (entry.retired) {
+                    continue;
+                }
+                if (entry.document != null || delegate.getDocument(document.id()) != null) {
+                    return false;
+                }
+                entry.document = document;
+                entry.insert = true;
+                writes.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public void updateDocument(final Document<T> document) {
+        while (true) {
+            final DocumentEntry<T> entry = documentEntry(document.id());
+            synchronized (entry) {
+                if (entry.retired) {
+                    continue;
+                }
+                entry.document = document;
+                writes.incrementAndGet();
+                return;
+            }
+        }
+    }
+
+    @Override
+    public Document<T> getDocument(final String documentId) {
+        while (true) {
+            final DocumentEntry<T> entry = documents.get(documentId);
+            if (entry == null) {
+                return delegate.getDocument(documentId);
+            }
+            synchronized (entry) {
+                if (!entry.retired) {
+                    return entry.document != null ? entry.document : delegate.getDocument(documentId);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void saveShadowDocument(final ShadowDocument<T> shadowDocument) {
+        final ClientDocument<T> document = shadowDocument.document();
+        update(document.id(), document.clientId(),
+                SyncStateUpdate.<T, S>builder().shadow(shadowDocument).build(), false);
+    }
+
+    @Override
+    public ShadowDocument<T> getShadowDocument(final String documentId, final String clientId) {
+        return getSyncState(documentId, clientId).shadow();
+    }
+
+    @Override
+    public void saveBackupShadowDocument(final BackupShadowDocument<T> backupShadow) {
+        final ClientDocument<T> document = backupShadow.shadow().document();
+        update(document.id(), document.clientId(),
+                SyncStateUpdate.<T, S>builder().backupShadow(backupShadow).build(), false);
+    }
+
+    @Override
+    public BackupShadowDocument<T> getBackupShadowDocument(final String documentId, final String clientId) {
+        return getSyncState(documentId, clientId).backupShadow();
+    }
+
+    @Override
+    public void saveEdits(final S edit, final String documentId, final String clientId) {
+        update(documentId, clientId, SyncStateUpdate.<T, S>builder().addEdit(edit).build(), false);
+    }
+
+    @Override
+    public void removeEdit(final S edit, final String documentId, final String clientId) {
+        update(documentId, clientId, SyncStateUpdate.<T, S>builder().removeEdit(edit).build(), false);
+    }
+
+    @Override
+    public Queue<S> getEdits(final String documentId, final String clientId) {
+        return getSyncState(documentId, clientId).edits();
+    }
+
+    @Override
+    public void removeEdits(final String documentId, final String clientId) {
+        update(documentId, clientId, SyncStateUpdate.<T, S>builder().clearEdits().build(), false);
+    }
+
+    @Override
+    public ClientSyncState<T, S> getSyncState(final String documentId, final String clientId) {
+        while (true) {
+            final ConcurrentMap<String, ClientEntry<T, S>> entries = clients.get(documentId);
+            final ClientEntry<T, S> entry = entries == null ? null : entries.get(clientId);
+            if (entry == null) {
+                return delegate.getSyncState(documentId, clientId);
+            }
+            synchronized (entry) {
+                if (!entry.retired) {
+                    return entry.state(delegate);
+                }
+            }
+        }
+    }
+
+    @Override
+    public ClientSyncState<T, S> updateSyncState(final String documentId,
+                                                 final String clientId,
+                                                 final SyncStateUpdate<T, S> update) {
+        return update(documentId, clientId, update, true);
+    }
+
+    /**
+     * Writes all keys in the overlay to the backing store.
+     * <p>
+     * Only one flush runs at a time, a thread that calls this method while another flush is running waits
+     * for it to complete and then flushes whatever has been written since.
+     *
+     * @return {@code int} the number of keys that were written to the backing store.
+     */
+    public int flush() {
+        flushLock.lock();
+        try {
+            int flushed = 0;
+            for (Map.Entry<String, DocumentEntry<T>> document : documents.entrySet()) {
+                if (flush(document.getKey(), document.getValue())) {
+                    flushed++;
+                }
+            }
+            for (Map.Entry<String, ConcurrentMap<String, ClientEntry<T, S>>> document : clients.entrySet()) {
+                for (Map.Entry<String, ClientEntry<T, S>> client : document.getValue().entrySet()) {
+                    if (flush(document.getKey(), client.getKey(), document.getValue(), client.getValue())) {
+                        flushed++;
+                    }
+                }
+            }
+            flushedEntries.addAndGet(flushed);
+            return flushed;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of keys in the overlay that have not been flushed yet.
+     *
+     * @return {@code int} the number of pending keys.
+     */
+    public int pending() {
+        return pending.get();
+    }
+
+    /**
+     * Returns the number of documents for which the overlay holds the state of at least one client.
+     *
+     * @return {@code int} the number of documents with pending client state.
+     */
+    public int pendingClientDocuments() {
+        return clients.size();
+    }
+
+    /**
+     * Returns the number of writes made to this store. Together with {@link #flushedEntries()} this shows
+     * how many writes were coalesced.
+     *
+     * @return {@code long} the number of writes.
+     */
+    public long writes() {
+        return writes.get();
+    }
+
+    /**
+     * Returns the number of keys that have been written to the backing store.
+     *
+     * @return {@code long} the number of flushed keys.
+     */
+    public long flushedEntries() {
+        return flushedEntries.get();
+    }
+
+    /**
+     * Stops the periodic flush and flushes the overlay. Writes made after this method is called are rejected.
+     * The backing store is not closed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        periodicFlush.cancel(false);
+        if (ownsScheduler) {
+            scheduler.shutdown();
+        }
+        flush();
+    }
+
+    private ClientSyncState<T, S> update(final String documentId,
+                                         final String clientId,
+                                         final SyncStateUpdate<T, S> update,
+                                         final boolean returnState) {
+        while (true) {
+            final ClientEntry<T, S> entry = clientEntry(documentId, clientId);
+            synchronized (entry) {
+                if (entry.retired) {
+                    continue;
+                }
+                entry.apply(update);
+                writes.incrementAndGet();
+                // building the state may read the backing store, which plain writes should not wait for.
+                return returnState ? entry.state(delegate) : null;
+            }
+        }
+    }
+
+    private DocumentEntry<T> documentEntry(final String documentId) {
+        DocumentEntry<T> entry = documents.get(documentId);
+        if (entry == null) {
+            beforeNewEntry();
+            final DocumentEntry<T> newEntry = new DocumentEntry<T>();
+            entry = documents.putIfAbsent(documentId, newEntry);
+            if (entry == null) {
+                entry = newEntry;
+                afterNewEntry();
+            }
+        }
+        return entry;
+    }
+
+    private ClientEntry<T, S> clientEntry(final String documentId, final String clientId) {
+        if (entry(clients.get(documentId), clientId) == null) {
+            beforeNewEntry();
+        }
+        while (true) {
+            ConcurrentMap<String, ClientEntry<T, S>> entries = clients.get(documentId);
+            if (entries == null) {
+                final ConcurrentMap<String, ClientEntry<T, S>> newEntries =
+                        new ConcurrentHashMap<String, ClientEntry<T, S>>();
+                entries = clients.putIfAbsent(documentId, newEntries);
+                if (entries == null) {
+                    entries = newEntries;
+                }
+            }
+            final ClientEntry<T, S> entry = entries.get(clientId);
+            if (entry != null) {
+                return entry;
+            }
+            synchronized (entries) {
+                // the map is removed from clients once a flush has emptied it, adding to it would lose the entry.
+                if (clients.get(documentId) != entries) {
+                    continue;
+                }
+                final ClientEntry<T, S> newEntry = new ClientEntry<T, S>(documentId, clientId);
+                final ClientEntry<T, S> existing = entries.putIfAbsent(clientId, newEntry);
+                if (existing != null) {
+                    return existing;
+                }
+                afterNewEntry();
+                return newEntry;
+            }
+        }
+    }
+
+    private static <E> E entry(final ConcurrentMap<String, E> entries, final String key) {
+        return entries == null ? null : entries.get(key);
+    }
+
+    private void beforeNewEntry() {
+        if (closed) {
+            throw new IllegalStateException("WriteBehindServerDataStore has been closed");
+        }
+        if (pending.get() >= maxPending) {
+            // back-pressure, the writer pays for the flush instead of growing the overlay without bounds.
+            flush();
+        }
+    }
+
+    private void afterNewEntry() {
+        if (pending.incrementAndGet() >= batchSize && flushScheduled.compareAndSet(false, true)) {
+            scheduler.execute(flushTask);
+        }
+    }
+
+    private boolean flush(final String documentId, final DocumentEntry<T> entry) {
+        synchronized (entry) {
+            if (entry.retired) {
+                return false;
+            }
+            try {
+                if (entry.document != null) {
+                    if (!entry.insert || !delegate.saveDocument(entry.document)) {
+                        delegate.updateDocument(entry.document);
+                    }
+                }
+            } catch (final RuntimeException e) {
+                logger.warn("Could not flush document [" + documentId + ']', e);
+                return false;
+            }
+            entry.retired = true;
+            documents.remove(documentId, entry);
+            pending.decrementAndGet();
+            return true;
+        }
+    }
+
+    private boolean flush(final String documentId,
+                          final String clientId,
+                          final ConcurrentMap<String, ClientEntry<T, S>> entries,
+                          final ClientEntry<T, S> entry) {
+        synchronized (entry) {
+            if (entry.retired) {
+                return false;
+            }
+            try {
+                entry.flushTo(delegate);
+            } catch (final RuntimeException e) {
+                logger.warn("Could not flush the state of client [" + clientId + "] for document ["
+                        + documentId + ']', e);
+                return false;
+            }
+            entry.retired = true;
+            entries.remove(clientId, entry);
+            pending.decrementAndGet();
+        }
+        synchronized (entries) {
+            if (entries.isEmpty()) {
+                clients.remove(documentId, entries);
+            }
+        }
+        return true;
+    }
+
+    private static final class DocumentEntry<T> {
+
+        private Document<T> document;
+        // the document was created with saveDocument and may not exist in the backing store.
+        private boolean insert;
+        private boolean retired;
+    }
+
+    /**
+     * The unflushed changes to the state of a client, guarded by the entry's monitor.
+     */
+    private static final class ClientEntry<T, S extends Edit<? extends Diff>> {
+
+        private final String documentId;
+        private final String clientId;
+        // the state in the backing store, read when it is first needed.
+        private ClientSyncState<T, S> base;
+        private ShadowDocument<T> shadow;
+        private BackupShadowDocument<T> backupShadow;
+        private boolean clearEdits;
+        // the acknowledged edit with the highest server version, all edits up to it are removed.
+        private S removeEdit;
+        private final LinkedList<S> addedEdits = new LinkedList<S>();
+        private boolean retired;
+
+        private ClientEntry(final String documentId, final String clientId) {
+            this.documentId = documentId;
+            this.clientId = clientId;
+        }
+
+        void apply(final SyncStateUpdate<T, S> update) {
+            if (update.clearEdits()) {
+                clearEdits = true;
+                removeEdit = null;
+                addedEdits.clear();
+            }
+            final S remove = update.removeEdit();
+            if (remove != null) {
+                if (removeEdit == null || remove.serverVersion() > removeEdit.serverVersion()) {
+                    removeEdit = remove;
+                }
+                for (Iterator<S> iterator = addedEdits.iterator(); iterator.hasNext(); ) {
+                    if (iterator.next().serverVersion() <= remove.serverVersion()) {
+                        iterator.remove();
+                    }
+                }
+            }
+            if (update.addEdit() != null) {
+                addedEdits.add(update.addEdit());
+            }
+            if (update.shadow() != null) {
+                shadow = update.shadow();
+            }
+            if (update.backupShadow() != null) {
+                backupShadow = update.backupShadow();
+            }
+        }
+
+        ClientSyncState<T, S> state(final ServerDataStore<T, S> delegate) {
+            if (base == null && (shadow == null || backupShadow == null || !clearEdits)) {
+                base = delegate.getSyncState(documentId, clientId);
+            }
+            final LinkedList<S> edits = new LinkedList<S>();
+            if (!clearEdits) {
+                for (S edit : base.edits()) {
+                    if (removeEdit == null || edit.serverVersion() > removeEdit.serverVersion()) {
+                        edits.add(edit);
+                    }
+                }
+            }
+            edits.addAll(addedEdits);
+            return new DefaultClientSyncState<T, S>(shadow != null ? shadow : base.shadow(),
+                    backupShadow != null ? backupShadow : base.backupShadow(), edits);
+        }
+
+        void flushTo(final ServerDataStore<T, S> delegate) {
+            if (!clearEdits && removeEdit == null && addedEdits.isEmpty() && shadow == null && backupShadow == null) {
+                return;
+            }
+            // the writes below change the backing store, so its state has to be read again should one fail.
+            base = null;
+            final SyncStateUpdate.Builder<T, S> update = SyncStateUpdate.builder();
+            if (clearEdits) {
+                update.clearEdits();
+            }
+            if (removeEdit != null) {
+                update.removeEdit(removeEdit);
+            }
+            if (!addedEdits.isEmpty()) {
+                update.addEdit(addedEdits.getFirst());
+            }
+            delegate.updateSyncState(documentId, clientId, update.shadow(shadow).backupShadow(backupShadow).build());
+            clearEdits = false;
+            removeEdit = null;
+            shadow = null;
+            backupShadow = null;
+            if (!addedEdits.isEmpty()) {
+                addedEdits.removeFirst();
+            }
+            while (!addedEdits.isEmpty()) {
+                delegate.saveEdits(addedEdits.getFirst(), documentId, clientId);
+                addedEdits.removeFirst();
+            }
+        }
+    }
+
+    private static class FlushThreadFactory implements ThreadFactory {
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "write-behind-flush");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * Creates a {@link Builder} for a store that writes to the specified backing store.
+     *
+     * @param delegate the {@link ServerDataStore} that writes are flushed to.
+     * @param <T> The data type data that the store can handle.
+     * @param <S> The type of {@link Edit}s that the store can handle.
+     * @return {@link Builder} a builder with default settings.
+     */
+    public static <T, S extends Edit<? extends Diff>> Builder<T, S> builder(final ServerDataStore<T, S> delegate) {
+        return new Builder<T, S>(delegate);
+    }
+
+    public static class Builder<T, S extends Edit<? extends Diff>> {
+
+        private final ServerDataStore<T, S> delegate;
+        private int batchSize = 256;
+        private int maxPending = 4096;
+        private long maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(100);
+        private ScheduledExecutorService scheduler;
+
+        private Builder(final ServerDataStore<T, S> delegate) {
+            this.delegate = checkNotNull(delegate, "delegate must not be null");
+        }
+
+        /**
+         * Sets the number of pending keys at which a flush is started. The default is 256.
+         *
+         * @param batchSize the number of keys.
+         * @return {@link Builder} to allow method chaining.
+         */
+        public Builder<T, S> batchSize(final int batchSize) {
+            if (batchSize < 1) {
+                throw new IllegalArgumentException("batchSize must be greater than zero");
+            }
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * Sets the number of pending keys at which writers flush the overlay themselves. The default is 4096.
+         *
+         * @param maxPending the number of keys.
+         * @return {@link Builder} to allow method chaining.
+         */
+        public Builder<T, S> maxPending(final int maxPending) {
+            if (maxPending < 1) {
+                throw new IllegalArgumentException("maxPending must be greater than zero");
+            }
+            this.maxPending = maxPending;
+            return this;
+        }
+
+        /**
+         * Sets the time after which the overlay is flushed even if it holds fewer than {@code batchSize}
+         * keys. The default is 100 milliseconds.
+         *
+         * @param maxDelay the maximum delay.
+         * @param unit the {@link TimeUnit} of {@code maxDelay}.
+         * @return {@link Builder} to allow method chaining.
+         */
+        public Builder<T, S> maxDelay(final long maxDelay, final TimeUnit unit) {
+            if (maxDelay <= 0) {
+                throw new IllegalArgumentException("maxDelay must be greater than zero");
+            }
+            maxDelayNanos = unit.toNanos(maxDelay);
+            return this;
+        }
+
+        /**
+         * Sets the {@link ScheduledExecutorService} that runs flushes. By default the store starts a
+         * daemon thread that is stopped when the store is closed.
+         *
+         * @param scheduler the {@link ScheduledExecutorService} to use.
+         * @return {@link Builder} to allow method chaining.
+         */
+        public Builder<T, S> scheduler(final ScheduledExecutorService scheduler) {
+            this.scheduler = checkNotNull(scheduler, "scheduler must not be null");
+            return this;
+        }
+
+        /**
+         * Creates the store and schedules its periodic flush.
+         *
+         * @return {@link WriteBehindServerDataStore} the new store.
+         */
+        public WriteBehindServerDataStore<T, S> build() {
+            return new WriteBehindServerDataStore<T, S>(this);
+        }
+    }
+
+}
@@ -0,0 +1,332 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.server;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class DocumentExecutorTest {
+
+    private static final int THREADS = 8;
+    private static final int TASKS = 2000;
+
+    private ExecutorService pool;
+    private DocumentExecutor documentExecutor;
+
+    @Before
+    public void setup() {
+        pool = Executors.newFixedThreadPool(THREADS);
+        documentExecutor = new DocumentExecutor(pool);
+    }
+
+    @After
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void executeInSubmissionOrder() throws Exception {
+        final List<Integer> executed = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(TASKS);
+        for (int i = 0; i < TASKS; i++) {
+            final int index = i;
+            documentExecutor.execute("1234", new Runnable() {
+                @Override
+                public void run() {
+                    executed.add(index);
+                    done.countDown();
+                }
+            });
+        }
+        assertThat(done.await(10, TimeUnit.SECONDS), is(true));
+        for (int i = 0; i < TASKS; i++) {
+            assertThat(executed.get(i), equalTo(i));
+        }
+    }
+
+    @Test
+    public void neverRunsTasksForSameDocumentConcurrently() throws Exception {
+        final ConcurrentMap<String, AtomicInteger> running = new ConcurrentHashMap<String, AtomicInteger>();
+        final AtomicInteger overlaps = new AtomicInteger();
+        final String[] documentIds = {"doc1", "doc2", "doc3", "doc4"};
+        for (String documentId : documentIds) {
+            running.put(documentId, new AtomicInteger());
+        }
+        final CountDownLatch done = new CountDownLatch(TASKS);
+        final ExecutorService submitters = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (int i = 0; i < TASKS; i++) {
+                final String documentId = documentIds[i % documentIds.length];
+                submitters.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        documentExecutor.execute(documentId, new Runnable() {
+                            @Override
+                            public void run() {
+                                if (running.get(documentId).incrementAndGet() != 1) {
+                                    overlaps.incrementAndGet();
+                                }
+                                Thread.yield();
+                                running.get(documentId).decrementAndGet();
+                                done.countDown();
+                            }
+                        });
+                    }
+                });
+            }
+            assertThat(done.await(10, TimeUnit.SECONDS), is(true));
+        } finally {
+            submitters.shutdownNow();
+        }
+        assertThat(overlaps.get(), is(0));
+    }
+
+    @Test
+    public void executeDifferentDocumentsInParallel() throws Exception {
+        final CountDownLatch bothStarted = new CountDownLatch(2);
+        final CountDownLatch done = new CountDownLatch(2);
+        final AtomicInteger timeouts = new AtomicInteger();
+        for (String documentId : new String[]{"doc1", "doc2"}) {
+            documentExecutor.execute(documentId, new Runnable() {
+                @Override
+                public void run() {
+                    bothStarted.countDown();
+                    try {
+                        if (!bothStarted.await(5, TimeUnit.SECONDS)) {
+                            timeouts.incrementAndGet();
+                        }
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    done.countDown();
+                }
+            });
+        }
+        assertThat(done.await(10, TimeUnit.SECONDS), is(true));
+        assertThat(timeouts.get(), is(0));
+    }
+
+    @Test
+    public void continuesAfterFailingTask() throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        documentExecutor.execute("1234", new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("testing failure");
+            }
+        });
+        documentExecutor.execute("1234", new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        assertThat(done.await(10, TimeUnit.SECONDS), is(true));
+    }
+
+    @Test
+    public void removesIdleMailboxes() throws Exception {
+        final DocumentExecutor callerRuns = new DocumentExecutor();
+        final AtomicInteger executed = new AtomicInteger();
+        callerRuns.execute("1234", new Runnable() {
+            @Override
+            public void run() {
+                executed.incrementAndGet();
+            }
+        });
+        assertThat(executed.get(), is(1));
+        assertThat(callerRuns.activeDocuments(), is(0));
+    }
+
+    @Test
+    public void yieldsToOtherDocumentsWhenBudgetIsUsed() {
+        final QueueingExecutor queueingExecutor = new QueueingExecutor();
+        final DocumentExecutor fairExecutor = new DocumentExecutor(queueingExecutor, 2);
+        final List<String> executed = new ArrayList<String>();
+        for (int i = 0; i < 4; i++) {
+            fairExecutor.execute("hot", recording(executed, "hot" + i));
+        }
+        fairExecutor.execute("cold", recording(executed, "cold0"));
+        queueingExecutor.runAll();
+        assertThat(executed, equalTo(asList("hot0", "hot1", "cold0", "hot2", "hot3")));
+        assertThat(fairExecutor.activeDocuments(), is(0));
+    }
+
+    @Test
+    public void runsInteractiveTasksBeforeBackgroundTasks() {
+        final QueueingExecutor queueingExecutor = new QueueingExecutor();
+        final DocumentExecutor fairExecutor = new DocumentExecutor(queueingExecutor);
+        final List<String> executed = new ArrayList<String>();
+        fairExecutor.execute("1234", recording(executed, "background"), DocumentExecutor.Priority.BACKGROUND);
+        fairExecutor.execute("1234", recording(executed, "interactive"));
+        queueingExecutor.runAll();
+        assertThat(executed, equalTo(asList("interactive", "background")));
+    }
+
+    @Test
+    public void backgroundTasksAreNotStarved() {
+        final QueueingExecutor queueingExecutor = new QueueingExecutor();
+        final DocumentExecutor fairExecutor = new DocumentExecutor(queueingExecutor);
+        final List<String> executed = new ArrayList<String>();
+        fairExecutor.execute("1234", recording(executed, "background"), DocumentExecutor.Priority.BACKGROUND);
+        for (int i = 0; i < 20; i++) {
+            fairExecutor.execute("1234", recording(executed, "interactive" + i));
+        }
+        queueingExecutor.runAll();
+        assertThat(executed.indexOf("background") < 8, is(true));
+    }
+
+    @Test
+    public void stats() {
+        final QueueingExecutor queueingExecutor = new QueueingExecutor();
+        final DocumentExecutor fairExecutor = new DocumentExecutor(queueingExecutor, 1);
+        final List<String> executed = new ArrayList<String>();
+        fairExecutor.execute("1234", recording(executed, "first"));
+        fairExecutor.execute("1234", recording(executed, "second"));
+        assertThat(fairExecutor.stats("1234").queueDepth(), is(2));
+        assertThat(fairExecutor.stats("1234").executedTasks(), is(0L));
+
+        queueingExecutor.runNext();
+        final DocumentStats stats = fairExecutor.stats("1234");
+        assertThat(stats.documentId(), equalTo("1234"));
+        assertThat(stats.queueDepth(), is(1));
+        assertThat(stats.executedTasks(), is(1L));
+        assertThat(stats.maxWaitNanos() >= stats.averageWaitNanos(), is(true));
+        assertThat(fairExecutor.stats().size(), is(1));
+
+        queueingExecutor.runAll();
+        assertThat(fairExecutor.activeDocuments(), is(0));
+        assertThat(fairExecutor.stats("1234").queueDepth(), is(0));
+        assertThat(fairExecutor.stats("1234").executedTasks(), is(2L));
+        assertThat(fairExecutor.stats().size(), is(1));
+        assertThat(fairExecutor.stats("5678"), is(nullValue()));
+    }
+
+    @Test
+    public void statsAreCumulativeAcrossBusyPeriods() {
+        final QueueingExecutor queueingExecutor = new QueueingExecutor();
+        final DocumentExecutor fairExecutor = new DocumentExecutor(queueingExecutor);
+        final List<String> executed = new ArrayList<String>();
+        fairExecutor.execute("1234", recording(executed, "first"));
+        queueingExecutor.runAll();
+        fairExecutor.execute("1234", recording(executed, "second"));
+        assertThat(fairExecutor.stats("1234").queueDepth(), is(1));
+        assertThat(fairExecutor.stats("1234").executedTasks(), is(1L));
+
+        queueingExecutor.runAll();
+        assertThat(fairExecutor.activeDocuments(), is(0));
+        assertThat(fairExecutor.stats("1234").executedTasks(), is(2L));
+        assertThat(fairExecutor.stats().size(), is(1));
+    }
+
+    @Test
+    public void drainsOnCallingThreadWhenExecutorRejects() {
+        final DocumentExecutor rejectedExecutor = new DocumentExecutor(new RejectingExecutor(0));
+        final List<String> executed = new ArrayList<String>();
+        rejectedExecutor.execute("1234", recording(executed, "first"));
+        rejectedExecutor.execute("1234", recording(executed, "second"));
+        assertThat(executed, equalTo(asList("first", "second")));
+        assertThat(rejectedExecutor.activeDocuments(), is(0));
+    }
+
+    @Test
+    public void keepsDrainingWhenExecutorRejectsReschedule() {
+        final RejectingExecutor rejectingExecutor = new RejectingExecutor(1);
+        final DocumentExecutor budgetedExecutor = new DocumentExecutor(rejectingExecutor, 1);
+        final List<String> executed = new ArrayList<String>();
+        budgetedExecutor.execute("1234", recording(executed, "first"));
+        budgetedExecutor.execute("1234", recording(executed, "second"));
+        budgetedExecutor.execute("1234", recording(executed, "third"));
+        rejectingExecutor.runAll();
+        assertThat(executed, equalTo(asList("first", "second", "third")));
+        assertThat(budgetedExecutor.activeDocuments(), is(0));
+
+        budgetedExecutor.execute("1234", recording(executed, "fourth"));
+        assertThat(executed.get(3), equalTo("fourth"));
+        assertThat(budgetedExecutor.activeDocuments(), is(0));
+    }
+
+    private static Runnable recording(final List<String> executed, final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                executed.add(name);
+            }
+        };
+    }
+
+    private static class QueueingExecutor implements Executor {
+
+        private final Queue<Runnable> commands = new LinkedList<Runnable>();
+
+        @Override
+        public void execute(final Runnable command) {
+            commands.add(command);
+        }
+
+        void runNext() {
+            commands.poll().run();
+        }
+
+        void runAll() {
+            while (!commands.isEmpty()) {
+                runNext();
+            }
+        }
+    }
+
+    private static class RejectingExecutor extends QueueingExecutor {
+
+        private int accepted;
+
+        RejectingExecutor(final int accepted) {
+            this.accepted = accepted;
+        }
+
+        @Override
+        public void execute(final Runnable command) {
+            if (accepted == 0) {
+                throw new RejectedExecutionException("rejected");
+            }
+            accepted--;
+            super.execute(command);
+        }
+    }
+
+}
@@ -0,0 +1,165 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.server;
+
+import org.jboss.aerogear.sync.Diff;
+import org.jboss.aerogear.sync.Edit;
+import org.jboss.aerogear.sync.PatchMessage;
+import org.jboss.aerogear.sync.server.PatchMessageEncoder.Broadcast;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.hasItems;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PatchMessageEncoderTest {
+
+    @Test
+    public void encode() {
+        final CountingEncoder encoder = new CountingEncoder();
+        final PatchMessage<?> patchMessage = mock(PatchMessage.class);
+        when(patchMessage.asJson()).thenReturn("{\"id\": 1}");
+        assertThat(encoder.encode(patchMessage), equalTo("{\"id\": 1}"));
+    }
+
+    @Test
+    public void broadcastEncodesSharedDiffOnce() {
+        final CountingEncoder encoder = new CountingEncoder();
+        final ServerSynchronizer<String, TestEdit> synchronizer = synchronizer();
+        final Diff diff = mock(Diff.class);
+        final TestEdit edit1 = edit(1, 2, "abc", diff);
+        final TestEdit edit2 = edit(3, 2, "abc", diff);
+        when(synchronizer.diffAsJson(edit1)).thenReturn("[1]");
+        when(synchronizer.diffAsJson(edit2)).thenReturn("[1]");
+
+        final Broadcast<TestEdit, String> broadcast = encoder.broadcast(synchronizer);
+        assertThat(broadcast.encode(patchMessage("1234", "client1", edit1)), equalTo("{\"msgType\":\"patch\"," +
+                "\"id\":\"1234\",\"clientId\":\"client1\",\"edits\":[{\"clientVersion\":1,\"serverVersion\":2," +
+                "\"checksum\":\"abc\",\"diffs\":[1]}]}"));
+        assertThat(broadcast.encode(patchMessage("1234", "client2", edit2)), equalTo("{\"msgType\":\"patch\"," +
+                "\"id\":\"1234\",\"clientId\":\"client2\",\"edits\":[{\"clientVersion\":3,\"serverVersion\":2," +
+                "\"checksum\":\"abc\",\"diffs\":[1]}]}"));
+        verify(synchronizer, times(1)).diffAsJson(edit1);
+        verify(synchronizer, times(0)).diffAsJson(edit2);
+    }
+
+    @Test
+    public void broadcastEncodesPendingEdits() {
+        final CountingEncoder encoder = new CountingEncoder();
+        final ServerSynchronizer<String, TestEdit> synchronizer = synchronizer();
+        final TestEdit pending = edit(0, 1, "a\"b", mock(Diff.class));
+        final TestEdit empty = edit(0, 2, "c", null);
+        when(synchronizer.diffAsJson(pending)).thenReturn("[]");
+
+        final Broadcast<TestEdit, String> broadcast = encoder.broadcast(synchronizer);
+        assertThat(broadcast.encode(patchMessage("1234", "client1", pending, empty)), equalTo("{\"msgType\":\"patch\"," +
+                "\"id\":\"1234\",\"clientId\":\"client1\",\"edits\":[{\"clientVersion\":0,\"serverVersion\":1," +
+                "\"checksum\":\"a\\\"b\",\"diffs\":[]},{\"clientVersion\":0,\"serverVersion\":2,\"checksum\":\"c\"}]}"));
+    }
+
+    @Test
+    public void broadcastEncodesSameMessageOnce() {
+        final CountingEncoder encoder = new CountingEncoder();
+        final ServerSynchronizer<String, TestEdit> synchronizer = synchronizer();
+        final PatchMessage<TestEdit> patchMessage = patchMessage("1234", "client1");
+
+        final Broadcast<TestEdit, String> broadcast = encoder.broadcast(synchronizer);
+        assertThat(broadcast.encode(patchMessage), equalTo(broadcast.encode(patchMessage)));
+        assertThat(encoder.joined, is(1));
+    }
+
+    @Test
+    public void closeReleasesEncoded() {
+        final CountingEncoder encoder = new CountingEncoder();
+        final ServerSynchronizer<String, TestEdit> synchronizer = synchronizer();
+        final TestEdit edit = edit(1, 2, "abc", mock(Diff.class));
+        when(synchronizer.diffAsJson(edit)).thenReturn("[1]");
+
+        final Broadcast<TestEdit, String> broadcast = encoder.broadcast(synchronizer);
+        final String encoded = broadcast.encode(patchMessage("1234", "client1", edit));
+        assertThat(encoder.released.isEmpty(), is(true));
+        broadcast.close();
+        assertThat(encoder.released.size(), is(2));
+        assertThat(encoder.released, hasItems(encoded, "[1]"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ServerSynchronizer<String, TestEdit> synchronizer() {
+        return mock(ServerSynchronizer.class);
+    }
+
+    private static TestEdit edit(final long clientVersion, final long serverVersion, final String checksum,
+                                 final Diff diff) {
+        final TestEdit edit = mock(TestEdit.class);
+        when(edit.clientVersion()).thenReturn(clientVersion);
+        when(edit.serverVersion()).thenReturn(serverVersion);
+        when(edit.checksum()).thenReturn(checksum);
+        when(edit.diff()).thenReturn(diff);
+        return edit;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static PatchMessage<TestEdit> patchMessage(final String documentId, final String clientId,
+                                                       final TestEdit... edits) {
+        final PatchMessage<TestEdit> patchMessage = mock(PatchMessage.class);
+        when(patchMessage.documentId()).thenReturn(documentId);
+        when(patchMessage.clientId()).thenReturn(clientId);
+        when(patchMessage.edits()).thenReturn((Queue<TestEdit>) new LinkedList<TestEdit>(Arrays.asList(edits)));
+        return patchMessage;
+    }
+
+    private interface TestEdit extends Edit<Diff> {
+    }
+
+    private static class CountingEncoder extends PatchMessageEncoder<String> {
+
+        private int joined;
+        private final List<String> released = new ArrayList<String>();
+
+        @Override
+        protected String encodeText(final CharSequence text) {
+            return text.toString();
+        }
+
+        @Override
+        protected String join(final List<String> parts) {
+            joined++;
+            final StringBuilder message = new StringBuilder();
+            for (String part : parts) {
+                message.append(part);
+            }
+            return message.toString();
+        }
+
+        @Override
+        protected void release(final String encoded) {
+            released.add(encoded);
+        }
+    }
+
+}
@@ -0,0 +1,114 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.server;
+
+import org.jboss.aerogear.sync.PatchMessage;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SubscriberNotifierTest {
+
+    private final Queue<Runnable> scheduled = new LinkedList<Runnable>();
+    private ServerSyncEngine<?, ?> syncEngine;
+    private SubscriberNotifier notifier;
+
+    @Before
+    public void setup() {
+        syncEngine = mock(ServerSyncEngine.class);
+        notifier = new SubscriberNotifier(syncEngine, new DocumentExecutor(new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                scheduled.add(command);
+            }
+        }));
+    }
+
+    @Test
+    public void coalescePendingNotifications() {
+        notifier.schedule("1234");
+        notifier.schedule("1234");
+        notifier.schedule("1234");
+        runScheduled();
+        verify(syncEngine, times(1)).notifySubscribers("1234");
+    }
+
+    @Test
+    public void scheduleAgainAfterNotification() {
+        notifier.schedule("1234");
+        runScheduled();
+        notifier.schedule("1234");
+        runScheduled();
+        verify(syncEngine, times(2)).notifySubscribers("1234");
+    }
+
+    @Test
+    public void notifyDocumentsIndependently() {
+        notifier.schedule("1234");
+        notifier.schedule("5678");
+        runScheduled();
+        verify(syncEngine).notifySubscribers("1234");
+        verify(syncEngine).notifySubscribers("5678");
+    }
+
+    @Test
+    public void ignoreAcknowledgements() {
+        final PatchMessage<?> patchMessage = mock(PatchMessage.class);
+        when(patchMessage.documentId()).thenReturn("1234");
+        when(patchMessage.edits()).thenReturn(new LinkedList());
+        notifier.notifySubscribers(patchMessage);
+        runScheduled();
+        verify(syncEngine, never()).notifySubscribers("1234");
+    }
+
+    @Test
+    public void catchUpOnlySubscribersOfChannel() {
+        final Subscriber<?> recovered = subscriber("channel1");
+        final Subscriber<?> other = subscriber("channel2");
+        when(syncEngine.getSubscribers("1234")).thenReturn(new HashSet<Subscriber<?>>(Arrays.asList(recovered, other)));
+        notifier.catchUp("1234", "channel1");
+        runScheduled();
+        verify(syncEngine).notifySubscriber(recovered, "1234");
+        verify(syncEngine, never()).notifySubscriber(other, "1234");
+        verify(syncEngine, never()).notifySubscribers("1234");
+    }
+
+    private static Subscriber<?> subscriber(final String channel) {
+        final Subscriber<?> subscriber = mock(Subscriber.class);
+        when(subscriber.channel()).thenReturn(channel);
+        return subscriber;
+    }
+
+    private void runScheduled() {
+        Runnable task;
+        while ((task = scheduled.poll()) != null) {
+            task.run();
+        }
+    }
+
+}
@@ -0,0 +1,159 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.server;
+
+import org.jboss.aerogear.sync.PatchMessage;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class SubscriberRegistryTest {
+
+    private final SubscriberRegistry registry = new SubscriberRegistry();
+    private final Subscriber<?> subscriber1 = mock(Subscriber.class);
+    private final Subscriber<?> subscriber2 = mock(Subscriber.class);
+
+    @Test
+    public void add() {
+        assertThat(registry.add(subscriber1, "doc1"), is(true));
+        assertThat(registry.add(subscriber1, "doc1"), is(false));
+        assertThat(registry.add(subscriber2, "doc1"), is(true));
+        assertThat(registry.subscribersOf("doc1").size(), is(2));
+    }
+
+    @Test
+    public void removeLastSubscriberRemovesDocument() {
+        registry.add(subscriber1, "doc1");
+        assertThat(registry.remove(subscriber1, "doc1"), is(true));
+        assertThat(registry.remove(subscriber1, "doc1"), is(false));
+        assertThat(registry.subscribersOf("doc1"), is(nullValue()));
+        assertThat(registry.documentsOf(subscriber1).isEmpty(), is(true));
+    }
+
+    @Test
+    public void documentsOf() {
+        registry.add(subscriber1, "doc1");
+        registry.add(subscriber1, "doc2");
+        registry.add(subscriber2, "doc2");
+        assertThat(registry.documentsOf(subscriber1), equalTo(setOf("doc1", "doc2")));
+        assertThat(registry.documentsOf(subscriber2), equalTo(setOf("doc2")));
+    }
+
+    @Test
+    public void removeAll() {
+        registry.add(subscriber1, "doc1");
+        registry.add(subscriber1, "doc2");
+        registry.add(subscriber2, "doc2");
+        final Set<String> removed = registry.removeAll(subscriber1);
+        assertThat(removed, equalTo(setOf("doc1", "doc2")));
+        assertThat(registry.subscribersOf("doc1"), is(nullValue()));
+        assertThat(registry.subscribersOf("doc2").size(), is(1));
+        assertThat(registry.subscribersOf("doc2").contains(subscriber2), is(true));
+    }
+
+    @Test
+    public void concurrentAddAndRemoveKeepIndexesConsistent() throws Exception {
+        // yields whenever it is hashed, to widen the window between the updates of the two indexes.
+        final Subscriber<?> subscriber = new YieldingSubscriber();
+        final AtomicInteger inconsistencies = new AtomicInteger();
+        final CyclicBarrier start = new CyclicBarrier(2);
+        final CyclicBarrier done = new CyclicBarrier(2, new Runnable() {
+            @Override
+            public void run() {
+                final Set<Subscriber<?>> subscribers = registry.subscribersOf("doc1");
+                final boolean subscribed = subscribers != null && subscribers.contains(subscriber);
+                if (registry.documentsOf(subscriber).contains("doc1") != subscribed) {
+                    inconsistencies.incrementAndGet();
+                }
+                registry.removeAll(subscriber);
+                registry.remove(subscriber, "doc1");
+            }
+        });
+        final ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            final List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int t = 0; t < 2; t++) {
+                final boolean adding = t == 0;
+                futures.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int i = 0; i < 20000; i++) {
+                            start.await();
+                            if (adding) {
+                                registry.add(subscriber, "doc1");
+                            } else {
+                                registry.remove(subscriber, "doc1");
+                            }
+                            done.await();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertThat(inconsistencies.get(), is(0));
+    }
+
+    private static Set<String> setOf(final String... values) {
+        return new HashSet<String>(Arrays.asList(values));
+    }
+
+    private static class YieldingSubscriber implements Subscriber<Object> {
+
+        @Override
+        public String clientId() {
+            return "client1";
+        }
+
+        @Override
+        public Object channel() {
+            return null;
+        }
+
+        @Override
+        public void patched(final PatchMessage<?> patchMessage) {
+        }
+
+        @Override
+        public int hashCode() {
+            Thread.yield();
+            return super.hashCode();
+        }
+    }
+
+}
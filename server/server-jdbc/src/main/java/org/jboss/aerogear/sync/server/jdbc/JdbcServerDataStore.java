@@ -0,0 +1,589 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.server.jdbc;
+
+import org.jboss.aerogear.sync.BackupShadowDocument;
+import org.jboss.aerogear.sync.ClientDocument;
+import org.jboss.aerogear.sync.ClientSyncState;
+import org.jboss.aerogear.sync.DefaultBackupShadowDocument;
+import org.jboss.aerogear.sync.DefaultClientDocument;
+import org.jboss.aerogear.sync.DefaultClientSyncState;
+import org.jboss.aerogear.sync.DefaultDocument;
+import org.jboss.aerogear.sync.DefaultShadowDocument;
+import org.jboss.aerogear.sync.Diff;
+import org.jboss.aerogear.sync.Document;
+import org.jboss.aerogear.sync.Edit;
+import org.jboss.aerogear.sync.ShadowDocument;
+import org.jboss.aerogear.sync.SyncStateUpdate;
+import org.jboss.aerogear.sync.journal.StoreCodec;
+import org.jboss.aerogear.sync.server.ServerDataStore;
+import org.jboss.aerogear.sync.server.TransactionalServerDataStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+
+import static org.jboss.aerogear.sync.util.Arguments.checkNotNull;
+
+/**
+ * A {@link ServerDataStore} that keeps documents and the state of clients in a relational database.
+ * <p>
+ * The schema has three tables: {@code sync_document} holds the documents, {@code sync_shadow} the shadow
+ * document and backup shadow document of each client, and {@code sync_edit} the pending edits of each client.
+ * Contents and edits are stored as text encoded by a {@link StoreCodec}, which for a
+ * {@link org.jboss.aerogear.sync.server.journal.SynchronizerStoreCodec} is the synchronizer's JSON format.
+ * Rows are replaced by a delete followed by an insert, so only standard SQL is needed. A document is saved by
+ * inserting it straight away, and a primary key violation, SQL state class {@code 23}, means that the document
+ * already exists.
+ * <p>
+ * Writes are added to JDBC batches and executed when the transaction commits, or before the next read in the
+ * same transaction. Every call to this store runs in its own transaction unless it is made from within
+ * {@link #transaction(Runnable)}. {@code ServerSyncEngine} runs each patch through that method, so everything
+ * a patch changes is written in a single transaction.
+ * Connections are taken from the {@link DataSource} for each transaction and closed afterwards, so it should
+ * be a pooling {@link DataSource}, like the one of an application server or the connection pool that ships
+ * with the JDBC driver. Statements are prepared once per transaction and reused for all rows of a batch.
+ *
+ * @param <T> The data type data that this implementation can handle.
+ * @param <S> The type of {@link Edit}s that this implementation can handle.
+ */
+public class JdbcServerDataStore<T, S extends Edit<? extends Diff>> implements TransactionalServerDataStore<T, S> {
+
+    private static final Logger logger = LoggerFactory.getLogger(JdbcServerDataStore.class);
+    private static final int SHADOW = 0;
+    private static final int BACKUP = 1;
+
+    private static final String[] SCHEMA = {
+            "CREATE TABLE IF NOT EXISTS sync_document (document_id VARCHAR(255) NOT NULL, content CLOB, "
+                    + "PRIMARY KEY (document_id))",
+            "CREATE TABLE IF NOT EXISTS sync_shadow (document_id VARCHAR(255) NOT NULL, "
+                    + "client_id VARCHAR(255) NOT NULL, kind SMALLINT NOT NULL, version BIGINT NOT NULL, "
+                    + "server_version BIGINT NOT NULL, client_version BIGINT NOT NULL, content CLOB, "
+                    + "PRIMARY KEY (document_id, client_id, kind))",
+            "CREATE TABLE IF NOT EXISTS sync_edit (document_id VARCHAR(255) NOT NULL, "
+                    + "client_id VARCHAR(255) NOT NULL, server_version BIGINT NOT NULL, edit CLOB NOT NULL)",
+            "CREATE INDEX IF NOT EXISTS sync_edit_client ON sync_edit (document_id, client_id, server_version)"
+    };
+
+    /**
+     * The statements used by this store. The batches of the write statements are executed in the order in
+     * which they are declared here.
+     */
+    private enum Sql {
+        DELETE_DOCUMENT("DELETE FROM sync_document WHERE document_id = ?"),
+        INSERT_DOCUMENT("INSERT INTO sync_document (document_id, content) VALUES (?, ?)"),
+        DELETE_EDITS("DELETE FROM sync_edit WHERE document_id = ? AND client_id = ?"),
+        DELETE_EDITS_UP_TO("DELETE FROM sync_edit WHERE document_id = ? AND client_id = ? AND server_version <= ?"),
+        INSERT_EDIT("INSERT INTO sync_edit (document_id, client_id, server_version, edit) VALUES (?, ?, ?, ?)"),
+        DELETE_SHADOW("DELETE FROM sync_shadow WHERE document_id = ? AND client_id = ? AND kind = ?"),
+        INSERT_SHADOW("INSERT INTO sync_shadow (document_id, client_id, kind, version, server_version, "
+                + "client_version, content) VALUES (?, ?, ?, ?, ?, ?, ?)"),
+        SELECT_DOCUMENT("SELECT content FROM sync_document WHERE document_id = ?"),
+        SELECT_SHADOWS("SELECT kind, version, server_version, client_version, content FROM sync_shadow "
+                + "WHERE document_id = ? AND client_id = ?"),
+        SELECT_EDITS("SELECT edit FROM sync_edit WHERE document_id = ? AND client_id = ? ORDER BY server_version");
+
+        private final String sql;
+
+        Sql(final String sql) {
+            this.sql = sql;
+        }
+    }
+
+    private final DataSource dataSource;
+    private final StoreCodec<T, S> codec;
+    private final ThreadLocal<Transaction> transactions = new ThreadLocal<Transaction>();
+
+    private JdbcServerDataStore(final Builder<T, S> builder) {
+        dataSource = builder.dataSource;
+        codec = builder.codec;
+    }
+
+    @Override
+    public boolean saveDocument(final Document<T> document) {
+        return execute(new Work<Boolean>() {
+            @Override
+            public Boolean run(final Transaction tx) throws SQLException {
+                // inserting right away lets the primary key decide between concurrent saves of the same document.
+                return tx.insertIfAbsent(Sql.INSERT_DOCUMENT, document.id(), encodeContent(document.content()));
+            }
+        });
+    }
+
+    @Override
+    public void updateDocument(final Document<T> document) {
+        execute(new Work<Void>() {
+            @Override
+            public Void run(final Transaction tx) throws SQLException {
+                tx.batch(Sql.DELETE_DOCUMENT, document.id());
+                tx.batch(Sql.INSERT_DOCUMENT, document.id(), encodeContent(document.content()));
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public Document<T> getDocument(final String documentId) {
+        return execute(new Work<Document<T>>() {
+            @Override
+            public Document<T> run(final Transaction tx) throws SQLException {
+                final ResultSet rs = tx.query(Sql.SELECT_DOCUMENT, documentId);
+                try {
+                    return rs.next() ? new DefaultDocument<T>(documentId, decodeContent(rs.getString(1))) : null;
+                } finally {
+                    rs.close();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void saveShadowDocument(final ShadowDocument<T> shadowDocument) {
+        final ClientDocument<T> document = shadowDocument.document();
+        write(document.id(), document.clientId(), SyncStateUpdate.<T, S>builder().shadow(shadowDocument).build());
+    }
+
+    @Override
+    public ShadowDocument<T> getShadowDocument(final String documentId, final String clientId) {
+        return getSyncState(documentId, clientId, false).shadow();
+    }
+
+    @Override
+    public void saveBackupShadowDocument(final BackupShadowDocument<T> backupShadow) {
+        final ClientDocument<T> document = backupShadow.shadow().document();
+        write(document.id(), document.clientId(),
+                SyncStateUpdate.<T, S>builder().backupShadow(backupShadow).build());
+    }
+
+    @Override
+    public BackupShadowDocument<T> getBackupShadowDocument(final String documentId, final String clientId) {
+        return getSyncState(documentId, clientId, false).backupShadow();
+    }
+
+    @Override
+    public void saveEdits(final S edit, final String documentId, final String clientId) {
+        write(documentId, clientId, SyncStateUpdate.<T, S>builder().addEdit(edit).build());
+    }
+
+    @Override
+    public void removeEdit(final S edit, final String documentId, final String clientId) {
+        write(documentId, clientId, SyncStateUpdate.<T, S>builder().removeEdit(edit).build());
+    }
+
+    @Override
+    public Queue<S> getEdits(final String documentId, final String clientId) {
+        return execute(new Work<Queue<S>>() {
+            @Override
+            public Queue<S> run(final Transaction tx) throws SQLException {
+                return readEdits(tx, documentId, clientId);
+            }
+        });
+    }
+
+    @Override
+    public void removeEdits(final String documentId, final String clientId) {
+        write(documentId, clientId, SyncStateUpdate.<T, S>builder().clearEdits().build());
+    }
+
+    @Override
+    public ClientSyncState<T, S> getSyncState(final String documentId, final String clientId) {
+        return getSyncState(documentId, clientId, true);
+    }
+
+    @Override
+    public ClientSyncState<T, S> updateSyncState(final String documentId,
+                                                 final String clientId,
+                                                 final SyncStateUpdate<T, S> update) {
+        return execute(new Work<ClientSyncState<T, S>>() {
+            @Override
+            public ClientSyncState<T, S> run(final Transaction tx) throws SQLException {
+                write(tx, documentId, clientId, update);
+                return readSyncState(tx, documentId, clientId, true);
+            }
+        });
+    }
+
+    @Override
+    public void transaction(final Runnable work) {
+        if (transactions.get() != null) {
+            work.run();
+            return;
+        }
+        try {
+            final Transaction tx = begin();
+            transactions.set(tx);
+            boolean committed = false;
+            try {
+                work.run();
+                tx.commit();
+                committed = true;
+            } finally {
+                transactions.remove();
+                if (!committed) {
+                    tx.rollback();
+                }
+                tx.close();
+            }
+        } catch (final SQLException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    private ClientSyncState<T, S> getSyncState(final String documentId,
+                                               final String clientId,
+                                               final boolean withEdits) {
+        return execute(new Work<ClientSyncState<T, S>>() {
+            @Override
+            public ClientSyncState<T, S> run(final Transaction tx) throws SQLException {
+                return readSyncState(tx, documentId, clientId, withEdits);
+            }
+        });
+    }
+
+    private ClientSyncState<T, S> readSyncState(final Transaction tx,
+                                                final String documentId,
+                                                final String clientId,
+                                                final boolean withEdits) throws SQLException {
+        ShadowDocument<T> shadow = null;
+        BackupShadowDocument<T> backup = null;
+        final ResultSet rs = tx.query(Sql.SELECT_SHADOWS, documentId, clientId);
+        try {
+            while (rs.next()) {
+                final ShadowDocument<T> read = new DefaultShadowDocument<T>(rs.getLong(3), rs.getLong(4),
+                        new DefaultClientDocument<T>(documentId, clientId, decodeContent(rs.getString(5))));
+                if (rs.getInt(1) == SHADOW) {
+                    shadow = read;
+                } else {
+                    backup = new DefaultBackupShadowDocument<T>(rs.getLong(2), read);
+                }
+            }
+        } finally {
+            rs.close();
+        }
+        final Queue<S> edits = withEdits ? readEdits(tx, documentId, clientId) : new LinkedList<S>();
+        return new DefaultClientSyncState<T, S>(shadow, backup, edits);
+    }
+
+    private Queue<S> readEdits(final Transaction tx, final String documentId, final String clientId)
+            throws SQLException {
+        final Queue<S> edits = new LinkedList<S>();
+        final ResultSet rs = tx.query(Sql.SELECT_EDITS, documentId, clientId);
+        try {
+            while (rs.next()) {
+                edits.add(codec.decodeEdit(rs.getString(1)));
+            }
+        } finally {
+            rs.close();
+        }
+        return edits;
+    }
+
+    private void write(final String documentId, final String clientId, final SyncStateUpdate<T, S> update) {
+        execute(new Work<Void>() {
+            @Override
+            public Void run(final Transaction tx) throws SQLException {
+                write(tx, documentId, clientId, update);
+                return null;
+            }
+        });
+    }
+
+    private void write(final Transaction tx,
+                       final String documentId,
+                       final String clientId,
+                       final SyncStateUpdate<T, S> update) throws SQLException {
+        if (update.clearEdits()) {
+            tx.batch(Sql.DELETE_EDITS, documentId, clientId);
+        }
+        final S removeEdit = update.removeEdit();
+        if (removeEdit != null) {
+            tx.batch(Sql.DELETE_EDITS_UP_TO, documentId, clientId, removeEdit.serverVersion());
+        }
+        final S addEdit = update.addEdit();
+        if (addEdit != null) {
+            tx.batch(Sql.INSERT_EDIT, documentId, clientId, addEdit.serverVersion(), codec.encodeEdit(addEdit));
+        }
+        final ShadowDocument<T> shadow = update.shadow();
+        final BackupShadowDocument<T> backup = update.backupShadow();
+        if (shadow != null) {
+            tx.batch(Sql.DELETE_SHADOW, documentId, clientId, SHADOW);
+        }
+        if (backup != null) {
+            tx.batch(Sql.DELETE_SHADOW, documentId, clientId, BACKUP);
+        }
+        if (shadow != null) {
+            insertShadow(tx, documentId, clientId, SHADOW, 0, shadow);
+        }
+        if (backup != null) {
+            insertShadow(tx, documentId, clientId, BACKUP, backup.version(), backup.shadow());
+        }
+    }
+
+    private void insertShadow(final Transaction tx,
+                              final String documentId,
+                              final String clientId,
+                              final int kind,
+                              final long version,
+                              final ShadowDocument<T> shadow) throws SQLException {
+        tx.batch(Sql.INSERT_SHADOW, documentId, clientId, kind, version, shadow.serverVersion(),
+                shadow.clientVersion(), encodeContent(shadow.document().content()));
+    }
+
+    private String encodeContent(final T content) {
+        return content == null ? null : codec.encodeContent(content);
+    }
+
+    private T decodeContent(final String encoded) {
+        return encoded == null ? null : codec.decodeContent(encoded);
+    }
+
+    private <R> R execute(final Work<R> work) {
+        try {
+            final Transaction current = transactions.get();
+            if (current != null) {
+                return work.run(current);
+            }
+            final Transaction tx = begin();
+            boolean committed = false;
+            try {
+                final R result = work.run(tx);
+                tx.commit();
+                committed = true;
+                return result;
+            } finally {
+                if (!committed) {
+                    tx.rollback();
+                }
+                tx.close();
+            }
+        } catch (final SQLException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    private Transaction begin() throws SQLException {
+        final Connection connection = dataSource.getConnection();
+        try {
+            connection.setAutoCommit(false);
+        } catch (final SQLException e) {
+            connection.close();
+            throw e;
+        }
+        return new Transaction(connection);
+    }
+
+    private void createSchema() throws SQLException {
+        final Connection connection = dataSource.getConnection();
+        try {
+            final Statement statement = connection.createStatement();
+            try {
+                for (String ddl : SCHEMA) {
+                    statement.execute(ddl);
+                }
+            } finally {
+                statement.close();
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    private interface Work<R> {
+        R run(Transaction tx) throws SQLException;
+    }
+
+    /**
+     * A connection with the statements that have been prepared and batched on it.
+     */
+    private static final class Transaction {
+
+        private final Connection connection;
+        private final Map<Sql, PreparedStatement> statements = new EnumMap<Sql, PreparedStatement>(Sql.class);
+        private final EnumSet<Sql> batched = EnumSet.noneOf(Sql.class);
+        private Sql lastBatched;
+
+        private Transaction(final Connection connection) {
+            this.connection = connection;
+        }
+
+        void batch(final Sql sql, final Object... parameters) throws SQLException {
+            if (lastBatched != null && sql.compareTo(lastBatched) < 0) {
+                // executing the batches in declaration order would reorder this write before earlier ones.
+                executeBatches();
+            }
+            final PreparedStatement statement = bind(sql, parameters);
+            statement.addBatch();
+            batched.add(sql);
+            lastBatched = sql;
+        }
+
+        /**
+         * Executes an insert right away, within a savepoint so that a failed insert does not abort the rest
+         * of the transaction.
+         *
+         * @return {@code true} if the row was inserted, {@code false} if it violated an integrity constraint.
+         */
+        boolean insertIfAbsent(final Sql sql, final Object... parameters) throws SQLException {
+            executeBatches();
+            final Savepoint savepoint = connection.setSavepoint();
+            try {
+                bind(sql, parameters).executeUpdate();
+            } catch (final SQLException e) {
+                if (!isIntegrityConstraintViolation(e)) {
+                    throw e;
+                }
+                connection.rollback(savepoint);
+                return false;
+            }
+            connection.releaseSavepoint(savepoint);
+            return true;
+        }
+
+        ResultSet query(final Sql sql, final Object... parameters) throws SQLException {
+            executeBatches();
+            return bind(sql, parameters).executeQuery();
+        }
+
+        void commit() throws SQLException {
+            executeBatches();
+            connection.commit();
+        }
+
+        void rollback() {
+            try {
+                connection.rollback();
+            } catch (final SQLException e) {
+                logger.warn("Could not roll back transaction", e);
+            }
+        }
+
+        void close() {
+            for (PreparedStatement statement : statements.values()) {
+                try {
+                    statement.close();
+                } catch (final SQLException e) {
+                    logger.warn("Could not close statement", e);
+                }
+            }
+            try {
+                connection.setAutoCommit(true);
+                connection.close();
+            } catch (final SQLException e) {
+                logger.warn("Could not close connection", e);
+            }
+        }
+
+        private static boolean isIntegrityConstraintViolation(final SQLException e) {
+            final String sqlState = e.getSQLState();
+            return sqlState != null && sqlState.startsWith("23");
+        }
+
+        private void executeBatches() throws SQLException {
+            for (Sql sql : batched) {
+                statements.get(sql).executeBatch();
+            }
+            batched.clear();
+            lastBatched = null;
+        }
+
+        private PreparedStatement bind(final Sql sql, final Object... parameters) throws SQLException {
+            PreparedStatement statement = statements.get(sql);
+            if (statement == null) {
+                statement = connection.prepareStatement(sql.sql);
+                statements.put(sql, statement);
+            }
+            for (int i = 0; i < parameters.length; i++) {
+                final Object parameter = parameters[i];
+                if (parameter == null) {
+                    statement.setNull(i + 1, Types.CLOB);
+                } else if (parameter instanceof Long) {
+                    statement.setLong(i + 1, (Long) parameter);
+                } else if (parameter instanceof Integer) {
+                    statement.setInt(i + 1, (Integer) parameter);
+                } else {
+                    statement.setString(i + 1, (String) parameter);
+                }
+            }
+            return statement;
+        }
+    }
+
+    /**
+     * Creates a {@link Builder} for a store that uses the specified {@link DataSource}.
+     *
+     * @param dataSource the {@link DataSource} to take connections from, which should pool its connections.
+     * @param codec the {@link StoreCodec} used to encode content and edits.
+     * @param <T> The data type data that the store can handle.
+     * @param <S> The type of {@link Edit}s that the store can handle.
+     * @return {@link Builder} a builder with default settings.
+     */
+    public static <T, S extends Edit<? extends Diff>> Builder<T, S> builder(final DataSource dataSource,
+                                                                           final StoreCodec<T, S> codec) {
+        return new Builder<T, S>(dataSource, codec);
+    }
+
+    public static class Builder<T, S extends Edit<? extends Diff>> {
+
+        private final DataSource dataSource;
+        private final StoreCodec<T, S> codec;
+        private boolean createSchema;
+
+        private Builder(final DataSource dataSource, final StoreCodec<T, S> codec) {
+            this.dataSource = checkNotNull(dataSource, "dataSource must not be null");
+            this.codec = checkNotNull(codec, "codec must not be null");
+        }
+
+        /**
+         * Sets whether the tables should be created when the store is built, if they do not exist yet.
+         * The default is {@code false}.
+         *
+         * @param createSchema {@code true} to create the tables.
+         * @return {@link Builder} to allow method chaining.
+         */
+        public Builder<T, S> createSchema(final boolean createSchema) {
+            this.createSchema = createSchema;
+            return this;
+        }
+
+        /**
+         * Creates the store.
+         *
+         * @return {@link JdbcServerDataStore} the new store.
+         * @throws SQLException if the tables cannot be created.
+         */
+        public JdbcServerDataStore<T, S> build() throws SQLException {
+            final JdbcServerDataStore<T, S> store = new JdbcServerDataStore<T, S>(this);
+            if (createSchema) {
+                store.createSchema();
+            }
+            return store;
+        }
+    }
+
+}
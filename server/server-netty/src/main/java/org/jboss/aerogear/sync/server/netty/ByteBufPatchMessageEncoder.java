@@ -0,0 +1,70 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.server.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.jboss.aerogear.sync.server.PatchMessageEncoder;
+
+import java.util.List;
+
+/**
+ * A {@link PatchMessageEncoder} that encodes the JSON representation of patch messages into pooled
+ * {@link ByteBuf}s. The shared diffs of a broadcast are encoded once and added as retained duplicates
+ * to the {@link CompositeByteBuf} of every message that contains them.
+ */
+public final class ByteBufPatchMessageEncoder extends PatchMessageEncoder<ByteBuf> {
+
+    public static final ByteBufPatchMessageEncoder INSTANCE = new ByteBufPatchMessageEncoder(PooledByteBufAllocator.DEFAULT);
+
+    private final ByteBufAllocator allocator;
+
+    public ByteBufPatchMessageEncoder(final ByteBufAllocator allocator) {
+        this.allocator = allocator;
+    }
+
+    @Override
+    protected ByteBuf encodeText(final CharSequence text) {
+        final ByteBuf buffer = allocator.buffer(text.length());
+        ByteBufUtil.writeUtf8(buffer, text);
+        return buffer;
+    }
+
+    @Override
+    protected ByteBuf join(final List<ByteBuf> parts) {
+        final CompositeByteBuf message = allocator.compositeBuffer(parts.size());
+        for (ByteBuf part : parts) {
+            message.addComponent(part);
+            message.writerIndex(message.writerIndex() + part.readableBytes());
+        }
+        return message;
+    }
+
+    @Override
+    protected ByteBuf share(final ByteBuf encoded) {
+        return encoded.duplicate().retain();
+    }
+
+    @Override
+    protected void release(final ByteBuf encoded) {
+        encoded.release();
+    }
+
+}
@@ -73,6 +73,10 @@ public final class ConfigReader {
     private static StandaloneConfig parseProperties(final JsonNode json) {
         final Builder b = StandaloneConfig.host(json.get("host").asText());
         b.port(json.get("port").asInt());
+        final JsonNode batchPatches = json.get("batchPatches");
+        if (batchPatches != null && batchPatches.asBoolean()) {
+            b.batchPatches();
+        }
 
         final JsonNode gcm = json.get("gcm");
         if (gcm != null) {
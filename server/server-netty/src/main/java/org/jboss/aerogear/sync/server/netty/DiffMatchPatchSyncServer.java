@@ -29,12 +29,14 @@ import io.netty.handler.codec.http.HttpResponseEncoder;
 import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
 import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatchEdit;
 import org.jboss.aerogear.sync.diffmatchpatch.server.DiffMatchPatchServerSynchronizer;
+import org.jboss.aerogear.sync.server.DocumentExecutor;
 import org.jboss.aerogear.sync.server.ServerInMemoryDataStore;
 import org.jboss.aerogear.sync.server.ServerSyncEngine;
 import org.jboss.aerogear.sync.server.ServerSynchronizer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 /**
@@ -50,10 +52,12 @@ public final class DiffMatchPatchSyncServer {
         final StandaloneConfig config = ConfigReader.parse(configFile);
         final EventLoopGroup bossGroup = new NioEventLoopGroup();
         final EventLoopGroup workerGroup = new NioEventLoopGroup();
+        final ExecutorService documentPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
         final ServerSynchronizer<String, DiffMatchPatchEdit> synchronizer = new DiffMatchPatchServerSynchronizer();
         final ServerInMemoryDataStore<String, DiffMatchPatchEdit> dataStore = new ServerInMemoryDataStore<String, DiffMatchPatchEdit>();
         final ServerSyncEngine<String, DiffMatchPatchEdit> syncEngine = new ServerSyncEngine<String, DiffMatchPatchEdit>(synchronizer, dataStore);
-        final DiffSyncHandler<String, DiffMatchPatchEdit> diffSyncHandler = new DiffSyncHandler<String, DiffMatchPatchEdit>(syncEngine);
+        final DiffSyncHandler<String, DiffMatchPatchEdit> diffSyncHandler = new DiffSyncHandler<String, DiffMatchPatchEdit>(syncEngine,
+                new DocumentExecutor(documentPool), config.isBatchPatches());
         try {
             final ServerBootstrap sb = new ServerBootstrap();
             sb.group(bossGroup, workerGroup)
@@ -82,6 +86,7 @@ public final class DiffMatchPatchSyncServer {
         } finally {
             bossGroup.shutdownGracefully();
             workerGroup.shutdownGracefully();
+            documentPool.shutdown();
         }
     }
 }
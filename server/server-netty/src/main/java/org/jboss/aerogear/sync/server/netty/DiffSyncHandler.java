@@ -30,22 +30,85 @@ import org.jboss.aerogear.sync.Diff;
 import org.jboss.aerogear.sync.Document;
 import org.jboss.aerogear.sync.Edit;
 import org.jboss.aerogear.sync.PatchMessage;
+import org.jboss.aerogear.sync.SyncMetrics;
+import org.jboss.aerogear.sync.SyncMetrics.Stage;
 import org.jboss.aerogear.sync.diffmatchpatch.JsonMapper;
+import org.jboss.aerogear.sync.server.DocumentExecutor;
 import org.jboss.aerogear.sync.server.MessageType;
 import org.jboss.aerogear.sync.server.ServerSyncEngine;
+import org.jboss.aerogear.sync.server.SubscriberNotifier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
 @ChannelHandler.Sharable
 public class DiffSyncHandler<T, S extends Edit<? extends Diff>> extends SimpleChannelInboundHandler<WebSocketFrame> {
 
     private static final Logger logger = LoggerFactory.getLogger(DiffSyncHandler.class);
-    private static final AttributeKey<Boolean> DOC_ADD = AttributeKey.valueOf(DiffSyncHandler.class, "DOC_ADD");
+    private static final AttributeKey<Set<String>> DOC_IDS = AttributeKey.valueOf(DiffSyncHandler.class, "DOC_IDS");
+    private static final AttributeKey<List<PatchMessage<?>>> PENDING_PATCHES =
+            AttributeKey.valueOf(DiffSyncHandler.class, "PENDING_PATCHES");
 
     private final ServerSyncEngine<T, S> syncEngine;
+    private final DocumentExecutor documentExecutor;
+    private final SubscriberNotifier notifier;
+    private final boolean batchPatches;
+
+    /**
+     * Creates a DiffSyncHandler which runs all operations that modify a document on the passed-in
+     * {@link Executor}, using a {@link DocumentExecutor} with the {@link DocumentExecutor#DEFAULT_BUDGET}.
+     * Operations on the same document are executed in order, while operations on different documents may
+     * run in parallel. The {@link Executor} should not be the channel's event loop, as patching and notifying
+     * subscribers would then hold up reading from and writing to the channels of that event loop.
+     *
+     * @param syncEngine the {@link ServerSyncEngine} to use.
+     * @param executor the {@link Executor} that runs document operations, for example a fixed thread pool.
+     */
+    public DiffSyncHandler(final ServerSyncEngine<T, S> syncEngine, final Executor executor) {
+        this(syncEngine, new DocumentExecutor(executor));
+    }
 
-    public DiffSyncHandler(final ServerSyncEngine<T, S> syncEngine) {
+    /**
+     * Creates a DiffSyncHandler which uses the passed-in {@link DocumentExecutor} to run all operations
+     * that modify a document. Operations on the same document are executed in order, while operations
+     * on different documents may run in parallel.
+     * <p>
+     * A {@link DocumentExecutor#DocumentExecutor() DocumentExecutor without an Executor} runs operations on
+     * the event loop thread that read the message, which is only meant for tests.
+     *
+     * @param syncEngine the {@link ServerSyncEngine} to use.
+     * @param documentExecutor the {@link DocumentExecutor} used to serialize operations per document.
+     */
+    public DiffSyncHandler(final ServerSyncEngine<T, S> syncEngine, final DocumentExecutor documentExecutor) {
+        this(syncEngine, documentExecutor, false);
+    }
+
+    /**
+     * Creates a DiffSyncHandler which can optionally batch PATCH messages.
+     * <p>
+     * In batch mode, PATCH messages are collected until the channel has no more data to read, and are then
+     * applied with {@link ServerSyncEngine#patchAll(java.util.Collection)}, resulting in a single notification
+     * round per document instead of one per message.
+     *
+     * @param syncEngine the {@link ServerSyncEngine} to use.
+     * @param documentExecutor the {@link DocumentExecutor} used to serialize operations per document.
+     * @param batchPatches whether PATCH messages read in one pass should be applied as one batch.
+     */
+    public DiffSyncHandler(final ServerSyncEngine<T, S> syncEngine,
+                           final DocumentExecutor documentExecutor,
+                           final boolean batchPatches) {
         this.syncEngine = syncEngine;
+        this.documentExecutor = documentExecutor;
+        this.batchPatches = batchPatches;
+        notifier = new SubscriberNotifier(syncEngine, documentExecutor);
     }
 
     @Override
@@ -57,21 +120,43 @@ public class DiffSyncHandler<T, S extends Edit<? extends Diff>> extends SimpleCh
         }
 
         if (frame instanceof TextWebSocketFrame) {
+            final SyncMetrics metrics = syncEngine.metrics();
+            metrics.recordPayloadBytes(frame.content().readableBytes());
+            final long start = System.nanoTime();
             final JsonNode json = JsonMapper.asJsonNode(((TextWebSocketFrame) frame).text());
+            metrics.recordLatency(Stage.DESERIALIZE, System.nanoTime() - start);
             logger.info("Doc:" + json);
             switch (MessageType.from(json.get("msgType").asText())) {
             case ADD:
+                if (batchPatches) {
+                    // keep patches read before this message ordered before it.
+                    patchAll(ctx);
+                }
                 final Document<T> doc = syncEngine.documentFromJson(json);
                 final String clientId = json.get("clientId").asText();
-                final PatchMessage<S> patchMessage = addSubscriber(doc, clientId, ctx);
-                ctx.attr(DOC_ADD).set(true);
-                ctx.channel().writeAndFlush(textFrame(patchMessage.asJson()));
+                documentIds(ctx).add(doc.id());
+                documentExecutor.execute(doc.id(), new Runnable() {
+                    @Override
+                    public void run() {
+                        final PatchMessage<S> patchMessage = addSubscriber(doc, clientId, ctx);
+                        ctx.channel().writeAndFlush(textFrame(patchMessage.asJson()));
+                    }
+                });
                 break;
             case PATCH:
                 final PatchMessage<S> clientPatchMessage = syncEngine.patchMessageFromJson(json.toString());
                 checkForReconnect(clientPatchMessage.documentId(), clientPatchMessage.clientId(), ctx);
                 logger.debug("Client Edits = " + clientPatchMessage);
-                patch(clientPatchMessage);
+                if (batchPatches) {
+                    pendingPatches(ctx).add(clientPatchMessage);
+                    break;
+                }
+                documentExecutor.execute(clientPatchMessage.documentId(), new Runnable() {
+                    @Override
+                    public void run() {
+                        patch(clientPatchMessage);
+                    }
+                });
                 break;
             case DETACH:
                 // detach the client from a specific document.
@@ -88,37 +173,100 @@ public class DiffSyncHandler<T, S extends Edit<? extends Diff>> extends SimpleCh
     private PatchMessage<S> addSubscriber(final Document<T> document,
                                        final String clientId,
                                        final ChannelHandlerContext ctx) {
-        final NettySubscriber subscriber = new NettySubscriber(clientId, ctx);
-        addCloseHandler(ctx, subscriber, document.id());
+        final NettySubscriber subscriber = new NettySubscriber(clientId, ctx, syncEngine.metrics());
+        addCloseHandler(ctx, subscriber);
         return syncEngine.addSubscriber(subscriber, document);
     }
 
     private void patch(final PatchMessage<S> patchMessage) {
-        syncEngine.notifySubscribers(syncEngine.patch(patchMessage));
+        notifier.notifySubscribers(syncEngine.patch(patchMessage));
+    }
+
+    @Override
+    public void channelReadComplete(final ChannelHandlerContext ctx) throws Exception {
+        if (batchPatches) {
+            patchAll(ctx);
+        }
+        ctx.fireChannelReadComplete();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void patchAll(final ChannelHandlerContext ctx) {
+        final List<PatchMessage<?>> pending = ctx.attr(PENDING_PATCHES).getAndRemove();
+        if (pending == null || pending.isEmpty()) {
+            return;
+        }
+        final Map<String, List<PatchMessage<S>>> byDocument = new LinkedHashMap<String, List<PatchMessage<S>>>();
+        for (PatchMessage<?> patchMessage : pending) {
+            List<PatchMessage<S>> patchMessages = byDocument.get(patchMessage.documentId());
+            if (patchMessages == null) {
+                patchMessages = new ArrayList<PatchMessage<S>>();
+                byDocument.put(patchMessage.documentId(), patchMessages);
+            }
+            patchMessages.add((PatchMessage<S>) patchMessage);
+        }
+        for (Map.Entry<String, List<PatchMessage<S>>> entry : byDocument.entrySet()) {
+            final List<PatchMessage<S>> patchMessages = entry.getValue();
+            documentExecutor.execute(entry.getKey(), new Runnable() {
+                @Override
+                public void run() {
+                    for (String documentId : syncEngine.patchAll(patchMessages)) {
+                        notifier.schedule(documentId);
+                    }
+                }
+            });
+        }
+    }
+
+    private static List<PatchMessage<?>> pendingPatches(final ChannelHandlerContext ctx) {
+        List<PatchMessage<?>> pending = ctx.attr(PENDING_PATCHES).get();
+        if (pending == null) {
+            pending = new ArrayList<PatchMessage<?>>();
+            ctx.attr(PENDING_PATCHES).set(pending);
+        }
+        return pending;
     }
 
     private void checkForReconnect(final String documentId, final String clientId, final ChannelHandlerContext ctx) {
-        if (ctx.attr(DOC_ADD).get() == Boolean.TRUE) {
+        if (!documentIds(ctx).add(documentId)) {
             return;
         }
         logger.info("Reconnected client [" + clientId + "]. Adding as listener.");
         // the context was used to reconnect so we need to add client as a listener
-        final NettySubscriber subscriber = new NettySubscriber(clientId, ctx);
+        final NettySubscriber subscriber = new NettySubscriber(clientId, ctx, syncEngine.metrics());
         syncEngine.connectSubscriber(subscriber, documentId);
-        addCloseHandler(ctx, subscriber, documentId);
+        addCloseHandler(ctx, subscriber);
     }
 
-    private void addCloseHandler(final ChannelHandlerContext ctx,
-                                 final NettySubscriber subscriber,
-                                 final String documentId) {
+    private void addCloseHandler(final ChannelHandlerContext ctx, final NettySubscriber subscriber) {
         ctx.channel().closeFuture().addListener(new ChannelFutureListener() {
             @Override
             public void operationComplete(final ChannelFuture future) throws Exception {
-                syncEngine.removeSubscriber(subscriber, documentId);
+                syncEngine.removeSubscriber(subscriber);
             }
         });
     }
 
+    /**
+     * Catches up a subscriber that was skipped while its channel was not writable. The notification
+     * will contain one diff covering all the updates that the subscriber missed.
+     */
+    @Override
+    public void channelWritabilityChanged(final ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isWritable()) {
+            for (String documentId : documentIds(ctx)) {
+                notifier.catchUp(documentId, ctx);
+            }
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    private static Set<String> documentIds(final ChannelHandlerContext ctx) {
+        final Set<String> newDocumentIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final Set<String> documentIds = ctx.attr(DOC_IDS).setIfAbsent(newDocumentIds);
+        return documentIds == null ? newDocumentIds : documentIds;
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
         logger.error("Caught exception", cause);
@@ -30,11 +30,13 @@ import io.netty.handler.codec.http.HttpResponseEncoder;
 import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
 import org.jboss.aerogear.sync.jsonmergepatch.server.JsonMergePatchServerSynchronizer;
 import org.jboss.aerogear.sync.jsonmergepatch.JsonMergePatchEdit;
+import org.jboss.aerogear.sync.server.DocumentExecutor;
 import org.jboss.aerogear.sync.server.ServerInMemoryDataStore;
 import org.jboss.aerogear.sync.server.ServerSyncEngine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 /**
@@ -53,8 +55,10 @@ public final class JsonMergePatchSyncServer {
 
         final JsonMergePatchServerSynchronizer synchronizer = new JsonMergePatchServerSynchronizer();
         final ServerInMemoryDataStore<JsonNode, JsonMergePatchEdit> dataStore = new ServerInMemoryDataStore<JsonNode, JsonMergePatchEdit>();
+        final ExecutorService documentPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
         final ServerSyncEngine<JsonNode, JsonMergePatchEdit> syncEngine = new ServerSyncEngine<JsonNode, JsonMergePatchEdit>(synchronizer, dataStore);
-        final DiffSyncHandler<JsonNode, JsonMergePatchEdit> diffSyncHandler = new DiffSyncHandler<JsonNode, JsonMergePatchEdit>(syncEngine);
+        final DiffSyncHandler<JsonNode, JsonMergePatchEdit> diffSyncHandler = new DiffSyncHandler<JsonNode, JsonMergePatchEdit>(syncEngine,
+                new DocumentExecutor(documentPool), config.isBatchPatches());
         try {
             final ServerBootstrap sb = new ServerBootstrap();
             sb.group(bossGroup, workerGroup)
@@ -81,6 +85,7 @@ public final class JsonMergePatchSyncServer {
         } finally {
             bossGroup.shutdownGracefully();
             workerGroup.shutdownGracefully();
+            documentPool.shutdown();
         }
     }
 }
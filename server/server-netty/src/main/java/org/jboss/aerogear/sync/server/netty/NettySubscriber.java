@@ -16,20 +16,34 @@
  */
 package org.jboss.aerogear.sync.server.netty;
 
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
 import org.jboss.aerogear.sync.PatchMessage;
+import org.jboss.aerogear.sync.SyncMetrics;
+import org.jboss.aerogear.sync.SyncMetrics.Stage;
+import org.jboss.aerogear.sync.metrics.NoopSyncMetrics;
+import org.jboss.aerogear.sync.server.EncodingSubscriber;
+import org.jboss.aerogear.sync.server.FlowControlledSubscriber;
+import org.jboss.aerogear.sync.server.PatchMessageEncoder;
 import org.jboss.aerogear.sync.server.Subscriber;
 
 
-public class NettySubscriber implements Subscriber<ChannelHandlerContext> {
+public class NettySubscriber implements FlowControlledSubscriber<ChannelHandlerContext>,
+        EncodingSubscriber<ChannelHandlerContext, ByteBuf> {
 
     private final String clientId;
     private final ChannelHandlerContext ctx;
+    private final SyncMetrics metrics;
 
     public NettySubscriber(final String clientId, final ChannelHandlerContext ctx) {
+        this(clientId, ctx, NoopSyncMetrics.INSTANCE);
+    }
+
+    public NettySubscriber(final String clientId, final ChannelHandlerContext ctx, final SyncMetrics metrics) {
         this.clientId = clientId;
         this.ctx = ctx;
+        this.metrics = metrics;
     }
 
     @Override
@@ -42,9 +56,28 @@ public class NettySubscriber implements Subscriber<ChannelHandlerContext> {
         return ctx;
     }
 
+    @Override
+    public boolean isWritable() {
+        return ctx.channel().isWritable();
+    }
+
+    @Override
+    public PatchMessageEncoder<ByteBuf> encoder() {
+        return ByteBufPatchMessageEncoder.INSTANCE;
+    }
+
     @Override
     public void patched(final PatchMessage<?> patchMessage) {
-        ctx.channel().writeAndFlush(textFrame(patchMessage.asJson()));
+        final long start = System.nanoTime();
+        final ByteBuf content = ByteBufPatchMessageEncoder.INSTANCE.encode(patchMessage);
+        metrics.recordLatency(Stage.SERIALIZE, System.nanoTime() - start);
+        patched(patchMessage, content);
+    }
+
+    @Override
+    public void patched(final PatchMessage<?> patchMessage, final ByteBuf encoded) {
+        metrics.recordPayloadBytes(encoded.readableBytes());
+        ctx.channel().writeAndFlush(new TextWebSocketFrame(encoded));
     }
 
     @Override
@@ -60,7 +93,7 @@ public class NettySubscriber implements Subscriber<ChannelHandlerContext> {
         if (!clientId.equals(subscriber.clientId())) {
             return false;
         }
-        return !ctx.equals(subscriber.channel());
+        return ctx.equals(subscriber.channel());
     }
 
     @Override
@@ -75,8 +108,4 @@ public class NettySubscriber implements Subscriber<ChannelHandlerContext> {
         return "Client[clientId=" + clientId + ", channel=" + ctx + ']';
     }
 
-    private static TextWebSocketFrame textFrame(final String text) {
-        return new TextWebSocketFrame(text);
-    }
-
 }
@@ -21,6 +21,7 @@ public class StandaloneConfig {
     // Diffsync server properties
     private final String host;
     private final int port;
+    private final boolean batchPatches;
 
     // Google Cloud Messaging properties
     private final boolean gcmEnabled;
@@ -32,6 +33,7 @@ public class StandaloneConfig {
     private StandaloneConfig(final Builder builder) {
         host = builder.host;
         port = builder.port;
+        batchPatches = builder.batchPatches;
         gcmEnabled = builder.gcmEnabled;
         gcmHost = builder.gcmHost;
         gcmPort = builder.gcmPort;
@@ -47,6 +49,16 @@ public class StandaloneConfig {
         return port;
     }
 
+    /**
+     * Determines whether PATCH messages read from a connection in one pass should be
+     * applied as a single batch.
+     *
+     * @return {@code true} if patches should be batched.
+     */
+    public boolean isBatchPatches() {
+        return batchPatches;
+    }
+
     public String gcmHost() {
         return gcmHost;
     }
@@ -71,6 +83,7 @@ public class StandaloneConfig {
     public String toString() {
         return "StandaloneConfig[host=" + host +
                 ", port=" + port +
+                ", batchPatches=" + batchPatches +
                 ", gcmEnabled=" + gcmEnabled +
                 ", gcmHost=" + gcmHost +
                 ", gcmPort=" + gcmPort +
@@ -85,6 +98,7 @@ public class StandaloneConfig {
     public static class Builder {
         private final String host;
         private int port;
+        private boolean batchPatches;
         private boolean gcmEnabled;
         private String gcmHost = "gcm.googleapis.com";
         private int gcmPort = 5235;
@@ -100,6 +114,11 @@ public class StandaloneConfig {
             return this;
         }
 
+        public Builder batchPatches() {
+            batchPatches = true;
+            return this;
+        }
+
         public Builder gcmEnabled() {
             gcmEnabled = true;
             return this;
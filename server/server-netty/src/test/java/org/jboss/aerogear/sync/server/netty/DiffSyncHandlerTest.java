@@ -31,6 +31,7 @@ import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatchMessage;
 import org.jboss.aerogear.sync.diffmatchpatch.JsonMapper;
 import org.jboss.aerogear.sync.diffmatchpatch.client.DiffMatchPatchClientSynchronizer;
 import org.jboss.aerogear.sync.diffmatchpatch.server.DiffMatchPatchServerSynchronizer;
+import org.jboss.aerogear.sync.server.DocumentExecutor;
 import org.jboss.aerogear.sync.server.ServerInMemoryDataStore;
 import org.jboss.aerogear.sync.server.ServerSyncEngine;
 import org.jboss.aerogear.sync.server.ServerSynchronizer;
@@ -41,6 +42,7 @@ import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -72,6 +74,34 @@ public class DiffSyncHandlerTest {
         assertThat(patchMessage.edits().peek().diff().diffs().get(0).operation(), is(Operation.UNCHANGED));
     }
 
+    @Test
+    public void addDocumentRunsOnExecutor() {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        final Executor executor = new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                tasks.add(command);
+            }
+        };
+        final ServerSyncEngine<String, DiffMatchPatchEdit> syncEngine = new ServerSyncEngine<String, DiffMatchPatchEdit>(
+                new DiffMatchPatchServerSynchronizer(), new ServerInMemoryDataStore<String, DiffMatchPatchEdit>());
+        final EmbeddedChannel channel = embeddedChannel(new DiffSyncHandler<String, DiffMatchPatchEdit>(syncEngine, executor));
+        final String docId = UUID.randomUUID().toString();
+        final ObjectNode docMsg = message("add");
+        docMsg.put("id", docId);
+        docMsg.put("clientId", "client1");
+        docMsg.put("content", "Once upon a time");
+
+        channel.writeInbound(textFrame(docMsg.toString()));
+        assertThat(channel.readOutbound(), is(nullValue()));
+        assertThat(tasks.size(), is(1));
+
+        tasks.remove(0).run();
+        final TextWebSocketFrame frame = channel.readOutbound();
+        final PatchMessage<DiffMatchPatchEdit> patchMessage = fromJson(frame.text(), DiffMatchPatchMessage.class);
+        assertThat(patchMessage.documentId(), equalTo(docId));
+    }
+
     @Test
     public void addDocumentObjectContent() {
         final EmbeddedChannel channel = embeddedChannel();
@@ -129,8 +159,9 @@ public class DiffSyncHandlerTest {
     @Test
     public void addDocumentWithoutContent() {
         final ServerInMemoryDataStore<String, DiffMatchPatchEdit> dataStore = new ServerInMemoryDataStore<String, DiffMatchPatchEdit>();
-        final EmbeddedChannel channel1 = embeddedChannel(dataStore);
-        final EmbeddedChannel channel2 = embeddedChannel(dataStore);
+        final DiffSyncHandler<String, DiffMatchPatchEdit> handler = diffSyncHandler(dataStore);
+        final EmbeddedChannel channel1 = embeddedChannel(handler);
+        final EmbeddedChannel channel2 = embeddedChannel(handler);
         final String docId = UUID.randomUUID().toString();
         final String client1Id = "client1";
         final String client2Id = "client2";
@@ -256,8 +287,9 @@ public class DiffSyncHandlerTest {
     @Test
     public void patch() {
         final ServerInMemoryDataStore<String, DiffMatchPatchEdit> dataStore = new ServerInMemoryDataStore<String, DiffMatchPatchEdit>();
-        final EmbeddedChannel channel1 = embeddedChannel(dataStore);
-        final EmbeddedChannel channel2 = embeddedChannel(dataStore);
+        final DiffSyncHandler<String, DiffMatchPatchEdit> handler = diffSyncHandler(dataStore);
+        final EmbeddedChannel channel1 = embeddedChannel(handler);
+        final EmbeddedChannel channel2 = embeddedChannel(handler);
         final String docId = UUID.randomUUID().toString();
         final String originalContent = "{\"content\": \"Do or do not, there is no try.\"}";
         final String updatedContent = "{\"content\": \"Do or do not, there is no try!\"}";
@@ -295,12 +327,47 @@ public class DiffSyncHandlerTest {
         assertThat(edit.diff().diffs().get(3).operation(), is(Operation.UNCHANGED));
     }
 
+    @Test
+    public void patchBatch() {
+        final ServerInMemoryDataStore<String, DiffMatchPatchEdit> dataStore = new ServerInMemoryDataStore<String, DiffMatchPatchEdit>();
+        final DiffSyncHandler<String, DiffMatchPatchEdit> handler = diffSyncHandler(dataStore, true);
+        final EmbeddedChannel channel1 = embeddedChannel(handler);
+        final EmbeddedChannel channel2 = embeddedChannel(handler);
+        final String docId = UUID.randomUUID().toString();
+        final String originalContent = "Do or do not, there is no try.";
+        final String firstUpdate = "Do or do not, there is no try!";
+        final String secondUpdate = "Do or do not, there is no try!!";
+        final String client1Id = "client1";
+        final String client2Id = "client2";
+        sendAddDocMsg(docId, client1Id, originalContent, channel1);
+        sendAddDocMsg(docId, client2Id, originalContent, channel2);
+
+        final ClientSyncEngine<String, DiffMatchPatchEdit> clientSyncEngine = newClientSyncEngine();
+        clientSyncEngine.addDocument(new DefaultClientDocument<String>(docId, client1Id, originalContent));
+        final PatchMessage<DiffMatchPatchEdit> firstPatch = clientSyncEngine.diff(
+                new DefaultClientDocument<String>(docId, client1Id, firstUpdate));
+        final PatchMessage<DiffMatchPatchEdit> secondPatch = clientSyncEngine.diff(
+                new DefaultClientDocument<String>(docId, client1Id, secondUpdate));
+
+        // both frames are read in one pass and applied as one batch.
+        channel1.writeInbound(textFrame(JsonMapper.toJson(firstPatch)), textFrame(JsonMapper.toJson(secondPatch)));
+        assertThat(dataStore.getDocument(docId).content(), equalTo(secondUpdate));
+
+        // client2 is notified once for the whole batch.
+        final TextWebSocketFrame serverUpdate = channel2.readOutbound();
+        final PatchMessage<DiffMatchPatchEdit> serverUpdates = fromJson(serverUpdate.text(), DiffMatchPatchMessage.class);
+        assertThat(serverUpdates.clientId(), equalTo(client2Id));
+        assertThat(serverUpdates.edits().size(), is(1));
+        assertThat(channel2.readOutbound(), is(nullValue()));
+    }
+
     @Test
     public void patchJedi() {
         final ClientSyncEngine<String, DiffMatchPatchEdit> clientSyncEngine = newClientSyncEngine();
         final ServerInMemoryDataStore<String, DiffMatchPatchEdit> dataStore = new ServerInMemoryDataStore<String, DiffMatchPatchEdit>();
-        final EmbeddedChannel channel1 = embeddedChannel(dataStore);
-        final EmbeddedChannel channel2 = embeddedChannel(dataStore);
+        final DiffSyncHandler<String, DiffMatchPatchEdit> handler = diffSyncHandler(dataStore);
+        final EmbeddedChannel channel1 = embeddedChannel(handler);
+        final EmbeddedChannel channel2 = embeddedChannel(handler);
         final String docId = UUID.randomUUID().toString();
         final String client1Id = "client1";
         final String client2Id = "client2";
@@ -402,8 +469,9 @@ public class DiffSyncHandlerTest {
     public void patchCompletReplacementOfContent() {
         final ClientSyncEngine<String, DiffMatchPatchEdit> clientSyncEngine = newClientSyncEngine();
         final ServerInMemoryDataStore<String, DiffMatchPatchEdit> dataStore = new ServerInMemoryDataStore<String, DiffMatchPatchEdit>();
-        final EmbeddedChannel channel1 = embeddedChannel(dataStore);
-        final EmbeddedChannel channel2 = embeddedChannel(dataStore);
+        final DiffSyncHandler<String, DiffMatchPatchEdit> handler = diffSyncHandler(dataStore);
+        final EmbeddedChannel channel1 = embeddedChannel(handler);
+        final EmbeddedChannel channel2 = embeddedChannel(handler);
         final String docId = UUID.randomUUID().toString();
         final String client1Id = "client1";
         final String client2Id = "client2";
@@ -528,9 +596,22 @@ public class DiffSyncHandlerTest {
     }
 
     private static EmbeddedChannel embeddedChannel(final ServerInMemoryDataStore<String, DiffMatchPatchEdit> dataStore) {
+        return embeddedChannel(diffSyncHandler(dataStore));
+    }
+
+    private static EmbeddedChannel embeddedChannel(final DiffSyncHandler<String, DiffMatchPatchEdit> handler) {
+        return new EmbeddedChannel(handler);
+    }
+
+    private static DiffSyncHandler<String, DiffMatchPatchEdit> diffSyncHandler(final ServerInMemoryDataStore<String, DiffMatchPatchEdit> dataStore) {
+        return diffSyncHandler(dataStore, false);
+    }
+
+    private static DiffSyncHandler<String, DiffMatchPatchEdit> diffSyncHandler(final ServerInMemoryDataStore<String, DiffMatchPatchEdit> dataStore,
+                                                                               final boolean batchPatches) {
         final ServerSynchronizer<String, DiffMatchPatchEdit> synchronizer = new DiffMatchPatchServerSynchronizer();
         final ServerSyncEngine<String, DiffMatchPatchEdit> syncEngine = new ServerSyncEngine<String, DiffMatchPatchEdit>(synchronizer, dataStore);
-        return new EmbeddedChannel(new DiffSyncHandler<String, DiffMatchPatchEdit>(syncEngine));
+        return new DiffSyncHandler<String, DiffMatchPatchEdit>(syncEngine, new DocumentExecutor(), batchPatches);
     }
 
     private static PatchMessage<DiffMatchPatchEdit> generateClientSideEdits(final String documentId,
@@ -0,0 +1,49 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.server.wildfly;
+
+import org.jboss.aerogear.sync.server.PatchMessageEncoder;
+
+import java.util.List;
+
+/**
+ * A {@link PatchMessageEncoder} that serializes patch messages to JSON Strings. The shared diffs of a broadcast
+ * are serialized once and copied into the String of every message that contains them.
+ */
+public final class JsonPatchMessageEncoder extends PatchMessageEncoder<String> {
+    public static final JsonPatchMessageEncoder INSTANCE = new JsonPatchMessageEncoder();
+
+    private JsonPatchMessageEncoder() {}
+
+    @Override
+    protected String encodeText(final CharSequence text) {
+        return text.toString();
+    }
+
+    @Override
+    protected String join(final List<String> parts) {
+        int length = 0;
+        for (String part : parts) {
+            length += part.length();
+        }
+        final StringBuilder message = new StringBuilder(length);
+        for (String part : parts) {
+            message.append(part);
+        }
+        return message.toString();
+    }
+}
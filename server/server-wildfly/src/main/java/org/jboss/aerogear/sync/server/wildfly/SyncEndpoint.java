@@ -34,7 +34,6 @@ import org.jboss.aerogear.sync.jsonpatch.server.JsonPatchServerSynchronizer;
 import org.jboss.aerogear.sync.server.MessageType;
 import org.jboss.aerogear.sync.server.ServerInMemoryDataStore;
 import org.jboss.aerogear.sync.server.ServerSyncEngine;
-import org.jboss.aerogear.sync.server.Subscriber;
 
 @ServerEndpoint("/sync")
 public class SyncEndpoint {
@@ -45,7 +44,6 @@ public class SyncEndpoint {
     private static final String DOC_ADD = "DOC_ADD";
     private static final String WILDFLY_SUBSCRIBER = "WILDFLY_SUBSCRIBER";
     private static final Logger logger = Logger.getLogger(SyncEndpoint.class.getSimpleName());
-    private static final String DOCUMENT_ID = "DOCUMENT_ID";
     
     @OnMessage
     public String onMessage(String message, Session webSocketSession) {
@@ -83,15 +81,17 @@ public class SyncEndpoint {
     @OnClose
     public void onClose(CloseReason reason, Session webSocketSession) {
         logger.info("Closing a WebSocket due to " + reason.getReasonPhrase());
-        WildflySubscriber subscriber = (WildflySubscriber) webSocketSession.getUserProperties().get(WILDFLY_SUBSCRIBER);
-        String documentId = (String) webSocketSession.getUserProperties().get(DOCUMENT_ID);
-        syncEngine.removeSubscriber(subscriber, documentId);
+        final WildflySubscriber subscriber = (WildflySubscriber) webSocketSession.getUserProperties().get(WILDFLY_SUBSCRIBER);
+        if (subscriber != null) {
+            syncEngine.removeSubscriber(subscriber);
+        }
 
     }
 
     private PatchMessage<JsonPatchEdit> addSubscriber(final Document<JsonNode> document,
         final String clientId, Session session) {
-        final Subscriber<Session> subscriber = new WildflySubscriber(clientId, session);
+        final WildflySubscriber subscriber = new WildflySubscriber(clientId, session);
+        session.getUserProperties().put(WILDFLY_SUBSCRIBER, subscriber);
         return syncEngine.addSubscriber(subscriber, document);
     }
 
@@ -106,6 +106,8 @@ public class SyncEndpoint {
         logger.info("Reconnected client [" + clientId + "]. Adding as listener.");
 
         final WildflySubscriber subscriber = new WildflySubscriber(clientId, session);
+        session.getUserProperties().put(WILDFLY_SUBSCRIBER, subscriber);
+        session.getUserProperties().put(DOC_ADD, true);
         syncEngine.connectSubscriber(subscriber, documentId);
     }
 
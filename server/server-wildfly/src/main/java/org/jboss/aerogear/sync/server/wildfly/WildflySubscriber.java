@@ -18,12 +18,14 @@ package org.jboss.aerogear.sync.server.wildfly;
 
 import javax.websocket.Session;
 import org.jboss.aerogear.sync.PatchMessage;
+import org.jboss.aerogear.sync.server.EncodingSubscriber;
+import org.jboss.aerogear.sync.server.PatchMessageEncoder;
 import org.jboss.aerogear.sync.server.Subscriber;
 
 /**
  * Represents a subscriber of patches for the WebSocket Session type.
  */
-public class WildflySubscriber implements Subscriber<Session> {
+public class WildflySubscriber implements EncodingSubscriber<Session, String> {
     private final Session webSocketSession;
     private final String clientId;
 
@@ -42,10 +44,20 @@ public class WildflySubscriber implements Subscriber<Session> {
         return webSocketSession;
     }
 
+    @Override
+    public PatchMessageEncoder<String> encoder() {
+        return JsonPatchMessageEncoder.INSTANCE;
+    }
+
     @Override
     public void patched(PatchMessage<?> patchMessage) {
+        patched(patchMessage, JsonPatchMessageEncoder.INSTANCE.encode(patchMessage));
+    }
+
+    @Override
+    public void patched(PatchMessage<?> patchMessage, String encoded) {
         if (webSocketSession.isOpen()) {
-            webSocketSession.getAsyncRemote().sendText(patchMessage.asJson(), LoggingSendHandler.INSTANCE);
+            webSocketSession.getAsyncRemote().sendText(encoded, LoggingSendHandler.INSTANCE);
         }
     }
 
@@ -62,7 +74,7 @@ public class WildflySubscriber implements Subscriber<Session> {
         if (!clientId.equals(subscriber.clientId())) {
             return false;
         }
-        return !webSocketSession.equals(subscriber.channel());
+        return webSocketSession.equals(subscriber.channel());
     }
 
     @Override
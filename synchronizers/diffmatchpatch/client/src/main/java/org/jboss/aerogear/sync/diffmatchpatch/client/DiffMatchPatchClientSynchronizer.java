@@ -21,7 +21,7 @@ import org.jboss.aerogear.sync.*;
 import org.jboss.aerogear.sync.client.ClientSynchronizer;
 import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatch;
 import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatch.Patch;
-import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatchDiff;
+import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatchDiffs;
 import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatchEdit;
 import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatchMessage;
 import org.jboss.aerogear.sync.diffmatchpatch.JsonMapper;
@@ -47,22 +47,22 @@ public class DiffMatchPatchClientSynchronizer implements ClientSynchronizer<Stri
     @Override
     public DiffMatchPatchEdit clientDiff(final ShadowDocument<String> shadowDocument, final ClientDocument<String> document) {
         final String shadowText = shadowDocument.document().content();
-        final LinkedList<DiffMatchPatch.Diff> diffs = diffMatchPatch.diffMain(document.content(), shadowText);
+        final DiffMatchPatchDiffs diffs = diffMatchPatch.diffs(document.content(), shadowText);
         return DiffMatchPatchEdit.withChecksum("bogus")
                 .clientVersion(shadowDocument.clientVersion())
                 .serverVersion(shadowDocument.serverVersion())
-                .diffs(asAeroGearDiffs(diffs))
+                .diffs(diffs)
                 .build();
     }
     
     @Override
     public DiffMatchPatchEdit serverDiff(final ClientDocument<String> document, final ShadowDocument<String> shadowDocument) {
         final String shadowText = shadowDocument.document().content();
-        final LinkedList<DiffMatchPatch.Diff> diffs = diffMatchPatch.diffMain(shadowText, document.content());
+        final DiffMatchPatchDiffs diffs = diffMatchPatch.diffs(shadowText, document.content());
         return DiffMatchPatchEdit.withChecksum(DiffMatchPatch.checksum(shadowText))
                 .clientVersion(shadowDocument.clientVersion())
                 .serverVersion(shadowDocument.serverVersion())
-                .diffs(asAeroGearDiffs(diffs))
+                .diffs(diffs)
                 .build();
     }
 
@@ -100,49 +100,7 @@ public class DiffMatchPatchClientSynchronizer implements ClientSynchronizer<Stri
     }
 
     private LinkedList<Patch> patchesFrom(final DiffMatchPatchEdit edit) {
-        return diffMatchPatch.patchMake(asDiffUtilDiffs(edit.diff().diffs()));
-    }
-
-    private static LinkedList<DiffMatchPatch.Diff> asDiffUtilDiffs(final LinkedList<DiffMatchPatchDiff> diffs) {
-        final LinkedList<DiffMatchPatch.Diff> dsf = new LinkedList<DiffMatchPatch.Diff>();
-        for (DiffMatchPatchDiff d : diffs) {
-            dsf.add(DiffMatchPatch.diff(diffutilOp(d.operation()), d.text()));
-        }
-        return dsf;
-    }
-
-    private static LinkedList<DiffMatchPatchDiff> asAeroGearDiffs(final LinkedList<DiffMatchPatch.Diff> diffs) {
-        final LinkedList<DiffMatchPatchDiff> syncDiffs = new LinkedList<DiffMatchPatchDiff>();
-        for (DiffMatchPatch.Diff diff : diffs) {
-            syncDiffs.add(new DiffMatchPatchDiff(aerogearOp(diff.operation), diff.text));
-        }
-        return syncDiffs;
-    }
-
-    private static DiffMatchPatch.Operation diffutilOp(final DiffMatchPatchDiff.Operation operation) {
-        switch (operation) {
-            case DELETE:
-                return DiffMatchPatch.Operation.DELETE;
-            case ADD:
-                return DiffMatchPatch.Operation.INSERT;
-            case UNCHANGED:
-                return DiffMatchPatch.Operation.EQUAL;
-            default:
-                throw new RuntimeException("Unsupported Operation: " + operation);
-        }
-    }
-
-    private static DiffMatchPatchDiff.Operation aerogearOp(final DiffMatchPatch.Operation operation) {
-        switch (operation) {
-            case DELETE:
-                return DiffMatchPatchDiff.Operation.DELETE;
-            case INSERT:
-                return DiffMatchPatchDiff.Operation.ADD;
-            case EQUAL:
-                return DiffMatchPatchDiff.Operation.UNCHANGED;
-            default:
-                throw new RuntimeException("Unsupported Operation: " + operation);
-        }
+        return diffMatchPatch.patchMake(edit.diff());
     }
 
 }
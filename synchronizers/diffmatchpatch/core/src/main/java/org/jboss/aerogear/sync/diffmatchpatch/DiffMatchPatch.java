@@ -30,6 +30,12 @@ import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -49,6 +55,56 @@ public class DiffMatchPatch {
         DELETE, INSERT, EQUAL
     }
 
+    /**
+     * The algorithm used to find the differences between two texts.
+     */
+    public enum Strategy {
+        /**
+         * Myers' O(ND) bisection on characters, limited by {@link #diffTimeout()} and {@link #diffBudget()}.
+         * When a limit is hit the remaining part is reported as a single delete and insert.
+         */
+        MYERS,
+        /**
+         * Histogram diff on lines: the texts are split at the lines that occur least often in both, and only the
+         * parts between those lines are diffed with {@link #MYERS}. Finds readable diffs for line structured
+         * content like source code, CSV or logs and does a bounded amount of work per line. Texts without line
+         * structure are diffed with {@link #MYERS}.
+         */
+        HISTOGRAM,
+        /**
+         * Chooses per diff: {@link #MYERS} for small texts and texts that mostly share their start and end,
+         * {@link #HISTOGRAM} for other line structured texts and otherwise {@link #MYERS} with a budget that is
+         * linear in the length of the texts when no {@link #diffBudget()} has been set.
+         */
+        ADAPTIVE
+    }
+
+    /**
+     * The tokens that line mode diffs first, before it diffs the changed parts character by character.
+     */
+    public enum Tokenization {
+        /**
+         * Lines, each ending after a line feed.
+         */
+        LINES,
+        /**
+         * Words, each ending after the white space that follows it. Finds more common parts than lines in texts
+         * with long lines, like prose or JSON on a single line.
+         */
+        WORDS
+    }
+
+    // Texts shorter than this are always diffed with Myers by the adaptive strategy.
+    private static final int ADAPTIVE_MIN_LENGTH = 8192;
+    // Average line length up to which the adaptive strategy considers texts line structured.
+    private static final int ADAPTIVE_MAX_LINE_LENGTH = 1024;
+    // Bisection budget per character of input used by the adaptive strategy when no budget is set.
+    private static final int ADAPTIVE_BUDGET_FACTOR = 64;
+    // Tokens that occur more often than this in the old text are not used to split a histogram diff.
+    private static final int HISTOGRAM_MAX_CHAIN = 64;
+    // Maximum nesting of histogram splits before the remaining part is diffed with Myers.
+    private static final int HISTOGRAM_MAX_DEPTH = 64;
+
     // Define some regex patterns for matching boundaries.
     private static final Pattern BLANKLINEEND = Pattern.compile("\\n\\r?\\n\\Z", Pattern.DOTALL);
     private static final Pattern BLANKLINESTART =  Pattern.compile("\\A\\r?\\n\\r?\\n", Pattern.DOTALL);
@@ -62,9 +118,21 @@ public class DiffMatchPatch {
     private final float patchDeleteThreshold;
     private final short patchMargin;
     private final short matchMaxbits;
+    private final Strategy diffStrategy;
+    private final long diffBudget;
+    private final Tokenization diffTokenization;
+    private final Executor diffExecutor;
+    private final Semaphore diffForks;
+    private final int diffParallelThreshold;
 
     private DiffMatchPatch(final Builder builder) {
         diffTimeout = builder.patchTimeout;
+        diffStrategy = builder.diffStrategy;
+        diffBudget = builder.diffBudget;
+        diffTokenization = builder.diffTokenization;
+        diffExecutor = builder.diffExecutor;
+        diffForks = builder.diffExecutor == null ? null : new Semaphore(builder.diffParallelism);
+        diffParallelThreshold = builder.diffParallelThreshold;
         diffEditCost = builder.diffEditCost;
         matchThreshold = builder.matchThreshold;
         matchDistance = builder.matchDistance;
@@ -81,6 +149,22 @@ public class DiffMatchPatch {
         return diffEditCost;
     }
 
+    public Strategy diffStrategy() {
+        return diffStrategy;
+    }
+
+    public long diffBudget() {
+        return diffBudget;
+    }
+
+    public Tokenization diffTokenization() {
+        return diffTokenization;
+    }
+
+    public int diffParallelThreshold() {
+        return diffParallelThreshold;
+    }
+
     public float matchThreshold() {
         return matchThreshold;
     }
@@ -114,6 +198,12 @@ public class DiffMatchPatch {
         private float patchDeleteThreshold = 0.5f;
         private short patchMargin = 4;
         private short matchMaxbits = 32;
+        private Strategy diffStrategy = Strategy.MYERS;
+        private long diffBudget;
+        private Tokenization diffTokenization = Tokenization.LINES;
+        private Executor diffExecutor;
+        private int diffParallelism;
+        private int diffParallelThreshold = 1 << 16;
 
         /**
          * Specifies the number of seconds to map a diff before giving up (0 for infinity).
@@ -126,6 +216,80 @@ public class DiffMatchPatch {
             return this;
         }
 
+        /**
+         * Specifies the {@link Strategy} used to diff texts. Defaults to {@link Strategy#MYERS}.
+         *
+         * @param strategy the strategy to be used.
+         * @return {@code Builder} to support method chaining.
+         */
+        public Builder diffStrategy(final Strategy strategy) {
+            if (strategy == null) {
+                throw new IllegalArgumentException("strategy must not be null");
+            }
+            diffStrategy = strategy;
+            return this;
+        }
+
+        /**
+         * Specifies the number of steps the Myers bisection may take for one diff before giving up (0 for infinity).
+         * A step is one diagonal examined or one matching character followed. Unlike the time out, the budget
+         * gives the same result on every run.
+         *
+         * @param budget the maximum number of steps.
+         * @return {@code Builder} to support method chaining.
+         */
+        public Builder diffBudget(final long budget) {
+            diffBudget = budget;
+            return this;
+        }
+
+        /**
+         * Specifies the {@link Tokenization} of line mode. Defaults to {@link Tokenization#LINES}.
+         *
+         * @param tokenization the tokenization to be used.
+         * @return {@code Builder} to support method chaining.
+         */
+        public Builder diffTokenization(final Tokenization tokenization) {
+            if (tokenization == null) {
+                throw new IllegalArgumentException("tokenization must not be null");
+            }
+            diffTokenization = tokenization;
+            return this;
+        }
+
+        /**
+         * Specifies an {@link Executor} to diff the independent halves of large diffs on in parallel. At most
+         * {@code parallelism} halves are handed to the executor at a time, further halves are diffed by the
+         * thread that split them, which also diffs a half itself when the executor has not started it by the
+         * time it is needed. The result is the same as without an executor, unless the diff hits its time out.
+         * Diffs with a budget are never run in parallel, as the budget is spent in order. Defaults to none,
+         * which diffs on the calling thread only.
+         *
+         * @param executor the {@link Executor} to run halves of diffs on, or {@code null} for none.
+         * @param parallelism the maximum number of halves handed to the executor at a time.
+         * @return {@code Builder} to support method chaining.
+         */
+        public Builder diffExecutor(final Executor executor, final int parallelism) {
+            if (executor != null && parallelism < 1) {
+                throw new IllegalArgumentException("parallelism must be greater than zero");
+            }
+            diffExecutor = executor;
+            diffParallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Specifies the combined length of the two ranges of a half below which it is diffed on the thread that
+         * split it, even when a {@link #diffExecutor(Executor, int)} has been set. Defaults to 65536 characters.
+         *
+         * @param threshold the minimum number of characters of a half to be diffed in parallel.
+         * @return {@code Builder} to support method chaining.
+         */
+        public Builder diffParallelThreshold(final int threshold) {
+            diffParallelThreshold = threshold;
+            return this;
+        }
+
         /**
          * Specifies the cost of an empty edit operation in terms of edit characters.
          *
@@ -220,47 +384,806 @@ public class DiffMatchPatch {
         }
     }
 
+    /**
+     * Per-thread working state of a diff. Holds the texts being diffed, the scratch arrays of the bisection
+     * and the diff found so far as a list of segments, which are ranges of the first text for
+     * {@link Operation#DELETE} and {@link Operation#EQUAL} and ranges of the second text for
+     * {@link Operation#INSERT}. The texts are held as arrays of characters, or for the line-level diff of
+     * line mode as arrays of tokens numbering the lines or words of another context. All arrays are kept for
+     * the next diff on the same thread, unless the arrays of all contexts of the thread together take more
+     * than {@value #MAX_RETAINED_BYTES} bytes.
+     */
+    private static final class DiffContext {
+
+        private static final int MAX_RETAINED_BYTES = 256 * 1024;
+        private static final ThreadLocal<DiffContext> CONTEXTS = new ThreadLocal<DiffContext>() {
+            @Override
+            protected DiffContext initialValue() {
+                return new DiffContext();
+            }
+        };
+
+        private String string1;
+        private String string2;
+        private char[] text1 = new char[256];
+        private char[] text2 = new char[256];
+        private int length1;
+        private int length2;
+        private int[] v1 = new int[256];
+        private int[] v2 = new int[256];
+        private Operation[] operations = new Operation[16];
+        private int[] starts = new int[16];
+        private int[] ends = new int[16];
+        private int segments;
+        private int[] counts;
+        private DiffContext nested;
+        private Strategy strategy;
+        private long budget;
+        private boolean budgeted;
+        private boolean inUse;
+
+        // Only used by contexts holding lines or words: the tokens of the texts, where every token starts in
+        // the texts of the context they were taken from, followed by the end of the range, and the table that
+        // numbers the tokens.
+        private boolean tokenized;
+        private int[] tokens1;
+        private int[] tokens2;
+        private int[] bounds1;
+        private int[] bounds2;
+        private Tokens tokens;
+
+        /**
+         * Returns the unused context of the current thread. A diff that is started while the context of the
+         * thread is in use, like the line-level diff of line mode, gets a nested context, which is kept for the
+         * next nested diff of the thread as well.
+         */
+        static DiffContext acquire() {
+            DiffContext context = CONTEXTS.get();
+            while (context.inUse) {
+                if (context.nested == null) {
+                    context.nested = new DiffContext();
+                }
+                context = context.nested;
+            }
+            context.inUse = true;
+            context.segments = 0;
+            context.strategy = Strategy.MYERS;
+            context.budget = Long.MAX_VALUE;
+            context.budgeted = false;
+            return context;
+        }
+
+        /**
+         * Returns the context of the current thread loaded with the characters of the passed-in texts.
+         */
+        static DiffContext acquire(final String text1, final String text2) {
+            final DiffContext context = acquire();
+            context.tokenized = false;
+            context.string1 = text1;
+            context.string2 = text2;
+            context.text1 = load(text1, context.text1);
+            context.text2 = load(text2, context.text2);
+            context.length1 = text1.length();
+            context.length2 = text2.length();
+            return context;
+        }
+
+        private static char[] load(final String text, final char[] chars) {
+            final char[] loaded = chars.length < text.length() ? new char[text.length()] : chars;
+            text.getChars(0, text.length(), loaded, 0);
+            return loaded;
+        }
+
+        /**
+         * Loads this context with the lines or words of two ranges of the texts of another context, one token
+         * per line or word, where equal lines or words get the same token. A line ends after a line feed, a
+         * word after the white space that follows it.
+         */
+        void tokenize(final DiffContext source, final int start1, final int end1, final int start2, final int end2,
+                      final Tokenization tokenization) {
+            if (tokens == null) {
+                tokens = new Tokens();
+            }
+            tokens.clear(source.text1, source.text2);
+            tokenized = true;
+            final boolean words = tokenization == Tokenization.WORDS;
+            length1 = tokenize(source.text1, start1, end1, words, false);
+            tokens.endOfFirstText();
+            length2 = tokenize(source.text2, start2, end2, words, true);
+        }
+
+        private int tokenize(final char[] text, final int start, final int end, final boolean words,
+                             final boolean second) {
+            // The arrays grow with the number of tokens, which is usually far below the number of characters.
+            int[] tokenized = second ? tokens2 : tokens1;
+            int[] bounds = second ? bounds2 : bounds1;
+            if (bounds == null) {
+                bounds = new int[256];
+            }
+            if (tokenized == null || tokenized.length < bounds.length) {
+                tokenized = new int[bounds.length];
+            }
+            int length = 0;
+            int i = start;
+            while (i < end) {
+                final int tokenStart = i;
+                int hash = 0;
+                if (words) {
+                    for (; i < end && !Character.isWhitespace(text[i]); i++) {
+                        hash = 31 * hash + text[i];
+                    }
+                    for (; i < end && Character.isWhitespace(text[i]); i++) {
+                        hash = 31 * hash + text[i];
+                    }
+                } else {
+                    int c;
+                    do {
+                        c = text[i++];
+                        hash = 31 * hash + c;
+                    } while (c != '\n' && i < end);
+                }
+                if (length + 1 == bounds.length) {
+                    bounds = Arrays.copyOf(bounds, length * 2);
+                    tokenized = Arrays.copyOf(tokenized, Math.max(tokenized.length, bounds.length));
+                }
+                bounds[length] = tokenStart;
+                tokenized[length++] = tokens.token(text, tokenStart, i, hash);
+            }
+            bounds[length] = end;
+            if (second) {
+                tokens2 = tokenized;
+                bounds2 = bounds;
+            } else {
+                tokens1 = tokenized;
+                bounds1 = bounds;
+            }
+            return length;
+        }
+
+        /**
+         * Returns a context for diffing a part of the texts of this context on another thread. It shares the
+         * texts, which are only read while diffing, but has its own scratch arrays and segments.
+         */
+        DiffContext fork() {
+            final DiffContext fork = new DiffContext();
+            fork.string1 = string1;
+            fork.string2 = string2;
+            fork.text1 = text1;
+            fork.text2 = text2;
+            fork.tokenized = tokenized;
+            fork.tokens1 = tokens1;
+            fork.tokens2 = tokens2;
+            fork.length1 = length1;
+            fork.length2 = length2;
+            fork.strategy = strategy;
+            fork.budget = Long.MAX_VALUE;
+            fork.inUse = true;
+            return fork;
+        }
+
+        /**
+         * Drops the references to the texts and marks this context as unused. Releasing the context of the
+         * thread, which is released after all contexts nested in it, drops all arrays of the thread if they
+         * take more than {@value #MAX_RETAINED_BYTES} bytes together.
+         */
+        void release() {
+            if (tokens != null) {
+                tokens.release();
+            }
+            Arrays.fill(operations, 0, segments, null);
+            string1 = null;
+            string2 = null;
+            segments = 0;
+            inUse = false;
+            if (this == CONTEXTS.get() && retainedBytes() > MAX_RETAINED_BYTES) {
+                CONTEXTS.remove();
+            }
+        }
+
+        /**
+         * Returns the number of bytes taken by the arrays of this context and the contexts nested in it,
+         * counting a reference as four bytes.
+         */
+        private long retainedBytes() {
+            long bytes = 0;
+            for (DiffContext context = this; context != null; context = context.nested) {
+                bytes += 2L * (context.text1.length + context.text2.length);
+                bytes += 4L * (context.v1.length + context.v2.length + context.operations.length
+                        + context.starts.length + context.ends.length);
+                bytes += 4L * (length(context.tokens1) + length(context.tokens2) + length(context.bounds1)
+                        + length(context.bounds2) + length(context.counts));
+                if (context.tokens != null) {
+                    bytes += context.tokens.retainedBytes();
+                }
+            }
+            return bytes;
+        }
+
+        private static int length(final int[] array) {
+            return array == null ? 0 : array.length;
+        }
+
+        int[] v1(final int length) {
+            if (v1.length < length) {
+                v1 = new int[length];
+            }
+            return v1;
+        }
+
+        /**
+         * Returns the token counts of the histogram diff, which are all zero between uses.
+         */
+        int[] counts() {
+            final int size = tokens.size();
+            if (counts == null || counts.length < size) {
+                counts = new int[size];
+            }
+            return counts;
+        }
+
+        int[] v2(final int length) {
+            if (v2.length < length) {
+                v2 = new int[length];
+            }
+            return v2;
+        }
+
+        /**
+         * Returns the number of characters or tokens common to the start of a range of the first text and a
+         * range of the second text.
+         */
+        int commonPrefix(final int start1, final int end1, final int start2, final int end2) {
+            return tokenized ? diffCommonPrefix(tokens1, start1, end1, tokens2, start2, end2)
+                    : diffCommonPrefix(text1, start1, end1, text2, start2, end2);
+        }
+
+        /**
+         * Returns the number of characters or tokens common to the end of a range of the first text and a
+         * range of the second text.
+         */
+        int commonSuffix(final int start1, final int end1, final int start2, final int end2) {
+            return tokenized ? diffCommonSuffix(tokens1, start1, end1, tokens2, start2, end2)
+                    : diffCommonSuffix(text1, start1, end1, text2, start2, end2);
+        }
+
+        /**
+         * Returns the index of the first occurrence of a range of one text in a range of the other text, at or
+         * after {@code from}.
+         *
+         * @param inFirst Whether to search the range of the second text in the range of the first text.
+         * @return The index relative to {@code start}, or -1 if the pattern does not occur.
+         */
+        int indexOf(final boolean inFirst, final int start, final int end, final int patternStart,
+                    final int patternEnd, final int from) {
+            if (tokenized) {
+                return inFirst ? DiffMatchPatch.indexOf(tokens1, start, end, tokens2, patternStart, patternEnd, from)
+                        : DiffMatchPatch.indexOf(tokens2, start, end, tokens1, patternStart, patternEnd, from);
+            }
+            return inFirst ? DiffMatchPatch.indexOf(text1, start, end, text2, patternStart, patternEnd, from)
+                    : DiffMatchPatch.indexOf(text2, start, end, text1, patternStart, patternEnd, from);
+        }
+
+        void add(final Operation operation, final int start, final int end) {
+            if (start == end) {
+                return;
+            }
+            if (segments > 0 && operations[segments - 1] == operation && ends[segments - 1] == start) {
+                ends[segments - 1] = end;
+                return;
+            }
+            if (segments == operations.length) {
+                operations = Arrays.copyOf(operations, segments * 2);
+                starts = Arrays.copyOf(starts, segments * 2);
+                ends = Arrays.copyOf(ends, segments * 2);
+            }
+            operations[segments] = operation;
+            starts[segments] = start;
+            ends[segments] = end;
+            segments++;
+        }
+
+        /**
+         * Adds the segments of a forked context, which diffed the next part of the texts of this context.
+         */
+        void addAll(final DiffContext fork) {
+            for (int i = 0; i < fork.segments; i++) {
+                add(fork.operations[i], fork.starts[i], fork.ends[i]);
+            }
+        }
+
+        /**
+         * Merges the segments of a context holding characters like
+         * {@link DiffMatchPatch#diffCleanupMerge(LinkedList)} merges a list of diffs, without creating a
+         * {@link Diff} for any of them. The merge only works on the lengths of the segments, as every segment
+         * starts where the segments before it end in its text.
+         */
+        void mergeSegments() {
+            Operation[] ops = new Operation[segments + 2];
+            int[] lengths = new int[segments + 2];
+            for (int i = 0; i < segments; i++) {
+                ops[i] = operations[i];
+                lengths[i] = ends[i] - starts[i];
+            }
+            Operation[] merged = new Operation[segments + 2];
+            int[] mergedLengths = new int[segments + 2];
+            int size = segments;
+            while (true) {
+                // A run of edits at the start may gain an equality for its common prefix, and the last one
+                // an equality for its common suffix.
+                if (merged.length < size + 2) {
+                    merged = new Operation[size + 2];
+                    mergedLengths = new int[size + 2];
+                }
+                final int count = mergeRuns(ops, lengths, size, merged, mergedLengths);
+                // Every shift of a single edit removes one equality.
+                size = shiftEdits(merged, mergedLengths, count);
+                final Operation[] swapOps = ops;
+                final int[] swapLengths = lengths;
+                ops = merged;
+                lengths = mergedLengths;
+                merged = swapOps;
+                mergedLengths = swapLengths;
+                if (size == count) {
+                    break;
+                }
+            }
+            segments = 0;
+            int pointer1 = 0;
+            int pointer2 = 0;
+            for (int i = 0; i < size; i++) {
+                if (ops[i] == Operation.INSERT) {
+                    add(ops[i], pointer2, pointer2 + lengths[i]);
+                } else {
+                    add(ops[i], pointer1, pointer1 + lengths[i]);
+                }
+                pointer1 += ops[i] == Operation.INSERT ? 0 : lengths[i];
+                pointer2 += ops[i] == Operation.DELETE ? 0 : lengths[i];
+            }
+        }
+
+        /**
+         * The first pass of {@link #mergeSegments()}: merges the edits between two equalities into one deletion
+         * and one insertion, and factors their common prefix and suffix out into the equalities.
+         *
+         * @return The number of segments written to {@code merged}.
+         */
+        private int mergeRuns(final Operation[] ops, final int[] lengths, final int size,
+                              final Operation[] merged, final int[] mergedLengths) {
+            int count = 0;
+            int pointer1 = 0;
+            int pointer2 = 0;
+            int countDelete = 0;
+            int countInsert = 0;
+            int deletes = 0;
+            int inserts = 0;
+            boolean prevEqual = false;
+            // A trailing empty equality ends the last run of edits.
+            for (int i = 0; i <= size; i++) {
+                final Operation operation = i < size ? ops[i] : Operation.EQUAL;
+                final int length = i < size ? lengths[i] : 0;
+                if (operation == Operation.DELETE) {
+                    countDelete++;
+                    deletes += length;
+                    prevEqual = false;
+                    continue;
+                }
+                if (operation == Operation.INSERT) {
+                    countInsert++;
+                    inserts += length;
+                    prevEqual = false;
+                    continue;
+                }
+                int equal = length;
+                if (countDelete + countInsert > 1) {
+                    if (countDelete != 0 && countInsert != 0) {
+                        final int prefix = commonPrefix(pointer1, pointer1 + deletes, pointer2, pointer2 + inserts);
+                        if (prefix != 0) {
+                            if (count > 0) {
+                                mergedLengths[count - 1] += prefix;
+                            } else {
+                                merged[count] = Operation.EQUAL;
+                                mergedLengths[count++] = prefix;
+                            }
+                            pointer1 += prefix;
+                            pointer2 += prefix;
+                            deletes -= prefix;
+                            inserts -= prefix;
+                        }
+                        final int suffix = commonSuffix(pointer1, pointer1 + deletes, pointer2, pointer2 + inserts);
+                        deletes -= suffix;
+                        inserts -= suffix;
+                        equal += suffix;
+                    }
+                    if (deletes != 0) {
+                        merged[count] = Operation.DELETE;
+                        mergedLengths[count++] = deletes;
+                    }
+                    if (inserts != 0) {
+                        merged[count] = Operation.INSERT;
+                        mergedLengths[count++] = inserts;
+                    }
+                    merged[count] = Operation.EQUAL;
+                    mergedLengths[count++] = equal;
+                } else if (prevEqual) {
+                    // Merge this equality with the previous one.
+                    mergedLengths[count - 1] += equal;
+                } else {
+                    if (countDelete != 0) {
+                        merged[count] = Operation.DELETE;
+                        mergedLengths[count++] = deletes;
+                    }
+                    if (countInsert != 0) {
+                        merged[count] = Operation.INSERT;
+                        mergedLengths[count++] = inserts;
+                    }
+                    merged[count] = Operation.EQUAL;
+                    mergedLengths[count++] = equal;
+                }
+                pointer1 += deletes + equal;
+                pointer2 += inserts + equal;
+                countDelete = 0;
+                countInsert = 0;
+                deletes = 0;
+                inserts = 0;
+                prevEqual = true;
+            }
+            if (count > 0 && mergedLengths[count - 1] == 0) {
+                count--;
+            }
+            return count;
+        }
+
+        /**
+         * The second pass of {@link #mergeSegments()}: shifts single edits surrounded by equalities sideways
+         * to eliminate an equality, e.g: A<ins>BA</ins>C -> <ins>AB</ins>AC.
+         *
+         * @return The number of segments left.
+         */
+        private int shiftEdits(final Operation[] ops, final int[] lengths, final int size) {
+            int count = 0;
+            int pointer1 = 0;
+            int pointer2 = 0;
+            int i = 0;
+            while (i < size) {
+                if (count > 0 && i + 1 < size && ops[i] != Operation.EQUAL
+                        && ops[count - 1] == Operation.EQUAL && ops[i + 1] == Operation.EQUAL) {
+                    final Operation operation = ops[i];
+                    final int previous = lengths[count - 1];
+                    final int edit = lengths[i];
+                    final int next = lengths[i + 1];
+                    final char[] text = operation == Operation.DELETE ? text1 : text2;
+                    final int start = operation == Operation.DELETE ? pointer1 : pointer2;
+                    if (edit >= previous && diffCommonPrefix(text, start + edit - previous, start + edit,
+                            text, start - previous, start) == previous) {
+                        // Shift the edit over the previous equality.
+                        count--;
+                        pointer1 -= previous;
+                        pointer2 -= previous;
+                        ops[count] = operation;
+                        lengths[count++] = edit;
+                        ops[count] = Operation.EQUAL;
+                        lengths[count++] = previous + next;
+                        pointer1 += (operation == Operation.DELETE ? edit : 0) + previous + next;
+                        pointer2 += (operation == Operation.INSERT ? edit : 0) + previous + next;
+                        i += 2;
+                        continue;
+                    }
+                    if (edit >= next && diffCommonPrefix(text, start, start + next,
+                            text, start + edit, start + edit + next) == next) {
+                        // Shift the edit over the next equality.
+                        lengths[count - 1] += next;
+                        pointer1 += next;
+                        pointer2 += next;
+                        ops[count] = operation;
+                        lengths[count++] = edit;
+                        pointer1 += operation == Operation.DELETE ? edit : 0;
+                        pointer2 += operation == Operation.INSERT ? edit : 0;
+                        i += 2;
+                        continue;
+                    }
+                }
+                ops[count] = ops[i];
+                lengths[count++] = lengths[i];
+                pointer1 += ops[i] == Operation.INSERT ? 0 : lengths[i];
+                pointer2 += ops[i] == Operation.DELETE ? 0 : lengths[i];
+                i++;
+            }
+            return count;
+        }
+
+        LinkedList<Diff> toDiffs() {
+            final LinkedList<Diff> diffs = new LinkedList<Diff>();
+            for (int i = 0; i < segments; i++) {
+                final String text = operations[i] == Operation.INSERT ? string2 : string1;
+                diffs.add(new Diff(operations[i], text.substring(starts[i], ends[i])));
+            }
+            return diffs;
+        }
+
+        /**
+         * Returns the segments as {@link DiffMatchPatchDiffs}, appending the text of every segment straight
+         * from the diffed strings.
+         */
+        DiffMatchPatchDiffs toDiffMatchPatchDiffs() {
+            final DiffMatchPatchDiffs.Builder builder = DiffMatchPatchDiffs.builder();
+            for (int i = 0; i < segments; i++) {
+                final String text = operations[i] == Operation.INSERT ? string2 : string1;
+                builder.add(asDiffMatchPatchOperation(operations[i]), text, starts[i], ends[i]);
+            }
+            return builder.build();
+        }
+
+        /**
+         * Returns the diff of a context holding lines or words as diffs of the texts of the context the lines
+         * or words were taken from. The edits between two equalities are merged into one deletion and one
+         * insertion, without the lines or words they start or end with in common, like
+         * {@link DiffMatchPatch#diffCleanupMerge(LinkedList)} does for a diff of characters.
+         */
+        LinkedList<Diff> toDiffs(final DiffContext source) {
+            final LinkedList<Diff> diffs = new LinkedList<Diff>();
+            int equal = 0;
+            int pointer1 = 0;
+            int pointer2 = 0;
+            int i = 0;
+            while (true) {
+                int deletes = 0;
+                int inserts = 0;
+                for (; i < segments && operations[i] != Operation.EQUAL; i++) {
+                    if (operations[i] == Operation.DELETE) {
+                        deletes += ends[i] - starts[i];
+                    } else {
+                        inserts += ends[i] - starts[i];
+                    }
+                }
+                int suffix = 0;
+                if (deletes > 0 && inserts > 0) {
+                    final int prefix = commonPrefix(pointer1, pointer1 + deletes, pointer2, pointer2 + inserts);
+                    pointer1 += prefix;
+                    pointer2 += prefix;
+                    deletes -= prefix;
+                    inserts -= prefix;
+                    suffix = commonSuffix(pointer1, pointer1 + deletes, pointer2, pointer2 + inserts);
+                    deletes -= suffix;
+                    inserts -= suffix;
+                }
+                if (deletes > 0 || inserts > 0) {
+                    addDiff(diffs, Operation.EQUAL, source.string1, bounds1, equal, pointer1);
+                    addDiff(diffs, Operation.DELETE, source.string1, bounds1, pointer1, pointer1 + deletes);
+                    addDiff(diffs, Operation.INSERT, source.string2, bounds2, pointer2, pointer2 + inserts);
+                    pointer1 += deletes;
+                    pointer2 += inserts;
+                    equal = pointer1;
+                }
+                // A common suffix of the edits is the start of the next equality.
+                pointer1 += suffix;
+                pointer2 += suffix;
+                if (i == segments) {
+                    break;
+                }
+                pointer1 += ends[i] - starts[i];
+                pointer2 += ends[i] - starts[i];
+                i++;
+            }
+            addDiff(diffs, Operation.EQUAL, source.string1, bounds1, equal, pointer1);
+            return diffs;
+        }
+
+        private static void addDiff(final LinkedList<Diff> diffs, final Operation operation, final String text,
+                                    final int[] bounds, final int start, final int end) {
+            if (start < end) {
+                diffs.add(new Diff(operation, text.substring(bounds[start], bounds[end])));
+            }
+        }
+    }
+
+    /**
+     * Numbers the distinct lines or words of two texts with an open addressing hash table of token numbers,
+     * which compares tokens by their range in the texts so that they never need to be copied into strings.
+     */
+    private static final class Tokens {
+
+        private int[] table = new int[1024];
+        private int[] hashes = new int[256];
+        private int[] starts = new int[256];
+        private int[] ends = new int[256];
+        private int size;
+        private int firstOfSecondText;
+        private char[] text1;
+        private char[] text2;
+
+        void clear(final char[] text1, final char[] text2) {
+            Arrays.fill(table, 0);
+            size = 0;
+            firstOfSecondText = Integer.MAX_VALUE;
+            this.text1 = text1;
+            this.text2 = text2;
+        }
+
+        void endOfFirstText() {
+            firstOfSecondText = size;
+        }
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * Returns the number of the token at {@code [start, end)} of the passed-in text, which is one of the
+         * two texts being numbered, adding it if it was not seen before.
+         */
+        int token(final char[] text, final int start, final int end, final int hash) {
+            final int mixed = hash ^ hash >>> 16;
+            final int mask = table.length - 1;
+            int slot = mixed & mask;
+            for (int token = table[slot] - 1; token != -1; token = table[slot] - 1) {
+                if (hashes[token] == mixed && matches(token, text, start, end)) {
+                    return token;
+                }
+                slot = slot + 1 & mask;
+            }
+            if (size == hashes.length) {
+                hashes = Arrays.copyOf(hashes, size * 2);
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+            hashes[size] = mixed;
+            starts[size] = start;
+            ends[size] = end;
+            table[slot] = ++size;
+            if (size * 2 > table.length) {
+                rehash(table.length * 2);
+            }
+            return size - 1;
+        }
+
+        private boolean matches(final int token, final char[] text, final int start, final int end) {
+            final char[] other = token < firstOfSecondText ? text1 : text2;
+            final int otherStart = starts[token];
+            if (ends[token] - otherStart != end - start) {
+                return false;
+            }
+            for (int i = 0; i < end - start; i++) {
+                if (text[start + i] != other[otherStart + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void rehash(final int capacity) {
+            table = new int[capacity];
+            final int mask = capacity - 1;
+            for (int token = 0; token < size; token++) {
+                int slot = hashes[token] & mask;
+                while (table[slot] != 0) {
+                    slot = slot + 1 & mask;
+                }
+                table[slot] = token + 1;
+            }
+        }
+
+        /**
+         * Drops the references to the texts, keeping the arrays for the next line mode diff.
+         */
+        void release() {
+            text1 = null;
+            text2 = null;
+        }
+
+        long retainedBytes() {
+            return 4L * (table.length + hashes.length + starts.length + ends.length);
+        }
+    }
+
 
     //  DIFF FUNCTIONS
 
-    /**
-     * Find the differences between two texts.
-     * Run a faster, slightly less optimal diff.
-     * This method allows the 'checklines' of diffMain() to be optional.
-     * Most of the time checklines is wanted, so default to true.
-     *
-     * @param text1 Old string to be diffed.
-     * @param text2 New string to be diffed.
-     * @return Linked List of Diff objects.
-     */
-    public LinkedList<Diff> diffMain(String text1, String text2) {
-        return diffMain(text1, text2, true);
+    /**
+     * Find the differences between two texts.
+     * Run a faster, slightly less optimal diff.
+     * This method allows the 'checklines' of diffMain() to be optional.
+     * Most of the time checklines is wanted, so default to true.
+     *
+     * @param text1 Old string to be diffed.
+     * @param text2 New string to be diffed.
+     * @return Linked List of Diff objects.
+     */
+    public LinkedList<Diff> diffMain(String text1, String text2) {
+        return diffMain(text1, text2, true);
+    }
+
+    /**
+     * Find the differences between two texts.
+     *
+     * @param text1      Old string to be diffed.
+     * @param text2      New string to be diffed.
+     * @param checklines Speedup flag.  If false, then don't run a
+     *                   line-level diff first to identify the changed areas.
+     *                   If true, then run a faster slightly less optimal diff.
+     * @return Linked List of Diff objects.
+     */
+    public LinkedList<Diff> diffMain(String text1, String text2, boolean checklines) {
+        return diffMain(text1, text2, checklines, deadline());
+    }
+
+    /**
+     * Returns the deadline by which time a diff started now must be complete.
+     */
+    private long deadline() {
+        if (diffTimeout <= 0) {
+            return Long.MAX_VALUE;
+        }
+        return System.currentTimeMillis() + (long) (diffTimeout * 1000);
+    }
+
+    /**
+     * Find the differences between two texts and return them as {@link DiffMatchPatchDiffs}.
+     *
+     * @param text1 Old string to be diffed.
+     * @param text2 New string to be diffed.
+     * @return DiffMatchPatchDiffs holding the diffs.
+     */
+    public DiffMatchPatchDiffs diffs(String text1, String text2) {
+        // Check for null inputs.
+        if (text1 == null || text2 == null) {
+            throw new IllegalArgumentException("Null inputs. (diffs)");
+        }
+
+        // Check for equality (speedup).
+        if (text1.equals(text2)) {
+            final DiffMatchPatchDiffs.Builder builder = DiffMatchPatchDiffs.builder();
+            if (!text1.isEmpty()) {
+                builder.add(DiffMatchPatchDiff.Operation.UNCHANGED, text1);
+            }
+            return builder.build();
+        }
+
+        final DiffContext context = DiffContext.acquire(text1, text2);
+        try {
+            diffMain(context, text1, text2, true, deadline());
+            return context.toDiffMatchPatchDiffs();
+        } finally {
+            context.release();
+        }
+    }
+
+    private static DiffMatchPatchDiffs asDiffMatchPatchDiffs(LinkedList<Diff> diffs) {
+        DiffMatchPatchDiffs.Builder builder = DiffMatchPatchDiffs.builder();
+        for (Diff diff : diffs) {
+            builder.add(asDiffMatchPatchOperation(diff.operation), diff.text);
+        }
+        return builder.build();
+    }
+
+    private static DiffMatchPatchDiff.Operation asDiffMatchPatchOperation(Operation operation) {
+        switch (operation) {
+            case DELETE:
+                return DiffMatchPatchDiff.Operation.DELETE;
+            case INSERT:
+                return DiffMatchPatchDiff.Operation.ADD;
+            default:
+                return DiffMatchPatchDiff.Operation.UNCHANGED;
+        }
     }
 
-    /**
-     * Find the differences between two texts.
-     *
-     * @param text1      Old string to be diffed.
-     * @param text2      New string to be diffed.
-     * @param checklines Speedup flag.  If false, then don't run a
-     *                   line-level diff first to identify the changed areas.
-     *                   If true, then run a faster slightly less optimal diff.
-     * @return Linked List of Diff objects.
-     */
-    public LinkedList<Diff> diffMain(String text1, String text2, boolean checklines) {
-        // Set a deadline by which time the diff must be complete.
-        long deadline;
-        if (diffTimeout <= 0) {
-            deadline = Long.MAX_VALUE;
-        } else {
-            deadline = System.currentTimeMillis() + (long) (diffTimeout * 1000);
+    private static Operation asOperation(DiffMatchPatchDiff.Operation operation) {
+        switch (operation) {
+            case DELETE:
+                return Operation.DELETE;
+            case ADD:
+                return Operation.INSERT;
+            default:
+                return Operation.EQUAL;
         }
-        return diffMain(text1, text2, checklines, deadline);
     }
 
     /**
      * Find the differences between two texts.  Simplifies the problem by
      * stripping any common prefix or suffix off the texts before diffing.
+     * <p>
+     * The texts are copied into the character arrays of a {@link DiffContext} and diffed by offsets into
+     * those arrays, so the recursion neither copies text nor creates {@link Diff}s. The text of the
+     * resulting diffs is only created once the whole diff is known.
      *
      * @param text1      Old string to be diffed.
      * @param text2      New string to be diffed.
@@ -278,185 +1201,302 @@ public class DiffMatchPatch {
         }
 
         // Check for equality (speedup).
-        LinkedList<Diff> diffs;
         if (text1.equals(text2)) {
-            diffs = new LinkedList<Diff>();
+            LinkedList<Diff> diffs = new LinkedList<Diff>();
             if (!text1.isEmpty()) {
                 diffs.add(new Diff(Operation.EQUAL, text1));
             }
             return diffs;
         }
 
-        // Trim off common prefix (speedup).
-        int commonlength = diffCommonPrefix(text1, text2);
-        String commonprefix = text1.substring(0, commonlength);
-        text1 = text1.substring(commonlength);
-        text2 = text2.substring(commonlength);
+        final DiffContext context = DiffContext.acquire(text1, text2);
+        try {
+            diffMain(context, text1, text2, checklines, deadline);
+            return context.toDiffs();
+        } finally {
+            context.release();
+        }
+    }
 
-        // Trim off common suffix (speedup).
-        commonlength = diffCommonSuffix(text1, text2);
-        String commonsuffix = text1.substring(text1.length() - commonlength);
-        text1 = text1.substring(0, text1.length() - commonlength);
-        text2 = text2.substring(0, text2.length() - commonlength);
+    /**
+     * Diffs the texts loaded into the passed-in context, and merges the resulting segments like
+     * {@link #diffCleanupMerge(LinkedList)} does.
+     */
+    private void diffMain(DiffContext context, String text1, String text2, boolean checklines, long deadline) {
+        context.strategy = strategyFor(context, text1, text2);
+        context.budget = budgetFor(context.strategy, text1, text2);
+        context.budgeted = context.budget != Long.MAX_VALUE;
+        if (context.strategy == Strategy.ADAPTIVE) {
+            context.strategy = Strategy.MYERS;
+        }
+        diffMain(context, 0, text1.length(), 0, text2.length(), checklines, deadline);
+        context.mergeSegments();
+    }
 
-        // Compute the diff on the middle block.
-        diffs = diffCompute(text1, text2, checklines, deadline);
+    /**
+     * Returns the strategy to diff the passed-in texts with, which is the configured strategy unless that is
+     * {@link Strategy#ADAPTIVE}. The adaptive strategy estimates the similarity of the texts from the length of their
+     * common prefix and suffix, and whether they are line structured from the number of line breaks. It returns
+     * {@link Strategy#ADAPTIVE} for texts that should be diffed with a budgeted Myers.
+     */
+    private Strategy strategyFor(DiffContext context, String text1, String text2) {
+        if (diffStrategy != Strategy.ADAPTIVE) {
+            return diffStrategy;
+        }
+        int length1 = text1.length();
+        int length2 = text2.length();
+        int length = Math.max(length1, length2);
+        if (Math.min(length1, length2) < ADAPTIVE_MIN_LENGTH) {
+            return Strategy.MYERS;
+        }
+        int common = context.commonPrefix(0, length1, 0, length2);
+        if (common < length) {
+            common += context.commonSuffix(common, length1, common, length2);
+        }
+        if (common >= length * 0.9) {
+            // Only a small part in the middle differs, there is little to gain.
+            return Strategy.MYERS;
+        }
+        int lines = 0;
+        for (int i = text1.indexOf('\n'); i != -1; i = text1.indexOf('\n', i + 1)) {
+            lines++;
+        }
+        // Lines of up to a thousand or so characters make good histogram tokens.
+        return lines > 0 && text1.length() / lines <= ADAPTIVE_MAX_LINE_LENGTH ? Strategy.HISTOGRAM : Strategy.ADAPTIVE;
+    }
 
-        // Restore the prefix and suffix.
-        if (!commonprefix.isEmpty()) {
-            diffs.addFirst(new Diff(Operation.EQUAL, commonprefix));
+    private long budgetFor(Strategy strategy, String text1, String text2) {
+        if (diffBudget > 0) {
+            return diffBudget;
         }
-        if (!commonsuffix.isEmpty()) {
-            diffs.addLast(new Diff(Operation.EQUAL, commonsuffix));
+        if (strategy == Strategy.ADAPTIVE) {
+            return ADAPTIVE_BUDGET_FACTOR * ((long) text1.length() + text2.length());
         }
+        return Long.MAX_VALUE;
+    }
 
-        diffCleanupMerge(diffs);
-        return diffs;
+    /**
+     * Find the differences between the ranges {@code [start1, end1)} of the first text and
+     * {@code [start2, end2)} of the second text of the context, adding them to the context.
+     */
+    private void diffMain(DiffContext context, int start1, int end1, int start2, int end2,
+                          boolean checklines, long deadline) {
+        // Trim off common prefix (speedup).
+        int commonprefix = context.commonPrefix(start1, end1, start2, end2);
+        // Trim off common suffix (speedup).
+        int commonsuffix = context.commonSuffix(start1 + commonprefix, end1, start2 + commonprefix, end2);
+
+        context.add(Operation.EQUAL, start1, start1 + commonprefix);
+        // Compute the diff on the middle block.
+        diffCompute(context, start1 + commonprefix, end1 - commonsuffix, start2 + commonprefix, end2 - commonsuffix,
+                checklines, deadline);
+        context.add(Operation.EQUAL, end1 - commonsuffix, end1);
     }
 
     /**
-     * Find the differences between two texts.  Assumes that the texts do not
+     * Find the differences between two ranges of the texts of the context.  Assumes that the ranges do not
      * have any common prefix or suffix.
-     *
-     * @param text1      Old string to be diffed.
-     * @param text2      New string to be diffed.
-     * @param checklines Speedup flag.  If false, then don't run a
-     *                   line-level diff first to identify the changed areas.
-     *                   If true, then run a faster slightly less optimal diff.
-     * @param deadline   Time when the diff should be complete by.
-     * @return Linked List of Diff objects.
      */
-    private LinkedList<Diff> diffCompute(String text1, String text2, boolean checklines, long deadline) {
-        LinkedList<Diff> diffs = new LinkedList<Diff>();
-
-        if (text1.isEmpty()) {
+    private void diffCompute(DiffContext context, int start1, int end1, int start2, int end2,
+                             boolean checklines, long deadline) {
+        int length1 = end1 - start1;
+        int length2 = end2 - start2;
+        if (length1 == 0) {
             // Just add some text (speedup).
-            diffs.add(new Diff(Operation.INSERT, text2));
-            return diffs;
+            context.add(Operation.INSERT, start2, end2);
+            return;
         }
 
-        if (text2.isEmpty()) {
+        if (length2 == 0) {
             // Just delete some text (speedup).
-            diffs.add(new Diff(Operation.DELETE, text1));
-            return diffs;
+            context.add(Operation.DELETE, start1, end1);
+            return;
         }
 
-        String longtext = text1.length() > text2.length() ? text1 : text2;
-        String shorttext = text1.length() > text2.length() ? text2 : text1;
-        int i = longtext.indexOf(shorttext);
-        if (i != -1) {
-            // Shorter text is inside the longer text (speedup).
-            Operation op = text1.length() > text2.length() ? Operation.DELETE : Operation.INSERT;
-            diffs.add(new Diff(op, longtext.substring(0, i)));
-            diffs.add(new Diff(Operation.EQUAL, shorttext));
-            diffs.add(new Diff(op, longtext.substring(i + shorttext.length())));
-            return diffs;
+        if (length1 > length2) {
+            int i = context.indexOf(true, start1, end1, start2, end2, 0);
+            if (i != -1) {
+                // Shorter text is inside the longer text (speedup).
+                context.add(Operation.DELETE, start1, start1 + i);
+                context.add(Operation.EQUAL, start1 + i, start1 + i + length2);
+                context.add(Operation.DELETE, start1 + i + length2, end1);
+                return;
+            }
+        } else {
+            int i = context.indexOf(false, start2, end2, start1, end1, 0);
+            if (i != -1) {
+                context.add(Operation.INSERT, start2, start2 + i);
+                context.add(Operation.EQUAL, start1, end1);
+                context.add(Operation.INSERT, start2 + i + length1, end2);
+                return;
+            }
         }
 
-        if (shorttext.length() == 1) {
+        if (Math.min(length1, length2) == 1) {
             // Single character string.
             // After the previous speedup, the character can't be an equality.
-            diffs.add(new Diff(Operation.DELETE, text1));
-            diffs.add(new Diff(Operation.INSERT, text2));
-            return diffs;
+            context.add(Operation.DELETE, start1, end1);
+            context.add(Operation.INSERT, start2, end2);
+            return;
         }
 
         // Check to see if the problem can be split in two.
-        String[] hm = diffHalfMatch(text1, text2);
+        int[] hm = diffHalfMatch(context, start1, end1, start2, end2);
         if (hm != null) {
-            // A half-match was found, sort out the return data.
-            String text1_a = hm[0];
-            String text1_b = hm[1];
-            String text2_a = hm[2];
-            String text2_b = hm[3];
-            String mid_common = hm[4];
-            // Send both pairs off for separate processing.
-            LinkedList<Diff> diffs_a = diffMain(text1_a, text2_a,
-                    checklines, deadline);
-            LinkedList<Diff> diffs_b = diffMain(text1_b, text2_b,
-                    checklines, deadline);
-            // Merge the results.
-            diffs = diffs_a;
-            diffs.add(new Diff(Operation.EQUAL, mid_common));
-            diffs.addAll(diffs_b);
-            return diffs;
+            // A half-match was found, send both pairs off for separate processing.
+            diffSplit(context, start1, hm[0], hm[1], end1, start2, hm[2], hm[3], end2, checklines, deadline);
+            return;
         }
 
-        if (checklines && text1.length() > 100 && text2.length() > 100) {
-            return diffLineMode(text1, text2, deadline);
+        if (checklines && length1 > 100 && length2 > 100) {
+            diffLineMode(context, start1, end1, start2, end2, deadline);
+            return;
         }
 
-        return diffBisect(text1, text2, deadline);
+        diffBisect(context, start1, end1, start2, end2, deadline);
     }
 
     /**
-     * Do a quick line-level diff on both strings, then rediff the parts for
+     * Do a quick line-level diff on both ranges, then rediff the parts for
      * greater accuracy.
      * This speedup can produce non-minimal diffs.
-     *
-     * @param text1    Old string to be diffed.
-     * @param text2    New string to be diffed.
-     * @param deadline Time when the diff should be complete by.
-     * @return Linked List of Diff objects.
+     * <p>
+     * The lines, or words with {@link Tokenization#WORDS}, are numbered into an int array per range, so
+     * there is no limit on the number of distinct lines.
      */
-    private LinkedList<Diff> diffLineMode(String text1, String text2, long deadline) {
+    private void diffLineMode(DiffContext context, int start1, int end1, int start2, int end2, long deadline) {
         // Scan the text on a line-by-line basis first.
-        LinesToCharsResult b = diffLinesToChars(text1, text2);
-        text1 = b.chars1;
-        text2 = b.chars2;
-        List<String> linearray = b.lineArray;
-
-        LinkedList<Diff> diffs = diffMain(text1, text2, false, deadline);
+        LinkedList<Diff> diffs;
+        final DiffContext lines = DiffContext.acquire();
+        try {
+            lines.tokenize(context, start1, end1, start2, end2, diffTokenization);
+            lines.budget = context.budget;
+            lines.budgeted = context.budgeted;
+            if (context.strategy == Strategy.HISTOGRAM) {
+                diffHistogram(lines, 0, lines.length1, 0, lines.length2, 0, deadline);
+            } else {
+                diffMain(lines, 0, lines.length1, 0, lines.length2, false, deadline);
+            }
+            context.budget = lines.budget;
+            // Convert the diff back to original text.
+            diffs = lines.toDiffs(context);
+        } finally {
+            lines.release();
+        }
 
-        // Convert the diff back to original text.
-        diffCharsToLines(diffs, linearray);
         // Eliminate freak matches (e.g. blank lines)
         diff_cleanupSemantic(diffs);
 
-        // Rediff any replacement blocks, this time character-by-character.
-        // Add a dummy entry at the end.
-        diffs.add(new Diff(Operation.EQUAL, ""));
-        int count_delete = 0;
-        int count_insert = 0;
-        String text_delete = "";
-        String text_insert = "";
-        ListIterator<Diff> pointer = diffs.listIterator();
-        Diff thisDiff = pointer.next();
-        while (thisDiff != null) {
-            switch (thisDiff.operation) {
+        // Rediff any replacement blocks, this time character-by-character. The diffs are only used for their
+        // lengths, the text of a block is at the current offsets of the texts.
+        int pointer1 = start1;
+        int pointer2 = start2;
+        int length_delete = 0;
+        int length_insert = 0;
+        for (Diff diff : diffs) {
+            switch (diff.operation) {
                 case INSERT:
-                    count_insert++;
-                    text_insert += thisDiff.text;
+                    length_insert += diff.text.length();
                     break;
                 case DELETE:
-                    count_delete++;
-                    text_delete += thisDiff.text;
+                    length_delete += diff.text.length();
                     break;
                 case EQUAL:
-                    // Upon reaching an equality, check for prior redundancies.
-                    if (count_delete >= 1 && count_insert >= 1) {
-                        // Delete the offending records and add the merged ones.
-                        pointer.previous();
-                        for (int j = 0; j < count_delete + count_insert; j++) {
-                            pointer.previous();
-                            pointer.remove();
-                        }
-                        for (Diff newDiff : diffMain(text_delete, text_insert, false,
-                                deadline)) {
-                            pointer.add(newDiff);
-                        }
-                    }
-                    count_insert = 0;
-                    count_delete = 0;
-                    text_delete = "";
-                    text_insert = "";
+                    diffReplacement(context, pointer1, length_delete, pointer2, length_insert, deadline);
+                    pointer1 += length_delete;
+                    pointer2 += length_insert;
+                    length_delete = 0;
+                    length_insert = 0;
+                    context.add(Operation.EQUAL, pointer1, pointer1 + diff.text.length());
+                    pointer1 += diff.text.length();
+                    pointer2 += diff.text.length();
                     break;
             }
-            thisDiff = pointer.hasNext() ? pointer.next() : null;
         }
-        diffs.removeLast();  // Remove the dummy entry at the end.
+        diffReplacement(context, pointer1, length_delete, pointer2, length_insert, deadline);
+    }
 
-        return diffs;
+    /**
+     * Histogram diff of two ranges of texts of the context whose tokens are lines or words, numbered by
+     * {@link DiffContext#tokenize}. The ranges are split at the longest run of common tokens around
+     * the token that occurs least often in the first range, and both sides are diffed recursively. Ranges
+     * without a common token that occurs at most {@value #HISTOGRAM_MAX_CHAIN} times, or nested deeper than
+     * {@value #HISTOGRAM_MAX_DEPTH} splits, are diffed by bisection.
+     */
+    private void diffHistogram(DiffContext context, int start1, int end1, int start2, int end2, int depth,
+                               long deadline) {
+        int commonprefix = context.commonPrefix(start1, end1, start2, end2);
+        int commonsuffix = context.commonSuffix(start1 + commonprefix, end1, start2 + commonprefix, end2);
+        context.add(Operation.EQUAL, start1, start1 + commonprefix);
+        start1 += commonprefix;
+        start2 += commonprefix;
+        end1 -= commonsuffix;
+        end2 -= commonsuffix;
+
+        int[] split = null;
+        if (start1 == end1) {
+            context.add(Operation.INSERT, start2, end2);
+        } else if (start2 == end2) {
+            context.add(Operation.DELETE, start1, end1);
+        } else if (depth < HISTOGRAM_MAX_DEPTH) {
+            split = diffHistogramSplit(context, start1, end1, start2, end2);
+        }
+        if (split != null) {
+            diffHistogram(context, start1, split[0], start2, split[2], depth + 1, deadline);
+            context.add(Operation.EQUAL, split[0], split[1]);
+            diffHistogram(context, split[1], end1, split[3], end2, depth + 1, deadline);
+        } else if (start1 != end1 && start2 != end2) {
+            diffBisect(context, start1, end1, start2, end2, deadline);
+        }
+        context.add(Operation.EQUAL, end1, end1 + commonsuffix);
+    }
+
+    /**
+     * Finds the common token of two ranges that occurs least often in the first range, and extends it to the
+     * longest run of equal tokens around it.
+     *
+     * @return Four element array, containing the start and end of the run in the first range followed by its
+     * start and end in the second range.  Or null if there was no suitable common token.
+     */
+    private static int[] diffHistogramSplit(DiffContext context, int start1, int end1, int start2, int end2) {
+        int[] text1 = context.tokens1;
+        int[] text2 = context.tokens2;
+        int[] counts = context.counts();
+        for (int i = start1; i < end1; i++) {
+            counts[text1[i]]++;
+        }
+        int best = -1;
+        int bestCount = HISTOGRAM_MAX_CHAIN + 1;
+        for (int j = start2; j < end2 && bestCount > 1; j++) {
+            int count = counts[text2[j]];
+            if (count > 0 && count < bestCount) {
+                best = j;
+                bestCount = count;
+            }
+        }
+        for (int i = start1; i < end1; i++) {
+            counts[text1[i]] = 0;
+        }
+        if (best == -1) {
+            return null;
+        }
+        int match1 = start1;
+        while (text1[match1] != text2[best]) {
+            match1++;
+        }
+        int before = diffCommonSuffix(text1, start1, match1, text2, start2, best);
+        int after = diffCommonPrefix(text1, match1, end1, text2, best, end2);
+        return new int[]{match1 - before, match1 + after, best - before, best + after};
+    }
+
+    private void diffReplacement(DiffContext context, int start1, int length_delete, int start2, int length_insert,
+                                 long deadline) {
+        if (length_delete > 0 && length_insert > 0) {
+            diffMain(context, start1, start1 + length_delete, start2, start2 + length_insert, false, deadline);
+        } else {
+            context.add(Operation.DELETE, start1, start1 + length_delete);
+            context.add(Operation.INSERT, start2, start2 + length_insert);
+        }
     }
 
     /**
@@ -470,14 +1510,26 @@ public class DiffMatchPatch {
      * @return LinkedList of Diff objects.
      */
     protected LinkedList<Diff> diffBisect(String text1, String text2, long deadline) {
+        final DiffContext context = DiffContext.acquire(text1, text2);
+        try {
+            context.budget = diffBudget > 0 ? diffBudget : Long.MAX_VALUE;
+            context.budgeted = diffBudget > 0;
+            diffBisect(context, 0, text1.length(), 0, text2.length(), deadline);
+            return context.toDiffs();
+        } finally {
+            context.release();
+        }
+    }
+
+    private void diffBisect(DiffContext context, int start1, int end1, int start2, int end2, long deadline) {
         // Cache the text lengths to prevent multiple calls.
-        int text1_length = text1.length();
-        int text2_length = text2.length();
+        int text1_length = end1 - start1;
+        int text2_length = end2 - start2;
         int max_d = (text1_length + text2_length + 1) / 2;
         int v_offset = max_d;
         int v_length = 2 * max_d;
-        int[] v1 = new int[v_length];
-        int[] v2 = new int[v_length];
+        int[] v1 = context.v1(v_length);
+        int[] v2 = context.v2(v_length);
         for (int x = 0; x < v_length; x++) {
             v1[x] = -1;
             v2[x] = -1;
@@ -495,8 +1547,8 @@ public class DiffMatchPatch {
         int k2start = 0;
         int k2end = 0;
         for (int d = 0; d < max_d; d++) {
-            // Bail out if deadline is reached.
-            if (System.currentTimeMillis() > deadline) {
+            // Bail out if deadline is reached or the budget is spent.
+            if (System.currentTimeMillis() > deadline || context.budget <= 0) {
                 break;
             }
 
@@ -510,11 +1562,13 @@ public class DiffMatchPatch {
                     x1 = v1[k1_offset - 1] + 1;
                 }
                 int y1 = x1 - k1;
-                while (x1 < text1_length && y1 < text2_length
-                        && text1.charAt(x1) == text2.charAt(y1)) {
-                    x1++;
-                    y1++;
+                int snake1 = 0;
+                if (x1 < text1_length && y1 < text2_length) {
+                    snake1 = context.commonPrefix(start1 + x1, end1, start2 + y1, end2);
+                    x1 += snake1;
+                    y1 += snake1;
                 }
+                context.budget -= snake1 + 1;
                 v1[k1_offset] = x1;
                 if (x1 > text1_length) {
                     // Ran off the right of the graph.
@@ -529,7 +1583,8 @@ public class DiffMatchPatch {
                         int x2 = text1_length - v2[k2_offset];
                         if (x1 >= x2) {
                             // Overlap detected.
-                            return diffBisectSplit(text1, text2, x1, y1, deadline);
+                            diffBisectSplit(context, start1, end1, start2, end2, x1, y1, deadline);
+                            return;
                         }
                     }
                 }
@@ -545,12 +1600,13 @@ public class DiffMatchPatch {
                     x2 = v2[k2_offset - 1] + 1;
                 }
                 int y2 = x2 - k2;
-                while (x2 < text1_length && y2 < text2_length
-                        && text1.charAt(text1_length - x2 - 1)
-                        == text2.charAt(text2_length - y2 - 1)) {
-                    x2++;
-                    y2++;
+                int snake2 = 0;
+                if (x2 < text1_length && y2 < text2_length) {
+                    snake2 = context.commonSuffix(start1, end1 - x2, start2, end2 - y2);
+                    x2 += snake2;
+                    y2 += snake2;
                 }
+                context.budget -= snake2 + 1;
                 v2[k2_offset] = x2;
                 if (x2 > text1_length) {
                     // Ran off the left of the graph.
@@ -567,7 +1623,8 @@ public class DiffMatchPatch {
                         x2 = text1_length - x2;
                         if (x1 >= x2) {
                             // Overlap detected.
-                            return diffBisectSplit(text1, text2, x1, y1, deadline);
+                            diffBisectSplit(context, start1, end1, start2, end2, x1, y1, deadline);
+                            return;
                         }
                     }
                 }
@@ -575,35 +1632,123 @@ public class DiffMatchPatch {
         }
         // Diff took too long and hit the deadline or
         // number of diffs equals number of characters, no commonality at all.
-        LinkedList<Diff> diffs = new LinkedList<Diff>();
-        diffs.add(new Diff(Operation.DELETE, text1));
-        diffs.add(new Diff(Operation.INSERT, text2));
-        return diffs;
+        context.add(Operation.DELETE, start1, end1);
+        context.add(Operation.INSERT, start2, end2);
     }
 
     /**
      * Given the location of the 'middle snake', split the diff in two parts
-     * and recurse.
+     * and recurse. The scratch arrays of the bisection are no longer needed at
+     * this point, so the recursion can reuse them.
      *
-     * @param text1    Old string to be diffed.
-     * @param text2    New string to be diffed.
-     * @param x        Index of split point in text1.
-     * @param y        Index of split point in text2.
+     * @param x        Index of split point in the first range.
+     * @param y        Index of split point in the second range.
      * @param deadline Time at which to bail if not yet complete.
-     * @return LinkedList of Diff objects.
      */
-    private LinkedList<Diff> diffBisectSplit(String text1, String text2, int x, int y, long deadline) {
-        String text1a = text1.substring(0, x);
-        String text2a = text2.substring(0, y);
-        String text1b = text1.substring(x);
-        String text2b = text2.substring(y);
+    private void diffBisectSplit(DiffContext context, int start1, int end1, int start2, int end2, int x, int y,
+                                 long deadline) {
+        diffSplit(context, start1, start1 + x, start1 + x, end1, start2, start2 + y, start2 + y, end2, false,
+                deadline);
+    }
 
-        // Compute both diffs serially.
-        LinkedList<Diff> diffs = diffMain(text1a, text2a, false, deadline);
-        LinkedList<Diff> diffsb = diffMain(text1b, text2b, false, deadline);
+    /**
+     * Diffs two independent parts of two ranges of the texts of the context: {@code [start1, split1)} against
+     * {@code [start2, split2)} and {@code [resume1, end1)} against {@code [resume2, end2)}, where the text in
+     * between is equal. When a {@link Builder#diffExecutor(Executor, int)} has been set and the second part
+     * is large enough, it is forked into a context of its own while the first part is diffed on this thread.
+     * Its segments are added after those of the first part, which gives the same diff as diffing both parts
+     * in order.
+     */
+    private void diffSplit(DiffContext context, int start1, int split1, int resume1, int end1,
+                           int start2, int split2, int resume2, int end2, boolean checklines, long deadline) {
+        ForkedDiff fork = fork(context, resume1, end1, resume2, end2, checklines, deadline);
+        if (fork == null) {
+            diffMain(context, start1, split1, start2, split2, checklines, deadline);
+            context.add(Operation.EQUAL, split1, resume1);
+            diffMain(context, resume1, end1, resume2, end2, checklines, deadline);
+            return;
+        }
+        try {
+            diffMain(context, start1, split1, start2, split2, checklines, deadline);
+            context.add(Operation.EQUAL, split1, resume1);
+            context.addAll(fork.join());
+        } finally {
+            // If the first part failed the fork is never joined. Cancelling it releases its permit unless it
+            // already completed, and keeps it from running if it was not started yet.
+            fork.cancel(false);
+        }
+    }
 
-        diffs.addAll(diffsb);
-        return diffs;
+    private ForkedDiff fork(DiffContext context, int start1, int end1, int start2, int end2, boolean checklines,
+                            long deadline) {
+        if (diffExecutor == null || context.budgeted
+                || (end1 - start1) + (end2 - start2) < diffParallelThreshold || !diffForks.tryAcquire()) {
+            return null;
+        }
+        final ForkedDiff fork = new ForkedDiff(context.fork(), start1, end1, start2, end2, checklines, deadline);
+        try {
+            diffExecutor.execute(fork);
+        } catch (final RejectedExecutionException e) {
+            // The fork is run by the joining thread instead.
+        } catch (final RuntimeException e) {
+            fork.cancel(false);
+            throw e;
+        }
+        return fork;
+    }
+
+    /**
+     * A part of a diff that is diffed in a forked context, by a thread of the executor or by the thread that
+     * joins it, whichever starts it first.
+     */
+    private final class ForkedDiff extends FutureTask<DiffContext> {
+
+        private ForkedDiff(final DiffContext context, final int start1, final int end1, final int start2,
+                           final int end2, final boolean checklines, final long deadline) {
+            super(new Callable<DiffContext>() {
+                @Override
+                public DiffContext call() {
+                    diffMain(context, start1, end1, start2, end2, checklines, deadline);
+                    return context;
+                }
+            });
+        }
+
+        @Override
+        protected void done() {
+            diffForks.release();
+        }
+
+        /**
+         * Returns the context holding the diff, running it on the current thread if no other thread has
+         * started it yet.
+         */
+        DiffContext join() {
+            run();
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        return get();
+                    } catch (final InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } catch (final ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException(cause);
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
     }
 
     /**
@@ -783,23 +1928,48 @@ public class DiffMatchPatch {
      * common middle.  Or null if there was no match.
      */
     protected String[] diffHalfMatch(String text1, String text2) {
+        final DiffContext context = DiffContext.acquire(text1, text2);
+        try {
+            int[] hm = diffHalfMatch(context, 0, text1.length(), 0, text2.length());
+            if (hm == null) {
+                return null;
+            }
+            return new String[]{text1.substring(0, hm[0]), text1.substring(hm[1]),
+                    text2.substring(0, hm[2]), text2.substring(hm[3]), text1.substring(hm[0], hm[1])};
+        } finally {
+            context.release();
+        }
+    }
+
+    /**
+     * Do two ranges of the texts of the context share a substring which is at least half the length of
+     * the longer range?
+     *
+     * @return Four element array, containing the start and end of the common middle in the first range
+     * followed by its start and end in the second range.  Or null if there was no match.
+     */
+    private int[] diffHalfMatch(DiffContext context, int start1, int end1, int start2, int end2) {
         if (diffTimeout <= 0) {
             // Don't risk returning a non-optimal diff if we have unlimited time.
             return null;
         }
-        String longtext = text1.length() > text2.length() ? text1 : text2;
-        String shorttext = text1.length() > text2.length() ? text2 : text1;
-        if (longtext.length() < 4 || shorttext.length() * 2 < longtext.length()) {
+        boolean longIsFirst = end1 - start1 > end2 - start2;
+        int longStart = longIsFirst ? start1 : start2;
+        int longEnd = longIsFirst ? end1 : end2;
+        int shortStart = longIsFirst ? start2 : start1;
+        int shortEnd = longIsFirst ? end2 : end1;
+        int longLength = longEnd - longStart;
+        if (longLength < 4 || (shortEnd - shortStart) * 2 < longLength) {
             return null;  // Pointless.
         }
 
         // First check if the second quarter is the seed for a half-match.
-        String[] hm1 = diffHalfMatch(longtext, shorttext,
-                (longtext.length() + 3) / 4);
+        int[] hm1 = diffHalfMatch(context, longIsFirst, longStart, longEnd, shortStart, shortEnd,
+                (longLength + 3) / 4);
         // Check again based on the third quarter.
-        String[] hm2 = diffHalfMatch(longtext, shorttext,
-                (longtext.length() + 1) / 2);
-        String[] hm;
+        int[] hm2 = diffHalfMatch(context, longIsFirst, longStart, longEnd, shortStart, shortEnd,
+                (longLength + 1) / 2);
+        int[] hm;
         if (hm1 == null && hm2 == null) {
             return null;
         } else if (hm2 == null) {
@@ -808,15 +1978,14 @@ public class DiffMatchPatch {
             hm = hm2;
         } else {
             // Both matched.  Select the longest.
-            hm = hm1[4].length() > hm2[4].length() ? hm1 : hm2;
+            hm = hm1[1] - hm1[0] > hm2[1] - hm2[0] ? hm1 : hm2;
         }
 
         // A half-match was found, sort out the return data.
-        if (text1.length() > text2.length()) {
+        if (longIsFirst) {
             return hm;
-            //return new String[]{hm[0], hm[1], hm[2], hm[3], hm[4]};
         } else {
-            return new String[]{hm[2], hm[3], hm[0], hm[1], hm[4]};
+            return new int[]{hm[2], hm[3], hm[0], hm[1]};
         }
     }
 
@@ -824,42 +1993,150 @@ public class DiffMatchPatch {
      * Does a substring of shorttext exist within longtext such that the
      * substring is at least half the length of longtext?
      *
-     * @param longtext  Longer string.
-     * @param shorttext Shorter string.
-     * @param i         Start index of quarter length substring within longtext.
-     * @return Five element String array, containing the prefix of longtext, the
-     * suffix of longtext, the prefix of shorttext, the suffix of shorttext
-     * and the common middle.  Or null if there was no match.
-     */
-    private String[] diffHalfMatch(String longtext, String shorttext, int i) {
+     * @param longIsFirst Whether longtext is the range of the first text of the context, and shorttext the
+     *                    range of the second text, or the other way around.
+     * @param i Start index of quarter length substring within the range of longtext.
+     * @return Four element array, containing the start and end of the common middle in longtext followed
+     * by its start and end in shorttext.  Or null if there was no match.
+     */
+    private int[] diffHalfMatch(DiffContext context, boolean longIsFirst, int longStart, int longEnd,
+                                int shortStart, int shortEnd, int i) {
         // Start with a 1/4 length substring at position i as a seed.
-        String seed = longtext.substring(i, i + longtext.length() / 4);
+        int seedStart = longStart + i;
+        int seedEnd = seedStart + (longEnd - longStart) / 4;
         int j = -1;
-        String best_common = "";
-        String best_longtext_a = "", best_longtext_b = "";
-        String best_shorttext_a = "", best_shorttext_b = "";
-        while ((j = shorttext.indexOf(seed, j + 1)) != -1) {
-            int prefixLength = diffCommonPrefix(longtext.substring(i),
-                    shorttext.substring(j));
-            int suffixLength = diffCommonSuffix(longtext.substring(0, i),
-                    shorttext.substring(0, j));
-            if (best_common.length() < suffixLength + prefixLength) {
-                best_common = shorttext.substring(j - suffixLength, j)
-                        + shorttext.substring(j, j + prefixLength);
-                best_longtext_a = longtext.substring(0, i - suffixLength);
-                best_longtext_b = longtext.substring(i + prefixLength);
-                best_shorttext_a = shorttext.substring(0, j - suffixLength);
-                best_shorttext_b = shorttext.substring(j + prefixLength);
-            }
-        }
-        if (best_common.length() * 2 >= longtext.length()) {
-            return new String[]{best_longtext_a, best_longtext_b,
-                    best_shorttext_a, best_shorttext_b, best_common};
+        int best_common = 0;
+        int[] best = null;
+        while ((j = context.indexOf(!longIsFirst, shortStart, shortEnd, seedStart, seedEnd, j + 1)) != -1) {
+            int prefixLength = longIsFirst
+                    ? context.commonPrefix(seedStart, longEnd, shortStart + j, shortEnd)
+                    : context.commonPrefix(shortStart + j, shortEnd, seedStart, longEnd);
+            int suffixLength = longIsFirst
+                    ? context.commonSuffix(longStart, seedStart, shortStart, shortStart + j)
+                    : context.commonSuffix(shortStart, shortStart + j, longStart, seedStart);
+            if (best_common < suffixLength + prefixLength) {
+                best_common = suffixLength + prefixLength;
+                best = new int[]{seedStart - suffixLength, seedStart + prefixLength,
+                        shortStart + j - suffixLength, shortStart + j + prefixLength};
+            }
+        }
+        if (best_common * 2 >= longEnd - longStart) {
+            return best;
         } else {
             return null;
         }
     }
 
+    /**
+     * Returns the number of characters common to the start of two ranges of character arrays.
+     */
+    private static int diffCommonPrefix(char[] text1, int start1, int end1, char[] text2, int start2, int end2) {
+        int n = Math.min(end1 - start1, end2 - start2);
+        for (int i = 0; i < n; i++) {
+            if (text1[start1 + i] != text2[start2 + i]) {
+                return i;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Returns the number of characters common to the end of two ranges of character arrays.
+     */
+    private static int diffCommonSuffix(char[] text1, int start1, int end1, char[] text2, int start2, int end2) {
+        int n = Math.min(end1 - start1, end2 - start2);
+        for (int i = 1; i <= n; i++) {
+            if (text1[end1 - i] != text2[end2 - i]) {
+                return i - 1;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Returns the index of the first occurrence of a pattern in a range of a character array, at or
+     * after {@code from}, like {@link String#indexOf(String, int)}.
+     *
+     * @return The index relative to {@code start}, or -1 if the pattern does not occur.
+     */
+    private static int indexOf(char[] text, int start, int end, char[] pattern, int patternStart, int patternEnd,
+                               int from) {
+        int patternLength = patternEnd - patternStart;
+        if (patternLength == 0) {
+            return from <= end - start ? from : -1;
+        }
+        char first = pattern[patternStart];
+        int max = end - patternLength;
+        for (int i = start + from; i <= max; i++) {
+            if (text[i] != first) {
+                continue;
+            }
+            int j = 1;
+            while (j < patternLength && text[i + j] == pattern[patternStart + j]) {
+                j++;
+            }
+            if (j == patternLength) {
+                return i - start;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the number of tokens common to the start of two ranges of token arrays.
+     */
+    private static int diffCommonPrefix(int[] text1, int start1, int end1, int[] text2, int start2, int end2) {
+        int n = Math.min(end1 - start1, end2 - start2);
+        for (int i = 0; i < n; i++) {
+            if (text1[start1 + i] != text2[start2 + i]) {
+                return i;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Returns the number of tokens common to the end of two ranges of token arrays.
+     */
+    private static int diffCommonSuffix(int[] text1, int start1, int end1, int[] text2, int start2, int end2) {
+        int n = Math.min(end1 - start1, end2 - start2);
+        for (int i = 1; i <= n; i++) {
+            if (text1[end1 - i] != text2[end2 - i]) {
+                return i - 1;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Returns the index of the first occurrence of a pattern in a range of a token array, at or
+     * after {@code from}, like {@link String#indexOf(String, int)}.
+     *
+     * @return The index relative to {@code start}, or -1 if the pattern does not occur.
+     */
+    private static int indexOf(int[] text, int start, int end, int[] pattern, int patternStart, int patternEnd,
+                               int from) {
+        int patternLength = patternEnd - patternStart;
+        if (patternLength == 0) {
+            return from <= end - start ? from : -1;
+        }
+        int first = pattern[patternStart];
+        int max = end - patternLength;
+        for (int i = start + from; i <= max; i++) {
+            if (text[i] != first) {
+                continue;
+            }
+            int j = 1;
+            while (j < patternLength && text[i + j] == pattern[patternStart + j]) {
+                j++;
+            }
+            if (j == patternLength) {
+                return i - start;
+            }
+        }
+        return -1;
+    }
+
     /**
      * Reduce the number of edits by eliminating semantically trivial equalities.
      *
@@ -1945,7 +3222,39 @@ public class DiffMatchPatch {
         if (text1 == null || diffs == null) {
             throw new IllegalArgumentException("Null inputs. (patchMake)");
         }
+        return patchMake(text1, asDiffMatchPatchDiffs(diffs));
+    }
+
+    /**
+     * Compute a list of patches to turn text1 into text2.
+     * text1 will be derived from the provided diffs.
+     *
+     * @param diffs DiffMatchPatchDiffs for text1 to text2.
+     * @return LinkedList of Patch objects.
+     */
+    public LinkedList<Patch> patchMake(DiffMatchPatchDiffs diffs) {
+        if (diffs == null) {
+            throw new IllegalArgumentException("Null inputs. (patchMake)");
+        }
+        // No origin string provided, compute our own.
+        StringBuilder text1 = new StringBuilder();
+        for (int i = 0; i < diffs.size(); i++) {
+            if (diffs.operation(i) != DiffMatchPatchDiff.Operation.ADD) {
+                diffs.appendText(i, text1);
+            }
+        }
+        return patchMake(text1.toString(), diffs);
+    }
 
+    /**
+     * Compute a list of patches to turn text1 into text2.
+     * Only the diffs that end up in a patch are turned into {@link Diff} objects.
+     *
+     * @param text1 Old text.
+     * @param diffs DiffMatchPatchDiffs for text1 to text2.
+     * @return LinkedList of Patch objects.
+     */
+    private LinkedList<Patch> patchMake(String text1, DiffMatchPatchDiffs diffs) {
         LinkedList<Patch> patches = new LinkedList<Patch>();
         if (diffs.isEmpty()) {
             return patches;  // Get rid of the null case.
@@ -1957,37 +3266,38 @@ public class DiffMatchPatch {
         // text2 (postpatch_text). We recreate the patches one by one to determine
         // context info.
         String prepatch_text = text1;
-        String postpatch_text = text1;
-        for (Diff aDiff : diffs) {
-            if (patch.diffs.isEmpty() && aDiff.operation != Operation.EQUAL) {
+        StringBuilder postpatch_text = new StringBuilder(text1);
+        int last = diffs.size() - 1;
+        for (int i = 0; i <= last; i++) {
+            Operation operation = asOperation(diffs.operation(i));
+            int length = diffs.length(i);
+            if (patch.diffs.isEmpty() && operation != Operation.EQUAL) {
                 // A new patch starts here.
                 patch.start1 = char_count1;
                 patch.start2 = char_count2;
             }
 
-            switch (aDiff.operation) {
+            switch (operation) {
                 case INSERT:
-                    patch.diffs.add(aDiff);
-                    patch.length2 += aDiff.text.length();
-                    postpatch_text = postpatch_text.substring(0, char_count2)
-                            + aDiff.text + postpatch_text.substring(char_count2);
+                    patch.diffs.add(new Diff(operation, diffs.text(i)));
+                    patch.length2 += length;
+                    postpatch_text.insert(char_count2, patch.diffs.getLast().text);
                     break;
                 case DELETE:
-                    patch.length1 += aDiff.text.length();
-                    patch.diffs.add(aDiff);
-                    postpatch_text = postpatch_text.substring(0, char_count2)
-                            + postpatch_text.substring(char_count2 + aDiff.text.length());
+                    patch.length1 += length;
+                    patch.diffs.add(new Diff(operation, diffs.text(i)));
+                    postpatch_text.delete(char_count2, char_count2 + length);
                     break;
                 case EQUAL:
-                    if (aDiff.text.length() <= 2 * patchMargin
-                            && !patch.diffs.isEmpty() && aDiff != diffs.getLast()) {
+                    if (length <= 2 * patchMargin
+                            && !patch.diffs.isEmpty() && i != last) {
                         // Small equality inside a patch.
-                        patch.diffs.add(aDiff);
-                        patch.length1 += aDiff.text.length();
-                        patch.length2 += aDiff.text.length();
+                        patch.diffs.add(new Diff(operation, diffs.text(i)));
+                        patch.length1 += length;
+                        patch.length2 += length;
                     }
 
-                    if (aDiff.text.length() >= 2 * patchMargin) {
+                    if (length >= 2 * patchMargin) {
                         // Time for a new patch.
                         if (!patch.diffs.isEmpty()) {
                             patchAddContext(patch, prepatch_text);
@@ -1997,7 +3307,7 @@ public class DiffMatchPatch {
                             // http://code.google.com/p/google-diff-match-patch/wiki/Unidiff
                             // Update prepatch text & pos to reflect the application of the
                             // just completed patch.
-                            prepatch_text = postpatch_text;
+                            prepatch_text = postpatch_text.toString();
                             char_count1 = char_count2;
                         }
                     }
@@ -2005,11 +3315,11 @@ public class DiffMatchPatch {
             }
 
             // Update the current character count.
-            if (aDiff.operation != Operation.INSERT) {
-                char_count1 += aDiff.text.length();
+            if (operation != Operation.INSERT) {
+                char_count1 += length;
             }
-            if (aDiff.operation != Operation.DELETE) {
-                char_count2 += aDiff.text.length();
+            if (operation != Operation.DELETE) {
+                char_count2 += length;
             }
         }
         // Pick up the leftover patch if not empty.
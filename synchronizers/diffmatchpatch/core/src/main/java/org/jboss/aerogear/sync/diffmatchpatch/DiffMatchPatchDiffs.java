@@ -17,22 +17,105 @@
 package org.jboss.aerogear.sync.diffmatchpatch;
 
 import org.jboss.aerogear.sync.Diff;
+import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatchDiff.Operation;
 import org.jboss.aerogear.sync.util.Arguments;
 
+import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.List;
 
+/**
+ * The diffs of a {@link DiffMatchPatchEdit}.
+ * <p>
+ * The diffs are stored compactly as one array with the operation of every diff and one with the offset at which
+ * the text of every diff ends in a single text that holds the texts of all diffs. {@link DiffMatchPatchDiff}
+ * instances are only created when {@link #diffs()} is called.
+ */
 public class DiffMatchPatchDiffs implements Diff {
 
-    private final LinkedList<DiffMatchPatchDiff> diffs;
+    private static final Operation[] OPERATIONS = Operation.values();
+
+    private final byte[] operations;
+    private final int[] ends;
+    private final String text;
+
+    public DiffMatchPatchDiffs(final List<DiffMatchPatchDiff> diffs) {
+        this(copyOf(Arguments.checkNotNull(diffs, "diffs must not be null")));
+    }
+
+    private DiffMatchPatchDiffs(final Builder builder) {
+        operations = builder.trimmedOperations();
+        ends = builder.trimmedEnds();
+        text = builder.text.toString();
+    }
+
+    /**
+     * Returns the number of diffs.
+     *
+     * @return {@code int} the number of diffs.
+     */
+    public int size() {
+        return operations.length;
+    }
+
+    public boolean isEmpty() {
+        return operations.length == 0;
+    }
+
+    /**
+     * Returns the operation of the diff at the specified index.
+     *
+     * @param index the index of the diff.
+     * @return {@code Operation} the operation of the diff.
+     */
+    public Operation operation(final int index) {
+        return OPERATIONS[operations[index]];
+    }
+
+    /**
+     * Returns the text of the diff at the specified index.
+     *
+     * @param index the index of the diff.
+     * @return {@code String} the text of the diff.
+     */
+    public String text(final int index) {
+        return text.substring(start(index), ends[index]);
+    }
 
-    public DiffMatchPatchDiffs(final LinkedList<DiffMatchPatchDiff> diffs) {
-        this.diffs = Arguments.checkNotNull(diffs, "diffs must not be null");
+    /**
+     * Returns the length of the text of the diff at the specified index.
+     *
+     * @param index the index of the diff.
+     * @return {@code int} the length of the text of the diff.
+     */
+    public int length(final int index) {
+        return ends[index] - start(index);
     }
 
+    /**
+     * Returns the diffs as {@link DiffMatchPatchDiff} instances.
+     *
+     * @return {@code LinkedList<DiffMatchPatchDiff>} a new list containing the diffs.
+     */
     public LinkedList<DiffMatchPatchDiff> diffs() {
+        final LinkedList<DiffMatchPatchDiff> diffs = new LinkedList<DiffMatchPatchDiff>();
+        for (int i = 0; i < operations.length; i++) {
+            diffs.add(new DiffMatchPatchDiff(operation(i), text(i)));
+        }
         return diffs;
     }
 
+    /**
+     * Appends the text of the diff at the specified index to the passed-in {@link StringBuilder}.
+     */
+    void appendText(final int index, final StringBuilder sb) {
+        sb.append(text, start(index), ends[index]);
+    }
+
+    private int start(final int index) {
+        return index == 0 ? 0 : ends[index - 1];
+    }
+
     @Override
     public boolean equals(final Object o) {
         if (this == o) {
@@ -42,19 +125,94 @@ public class DiffMatchPatchDiffs implements Diff {
             return false;
         }
         final DiffMatchPatchDiffs that = (DiffMatchPatchDiffs) o;
-        if (diffs == that.diffs) {
-            return true;
-        }
-        return diffs.equals(that.diffs);
+        return Arrays.equals(operations, that.operations) && Arrays.equals(ends, that.ends) && text.equals(that.text);
     }
 
     @Override
     public int hashCode() {
-        return diffs != null ? diffs.hashCode() : 0;
+        int result = Arrays.hashCode(operations);
+        result = 31 * result + Arrays.hashCode(ends);
+        result = 31 * result + text.hashCode();
+        return result;
     }
 
     @Override
     public String toString() {
-        return "DiffMatchPatchDiffs[diffs=" + diffs +  ']';
+        return "DiffMatchPatchDiffs[diffs=" + diffs() +  ']';
+    }
+
+    private static Builder copyOf(final List<DiffMatchPatchDiff> diffs) {
+        final Builder builder = new Builder();
+        for (DiffMatchPatchDiff diff : diffs) {
+            builder.add(diff.operation(), diff.text());
+        }
+        return builder;
+    }
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    static class Builder {
+
+        private byte[] operations = new byte[8];
+        private int[] ends = new int[8];
+        private int size;
+        private final StringBuilder text = new StringBuilder();
+
+        private Builder() {
+        }
+
+        Builder add(final Operation operation, final String text) {
+            Arguments.checkNotNull(operation, "operation must not be null");
+            Arguments.checkNotNull(text, "text must not be null");
+            this.text.append(text);
+            return append(operation);
+        }
+
+        /**
+         * Adds a diff whose text is the range from {@code start} to {@code end} of the passed-in text.
+         */
+        Builder add(final Operation operation, final String text, final int start, final int end) {
+            Arguments.checkNotNull(operation, "operation must not be null");
+            Arguments.checkNotNull(text, "text must not be null");
+            this.text.append(text, start, end);
+            return append(operation);
+        }
+
+        Builder addAll(final DiffMatchPatchDiffs diffs) {
+            for (int i = 0; i < diffs.size(); i++) {
+                diffs.appendText(i, text);
+                append(diffs.operation(i));
+            }
+            return this;
+        }
+
+        private Builder append(final Operation operation) {
+            if (size == operations.length) {
+                operations = Arrays.copyOf(operations, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+            operations[size] = (byte) operation.ordinal();
+            ends[size] = text.length();
+            size++;
+            return this;
+        }
+
+        int size() {
+            return size;
+        }
+
+        private byte[] trimmedOperations() {
+            return Arrays.copyOf(operations, size);
+        }
+
+        private int[] trimmedEnds() {
+            return Arrays.copyOf(ends, size);
+        }
+
+        DiffMatchPatchDiffs build() {
+            return new DiffMatchPatchDiffs(this);
+        }
     }
 }
@@ -19,8 +19,6 @@ package org.jboss.aerogear.sync.diffmatchpatch;
 import org.jboss.aerogear.sync.Edit;
 import org.jboss.aerogear.sync.util.Arguments;
 
-import java.util.LinkedList;
-
 import static org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatchDiff.Operation;
 
 public class DiffMatchPatchEdit implements Edit<DiffMatchPatchDiffs> {
@@ -34,7 +32,7 @@ public class DiffMatchPatchEdit implements Edit<DiffMatchPatchDiffs> {
         clientVersion = builder.clientVersion;
         serverVersion = builder.serverVersion;
         checksum = Arguments.checkNotNull(builder.checksum, "checksum must not be null");
-        diffs = new DiffMatchPatchDiffs(builder.diffs);
+        diffs = builder.diffs != null ? builder.diffs : builder.diffsBuilder.build();
     }
 
     @Override
@@ -104,7 +102,8 @@ public class DiffMatchPatchEdit implements Edit<DiffMatchPatchDiffs> {
         private long serverVersion;
         private long clientVersion;
         private final String checksum;
-        private final LinkedList<DiffMatchPatchDiff> diffs = new LinkedList<DiffMatchPatchDiff>();
+        private final DiffMatchPatchDiffs.Builder diffsBuilder = DiffMatchPatchDiffs.builder();
+        private DiffMatchPatchDiffs diffs;
 
         private Builder(final String checksum) {
             this.checksum = checksum;
@@ -121,30 +120,49 @@ public class DiffMatchPatchEdit implements Edit<DiffMatchPatchDiffs> {
         }
 
         public Builder unchanged(final String text) {
-            diffs.add(new DiffMatchPatchDiff(Operation.UNCHANGED, text));
+            diffsBuilder().add(Operation.UNCHANGED, text);
             return this;
         }
 
         public Builder add(final String text) {
-            diffs.add(new DiffMatchPatchDiff(Operation.ADD, text));
+            diffsBuilder().add(Operation.ADD, text);
             return this;
         }
 
         public Builder delete(final String text) {
-            diffs.add(new DiffMatchPatchDiff(Operation.DELETE, text));
+            diffsBuilder().add(Operation.DELETE, text);
             return this;
         }
 
         public Builder diff(final DiffMatchPatchDiff diff) {
-            diffs.add(diff);
+            diffsBuilder().add(diff.operation(), diff.text());
             return this;
         }
 
-        public Builder diffs(final LinkedList<DiffMatchPatchDiff> diffs) {
-            this.diffs.addAll(diffs);
+        /**
+         * Adds the passed-in diffs. When these are the only diffs of the edit they are shared instead of copied.
+         *
+         * @param diffs the {@link DiffMatchPatchDiffs} to add.
+         * @return {@link Builder} to allow method chaining.
+         */
+        public Builder diffs(final DiffMatchPatchDiffs diffs) {
+            Arguments.checkNotNull(diffs, "diffs must not be null");
+            if (this.diffs == null && diffsBuilder.size() == 0) {
+                this.diffs = diffs;
+            } else {
+                diffsBuilder().addAll(diffs);
+            }
             return this;
         }
 
+        private DiffMatchPatchDiffs.Builder diffsBuilder() {
+            if (diffs != null) {
+                diffsBuilder.addAll(diffs);
+                diffs = null;
+            }
+            return diffsBuilder;
+        }
+
         public DiffMatchPatchEdit build() {
             return new DiffMatchPatchEdit(this);
         }
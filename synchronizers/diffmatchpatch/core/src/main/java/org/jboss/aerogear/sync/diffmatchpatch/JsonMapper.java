@@ -48,6 +48,7 @@ public final class JsonMapper {
         module.addSerializer(DiffMatchPatchEdit.class, new EditSerializer());
         module.addDeserializer(DiffMatchPatchMessage.class, new PatchMessageDeserializer());
         module.addSerializer(DiffMatchPatchMessage.class, new PatchMessageSerializer());
+        module.addSerializer(DiffMatchPatchDiffs.class, new DiffsSerializer());
         om.registerModule(module);
         return om;
     }
@@ -170,12 +171,7 @@ public final class JsonMapper {
                 jgen.writeStringField("checksum", edit.checksum());
                 jgen.writeArrayFieldStart("diffs");
                 if (edit.diff() != null) {
-                    for (DiffMatchPatchDiff diff : edit.diff().diffs()) {
-                        jgen.writeStartObject();
-                        jgen.writeStringField("operation", diff.operation().toString());
-                        jgen.writeStringField("text", diff.text());
-                        jgen.writeEndObject();
-                    }
+                    writeDiffs(edit.diff(), jgen);
                     jgen.writeEndArray();
                 }
                 jgen.writeEndObject();
@@ -217,15 +213,30 @@ public final class JsonMapper {
             jgen.writeStringField("checksum", edit.checksum());
             jgen.writeArrayFieldStart("diffs");
             if (edit.diff() != null) {
-                for (DiffMatchPatchDiff diff : edit.diff().diffs()) {
-                    jgen.writeStartObject();
-                    jgen.writeStringField("operation", diff.operation().toString());
-                    jgen.writeStringField("text", diff.text());
-                    jgen.writeEndObject();
-                }
+                writeDiffs(edit.diff(), jgen);
             }
             jgen.writeEndArray();
         }
     }
-}
 
+    private static class DiffsSerializer extends JsonSerializer<DiffMatchPatchDiffs> {
+
+        @Override
+        public void serialize(final DiffMatchPatchDiffs diffs,
+                              final JsonGenerator jgen,
+                              final SerializerProvider provider) throws IOException {
+            jgen.writeStartArray();
+            writeDiffs(diffs, jgen);
+            jgen.writeEndArray();
+        }
+    }
+
+    private static void writeDiffs(final DiffMatchPatchDiffs diffs, final JsonGenerator jgen) throws IOException {
+        for (int i = 0; i < diffs.size(); i++) {
+            jgen.writeStartObject();
+            jgen.writeStringField("operation", diffs.operation(i).toString());
+            jgen.writeStringField("text", diffs.text(i));
+            jgen.writeEndObject();
+        }
+    }
+}
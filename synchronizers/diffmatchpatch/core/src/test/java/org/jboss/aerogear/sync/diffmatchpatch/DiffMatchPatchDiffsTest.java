@@ -71,6 +71,33 @@ public class DiffMatchPatchDiffsTest {
         assertThat(x.equals(y), is(false));
     }
 
+    @Test
+    public void accessDiffsByIndex() {
+        final LinkedList<DiffMatchPatchDiff> diffs = new LinkedList<DiffMatchPatchDiff>();
+        diffs.add(new DiffMatchPatchDiff(Operation.UNCHANGED, "I'm a "));
+        diffs.add(new DiffMatchPatchDiff(Operation.DELETE, "Jed"));
+        diffs.add(new DiffMatchPatchDiff(Operation.ADD, ""));
+        diffs.add(new DiffMatchPatchDiff(Operation.ADD, "Sith"));
+        final DiffMatchPatchDiffs x = new DiffMatchPatchDiffs(diffs);
+        assertThat(x.size(), is(4));
+        assertThat(x.operation(1), is(Operation.DELETE));
+        assertThat(x.text(1), equalTo("Jed"));
+        assertThat(x.text(2), equalTo(""));
+        assertThat(x.length(3), is(4));
+        assertThat(x.diffs(), equalTo(diffs));
+    }
+
+    @Test
+    public void editSharesDiffs() {
+        final DiffMatchPatchDiffs diffs = new DiffMatchPatchDiffs(asQueue(new DiffMatchPatchDiff(Operation.ADD, "Fletch")));
+        final DiffMatchPatchEdit edit = DiffMatchPatchEdit.withChecksum("bogus").diffs(diffs).build();
+        assertThat(edit.diff() == diffs, is(true));
+        final DiffMatchPatchEdit appended = DiffMatchPatchEdit.withChecksum("bogus").diffs(diffs).unchanged("!").build();
+        assertThat(appended.diff().size(), is(2));
+        assertThat(appended.diff().text(0), equalTo("Fletch"));
+        assertThat(appended.diff().operation(1), is(Operation.UNCHANGED));
+    }
+
     private static LinkedList<DiffMatchPatchDiff> asQueue(final DiffMatchPatchDiff diff) {
         return new LinkedList<DiffMatchPatchDiff>(Collections.singleton(diff));
     }
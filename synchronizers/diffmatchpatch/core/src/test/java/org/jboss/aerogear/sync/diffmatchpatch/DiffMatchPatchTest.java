@@ -25,6 +25,11 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static junit.framework.Assert.assertTrue;
 import static org.hamcrest.CoreMatchers.equalTo;
@@ -537,6 +542,157 @@ public class DiffMatchPatchTest {
         }
     }
 
+    @Test
+    public void testDiffBudget() {
+        diffMatchPatch = DiffMatchPatch.builder().patchTimeout(0).diffBudget(1).build();
+        LinkedList<DiffMatchPatch.Diff> diffs = diffList(diff(DELETE, "cat"), diff(INSERT, "map"));
+        assertEquals("diffBisect: Budget.", diffs, diffMatchPatch.diffBisect("cat", "map", Long.MAX_VALUE));
+
+        // A budget gives the same result on every run, unlike the timeout.
+        String a = "`Twas brillig, and the slithy toves\nDid gyre and gimble in the wabe:\n";
+        String b = "I am the very model of a modern major general,\nI've information vegetable, animal, and mineral,\n";
+        for (int x = 0; x < 8; x++) {
+            a = a + a;
+            b = b + b;
+        }
+        diffMatchPatch = DiffMatchPatch.builder().patchTimeout(0).diffBudget(10000).build();
+        diffs = diffMatchPatch.diffMain(a, b);
+        assertEquals("diffMain: Budget deterministic.", diffs, diffMatchPatch.diffMain(a, b));
+        assertArrayEquals("diffMain: Budget texts.", new String[]{a, b}, diff_rebuildtexts(diffs));
+    }
+
+    @Test
+    public void testDiffHistogram() {
+        diffMatchPatch = DiffMatchPatch.builder().diffStrategy(DiffMatchPatch.Strategy.HISTOGRAM).build();
+        String a = "header\n1234567890\nabcdefghij\n1234567890\nabcdefghij\n1234567890\nabcdefghij\nfooter\n";
+        String b = "header\nabcdefghij\n1234567890\nabcdefghij\nchanged\n1234567890\nabcdefghij\nfooter\n";
+        LinkedList<DiffMatchPatch.Diff> diffs = diffMatchPatch.diffMain(a, b);
+        assertArrayEquals("diffMain: Histogram texts.", new String[]{a, b}, diff_rebuildtexts(diffs));
+        assertThat(diffs.getFirst().text.startsWith("header\n"), is(true));
+        assertThat(diffs.getLast().text.endsWith("footer\n"), is(true));
+
+        // Without line structure the histogram strategy falls back to Myers.
+        a = "1234567890123456789012345678901234567890123456789012345678901234567890123456789012345678901234567890abc";
+        b = "abcdefghijabcdefghijabcdefghijabcdefghijabcdefghijabcdefghijabcdefghijabcdefghijabcdefghijabcdefghij123";
+        assertArrayEquals("diffMain: Histogram single line.", new String[]{a, b}, diff_rebuildtexts(diffMatchPatch.diffMain(a, b)));
+    }
+
+    @Test
+    public void testDiffAdaptive() {
+        diffMatchPatch = DiffMatchPatch.builder().diffStrategy(DiffMatchPatch.Strategy.ADAPTIVE).build();
+        StringBuilder a = new StringBuilder();
+        StringBuilder b = new StringBuilder();
+        for (int x = 0; x < 2000; x++) {
+            a.append("line ").append(x).append('\n');
+            b.append(x % 7 == 0 ? "changed " : "line ").append(x).append('\n');
+        }
+        LinkedList<DiffMatchPatch.Diff> diffs = diffMatchPatch.diffMain(a.toString(), b.toString());
+        assertArrayEquals("diffMain: Adaptive texts.", new String[]{a.toString(), b.toString()}, diff_rebuildtexts(diffs));
+
+        diffs = diffList(diff(EQUAL, "ab"), diff(INSERT, "123"), diff(EQUAL, "c"));
+        assertEquals("diffMain: Adaptive small.", diffs, diffMatchPatch.diffMain("abc", "ab123c"));
+    }
+
+    @Test
+    public void testDiffLineModeTokens() {
+        // More distinct lines than fit in a char.
+        diffMatchPatch = DiffMatchPatch.builder().patchTimeout(0).build();
+        StringBuilder a = new StringBuilder();
+        StringBuilder b = new StringBuilder();
+        for (int x = 0; x < 70000; x++) {
+            a.append("line ").append(x).append('\n');
+            if (x != 100) {
+                b.append(x == 68000 ? "changed " : "line ").append(x).append('\n');
+            }
+        }
+        LinkedList<DiffMatchPatch.Diff> diffs = diffMatchPatch.diffMain(a.toString(), b.toString());
+        assertArrayEquals("diffMain: Line-mode distinct lines.", new String[]{a.toString(), b.toString()}, diff_rebuildtexts(diffs));
+        assertEquals("diffMain: Line-mode distinct lines levenshtein.", 14, diffMatchPatch.diffLevenshtein(diffs));
+
+        // Words on a single line.
+        diffMatchPatch = DiffMatchPatch.builder().patchTimeout(0).diffTokenization(DiffMatchPatch.Tokenization.WORDS).build();
+        a = new StringBuilder();
+        b = new StringBuilder();
+        for (int x = 0; x < 50; x++) {
+            a.append("the quick brown fox ").append(x).append(" jumps over the lazy dog ");
+            b.append("the quick ").append(x % 10 == 0 ? "red" : "brown").append(" fox ").append(x).append(" jumps over the lazy dog ");
+        }
+        diffs = diffMatchPatch.diffMain(a.toString(), b.toString());
+        assertArrayEquals("diffMain: Word-mode texts.", new String[]{a.toString(), b.toString()}, diff_rebuildtexts(diffs));
+        assertEquals("diffMain: Word-mode levenshtein.", 20, diffMatchPatch.diffLevenshtein(diffs));
+    }
+
+    @Test
+    public void testDiffParallel() {
+        final ExecutorService pool = Executors.newFixedThreadPool(2);
+        final AtomicInteger forks = new AtomicInteger();
+        try {
+            DiffMatchPatch parallel = DiffMatchPatch.builder()
+                    .patchTimeout(0)
+                    .diffExecutor(new Executor() {
+                        @Override
+                        public void execute(final Runnable command) {
+                            forks.incrementAndGet();
+                            pool.execute(command);
+                        }
+                    }, 2)
+                    .diffParallelThreshold(64)
+                    .build();
+            diffMatchPatch = DiffMatchPatch.builder().patchTimeout(0).build();
+            StringBuilder a = new StringBuilder();
+            StringBuilder b = new StringBuilder();
+            for (int x = 0; x < 500; x++) {
+                a.append("line ").append(x).append(x % 3 == 0 ? " removed" : "").append('\n');
+                b.append(x % 5 == 0 ? "added " : "").append("line ").append(x).append('\n');
+            }
+            assertEquals("diffMain: Parallel lines.", diffMatchPatch.diffMain(a.toString(), b.toString()),
+                    parallel.diffMain(a.toString(), b.toString()));
+            assertEquals("diffMain: Parallel characters.", diffMatchPatch.diffMain(a.toString(), b.toString(), false),
+                    parallel.diffMain(a.toString(), b.toString(), false));
+            assertTrue("diffMain: Parallel forks.", forks.get() > 0);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testDiffParallelFailureReleasesForks() {
+        final AtomicInteger forks = new AtomicInteger();
+        final AtomicBoolean failing = new AtomicBoolean(true);
+        DiffMatchPatch parallel = DiffMatchPatch.builder()
+                .patchTimeout(0)
+                .diffExecutor(new Executor() {
+                    @Override
+                    public void execute(final Runnable command) {
+                        if (!failing.get()) {
+                            forks.incrementAndGet();
+                            command.run();
+                        } else if (forks.incrementAndGet() > 1) {
+                            // The first fork is left waiting for a thread, the second one fails the diff.
+                            throw new IllegalStateException("executor failed");
+                        }
+                    }
+                }, 2)
+                .diffParallelThreshold(64)
+                .build();
+        StringBuilder a = new StringBuilder();
+        StringBuilder b = new StringBuilder();
+        for (int x = 0; x < 500; x++) {
+            a.append("line ").append(x).append(x % 3 == 0 ? " removed" : "").append('\n');
+            b.append(x % 5 == 0 ? "added " : "").append("line ").append(x).append('\n');
+        }
+        try {
+            parallel.diffMain(a.toString(), b.toString(), false);
+            fail("diffMain: Parallel failure.");
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+        failing.set(false);
+        forks.set(0);
+        parallel.diffMain(a.toString(), b.toString(), false);
+        assertTrue("diffMain: Parallel forks after failure.", forks.get() > 0);
+    }
+
 
     //  MATCH TEST FUNCTIONS
 
@@ -747,7 +903,7 @@ public class DiffMatchPatchTest {
 
         // Test null inputs.
         try {
-            diffMatchPatch.patchMake(null);
+            diffMatchPatch.patchMake((LinkedList<DiffMatchPatch.Diff>) null);
             fail("patchMake: Null inputs.");
         } catch (IllegalArgumentException ex) {
             // Error expected.
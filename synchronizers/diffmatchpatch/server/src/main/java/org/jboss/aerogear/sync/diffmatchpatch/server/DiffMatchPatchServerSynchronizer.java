@@ -18,11 +18,13 @@ package org.jboss.aerogear.sync.diffmatchpatch.server;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import org.jboss.aerogear.sync.*;
+import org.jboss.aerogear.sync.SyncMetrics.Stage;
 import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatch;
-import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatchDiff;
+import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatchDiffs;
 import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatchEdit;
 import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatchMessage;
 import org.jboss.aerogear.sync.diffmatchpatch.JsonMapper;
+import org.jboss.aerogear.sync.metrics.NoopSyncMetrics;
 import org.jboss.aerogear.sync.server.ServerSynchronizer;
 
 import java.util.LinkedList;
@@ -38,30 +40,51 @@ import static org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatch.checksum;
 public class DiffMatchPatchServerSynchronizer implements ServerSynchronizer<String, DiffMatchPatchEdit> {
 
     private final DiffMatchPatch diffMatchPatch;
+    private final SyncMetrics metrics;
 
     public DiffMatchPatchServerSynchronizer() {
         this(builder().build());
     }
 
     public DiffMatchPatchServerSynchronizer(final DiffMatchPatch diffMatchPatch) {
+        this(diffMatchPatch, NoopSyncMetrics.INSTANCE);
+    }
+
+    /**
+     * Creates a synchronizer that records the time spent calculating checksums.
+     *
+     * @param diffMatchPatch the {@link DiffMatchPatch} used to diff and patch.
+     * @param metrics the {@link SyncMetrics} to record measurements to.
+     */
+    public DiffMatchPatchServerSynchronizer(final DiffMatchPatch diffMatchPatch, final SyncMetrics metrics) {
         this.diffMatchPatch = diffMatchPatch;
+        this.metrics = metrics;
     }
 
     @Override
     public DiffMatchPatchEdit clientDiff(final Document<String> document, final ShadowDocument<String> shadowDocument) {
         final String shadowText = shadowDocument.document().content();
-        final LinkedList<DiffMatchPatch.Diff> diffs = diffMatchPatch.diffMain(document.content(), shadowText);
-        return DiffMatchPatchEdit.withChecksum(checksum(shadowText)).diffs(asAeroGearDiffs(diffs)).build();
+        final DiffMatchPatchDiffs diffs = diffMatchPatch.diffs(document.content(), shadowText);
+        return DiffMatchPatchEdit.withChecksum(shadowChecksum(shadowText)).diffs(diffs).build();
     }
 
     @Override
     public DiffMatchPatchEdit serverDiff(final Document<String> document, final ShadowDocument<String> shadowDocument) {
         final String shadowText = shadowDocument.document().content();
-        final LinkedList<DiffMatchPatch.Diff> diffs = diffMatchPatch.diffMain(shadowText, document.content());
-        return DiffMatchPatchEdit.withChecksum(checksum(shadowText))
+        final DiffMatchPatchDiffs diffs = diffMatchPatch.diffs(shadowText, document.content());
+        return DiffMatchPatchEdit.withChecksum(shadowChecksum(shadowText))
+                .serverVersion(shadowDocument.serverVersion())
+                .clientVersion(shadowDocument.clientVersion())
+                .diffs(diffs)
+                .build();
+    }
+
+    @Override
+    public DiffMatchPatchEdit copyEdit(final DiffMatchPatchEdit edit, final ShadowDocument<String> shadowDocument) {
+        return DiffMatchPatchEdit.withChecksum(edit.checksum())
                 .serverVersion(shadowDocument.serverVersion())
                 .clientVersion(shadowDocument.clientVersion())
-                .diffs(asAeroGearDiffs(diffs))
+                .diffs(edit.diff())
                 .build();
     }
 
@@ -90,6 +113,11 @@ public class DiffMatchPatchServerSynchronizer implements ServerSynchronizer<Stri
         return new DiffMatchPatchMessage(documentId, clientId, edits);
     }
 
+    @Override
+    public String diffAsJson(final DiffMatchPatchEdit edit) {
+        return edit.diff() == null ? null : JsonMapper.toJson(edit.diff());
+    }
+
     @Override
     public PatchMessage<DiffMatchPatchEdit> patchMessageFromJson(String json) {
         return JsonMapper.fromJson(json, DiffMatchPatchMessage.class);
@@ -109,50 +137,15 @@ public class DiffMatchPatchServerSynchronizer implements ServerSynchronizer<Stri
         return new DefaultDocument<String>(json.get("id").asText(), content);
     }
 
-    private LinkedList<Patch> patchesFrom(final DiffMatchPatchEdit edit) {
-        return diffMatchPatch.patchMake(asDiffUtilDiffs(edit.diff().diffs()));
+    private String shadowChecksum(final String shadowText) {
+        final long start = System.nanoTime();
+        final String checksum = checksum(shadowText);
+        metrics.recordLatency(Stage.CHECKSUM, System.nanoTime() - start);
+        return checksum;
     }
 
-    private static LinkedList<DiffMatchPatch.Diff> asDiffUtilDiffs(final LinkedList<DiffMatchPatchDiff> diffs) {
-        final LinkedList<DiffMatchPatch.Diff> dsf = new LinkedList<DiffMatchPatch.Diff>();
-        for (DiffMatchPatchDiff d : diffs) {
-            dsf.add(DiffMatchPatch.diff(diffutilOp(d.operation()), d.text()));
-        }
-        return dsf;
-    }
-
-    private static LinkedList<DiffMatchPatchDiff> asAeroGearDiffs(final LinkedList<DiffMatchPatch.Diff> diffs) {
-        final LinkedList<DiffMatchPatchDiff> syncDiffs = new LinkedList<DiffMatchPatchDiff>();
-        for (DiffMatchPatch.Diff diff : diffs) {
-            syncDiffs.add(new DiffMatchPatchDiff(aerogearOp(diff.operation), diff.text));
-        }
-        return syncDiffs;
-    }
-
-    private static DiffMatchPatch.Operation diffutilOp(final DiffMatchPatchDiff.Operation operation) {
-        switch (operation) {
-            case DELETE:
-                return DiffMatchPatch.Operation.DELETE;
-            case ADD:
-                return DiffMatchPatch.Operation.INSERT;
-            case UNCHANGED:
-                return DiffMatchPatch.Operation.EQUAL;
-            default:
-                throw new RuntimeException("Unsupported Operation: " + operation);
-        }
-    }
-
-    private static DiffMatchPatchDiff.Operation aerogearOp(final DiffMatchPatch.Operation operation) {
-        switch (operation) {
-            case DELETE:
-                return DiffMatchPatchDiff.Operation.DELETE;
-            case INSERT:
-                return DiffMatchPatchDiff.Operation.ADD;
-            case EQUAL:
-                return DiffMatchPatchDiff.Operation.UNCHANGED;
-            default:
-                throw new RuntimeException("Unsupported Operation: " + operation);
-        }
+    private LinkedList<Patch> patchesFrom(final DiffMatchPatchEdit edit) {
+        return diffMatchPatch.patchMake(edit.diff());
     }
 
 }
@@ -0,0 +1,82 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.diffmatchpatch.server;
+
+import org.jboss.aerogear.sync.DefaultClientDocument;
+import org.jboss.aerogear.sync.DefaultDocument;
+import org.jboss.aerogear.sync.DefaultShadowDocument;
+import org.jboss.aerogear.sync.PatchMessage;
+import org.jboss.aerogear.sync.ShadowDocument;
+import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatchEdit;
+import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatchMessage;
+import org.jboss.aerogear.sync.server.Subscriber;
+
+import java.util.LinkedList;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Utility class responsible for creating the shadow documents, {@link DiffMatchPatchEdit}s,
+ * {@link PatchMessage}s and {@link Subscriber}s used by the data store tests, which all store
+ * the same document for the same client.
+ */
+public final class DataStoreFixtures {
+
+    public static final String DOCUMENT_ID = "12345";
+    public static final String CLIENT_ID = "client1";
+
+    private static final DiffMatchPatchServerSynchronizer SYNCHRONIZER = new DiffMatchPatchServerSynchronizer();
+
+    private DataStoreFixtures() {
+    }
+
+    public static ShadowDocument<String> shadow(final long serverVersion, final long clientVersion,
+                                                final String content) {
+        return new DefaultShadowDocument<String>(serverVersion, clientVersion,
+                new DefaultClientDocument<String>(DOCUMENT_ID, CLIENT_ID, content));
+    }
+
+    public static DiffMatchPatchEdit edit(final long serverVersion, final String from, final String to) {
+        return SYNCHRONIZER.serverDiff(new DefaultDocument<String>(DOCUMENT_ID, to), shadow(serverVersion, 0, from));
+    }
+
+    public static PatchMessage<DiffMatchPatchEdit> patchMessage(final DiffMatchPatchEdit edit) {
+        final LinkedList<DiffMatchPatchEdit> edits = new LinkedList<DiffMatchPatchEdit>();
+        edits.add(edit);
+        return new DiffMatchPatchMessage(DOCUMENT_ID, CLIENT_ID, edits);
+    }
+
+    @SuppressWarnings("unchecked")
+    public static Subscriber<String> subscriber(final String clientId) {
+        final Subscriber<String> subscriber = mock(Subscriber.class);
+        when(subscriber.clientId()).thenReturn(clientId);
+        return subscriber;
+    }
+
+    public static void assertShadowEquals(final ShadowDocument<String> actual, final ShadowDocument<String> expected) {
+        assertThat(actual.serverVersion(), is(expected.serverVersion()));
+        assertThat(actual.clientVersion(), is(expected.clientVersion()));
+        assertThat(actual.document().id(), equalTo(expected.document().id()));
+        assertThat(actual.document().clientId(), equalTo(expected.document().clientId()));
+        assertThat(actual.document().content(), equalTo(expected.document().content()));
+    }
+
+}
@@ -0,0 +1,137 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.diffmatchpatch.server;
+
+import org.jboss.aerogear.sync.DefaultDocument;
+import org.jboss.aerogear.sync.ShadowDocument;
+import org.jboss.aerogear.sync.SyncStateUpdate;
+import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatchEdit;
+import org.jboss.aerogear.sync.server.ServerInMemoryDataStore;
+import org.jboss.aerogear.sync.server.ServerSyncEngine;
+import org.jboss.aerogear.sync.server.cache.CacheStats;
+import org.jboss.aerogear.sync.server.cache.CachingServerDataStore;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.jboss.aerogear.sync.diffmatchpatch.server.DataStoreFixtures.CLIENT_ID;
+import static org.jboss.aerogear.sync.diffmatchpatch.server.DataStoreFixtures.DOCUMENT_ID;
+import static org.jboss.aerogear.sync.diffmatchpatch.server.DataStoreFixtures.assertShadowEquals;
+import static org.jboss.aerogear.sync.diffmatchpatch.server.DataStoreFixtures.patchMessage;
+import static org.jboss.aerogear.sync.diffmatchpatch.server.DataStoreFixtures.shadow;
+import static org.jboss.aerogear.sync.diffmatchpatch.server.DataStoreFixtures.subscriber;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class DiffMatchPatchCachingDataStoreTest {
+
+    private final DiffMatchPatchServerSynchronizer synchronizer = new DiffMatchPatchServerSynchronizer();
+    private ServerInMemoryDataStore<String, DiffMatchPatchEdit> backingStore;
+    private CachingServerDataStore<String, DiffMatchPatchEdit> dataStore;
+
+    @Before
+    public void setup() {
+        backingStore = spy(new ServerInMemoryDataStore<String, DiffMatchPatchEdit>());
+        dataStore = CachingServerDataStore.builder(backingStore).build();
+    }
+
+    @Test
+    public void readsAreCached() {
+        backingStore.saveDocument(new DefaultDocument<String>(DOCUMENT_ID, "Do or do not"));
+        backingStore.saveShadowDocument(shadow(0, 0, "Do or do not"));
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(dataStore.getDocument(DOCUMENT_ID).content(), equalTo("Do or do not"));
+            assertThat(dataStore.getShadowDocument(DOCUMENT_ID, CLIENT_ID).document().content(),
+                    equalTo("Do or do not"));
+            assertThat(dataStore.getEdits(DOCUMENT_ID, CLIENT_ID).isEmpty(), is(true));
+        }
+
+        verify(backingStore, times(1)).getDocument(DOCUMENT_ID);
+        verify(backingStore, times(1)).getSyncState(DOCUMENT_ID, CLIENT_ID);
+        final CacheStats stats = dataStore.stats();
+        assertThat(stats.misses(), is(2L));
+        assertThat(stats.hits(), is(7L));
+        assertThat(stats.entries(), is(2L));
+    }
+
+    @Test
+    public void writesGoThroughToBackingStore() {
+        final ServerSyncEngine<String, DiffMatchPatchEdit> engine =
+                new ServerSyncEngine<String, DiffMatchPatchEdit>(synchronizer, dataStore);
+        engine.addSubscriber(subscriber(CLIENT_ID), new DefaultDocument<String>(DOCUMENT_ID, "Do or do not"));
+        final DiffMatchPatchEdit edit = synchronizer.serverDiff(
+                new DefaultDocument<String>(DOCUMENT_ID, "Do or do not, there is no try"),
+                dataStore.getShadowDocument(DOCUMENT_ID, CLIENT_ID));
+        engine.patch(patchMessage(edit));
+        final DiffMatchPatchEdit serverEdit = engine.diff(DOCUMENT_ID, CLIENT_ID);
+
+        assertThat(backingStore.getDocument(DOCUMENT_ID).content(), equalTo("Do or do not, there is no try"));
+        assertThat(dataStore.getDocument(DOCUMENT_ID).content(), equalTo("Do or do not, there is no try"));
+        assertShadowEquals(dataStore.getShadowDocument(DOCUMENT_ID, CLIENT_ID),
+                backingStore.getShadowDocument(DOCUMENT_ID, CLIENT_ID));
+        assertShadowEquals(dataStore.getBackupShadowDocument(DOCUMENT_ID, CLIENT_ID).shadow(),
+                backingStore.getBackupShadowDocument(DOCUMENT_ID, CLIENT_ID).shadow());
+        assertThat(dataStore.getEdits(DOCUMENT_ID, CLIENT_ID).size(), is(1));
+        assertThat(backingStore.getEdits(DOCUMENT_ID, CLIENT_ID).size(), is(1));
+
+        dataStore.removeEdit(serverEdit, DOCUMENT_ID, CLIENT_ID);
+        assertThat(dataStore.getEdits(DOCUMENT_ID, CLIENT_ID).isEmpty(), is(true));
+        assertThat(backingStore.getEdits(DOCUMENT_ID, CLIENT_ID).isEmpty(), is(true));
+        assertThat(dataStore.stats().hitRate() > 0.5, is(true));
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesAreEvicted() {
+        dataStore = CachingServerDataStore.builder(backingStore).maximumWeight(200).build();
+        dataStore.updateDocument(new DefaultDocument<String>("one", "Do or do not"));
+        dataStore.updateDocument(new DefaultDocument<String>("two", "there is no try"));
+        dataStore.getDocument("one");
+        dataStore.updateDocument(new DefaultDocument<String>("three", "Do or do not"));
+
+        final CacheStats stats = dataStore.stats();
+        assertThat(stats.evictions(), is(1L));
+        assertThat(stats.entries(), is(2L));
+        assertThat(stats.weight() <= 200, is(true));
+        assertThat(dataStore.getDocument("two").content(), equalTo("there is no try"));
+        assertThat(dataStore.stats().misses(), is(1L));
+    }
+
+    @Test
+    public void failedWriteInvalidatesEntry() {
+        dataStore.saveShadowDocument(shadow(0, 0, "Do or do not"));
+        dataStore.getShadowDocument(DOCUMENT_ID, CLIENT_ID);
+        final ShadowDocument<String> shadow = shadow(1, 0, "there is no try");
+        doThrow(new IllegalStateException("failed")).when(backingStore)
+                .updateSyncState(eq(DOCUMENT_ID), eq(CLIENT_ID), any(SyncStateUpdate.class));
+        try {
+            dataStore.saveShadowDocument(shadow);
+        } catch (final IllegalStateException expected) {
+            // the cached state should have been dropped.
+        }
+
+        assertThat(dataStore.stats().entries(), is(0L));
+        assertThat(dataStore.getShadowDocument(DOCUMENT_ID, CLIENT_ID).serverVersion(), is(0L));
+    }
+
+}
@@ -1,5 +1,13 @@
 package org.jboss.aerogear.sync.diffmatchpatch.server;
 
+import org.jboss.aerogear.sync.ClientSyncState;
+import org.jboss.aerogear.sync.ContentInterner;
+import org.jboss.aerogear.sync.DefaultBackupShadowDocument;
+import org.jboss.aerogear.sync.DefaultClientDocument;
+import org.jboss.aerogear.sync.DefaultDocument;
+import org.jboss.aerogear.sync.DefaultShadowDocument;
+import org.jboss.aerogear.sync.ShadowDocument;
+import org.jboss.aerogear.sync.SyncStateUpdate;
 import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatchEdit;
 import org.jboss.aerogear.sync.server.ServerInMemoryDataStore;
 import org.junit.Test;
@@ -8,6 +16,8 @@ import java.util.Iterator;
 import java.util.Queue;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.hamcrest.MatcherAssert.assertThat;
 
 public class DiffMatchPatchInMemoryDataStoreTest {
@@ -49,4 +59,86 @@ public class DiffMatchPatchInMemoryDataStoreTest {
         final Iterator<DiffMatchPatchEdit> iterator = edits.iterator();
         assertThat(iterator.next().serverVersion(), is(2L));
     }
+
+    @Test
+    public void updateSyncState() {
+        final String documentId = "12345";
+        final String clientId = "client1";
+        final ServerInMemoryDataStore<String, DiffMatchPatchEdit> dataStore = new ServerInMemoryDataStore<String, DiffMatchPatchEdit>();
+        final DiffMatchPatchEdit editOne = DiffMatchPatchEdit.withChecksum("bogus").serverVersion(0).build();
+        final DiffMatchPatchEdit editTwo = DiffMatchPatchEdit.withChecksum("bogus").serverVersion(1).build();
+        final ShadowDocument<String> shadow = new DefaultShadowDocument<String>(2, 0,
+                new DefaultClientDocument<String>(documentId, clientId, "content"));
+        dataStore.saveEdits(editOne, documentId, clientId);
+
+        final ClientSyncState<String, DiffMatchPatchEdit> state = dataStore.updateSyncState(documentId, clientId,
+                SyncStateUpdate.<String, DiffMatchPatchEdit>builder()
+                        .removeEdit(editOne)
+                        .addEdit(editTwo)
+                        .shadow(shadow)
+                        .backupShadow(new DefaultBackupShadowDocument<String>(2, shadow))
+                        .build());
+
+        assertThat(state.shadow(), is(shadow));
+        assertThat(state.backupShadow().version(), is(2L));
+        assertThat(state.edits().size(), is(1));
+        assertThat(state.edits().peek().serverVersion(), is(1L));
+        assertThat(dataStore.getShadowDocument(documentId, clientId), is(shadow));
+        assertThat(dataStore.getSyncState(documentId, clientId).edits().peek().serverVersion(), is(1L));
+        assertThat(dataStore.getSyncState(documentId, "unknown").shadow(), is(nullValue()));
+        assertThat(dataStore.getSyncState(documentId, "unknown").edits().isEmpty(), is(true));
+    }
+
+    @Test
+    public void convergedContentsAreShared() {
+        final String documentId = "12345";
+        final ContentInterner<String> interner = new ContentInterner<String>();
+        final ServerInMemoryDataStore<String, DiffMatchPatchEdit> dataStore =
+                new ServerInMemoryDataStore<String, DiffMatchPatchEdit>(interner);
+        dataStore.saveDocument(new DefaultDocument<String>(documentId, new String("content")));
+        for (int i = 0; i < 3; i++) {
+            final ShadowDocument<String> shadow = new DefaultShadowDocument<String>(0, 0,
+                    new DefaultClientDocument<String>(documentId, "client" + i, new String("content")));
+            dataStore.updateSyncState(documentId, "client" + i, SyncStateUpdate.<String, DiffMatchPatchEdit>builder()
+                    .shadow(shadow)
+                    .backupShadow(new DefaultBackupShadowDocument<String>(0, shadow))
+                    .build());
+        }
+
+        final String content = dataStore.getDocument(documentId).content();
+        for (int i = 0; i < 3; i++) {
+            final ClientSyncState<String, DiffMatchPatchEdit> state = dataStore.getSyncState(documentId, "client" + i);
+            assertThat(state.shadow().document().content(), sameInstance(content));
+            assertThat(state.shadow().document().clientId(), is("client" + i));
+            assertThat(state.backupShadow().shadow().document().content(), sameInstance(content));
+        }
+        assertThat(interner.distinctContents(), is(1));
+        assertThat(interner.references(), is(7L));
+        assertThat(interner.deduplicated(), is(6L));
+    }
+
+    @Test
+    public void replacedContentsAreReleased() {
+        final String documentId = "12345";
+        final String clientId = "client1";
+        final ContentInterner<String> interner = new ContentInterner<String>();
+        final ServerInMemoryDataStore<String, DiffMatchPatchEdit> dataStore =
+                new ServerInMemoryDataStore<String, DiffMatchPatchEdit>(interner);
+        dataStore.saveDocument(new DefaultDocument<String>(documentId, "first"));
+        final ShadowDocument<String> shadow = new DefaultShadowDocument<String>(0, 0,
+                new DefaultClientDocument<String>(documentId, clientId, "first"));
+        dataStore.saveShadowDocument(shadow);
+        dataStore.saveBackupShadowDocument(new DefaultBackupShadowDocument<String>(0, shadow));
+        assertThat(interner.distinctContents(), is(1));
+
+        dataStore.updateDocument(new DefaultDocument<String>(documentId, "second"));
+        dataStore.saveShadowDocument(new DefaultShadowDocument<String>(1, 0,
+                new DefaultClientDocument<String>(documentId, clientId, "second")));
+        assertThat(interner.distinctContents(), is(2));
+        assertThat(interner.references(), is(3L));
+
+        dataStore.removeSyncState(documentId, clientId);
+        assertThat(interner.distinctContents(), is(1));
+        assertThat(interner.references(), is(1L));
+    }
 }
@@ -0,0 +1,264 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.diffmatchpatch.server;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.jboss.aerogear.sync.ClientSyncState;
+import org.jboss.aerogear.sync.DefaultBackupShadowDocument;
+import org.jboss.aerogear.sync.DefaultDocument;
+import org.jboss.aerogear.sync.ShadowDocument;
+import org.jboss.aerogear.sync.SyncStateUpdate;
+import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatchEdit;
+import org.jboss.aerogear.sync.server.ServerSyncEngine;
+import org.jboss.aerogear.sync.server.jdbc.JdbcServerDataStore;
+import org.jboss.aerogear.sync.server.journal.SynchronizerStoreCodec;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.jboss.aerogear.sync.diffmatchpatch.server.DataStoreFixtures.CLIENT_ID;
+import static org.jboss.aerogear.sync.diffmatchpatch.server.DataStoreFixtures.DOCUMENT_ID;
+import static org.jboss.aerogear.sync.diffmatchpatch.server.DataStoreFixtures.edit;
+import static org.jboss.aerogear.sync.diffmatchpatch.server.DataStoreFixtures.patchMessage;
+import static org.jboss.aerogear.sync.diffmatchpatch.server.DataStoreFixtures.shadow;
+import static org.jboss.aerogear.sync.diffmatchpatch.server.DataStoreFixtures.subscriber;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class DiffMatchPatchJdbcDataStoreTest {
+
+    private final DiffMatchPatchServerSynchronizer synchronizer = new DiffMatchPatchServerSynchronizer();
+    private JdbcConnectionPool pool;
+    private JdbcServerDataStore<String, DiffMatchPatchEdit> dataStore;
+
+    @Before
+    public void setup() throws SQLException {
+        pool = JdbcConnectionPool.create("jdbc:h2:mem:" + UUID.randomUUID(), "sa", "");
+        dataStore = JdbcServerDataStore.builder(pool,
+                new SynchronizerStoreCodec<String, DiffMatchPatchEdit>(synchronizer))
+                .createSchema(true)
+                .build();
+    }
+
+    @After
+    public void closePool() {
+        pool.dispose();
+    }
+
+    @Test
+    public void saveAndUpdateDocument() {
+        assertThat(dataStore.saveDocument(new DefaultDocument<String>(DOCUMENT_ID, "Do or do not")), is(true));
+        assertThat(dataStore.saveDocument(new DefaultDocument<String>(DOCUMENT_ID, "there is no try")), is(false));
+        assertThat(dataStore.getDocument(DOCUMENT_ID).content(), equalTo("Do or do not"));
+
+        dataStore.updateDocument(new DefaultDocument<String>(DOCUMENT_ID, "there is no try"));
+        assertThat(dataStore.getDocument(DOCUMENT_ID).content(), equalTo("there is no try"));
+        assertThat(dataStore.getDocument("missing"), is(nullValue()));
+    }
+
+    @Test
+    public void saveExistingDocumentKeepsTransaction() {
+        dataStore.saveDocument(new DefaultDocument<String>(DOCUMENT_ID, "Do or do not"));
+        dataStore.transaction(new Runnable() {
+            @Override
+            public void run() {
+                assertThat(dataStore.saveDocument(new DefaultDocument<String>(DOCUMENT_ID, "there is no try")),
+                        is(false));
+                dataStore.saveShadowDocument(shadow(1, 2, "Do or do not"));
+            }
+        });
+        assertThat(dataStore.getDocument(DOCUMENT_ID).content(), equalTo("Do or do not"));
+        assertThat(dataStore.getShadowDocument(DOCUMENT_ID, CLIENT_ID).serverVersion(), is(1L));
+    }
+
+    @Test
+    public void concurrentSavesOfSameDocument() throws Exception {
+        final int threads = 4;
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<Boolean>> saves = new ArrayList<Future<Boolean>>();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int i = 0; i < threads; i++) {
+                final String content = "content" + i;
+                saves.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        start.await();
+                        return dataStore.saveDocument(new DefaultDocument<String>(DOCUMENT_ID, content));
+                    }
+                }));
+            }
+            start.countDown();
+            int saved = 0;
+            for (Future<Boolean> save : saves) {
+                if (save.get()) {
+                    saved++;
+                }
+            }
+            assertThat(saved, is(1));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void shadowDocuments() {
+        dataStore.saveShadowDocument(shadow(1, 2, "Do or do not"));
+        dataStore.saveBackupShadowDocument(new DefaultBackupShadowDocument<String>(3, shadow(0, 1, "Do or")));
+
+        final ShadowDocument<String> shadow = dataStore.getShadowDocument(DOCUMENT_ID, CLIENT_ID);
+        assertThat(shadow.serverVersion(), is(1L));
+        assertThat(shadow.clientVersion(), is(2L));
+        assertThat(shadow.document().clientId(), equalTo(CLIENT_ID));
+        assertThat(shadow.document().content(), equalTo("Do or do not"));
+        assertThat(dataStore.getBackupShadowDocument(DOCUMENT_ID, CLIENT_ID).version(), is(3L));
+        assertThat(dataStore.getBackupShadowDocument(DOCUMENT_ID, CLIENT_ID).shadow().document().content(),
+                equalTo("Do or"));
+        assertThat(dataStore.getShadowDocument(DOCUMENT_ID, "client2"), is(nullValue()));
+    }
+
+    @Test
+    public void removeEditRemovesAcknowledgedEdits() {
+        final DiffMatchPatchEdit editOne = edit(0, "a", "ab");
+        final DiffMatchPatchEdit editTwo = edit(1, "ab", "abc");
+        final DiffMatchPatchEdit editThree = edit(2, "abc", "abcd");
+        dataStore.saveEdits(editOne, DOCUMENT_ID, CLIENT_ID);
+        dataStore.saveEdits(editTwo, DOCUMENT_ID, CLIENT_ID);
+        dataStore.saveEdits(editThree, DOCUMENT_ID, CLIENT_ID);
+        dataStore.removeEdit(editTwo, DOCUMENT_ID, CLIENT_ID);
+
+        final Queue<DiffMatchPatchEdit> edits = dataStore.getEdits(DOCUMENT_ID, CLIENT_ID);
+        assertThat(edits.size(), is(1));
+        assertThat(edits.peek(), equalTo(editThree));
+
+        dataStore.removeEdits(DOCUMENT_ID, CLIENT_ID);
+        assertThat(dataStore.getEdits(DOCUMENT_ID, CLIENT_ID).isEmpty(), is(true));
+    }
+
+    @Test
+    public void updateSyncState() {
+        final DiffMatchPatchEdit editOne = edit(0, "a", "ab");
+        final DiffMatchPatchEdit editTwo = edit(1, "ab", "abc");
+        dataStore.saveEdits(editOne, DOCUMENT_ID, CLIENT_ID);
+        final ClientSyncState<String, DiffMatchPatchEdit> state = dataStore.updateSyncState(DOCUMENT_ID, CLIENT_ID,
+                SyncStateUpdate.<String, DiffMatchPatchEdit>builder()
+                        .removeEdit(editOne)
+                        .addEdit(editTwo)
+                        .shadow(shadow(2, 1, "abc"))
+                        .backupShadow(new DefaultBackupShadowDocument<String>(2, shadow(2, 1, "abc")))
+                        .build());
+
+        assertThat(state.shadow().serverVersion(), is(2L));
+        assertThat(state.shadow().document().content(), equalTo("abc"));
+        assertThat(state.backupShadow().version(), is(2L));
+        assertThat(state.edits().size(), is(1));
+        assertThat(state.edits().peek(), equalTo(editTwo));
+    }
+
+    @Test
+    public void updateSyncStateReturnsSnapshot() {
+        final ClientSyncState<String, DiffMatchPatchEdit> state = dataStore.updateSyncState(DOCUMENT_ID, CLIENT_ID,
+                SyncStateUpdate.<String, DiffMatchPatchEdit>builder().shadow(shadow(1, 0, "ab")).build());
+        dataStore.updateSyncState(DOCUMENT_ID, CLIENT_ID,
+                SyncStateUpdate.<String, DiffMatchPatchEdit>builder().shadow(shadow(2, 0, "abc")).build());
+
+        assertThat(state.shadow().serverVersion(), is(1L));
+        assertThat(state.shadow().document().content(), equalTo("ab"));
+    }
+
+    @Test
+    public void patchInTransaction() {
+        final ServerSyncEngine<String, DiffMatchPatchEdit> engine =
+                new ServerSyncEngine<String, DiffMatchPatchEdit>(synchronizer, dataStore);
+        engine.addSubscriber(subscriber(CLIENT_ID), new DefaultDocument<String>(DOCUMENT_ID, "Do or do not"));
+        final DiffMatchPatchEdit edit = synchronizer.serverDiff(
+                new DefaultDocument<String>(DOCUMENT_ID, "Do or do not, there is no try"),
+                dataStore.getShadowDocument(DOCUMENT_ID, CLIENT_ID));
+
+        dataStore.transaction(new Runnable() {
+            @Override
+            public void run() {
+                engine.patch(patchMessage(edit));
+            }
+        });
+
+        assertThat(dataStore.getDocument(DOCUMENT_ID).content(), equalTo("Do or do not, there is no try"));
+        final ShadowDocument<String> shadow = dataStore.getShadowDocument(DOCUMENT_ID, CLIENT_ID);
+        assertThat(shadow.clientVersion(), is(1L));
+        assertThat(shadow.document().content(), equalTo("Do or do not, there is no try"));
+        assertThat(dataStore.getBackupShadowDocument(DOCUMENT_ID, CLIENT_ID).shadow().clientVersion(), is(1L));
+    }
+
+    @Test
+    public void enginePatchesInTransaction() {
+        final JdbcServerDataStore<String, DiffMatchPatchEdit> store = spy(dataStore);
+        final ServerSyncEngine<String, DiffMatchPatchEdit> engine =
+                new ServerSyncEngine<String, DiffMatchPatchEdit>(synchronizer, store);
+        engine.addSubscriber(subscriber(CLIENT_ID), new DefaultDocument<String>(DOCUMENT_ID, "Do or do not"));
+        final DiffMatchPatchEdit edit = synchronizer.serverDiff(
+                new DefaultDocument<String>(DOCUMENT_ID, "Do or do not, there is no try"),
+                store.getShadowDocument(DOCUMENT_ID, CLIENT_ID));
+
+        engine.patch(patchMessage(edit));
+        verify(store, times(1)).transaction(any(Runnable.class));
+        engine.patchAll(Collections.singletonList(patchMessage(edit)));
+        verify(store, times(2)).transaction(any(Runnable.class));
+
+        assertThat(store.getDocument(DOCUMENT_ID).content(), equalTo("Do or do not, there is no try"));
+        assertThat(store.getShadowDocument(DOCUMENT_ID, CLIENT_ID).clientVersion(), is(1L));
+    }
+
+    @Test
+    public void transactionIsRolledBackOnFailure() {
+        dataStore.saveDocument(new DefaultDocument<String>(DOCUMENT_ID, "Do or do not"));
+        try {
+            dataStore.transaction(new Runnable() {
+                @Override
+                public void run() {
+                    dataStore.updateDocument(new DefaultDocument<String>(DOCUMENT_ID, "there is no try"));
+                    dataStore.saveShadowDocument(shadow(1, 1, "there is no try"));
+                    assertThat(dataStore.getDocument(DOCUMENT_ID).content(), equalTo("there is no try"));
+                    throw new IllegalStateException("failed");
+                }
+            });
+        } catch (final IllegalStateException expected) {
+            // the writes of the transaction should have been rolled back.
+        }
+
+        assertThat(dataStore.getDocument(DOCUMENT_ID).content(), equalTo("Do or do not"));
+        assertThat(dataStore.getShadowDocument(DOCUMENT_ID, CLIENT_ID), is(nullValue()));
+    }
+
+}
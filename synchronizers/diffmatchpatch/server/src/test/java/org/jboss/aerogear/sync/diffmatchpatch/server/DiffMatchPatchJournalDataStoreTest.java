@@ -0,0 +1,239 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.diffmatchpatch.server;
+
+import org.jboss.aerogear.sync.ClientSyncState;
+import org.jboss.aerogear.sync.DefaultBackupShadowDocument;
+import org.jboss.aerogear.sync.DefaultDocument;
+import org.jboss.aerogear.sync.ShadowDocument;
+import org.jboss.aerogear.sync.SyncStateUpdate;
+import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatchEdit;
+import org.jboss.aerogear.sync.server.journal.JournalServerDataStore;
+import org.jboss.aerogear.sync.server.journal.SynchronizerStoreCodec;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Iterator;
+import java.util.Queue;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.jboss.aerogear.sync.diffmatchpatch.server.DataStoreFixtures.CLIENT_ID;
+import static org.jboss.aerogear.sync.diffmatchpatch.server.DataStoreFixtures.DOCUMENT_ID;
+import static org.jboss.aerogear.sync.diffmatchpatch.server.DataStoreFixtures.edit;
+import static org.jboss.aerogear.sync.diffmatchpatch.server.DataStoreFixtures.shadow;
+
+public class DiffMatchPatchJournalDataStoreTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final DiffMatchPatchServerSynchronizer synchronizer = new DiffMatchPatchServerSynchronizer();
+    private JournalServerDataStore<String, DiffMatchPatchEdit> dataStore;
+
+    @After
+    public void closeDataStore() throws IOException {
+        if (dataStore != null) {
+            dataStore.close();
+        }
+    }
+
+    @Test
+    public void reopenRestoresState() throws IOException {
+        dataStore = builder().build();
+        dataStore.saveDocument(new DefaultDocument<String>(DOCUMENT_ID, "Do or do not, there is no try."));
+        dataStore.saveShadowDocument(shadow(1, 2, "Do or do not"));
+        dataStore.saveBackupShadowDocument(new DefaultBackupShadowDocument<String>(3, shadow(0, 1, "Do or")));
+        dataStore.saveEdits(edit(0, "Do or", "Do or do not"), DOCUMENT_ID, CLIENT_ID);
+        dataStore.updateDocument(new DefaultDocument<String>(DOCUMENT_ID, "Do or do not, there is always a try."));
+
+        reopen();
+
+        assertThat(dataStore.getDocument(DOCUMENT_ID).content(), equalTo("Do or do not, there is always a try."));
+        final ShadowDocument<String> shadow = dataStore.getShadowDocument(DOCUMENT_ID, CLIENT_ID);
+        assertThat(shadow.serverVersion(), is(1L));
+        assertThat(shadow.clientVersion(), is(2L));
+        assertThat(shadow.document().content(), equalTo("Do or do not"));
+        assertThat(dataStore.getBackupShadowDocument(DOCUMENT_ID, CLIENT_ID).version(), is(3L));
+        assertThat(dataStore.getBackupShadowDocument(DOCUMENT_ID, CLIENT_ID).shadow().document().content(),
+                equalTo("Do or"));
+        final Queue<DiffMatchPatchEdit> edits = dataStore.getEdits(DOCUMENT_ID, CLIENT_ID);
+        assertThat(edits.size(), is(1));
+        assertThat(edits.peek(), equalTo(edit(0, "Do or", "Do or do not")));
+    }
+
+    @Test
+    public void saveDocumentDoesNotReplaceExistingDocument() throws IOException {
+        dataStore = builder().build();
+        assertThat(dataStore.saveDocument(new DefaultDocument<String>(DOCUMENT_ID, "first")), is(true));
+        assertThat(dataStore.saveDocument(new DefaultDocument<String>(DOCUMENT_ID, "second")), is(false));
+
+        reopen();
+
+        assertThat(dataStore.getDocument(DOCUMENT_ID).content(), equalTo("first"));
+    }
+
+    @Test
+    public void reopenReplaysRemovedEdits() throws IOException {
+        dataStore = builder().build();
+        final DiffMatchPatchEdit editOne = edit(0, "a", "ab");
+        final DiffMatchPatchEdit editTwo = edit(1, "ab", "abc");
+        final DiffMatchPatchEdit editThree = edit(2, "abc", "abcd");
+        dataStore.saveEdits(editOne, DOCUMENT_ID, CLIENT_ID);
+        dataStore.saveEdits(editTwo, DOCUMENT_ID, CLIENT_ID);
+        dataStore.saveEdits(editThree, DOCUMENT_ID, CLIENT_ID);
+        dataStore.removeEdit(editTwo, DOCUMENT_ID, CLIENT_ID);
+        dataStore.saveEdits(editOne, DOCUMENT_ID, "client2");
+        dataStore.removeEdits(DOCUMENT_ID, "client2");
+
+        reopen();
+
+        final Queue<DiffMatchPatchEdit> edits = dataStore.getEdits(DOCUMENT_ID, CLIENT_ID);
+        assertThat(edits.size(), is(1));
+        assertThat(edits.peek().serverVersion(), is(2L));
+        assertThat(dataStore.getEdits(DOCUMENT_ID, "client2").isEmpty(), is(true));
+    }
+
+    @Test
+    public void reopenReplaysSyncStateUpdates() throws IOException {
+        dataStore = builder().build();
+        final DiffMatchPatchEdit editOne = edit(0, "a", "ab");
+        final DiffMatchPatchEdit editTwo = edit(1, "ab", "abc");
+        dataStore.saveEdits(editOne, DOCUMENT_ID, CLIENT_ID);
+        dataStore.updateSyncState(DOCUMENT_ID, CLIENT_ID, SyncStateUpdate.<String, DiffMatchPatchEdit>builder()
+                .removeEdit(editOne)
+                .addEdit(editTwo)
+                .shadow(shadow(2, 1, "abc"))
+                .backupShadow(new DefaultBackupShadowDocument<String>(2, shadow(2, 1, "abc")))
+                .build());
+
+        reopen();
+
+        final ClientSyncState<String, DiffMatchPatchEdit> state = dataStore.getSyncState(DOCUMENT_ID, CLIENT_ID);
+        assertThat(state.shadow().serverVersion(), is(2L));
+        assertThat(state.shadow().document().content(), equalTo("abc"));
+        assertThat(state.backupShadow().version(), is(2L));
+        assertThat(state.edits().size(), is(1));
+        assertThat(state.edits().peek(), equalTo(editTwo));
+
+        dataStore.compact();
+        dataStore.updateSyncState(DOCUMENT_ID, CLIENT_ID,
+                SyncStateUpdate.<String, DiffMatchPatchEdit>builder().clearEdits().build());
+        reopen();
+
+        assertThat(dataStore.getSyncState(DOCUMENT_ID, CLIENT_ID).edits().isEmpty(), is(true));
+        assertThat(dataStore.getSyncState(DOCUMENT_ID, CLIENT_ID).shadow().serverVersion(), is(2L));
+    }
+
+    @Test
+    public void compactKeepsCurrentState() throws IOException {
+        dataStore = builder().segmentSize(4096).build();
+        for (int i = 0; i < 200; i++) {
+            dataStore.updateDocument(new DefaultDocument<String>(DOCUMENT_ID, "version " + i));
+            dataStore.saveShadowDocument(shadow(i, i, "version " + i));
+        }
+        dataStore.saveEdits(edit(7, "version 199", "version 200"), DOCUMENT_ID, CLIENT_ID);
+        final int segmentsBefore = segmentFiles().length;
+
+        dataStore.compact();
+        assertThat(segmentFiles().length < segmentsBefore, is(true));
+        reopen();
+
+        assertThat(dataStore.getDocument(DOCUMENT_ID).content(), equalTo("version 199"));
+        assertThat(dataStore.getShadowDocument(DOCUMENT_ID, CLIENT_ID).serverVersion(), is(199L));
+        final Iterator<DiffMatchPatchEdit> edits = dataStore.getEdits(DOCUMENT_ID, CLIENT_ID).iterator();
+        assertThat(edits.next().serverVersion(), is(7L));
+        assertThat(edits.hasNext(), is(false));
+    }
+
+    @Test
+    public void compactsAutomaticallyAsJournalGrows() throws IOException {
+        dataStore = builder().segmentSize(4096).minCompactionSize(8192).build();
+        for (int i = 0; i < 1000; i++) {
+            dataStore.updateDocument(new DefaultDocument<String>(DOCUMENT_ID, "version " + i));
+        }
+        assertThat(segmentFiles().length <= 3, is(true));
+
+        reopen();
+
+        assertThat(dataStore.getDocument(DOCUMENT_ID).content(), equalTo("version 999"));
+    }
+
+    @Test
+    public void reopenIgnoresTornWrite() throws IOException {
+        dataStore = builder().build();
+        dataStore.saveDocument(new DefaultDocument<String>(DOCUMENT_ID, "durable"));
+        dataStore.saveDocument(new DefaultDocument<String>("torn", "lost"));
+        dataStore.close();
+        corruptLastRecord();
+
+        dataStore = builder().build();
+
+        assertThat(dataStore.getDocument(DOCUMENT_ID).content(), equalTo("durable"));
+        assertThat(dataStore.getDocument("torn"), is(nullValue()));
+        dataStore.saveDocument(new DefaultDocument<String>("after", "recovered"));
+        reopen();
+        assertThat(dataStore.getDocument("after").content(), equalTo("recovered"));
+    }
+
+    private void corruptLastRecord() throws IOException {
+        final File[] segments = segmentFiles();
+        final RandomAccessFile file = new RandomAccessFile(segments[segments.length - 1], "rw");
+        try {
+            // find the end of the records and flip a byte in the payload of the last one.
+            long end = 0;
+            long last = 0;
+            while (true) {
+                file.seek(end);
+                final int length = file.readInt();
+                if (length == 0) {
+                    break;
+                }
+                last = end;
+                end += 8 + length;
+            }
+            file.seek(last + 8);
+            final int value = file.read();
+            file.seek(last + 8);
+            file.write(value ^ 0xff);
+        } finally {
+            file.close();
+        }
+    }
+
+    private File[] segmentFiles() {
+        return folder.getRoot().listFiles();
+    }
+
+    private void reopen() throws IOException {
+        dataStore.close();
+        dataStore = builder().build();
+    }
+
+    private JournalServerDataStore.Builder<String, DiffMatchPatchEdit> builder() {
+        return JournalServerDataStore.builder(folder.getRoot(),
+                new SynchronizerStoreCodec<String, DiffMatchPatchEdit>(synchronizer));
+    }
+
+}
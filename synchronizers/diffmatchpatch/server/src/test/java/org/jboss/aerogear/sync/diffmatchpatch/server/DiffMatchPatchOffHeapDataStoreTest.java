@@ -0,0 +1,114 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.diffmatchpatch.server;
+
+import org.jboss.aerogear.sync.ClientSyncState;
+import org.jboss.aerogear.sync.DefaultClientDocument;
+import org.jboss.aerogear.sync.DefaultDocument;
+import org.jboss.aerogear.sync.DefaultShadowDocument;
+import org.jboss.aerogear.sync.ShadowDocument;
+import org.jboss.aerogear.sync.SyncStateUpdate;
+import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatchEdit;
+import org.jboss.aerogear.sync.server.ServerSyncEngine;
+import org.jboss.aerogear.sync.server.journal.SynchronizerStoreCodec;
+import org.jboss.aerogear.sync.server.offheap.OffHeapServerDataStore;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.jboss.aerogear.sync.diffmatchpatch.server.DataStoreFixtures.CLIENT_ID;
+import static org.jboss.aerogear.sync.diffmatchpatch.server.DataStoreFixtures.DOCUMENT_ID;
+import static org.jboss.aerogear.sync.diffmatchpatch.server.DataStoreFixtures.patchMessage;
+import static org.jboss.aerogear.sync.diffmatchpatch.server.DataStoreFixtures.subscriber;
+
+public class DiffMatchPatchOffHeapDataStoreTest {
+
+    private final DiffMatchPatchServerSynchronizer synchronizer = new DiffMatchPatchServerSynchronizer();
+    private OffHeapServerDataStore<String, DiffMatchPatchEdit> dataStore;
+    private ServerSyncEngine<String, DiffMatchPatchEdit> engine;
+
+    @Before
+    public void setup() {
+        dataStore = OffHeapServerDataStore.builder(new SynchronizerStoreCodec<String, DiffMatchPatchEdit>(synchronizer))
+                .build();
+        engine = new ServerSyncEngine<String, DiffMatchPatchEdit>(synchronizer, dataStore);
+    }
+
+    @Test
+    public void contentsAreSharedBetweenClients() {
+        final String content = largeContent();
+        engine.addSubscriber(subscriber(CLIENT_ID), new DefaultDocument<String>(DOCUMENT_ID, content));
+        engine.addSubscriber(subscriber("client2"), new DefaultDocument<String>(DOCUMENT_ID, content));
+        engine.addSubscriber(subscriber("client3"), new DefaultDocument<String>(DOCUMENT_ID, content));
+
+        assertThat(dataStore.distinctContents(), is(1));
+        assertThat(dataStore.offHeapBytes() < content.length() / 10, is(true));
+        assertThat(dataStore.getDocument(DOCUMENT_ID).content(), equalTo(content));
+        final ClientSyncState<String, DiffMatchPatchEdit> state = dataStore.getSyncState(DOCUMENT_ID, "client2");
+        assertThat(state.shadow().document().content(), equalTo(content));
+        assertThat(state.shadow().document().clientId(), equalTo("client2"));
+        assertThat(state.backupShadow().shadow().document().content(), equalTo(content));
+    }
+
+    @Test
+    public void patch() {
+        engine.addSubscriber(subscriber(CLIENT_ID), new DefaultDocument<String>(DOCUMENT_ID, "Do or do not"));
+
+        final ShadowDocument<String> shadow = dataStore.getShadowDocument(DOCUMENT_ID, CLIENT_ID);
+        final DiffMatchPatchEdit edit = synchronizer.serverDiff(
+                new DefaultDocument<String>(DOCUMENT_ID, "Do or do not, there is no try"), shadow);
+        engine.patch(patchMessage(edit));
+
+        assertThat(dataStore.getDocument(DOCUMENT_ID).content(), equalTo("Do or do not, there is no try"));
+        final ShadowDocument<String> patched = dataStore.getShadowDocument(DOCUMENT_ID, CLIENT_ID);
+        assertThat(patched.clientVersion(), is(1L));
+        assertThat(patched.document().content(), equalTo("Do or do not, there is no try"));
+    }
+
+    @Test
+    public void updateSyncState() {
+        final ShadowDocument<String> shadow = new DefaultShadowDocument<String>(1, 2,
+                new DefaultClientDocument<String>(DOCUMENT_ID, CLIENT_ID, "Do or do not"));
+        final ClientSyncState<String, DiffMatchPatchEdit> state = dataStore.updateSyncState(DOCUMENT_ID, CLIENT_ID,
+                SyncStateUpdate.<String, DiffMatchPatchEdit>builder().shadow(shadow).build());
+
+        assertThat(state.shadow().serverVersion(), is(1L));
+        assertThat(state.shadow().clientVersion(), is(2L));
+        assertThat(state.shadow().document().content(), equalTo("Do or do not"));
+        assertThat(state.backupShadow(), is(nullValue()));
+        assertThat(dataStore.getShadowDocument(DOCUMENT_ID, CLIENT_ID).document().content(), equalTo("Do or do not"));
+    }
+
+    @Test
+    public void getMissingDocument() {
+        assertThat(dataStore.getDocument(DOCUMENT_ID), is(nullValue()));
+        assertThat(dataStore.getShadowDocument(DOCUMENT_ID, CLIENT_ID), is(nullValue()));
+        assertThat(dataStore.getSyncState(DOCUMENT_ID, CLIENT_ID).shadow(), is(nullValue()));
+    }
+
+    private static String largeContent() {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            sb.append("Do or do not, there is no try. ");
+        }
+        return sb.toString();
+    }
+
+}
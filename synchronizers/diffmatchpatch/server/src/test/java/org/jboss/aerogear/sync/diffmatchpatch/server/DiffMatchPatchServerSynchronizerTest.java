@@ -21,11 +21,16 @@ import org.jboss.aerogear.sync.DefaultDocument;
 import org.jboss.aerogear.sync.DefaultShadowDocument;
 import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatchDiff.Operation;
 import org.jboss.aerogear.sync.Document;
+import org.jboss.aerogear.sync.PatchMessage;
 import org.jboss.aerogear.sync.ShadowDocument;
 import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatchEdit;
 import org.jboss.aerogear.sync.server.ServerSynchronizer;
 import org.junit.Test;
 
+import java.util.LinkedList;
+import java.util.Queue;
+
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -64,6 +69,21 @@ public class DiffMatchPatchServerSynchronizerTest {
         assertThat(edit.diff().diffs().get(1).text(), is("ing"));
     }
 
+    @Test
+    public void diffAsJson() throws Exception {
+        final ServerSynchronizer<String, DiffMatchPatchEdit> synchronizer = new DiffMatchPatchServerSynchronizer();
+        final Document<String> document = new DefaultDocument<String>("1234", "test");
+        final ShadowDocument<String> shadowDocument = shadowDocument("1234", "client1", "testing");
+
+        final DiffMatchPatchEdit edit = synchronizer.serverDiff(document, shadowDocument);
+        final Queue<DiffMatchPatchEdit> edits = new LinkedList<DiffMatchPatchEdit>();
+        edits.add(edit);
+        final PatchMessage<DiffMatchPatchEdit> patchMessage = synchronizer.createPatchMessage("1234", "client1", edits);
+        assertThat(synchronizer.diffAsJson(edit),
+                equalTo("[{\"operation\":\"UNCHANGED\",\"text\":\"test\"},{\"operation\":\"DELETE\",\"text\":\"ing\"}]"));
+        assertThat(patchMessage.asJson(), containsString("\"diffs\":" + synchronizer.diffAsJson(edit) + '}'));
+    }
+
     @Test
     public void patchShadow() throws Exception {
         final ServerSynchronizer<String, DiffMatchPatchEdit> synchronizer = new DiffMatchPatchServerSynchronizer();
@@ -0,0 +1,186 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.diffmatchpatch.server;
+
+import org.jboss.aerogear.sync.ClientSyncState;
+import org.jboss.aerogear.sync.DefaultDocument;
+import org.jboss.aerogear.sync.ShadowDocument;
+import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatchEdit;
+import org.jboss.aerogear.sync.server.ServerSyncEngine;
+import org.jboss.aerogear.sync.server.journal.SynchronizerStoreCodec;
+import org.jboss.aerogear.sync.server.tiered.TierStats;
+import org.jboss.aerogear.sync.server.tiered.TieredServerDataStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.jboss.aerogear.sync.diffmatchpatch.server.DataStoreFixtures.CLIENT_ID;
+import static org.jboss.aerogear.sync.diffmatchpatch.server.DataStoreFixtures.DOCUMENT_ID;
+import static org.jboss.aerogear.sync.diffmatchpatch.server.DataStoreFixtures.assertShadowEquals;
+import static org.jboss.aerogear.sync.diffmatchpatch.server.DataStoreFixtures.patchMessage;
+import static org.jboss.aerogear.sync.diffmatchpatch.server.DataStoreFixtures.subscriber;
+
+public class DiffMatchPatchTieredDataStoreTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final DiffMatchPatchServerSynchronizer synchronizer = new DiffMatchPatchServerSynchronizer();
+    private TieredServerDataStore<String, DiffMatchPatchEdit> dataStore;
+    private ServerSyncEngine<String, DiffMatchPatchEdit> engine;
+
+    @Before
+    public void setup() throws IOException {
+        dataStore = TieredServerDataStore.builder(folder.getRoot(),
+                new SynchronizerStoreCodec<String, DiffMatchPatchEdit>(synchronizer))
+                .ttl(0, TimeUnit.MILLISECONDS)
+                .build();
+        engine = new ServerSyncEngine<String, DiffMatchPatchEdit>(synchronizer, dataStore);
+    }
+
+    @After
+    public void close() {
+        dataStore.close();
+    }
+
+    @Test
+    public void evictIdleSpillsClientState() {
+        engine.addSubscriber(subscriber(CLIENT_ID), new DefaultDocument<String>(DOCUMENT_ID, "Do or do not"));
+        engine.diff(DOCUMENT_ID, CLIENT_ID);
+        final ClientSyncState<String, DiffMatchPatchEdit> before = dataStore.getSyncState(DOCUMENT_ID, CLIENT_ID);
+
+        assertThat(dataStore.evictIdle(), is(1));
+
+        final TierStats spilled = dataStore.stats();
+        assertThat(spilled.hotEntries(), is(0L));
+        assertThat(spilled.coldEntries(), is(1L));
+        assertThat(spilled.coldBytes() > 0, is(true));
+        assertThat(spillFiles().length, is(1));
+
+        final ClientSyncState<String, DiffMatchPatchEdit> after = dataStore.getSyncState(DOCUMENT_ID, CLIENT_ID);
+        assertShadowEquals(after.shadow(), before.shadow());
+        assertShadowEquals(after.backupShadow().shadow(), before.backupShadow().shadow());
+        assertThat(after.backupShadow().version(), is(before.backupShadow().version()));
+        assertThat(after.edits().size(), is(1));
+        assertThat(after.edits().peek(), equalTo(before.edits().peek()));
+
+        final TierStats rehydrated = dataStore.stats();
+        assertThat(rehydrated.hotEntries(), is(1L));
+        assertThat(rehydrated.coldEntries(), is(0L));
+        assertThat(rehydrated.coldBytes(), is(0L));
+        assertThat(rehydrated.coldHits(), is(1L));
+        assertThat(rehydrated.evictions(), is(1L));
+        assertThat(spillFiles().length, is(0));
+    }
+
+    @Test
+    public void patchAfterEviction() {
+        engine.addSubscriber(subscriber(CLIENT_ID), new DefaultDocument<String>(DOCUMENT_ID, "Do or do not"));
+        dataStore.evictIdle();
+
+        final ShadowDocument<String> shadow = dataStore.getShadowDocument(DOCUMENT_ID, CLIENT_ID);
+        dataStore.evictIdle();
+        final DiffMatchPatchEdit edit = synchronizer.serverDiff(
+                new DefaultDocument<String>(DOCUMENT_ID, "Do or do not, there is no try"), shadow);
+        engine.patch(patchMessage(edit));
+
+        assertThat(dataStore.getDocument(DOCUMENT_ID).content(), equalTo("Do or do not, there is no try"));
+        assertThat(dataStore.getShadowDocument(DOCUMENT_ID, CLIENT_ID).clientVersion(), is(1L));
+        assertThat(dataStore.stats().coldHits(), is(2L));
+    }
+
+    @Test
+    public void activeClientsAreNotEvicted() throws IOException {
+        dataStore.close();
+        dataStore = TieredServerDataStore.builder(folder.getRoot(),
+                new SynchronizerStoreCodec<String, DiffMatchPatchEdit>(synchronizer))
+                .ttl(1, TimeUnit.HOURS)
+                .build();
+        engine = new ServerSyncEngine<String, DiffMatchPatchEdit>(synchronizer, dataStore);
+        engine.addSubscriber(subscriber(CLIENT_ID), new DefaultDocument<String>(DOCUMENT_ID, "Do or do not"));
+
+        assertThat(dataStore.evictIdle(), is(0));
+        assertThat(dataStore.stats().hotEntries(), is(1L));
+        assertThat(dataStore.stats().hotHitRate(), is(1.0));
+    }
+
+    @Test
+    public void expiredClientStateIsDeleted() throws IOException {
+        dataStore.close();
+        dataStore = TieredServerDataStore.builder(folder.getRoot(),
+                new SynchronizerStoreCodec<String, DiffMatchPatchEdit>(synchronizer))
+                .ttl(0, TimeUnit.MILLISECONDS)
+                .expireAfter(1, TimeUnit.NANOSECONDS)
+                .build();
+        engine = new ServerSyncEngine<String, DiffMatchPatchEdit>(synchronizer, dataStore);
+        engine.addSubscriber(subscriber(CLIENT_ID), new DefaultDocument<String>(DOCUMENT_ID, "Do or do not"));
+        assertThat(dataStore.evictIdle(), is(1));
+        assertThat(spillFiles().length, is(1));
+
+        assertThat(dataStore.evictIdle(), is(0));
+        final TierStats stats = dataStore.stats();
+        assertThat(stats.hotEntries(), is(0L));
+        assertThat(stats.coldEntries(), is(0L));
+        assertThat(stats.coldBytes(), is(0L));
+        assertThat(stats.expirations(), is(1L));
+        assertThat(spillFiles().length, is(0));
+        assertThat(dataStore.getShadowDocument(DOCUMENT_ID, CLIENT_ID), is(nullValue()));
+        assertThat(dataStore.getDocument(DOCUMENT_ID).content(), equalTo("Do or do not"));
+    }
+
+    @Test
+    public void clientsWithoutStateAreForgotten() {
+        assertThat(dataStore.getShadowDocument(DOCUMENT_ID, CLIENT_ID), is(nullValue()));
+        assertThat(dataStore.stats().hotEntries(), is(1L));
+
+        assertThat(dataStore.evictIdle(), is(0));
+        assertThat(dataStore.stats().hotEntries(), is(0L));
+    }
+
+    @Test
+    public void evictsPeriodically() throws Exception {
+        dataStore.close();
+        dataStore = TieredServerDataStore.builder(folder.getRoot(),
+                new SynchronizerStoreCodec<String, DiffMatchPatchEdit>(synchronizer))
+                .ttl(0, TimeUnit.MILLISECONDS)
+                .evictionInterval(10, TimeUnit.MILLISECONDS)
+                .build();
+        engine = new ServerSyncEngine<String, DiffMatchPatchEdit>(synchronizer, dataStore);
+        engine.addSubscriber(subscriber(CLIENT_ID), new DefaultDocument<String>(DOCUMENT_ID, "Do or do not"));
+
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (dataStore.stats().evictions() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertThat(dataStore.stats().evictions(), is(1L));
+    }
+
+    private File[] spillFiles() {
+        return folder.getRoot().listFiles();
+    }
+
+}
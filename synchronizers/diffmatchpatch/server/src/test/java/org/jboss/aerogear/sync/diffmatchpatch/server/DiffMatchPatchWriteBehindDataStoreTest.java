@@ -0,0 +1,165 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.sync.diffmatchpatch.server;
+
+import org.jboss.aerogear.sync.DefaultDocument;
+import org.jboss.aerogear.sync.ShadowDocument;
+import org.jboss.aerogear.sync.SyncStateUpdate;
+import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatchEdit;
+import org.jboss.aerogear.sync.server.ServerInMemoryDataStore;
+import org.jboss.aerogear.sync.server.ServerSyncEngine;
+import org.jboss.aerogear.sync.server.writebehind.WriteBehindServerDataStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.jboss.aerogear.sync.diffmatchpatch.server.DataStoreFixtures.CLIENT_ID;
+import static org.jboss.aerogear.sync.diffmatchpatch.server.DataStoreFixtures.DOCUMENT_ID;
+import static org.jboss.aerogear.sync.diffmatchpatch.server.DataStoreFixtures.patchMessage;
+import static org.jboss.aerogear.sync.diffmatchpatch.server.DataStoreFixtures.subscriber;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class DiffMatchPatchWriteBehindDataStoreTest {
+
+    private final DiffMatchPatchServerSynchronizer synchronizer = new DiffMatchPatchServerSynchronizer();
+    private ServerInMemoryDataStore<String, DiffMatchPatchEdit> backingStore;
+    private WriteBehindServerDataStore<String, DiffMatchPatchEdit> dataStore;
+    private ServerSyncEngine<String, DiffMatchPatchEdit> engine;
+
+    @Before
+    public void setup() {
+        backingStore = spy(new ServerInMemoryDataStore<String, DiffMatchPatchEdit>());
+        dataStore = WriteBehindServerDataStore.builder(backingStore)
+                .maxDelay(1, TimeUnit.HOURS)
+                .build();
+        engine = new ServerSyncEngine<String, DiffMatchPatchEdit>(synchronizer, dataStore);
+    }
+
+    @After
+    public void close() {
+        dataStore.close();
+    }
+
+    @Test
+    public void readsAreServedBeforeFlush() {
+        engine.addSubscriber(subscriber(CLIENT_ID), new DefaultDocument<String>(DOCUMENT_ID, "Do or do not"));
+
+        assertThat(dataStore.getDocument(DOCUMENT_ID).content(), equalTo("Do or do not"));
+        assertThat(dataStore.getShadowDocument(DOCUMENT_ID, CLIENT_ID).document().content(), equalTo("Do or do not"));
+        assertThat(backingStore.getDocument(DOCUMENT_ID), is(nullValue()));
+        assertThat(backingStore.getShadowDocument(DOCUMENT_ID, CLIENT_ID), is(nullValue()));
+
+        assertThat(dataStore.pendingClientDocuments(), is(1));
+        assertThat(dataStore.flush(), is(2));
+        assertThat(dataStore.pending(), is(0));
+        assertThat(dataStore.pendingClientDocuments(), is(0));
+        assertThat(backingStore.getDocument(DOCUMENT_ID).content(), equalTo("Do or do not"));
+        assertThat(backingStore.getShadowDocument(DOCUMENT_ID, CLIENT_ID).document().content(),
+                equalTo("Do or do not"));
+        assertThat(backingStore.getBackupShadowDocument(DOCUMENT_ID, CLIENT_ID).version(), is(0L));
+    }
+
+    @Test
+    public void writesAreCoalesced() {
+        engine.addSubscriber(subscriber(CLIENT_ID), new DefaultDocument<String>(DOCUMENT_ID, "Do or do not"));
+        dataStore.flush();
+
+        final ShadowDocument<String> shadow = dataStore.getShadowDocument(DOCUMENT_ID, CLIENT_ID);
+        final DiffMatchPatchEdit edit = synchronizer.serverDiff(
+                new DefaultDocument<String>(DOCUMENT_ID, "Do or do not, there is no try"), shadow);
+        engine.patch(patchMessage(edit));
+        final DiffMatchPatchEdit serverEdit = engine.diff(DOCUMENT_ID, CLIENT_ID);
+        dataStore.removeEdit(serverEdit, DOCUMENT_ID, CLIENT_ID);
+
+        assertThat(dataStore.writes() > 4, is(true));
+        assertThat(dataStore.flush(), is(2));
+        verify(backingStore, times(1)).updateDocument(any(DefaultDocument.class));
+        verify(backingStore, times(2)).updateSyncState(anyString(), anyString(), any(SyncStateUpdate.class));
+        verify(backingStore, never()).saveEdits(any(DiffMatchPatchEdit.class), anyString(), anyString());
+        verify(backingStore, never()).saveShadowDocument(any(ShadowDocument.class));
+        assertThat(backingStore.getDocument(DOCUMENT_ID).content(), equalTo("Do or do not, there is no try"));
+        assertThat(backingStore.getShadowDocument(DOCUMENT_ID, CLIENT_ID).clientVersion(), is(1L));
+        assertThat(backingStore.getEdits(DOCUMENT_ID, CLIENT_ID).isEmpty(), is(true));
+    }
+
+    @Test
+    public void unacknowledgedEditsAreFlushed() {
+        engine.addSubscriber(subscriber(CLIENT_ID), new DefaultDocument<String>(DOCUMENT_ID, "Do or do not"));
+        final DiffMatchPatchEdit first = engine.diff(DOCUMENT_ID, CLIENT_ID);
+        dataStore.saveEdits(first, DOCUMENT_ID, CLIENT_ID);
+
+        assertThat(dataStore.getEdits(DOCUMENT_ID, CLIENT_ID).size(), is(2));
+        dataStore.flush();
+        assertThat(backingStore.getEdits(DOCUMENT_ID, CLIENT_ID).size(), is(2));
+
+        dataStore.removeEdits(DOCUMENT_ID, CLIENT_ID);
+        assertThat(dataStore.getEdits(DOCUMENT_ID, CLIENT_ID).isEmpty(), is(true));
+        assertThat(backingStore.getEdits(DOCUMENT_ID, CLIENT_ID).size(), is(2));
+        dataStore.flush();
+        assertThat(backingStore.getEdits(DOCUMENT_ID, CLIENT_ID).isEmpty(), is(true));
+    }
+
+    @Test
+    public void saveDocumentChecksBackingStore() {
+        backingStore.saveDocument(new DefaultDocument<String>(DOCUMENT_ID, "Do or do not"));
+
+        assertThat(dataStore.saveDocument(new DefaultDocument<String>(DOCUMENT_ID, "there is no try")), is(false));
+        assertThat(dataStore.getDocument(DOCUMENT_ID).content(), equalTo("Do or do not"));
+    }
+
+    @Test
+    public void writersFlushWhenOverlayIsFull() {
+        dataStore.close();
+        dataStore = WriteBehindServerDataStore.builder(backingStore)
+                .maxDelay(1, TimeUnit.HOURS)
+                .maxPending(1)
+                .build();
+        dataStore.updateDocument(new DefaultDocument<String>(DOCUMENT_ID, "Do or do not"));
+        assertThat(backingStore.getDocument(DOCUMENT_ID), is(nullValue()));
+
+        dataStore.updateDocument(new DefaultDocument<String>("other", "there is no try"));
+        assertThat(backingStore.getDocument(DOCUMENT_ID).content(), equalTo("Do or do not"));
+        assertThat(dataStore.pending(), is(1));
+    }
+
+    @Test
+    public void flushesAfterMaxDelay() throws InterruptedException {
+        dataStore.close();
+        dataStore = WriteBehindServerDataStore.builder(backingStore)
+                .maxDelay(10, TimeUnit.MILLISECONDS)
+                .build();
+        dataStore.updateDocument(new DefaultDocument<String>(DOCUMENT_ID, "Do or do not"));
+
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (backingStore.getDocument(DOCUMENT_ID) == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertThat(backingStore.getDocument(DOCUMENT_ID).content(), equalTo("Do or do not"));
+    }
+
+}
@@ -24,24 +24,36 @@ import org.jboss.aerogear.sync.DefaultShadowDocument;
 import org.jboss.aerogear.sync.Document;
 import org.jboss.aerogear.sync.PatchMessage;
 import org.jboss.aerogear.sync.ShadowDocument;
+import org.jboss.aerogear.sync.SyncMetrics.Stage;
+import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatch;
 import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatchDiff;
 import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatchDiff.Operation;
 import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatchEdit;
 import org.jboss.aerogear.sync.diffmatchpatch.DiffMatchPatchMessage;
+import org.jboss.aerogear.sync.metrics.InMemorySyncMetrics;
+import org.jboss.aerogear.sync.server.FlowControlledSubscriber;
 import org.jboss.aerogear.sync.server.ServerInMemoryDataStore;
 import org.jboss.aerogear.sync.server.ServerSyncEngine;
 import org.jboss.aerogear.sync.server.Subscriber;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.Queue;
+import java.util.Set;
 
 import static java.util.Arrays.asList;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class ServerSyncEngineTest {
@@ -240,6 +252,44 @@ public class ServerSyncEngineTest {
         assertThat(backupShadowDocument.version(), is(0L));
     }
 
+    @Test
+    public void patchAll() {
+        final String documentId = "1234";
+        final String originalVersion = "{\"name\": \"Mr.Babar\"}";
+        final String updatedVersion = "{\"name\": \"Mr.Poon\"}";
+        engine.addSubscriber(subscriber, doc(documentId, originalVersion));
+
+        final DiffMatchPatchEdit firstEdit = DiffMatchPatchEdit.withChecksum("bogus")
+                .clientVersion(0)
+                .serverVersion(0)
+                .unchanged("{\"name\": ")
+                .delete("\"Mr.Babar\"")
+                .add("\"Mr.Rosen\"")
+                .unchanged("}")
+                .build();
+        final DiffMatchPatchEdit secondEdit = DiffMatchPatchEdit.withChecksum("bogus")
+                .clientVersion(1)
+                .serverVersion(0)
+                .unchanged("{\"name\": ")
+                .delete("\"Mr.Rosen\"")
+                .add("\"Mr.Poon\"")
+                .unchanged("}")
+                .build();
+        final Set<String> patched = engine.patchAll(asList(
+                patchMessage(documentId, subscriber.clientId(), firstEdit),
+                patchMessage(documentId, subscriber.clientId(), secondEdit)));
+        assertThat(patched, equalTo(Collections.singleton(documentId)));
+
+        assertThat(dataStore.getDocument(documentId).content(), equalTo(updatedVersion));
+        final ShadowDocument<String> shadowDocument = dataStore.getShadowDocument(documentId, subscriber.clientId());
+        assertThat(shadowDocument.document().content(), equalTo(updatedVersion));
+        assertThat(shadowDocument.clientVersion(), is(2L));
+        assertThat(shadowDocument.serverVersion(), is(0L));
+        final BackupShadowDocument<String> backupShadow = dataStore.getBackupShadowDocument(documentId,
+                subscriber.clientId());
+        assertThat(backupShadow.shadow(), equalTo(shadowDocument));
+    }
+
     @Test
     public void patchRevertToBackup() {
         final String documentId = "1234";
@@ -310,6 +360,179 @@ public class ServerSyncEngineTest {
         assertThat(edits.isEmpty(), is(true));
     }
 
+    @Test
+    public void patchFastForwardsUnchangedDocument() {
+        final String documentId = "fast-forward-1234";
+        final String originalVersion = "{\"name\": \"Mr.Babar\"}";
+        final String updatedVersion = "{\"name\": \"Mr.Rosen\"}";
+        final DiffMatchPatchServerSynchronizer synchronizer = spy(new DiffMatchPatchServerSynchronizer());
+        final ServerSyncEngine<String, DiffMatchPatchEdit> spiedEngine =
+                new ServerSyncEngine<String, DiffMatchPatchEdit>(synchronizer, dataStore);
+        spiedEngine.addSubscriber(subscriber, doc(documentId, originalVersion));
+        reset(synchronizer);
+
+        final DiffMatchPatchEdit edit = DiffMatchPatchEdit.withChecksum("bogus")
+                .unchanged("{\"name\": ")
+                .delete("\"Mr.Babar\"")
+                .add("\"Mr.Rosen\"")
+                .unchanged("}")
+                .build();
+        spiedEngine.patch(patchMessage(documentId, subscriber.clientId(), edit));
+
+        verify(synchronizer, never()).clientDiff(any(Document.class), any(ShadowDocument.class));
+        assertThat(dataStore.getDocument(documentId).content(), equalTo(updatedVersion));
+    }
+
+    @Test
+    public void patchMergesChangedDocument() {
+        final String documentId = "fast-forward-5678";
+        final String originalVersion = "{\"name\": \"Mr.Babar\"}";
+        final DiffMatchPatchServerSynchronizer synchronizer = spy(new DiffMatchPatchServerSynchronizer());
+        final ServerSyncEngine<String, DiffMatchPatchEdit> spiedEngine =
+                new ServerSyncEngine<String, DiffMatchPatchEdit>(synchronizer, dataStore);
+        spiedEngine.addSubscriber(subscriber, doc(documentId, originalVersion));
+        // another client changed the document after this client's shadow was in sync with it.
+        dataStore.updateDocument(doc(documentId, "{\"name\": \"Mr.Babar\", \"age\": 5}"));
+        reset(synchronizer);
+
+        final DiffMatchPatchEdit edit = DiffMatchPatchEdit.withChecksum("bogus")
+                .unchanged("{\"name\": ")
+                .delete("\"Mr.Babar\"")
+                .add("\"Mr.Rosen\"")
+                .unchanged("}")
+                .build();
+        spiedEngine.patch(patchMessage(documentId, subscriber.clientId(), edit));
+
+        verify(synchronizer, times(1)).clientDiff(any(Document.class), any(ShadowDocument.class));
+    }
+
+    @Test
+    public void patchRecordsMetrics() {
+        final String documentId = "metrics-1234";
+        final InMemorySyncMetrics metrics = new InMemorySyncMetrics();
+        final ServerSyncEngine<String, DiffMatchPatchEdit> meteredEngine = new ServerSyncEngine<String, DiffMatchPatchEdit>(
+                new DiffMatchPatchServerSynchronizer(DiffMatchPatch.builder().build(), metrics), dataStore, metrics);
+        meteredEngine.addSubscriber(subscriber, doc(documentId, "{\"name\": \"Mr.Babar\"}"));
+
+        final DiffMatchPatchEdit edit = DiffMatchPatchEdit.withChecksum("bogus")
+                .unchanged("{\"name\": ")
+                .delete("\"Mr.Babar\"")
+                .add("\"Mr.Rosen\"")
+                .unchanged("}")
+                .build();
+        meteredEngine.notifySubscribers(meteredEngine.patch(patchMessage(documentId, subscriber.clientId(), edit)));
+
+        final InMemorySyncMetrics.Snapshot snapshot = metrics.snapshot();
+        assertThat(snapshot.edits().count(), is(1L));
+        assertThat(snapshot.edits().max(), is(1L));
+        assertThat(snapshot.subscribers().max(), is(1L));
+        assertThat(snapshot.pendingEdits().count(), is(1L));
+        assertThat(snapshot.latency(Stage.FAN_OUT).count(), is(1L));
+        assertThat(snapshot.latency(Stage.PATCH).count() > 0, is(true));
+        assertThat(snapshot.latency(Stage.DIFF).count() > 0, is(true));
+        assertThat(snapshot.latency(Stage.CHECKSUM).count(), equalTo(snapshot.latency(Stage.DIFF).count()));
+    }
+
+    @Test
+    public void notifySubscribersSharesDiffForIdenticalShadows() {
+        final String documentId = "notify-1234";
+        final String originalVersion = "{\"name\": \"Mr.Babar\"}";
+        final String updatedVersion = "{\"name\": \"Mr.Rosen\"}";
+        final DiffMatchPatchServerSynchronizer synchronizer = spy(new DiffMatchPatchServerSynchronizer());
+        final ServerSyncEngine<String, DiffMatchPatchEdit> spiedEngine =
+                new ServerSyncEngine<String, DiffMatchPatchEdit>(synchronizer, dataStore);
+        final Subscriber<String> subscriber1 = subscriber("client1");
+        final Subscriber<String> subscriber2 = subscriber("client2");
+        final Subscriber<String> subscriber3 = subscriber("client3");
+        spiedEngine.addSubscriber(subscriber1, doc(documentId, originalVersion));
+        spiedEngine.addSubscriber(subscriber2, doc(documentId, null));
+        spiedEngine.addSubscriber(subscriber3, doc(documentId, null));
+        reset(synchronizer);
+
+        final DiffMatchPatchEdit edit = DiffMatchPatchEdit.withChecksum("bogus")
+                .unchanged("{\"name\": ")
+                .delete("\"Mr.Babar\"")
+                .add("\"Mr.Rosen\"")
+                .unchanged("}")
+                .build();
+        spiedEngine.notifySubscribers(spiedEngine.patch(patchMessage(documentId, "client1", edit)));
+
+        // client1 has the updated shadow, client2 and client3 share the original one.
+        verify(synchronizer, times(2)).serverDiff(any(Document.class), any(ShadowDocument.class));
+        final DiffMatchPatchEdit client2Edit = dataStore.getEdits(documentId, "client2").peek();
+        final DiffMatchPatchEdit client3Edit = dataStore.getEdits(documentId, "client3").peek();
+        assertThat(client2Edit.diff(), equalTo(client3Edit.diff()));
+        assertThat(client2Edit.checksum(), equalTo(client3Edit.checksum()));
+        for (String clientId : asList("client2", "client3")) {
+            final ShadowDocument<String> shadow = dataStore.getShadowDocument(documentId, clientId);
+            assertThat(shadow.document().clientId(), equalTo(clientId));
+            assertThat(shadow.document().content(), equalTo(updatedVersion));
+            assertThat(shadow.serverVersion(), is(1L));
+        }
+    }
+
+    @Test
+    public void notifySubscribersSkipsNonWritableSubscribers() {
+        final String documentId = "notify-5678";
+        final String originalVersion = "{\"name\": \"Mr.Babar\"}";
+        final String updatedVersion = "{\"name\": \"Mr.Rosen\"}";
+        @SuppressWarnings("unchecked")
+        final FlowControlledSubscriber<String> slowSubscriber = mock(FlowControlledSubscriber.class);
+        when(slowSubscriber.clientId()).thenReturn("slowClient");
+        when(slowSubscriber.isWritable()).thenReturn(false);
+        engine.addSubscriber(slowSubscriber, doc(documentId, originalVersion));
+        dataStore.updateDocument(doc(documentId, updatedVersion));
+
+        engine.notifySubscribers(documentId);
+        verify(slowSubscriber, never()).patched(any(PatchMessage.class));
+        final ShadowDocument<String> shadow = dataStore.getShadowDocument(documentId, "slowClient");
+        assertThat(shadow.document().content(), equalTo(originalVersion));
+        assertThat(shadow.serverVersion(), is(0L));
+
+        when(slowSubscriber.isWritable()).thenReturn(true);
+        engine.notifySubscribers(documentId);
+        verify(slowSubscriber, times(1)).patched(any(PatchMessage.class));
+        final ShadowDocument<String> updatedShadow = dataStore.getShadowDocument(documentId, "slowClient");
+        assertThat(updatedShadow.document().content(), equalTo(updatedVersion));
+        assertThat(updatedShadow.serverVersion(), is(1L));
+    }
+
+    @Test
+    public void notifySubscriberCatchesUpOnlyThatSubscriber() {
+        final String documentId = "notify-9012";
+        final String originalVersion = "{\"name\": \"Mr.Babar\"}";
+        final String updatedVersion = "{\"name\": \"Mr.Rosen\"}";
+        @SuppressWarnings("unchecked")
+        final FlowControlledSubscriber<String> slowSubscriber = mock(FlowControlledSubscriber.class);
+        when(slowSubscriber.clientId()).thenReturn("slowClient");
+        when(slowSubscriber.isWritable()).thenReturn(false);
+        final Subscriber<String> fastSubscriber = subscriber("fastClient");
+        engine.addSubscriber(slowSubscriber, doc(documentId, originalVersion));
+        engine.addSubscriber(fastSubscriber, doc(documentId, originalVersion));
+        dataStore.updateDocument(doc(documentId, updatedVersion));
+        engine.notifySubscribers(documentId);
+        verify(fastSubscriber, times(1)).patched(any(PatchMessage.class));
+
+        when(slowSubscriber.isWritable()).thenReturn(true);
+        engine.notifySubscriber(slowSubscriber, documentId);
+        verify(slowSubscriber, times(1)).patched(any(PatchMessage.class));
+        verify(fastSubscriber, times(1)).patched(any(PatchMessage.class));
+        assertThat(dataStore.getShadowDocument(documentId, "slowClient").document().content(), equalTo(updatedVersion));
+        assertThat(dataStore.getShadowDocument(documentId, "fastClient").serverVersion(), is(1L));
+
+        // already up to date, nothing is sent and the version is not bumped.
+        engine.notifySubscriber(slowSubscriber, documentId);
+        verify(slowSubscriber, times(1)).patched(any(PatchMessage.class));
+        assertThat(dataStore.getShadowDocument(documentId, "slowClient").serverVersion(), is(1L));
+    }
+
+    private static Subscriber<String> subscriber(final String clientId) {
+        @SuppressWarnings("unchecked")
+        final Subscriber<String> subscriber = mock(Subscriber.class);
+        when(subscriber.clientId()).thenReturn(clientId);
+        return subscriber;
+    }
+
     private static PatchMessage<DiffMatchPatchEdit> patchMessage(final String docId, final String clientId, DiffMatchPatchEdit... edit) {
         return new DiffMatchPatchMessage(docId, clientId, new LinkedList<DiffMatchPatchEdit>(asList(edit)));
     }
@@ -135,6 +135,11 @@ public class JsonMergePatchEdit implements Edit<JsonMergePatchDiff> {
             return this;
         }
 
+        public Builder diff(final JsonMergePatchDiff diff) {
+            this.diff = diff;
+            return this;
+        }
+
         public JsonMergePatchEdit build() {
             return new JsonMergePatchEdit(this);
         }
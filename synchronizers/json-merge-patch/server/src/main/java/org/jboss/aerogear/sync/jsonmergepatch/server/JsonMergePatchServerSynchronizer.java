@@ -24,6 +24,9 @@ import org.jboss.aerogear.sync.DefaultShadowDocument;
 import org.jboss.aerogear.sync.Document;
 import org.jboss.aerogear.sync.PatchMessage;
 import org.jboss.aerogear.sync.ShadowDocument;
+import org.jboss.aerogear.sync.SyncMetrics;
+import org.jboss.aerogear.sync.SyncMetrics.Stage;
+import org.jboss.aerogear.sync.metrics.NoopSyncMetrics;
 import org.jboss.aerogear.sync.jsonmergepatch.JsonMapper;
 import org.jboss.aerogear.sync.jsonmergepatch.JsonMergePatchEdit;
 import org.jboss.aerogear.sync.jsonmergepatch.JsonMergePatchMessage;
@@ -40,12 +43,26 @@ import java.util.Queue;
 public class JsonMergePatchServerSynchronizer implements ServerSynchronizer<JsonNode, JsonMergePatchEdit> {
 
     private static final String UTF_8 = Charset.forName("UTF-8").displayName();
+    private final SyncMetrics metrics;
+
+    public JsonMergePatchServerSynchronizer() {
+        this(NoopSyncMetrics.INSTANCE);
+    }
+
+    /**
+     * Creates a synchronizer that records the time spent calculating checksums.
+     *
+     * @param metrics the {@link SyncMetrics} to record measurements to.
+     */
+    public JsonMergePatchServerSynchronizer(final SyncMetrics metrics) {
+        this.metrics = metrics;
+    }
 
     @Override
     public JsonMergePatchEdit clientDiff(final Document<JsonNode> document, final ShadowDocument<JsonNode> shadowDocument) {
         final JsonNode shadowObject = shadowDocument.document().content();
         return JsonMergePatchEdit.withPatch(shadowObject)
-                .checksum(checksum(shadowObject))
+                .checksum(shadowChecksum(shadowObject))
                 .build();
     }
 
@@ -55,7 +72,16 @@ public class JsonMergePatchServerSynchronizer implements ServerSynchronizer<Json
         return JsonMergePatchEdit.withPatch(document.content())
                 .serverVersion(shadowDocument.serverVersion())
                 .clientVersion(shadowDocument.clientVersion())
-                .checksum(checksum(shadowObject))
+                .checksum(shadowChecksum(shadowObject))
+                .build();
+    }
+
+    @Override
+    public JsonMergePatchEdit copyEdit(final JsonMergePatchEdit edit, final ShadowDocument<JsonNode> shadowDocument) {
+        return JsonMergePatchEdit.withChecksum(edit.checksum())
+                .serverVersion(shadowDocument.serverVersion())
+                .clientVersion(shadowDocument.clientVersion())
+                .diff(edit.diff())
                 .build();
     }
 
@@ -79,6 +105,11 @@ public class JsonMergePatchServerSynchronizer implements ServerSynchronizer<Json
         return new JsonMergePatchMessage(documentId, clientId, edits);
     }
 
+    @Override
+    public String diffAsJson(final JsonMergePatchEdit edit) {
+        return edit.diff() == null ? null : JsonMapper.toJson(edit.diff().jsonMergePatch());
+    }
+
     @Override
     public PatchMessage<JsonMergePatchEdit> patchMessageFromJson(String json) {
         return JsonMapper.fromJson(json, JsonMergePatchMessage.class);
@@ -97,6 +128,13 @@ public class JsonMergePatchServerSynchronizer implements ServerSynchronizer<Json
         }
     }
 
+    private String shadowChecksum(final JsonNode content) {
+        final long start = System.nanoTime();
+        final String checksum = checksum(content);
+        metrics.recordLatency(Stage.CHECKSUM, System.nanoTime() - start);
+        return checksum;
+    }
+
     public static String checksum(final JsonNode content) {
         try {
             final MessageDigest md = MessageDigest.getInstance( "SHA1" );
@@ -137,6 +137,11 @@ public class JsonPatchEdit implements Edit<JsonPatchDiff> {
             return this;
         }
 
+        public Builder diff(final JsonPatchDiff diff) {
+            this.diff = diff;
+            return this;
+        }
+
         public JsonPatchEdit build() {
             return new JsonPatchEdit(this);
         }
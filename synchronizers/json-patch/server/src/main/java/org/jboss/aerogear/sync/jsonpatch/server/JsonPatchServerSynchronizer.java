@@ -25,6 +25,9 @@ import org.jboss.aerogear.sync.DefaultShadowDocument;
 import org.jboss.aerogear.sync.Document;
 import org.jboss.aerogear.sync.PatchMessage;
 import org.jboss.aerogear.sync.ShadowDocument;
+import org.jboss.aerogear.sync.SyncMetrics;
+import org.jboss.aerogear.sync.SyncMetrics.Stage;
+import org.jboss.aerogear.sync.metrics.NoopSyncMetrics;
 import org.jboss.aerogear.sync.jsonpatch.JsonMapper;
 import org.jboss.aerogear.sync.jsonpatch.JsonPatchEdit;
 import org.jboss.aerogear.sync.jsonpatch.JsonPatchMessage;
@@ -41,12 +44,26 @@ import java.util.Queue;
 public class JsonPatchServerSynchronizer implements ServerSynchronizer<JsonNode, JsonPatchEdit> {
 
     private static final String UTF_8 = Charset.forName("UTF-8").displayName();
+    private final SyncMetrics metrics;
+
+    public JsonPatchServerSynchronizer() {
+        this(NoopSyncMetrics.INSTANCE);
+    }
+
+    /**
+     * Creates a synchronizer that records the time spent calculating checksums.
+     *
+     * @param metrics the {@link SyncMetrics} to record measurements to.
+     */
+    public JsonPatchServerSynchronizer(final SyncMetrics metrics) {
+        this.metrics = metrics;
+    }
 
     @Override
     public JsonPatchEdit clientDiff(final Document<JsonNode> document, final ShadowDocument<JsonNode> shadowDocument) {
         final JsonNode shadowObject = shadowDocument.document().content();
         return JsonPatchEdit.withPatch(JsonDiff.asJsonPatch(document.content(), shadowObject))
-                .checksum(checksum(shadowObject))
+                .checksum(shadowChecksum(shadowObject))
                 .build();
     }
 
@@ -56,7 +73,16 @@ public class JsonPatchServerSynchronizer implements ServerSynchronizer<JsonNode,
         return JsonPatchEdit.withPatch(JsonDiff.asJsonPatch(shadowObject, document.content()))
                 .serverVersion(shadowDocument.serverVersion())
                 .clientVersion(shadowDocument.clientVersion())
-                .checksum(checksum(shadowObject))
+                .checksum(shadowChecksum(shadowObject))
+                .build();
+    }
+
+    @Override
+    public JsonPatchEdit copyEdit(final JsonPatchEdit edit, final ShadowDocument<JsonNode> shadowDocument) {
+        return JsonPatchEdit.withChecksum(edit.checksum())
+                .serverVersion(shadowDocument.serverVersion())
+                .clientVersion(shadowDocument.clientVersion())
+                .diff(edit.diff())
                 .build();
     }
 
@@ -80,6 +106,11 @@ public class JsonPatchServerSynchronizer implements ServerSynchronizer<JsonNode,
         return new JsonPatchMessage(documentId, clientId, edits);
     }
 
+    @Override
+    public String diffAsJson(final JsonPatchEdit edit) {
+        return edit.diff() == null ? null : JsonMapper.toJson(edit.diff().jsonPatch());
+    }
+
     @Override
     public PatchMessage<JsonPatchEdit> patchMessageFromJson(String json) {
         return JsonMapper.fromJson(json, JsonPatchMessage.class);
@@ -98,6 +129,13 @@ public class JsonPatchServerSynchronizer implements ServerSynchronizer<JsonNode,
         }
     }
 
+    private String shadowChecksum(final JsonNode content) {
+        final long start = System.nanoTime();
+        final String checksum = checksum(content);
+        metrics.recordLatency(Stage.CHECKSUM, System.nanoTime() - start);
+        return checksum;
+    }
+
     public static String checksum(final JsonNode content) {
         try {
             final MessageDigest md = MessageDigest.getInstance( "SHA1" );
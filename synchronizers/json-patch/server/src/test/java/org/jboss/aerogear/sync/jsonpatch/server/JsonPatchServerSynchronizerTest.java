@@ -34,6 +34,7 @@ import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.Queue;
 
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.notNullValue;
@@ -90,6 +91,13 @@ public class JsonPatchServerSynchronizerTest {
         assertThat(patchMessage.edits().peek().diff().jsonPatch().toString(), equalTo(patch.toString()));
     }
 
+    @Test
+    public void diffAsJson() {
+        final JsonPatchEdit edit = jsonPatchEdit(jsonPatch());
+        final PatchMessage<JsonPatchEdit> patchMessage = syncer.createPatchMessage("1234", "client1", asQueue(edit));
+        assertThat(patchMessage.asJson(), containsString("\"diffs\":" + syncer.diffAsJson(edit) + '}'));
+    }
+
     @Test
     public void patchDocument() {
         final String documentId = "1234";